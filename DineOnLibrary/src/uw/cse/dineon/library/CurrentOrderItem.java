@@ -45,7 +45,7 @@ public class CurrentOrderItem extends Storable {
 	 */
 	public CurrentOrderItem(ParseObject po) throws ParseException {
 		super(po);
-		this.mMenuItem = new MenuItem(po.getParseObject(MENUITEM));
+		this.mMenuItem = StorableIdentityMap.decode(MenuItem.class, po.getParseObject(MENUITEM));
 		this.mQuantity = po.getInt(QUANTITY);
 	}
 	
@@ -64,6 +64,7 @@ public class CurrentOrderItem extends Storable {
 	public void setQuantity(int quantity) {
 		if (quantity >= 0) {
 			this.mQuantity = quantity;
+			markDirty(QUANTITY);
 		}
 	}
 	
@@ -72,6 +73,7 @@ public class CurrentOrderItem extends Storable {
 	 */
 	public void incrementQuantity() {
 		this.mQuantity++;
+		markDirty(QUANTITY);
 	}
 	
 	/**
@@ -80,6 +82,7 @@ public class CurrentOrderItem extends Storable {
 	public void decrementQuantity() {
 		if (this.mQuantity > 0) {
 			this.mQuantity--;
+			markDirty(QUANTITY);
 		}
 	}
 	
@@ -98,6 +101,7 @@ public class CurrentOrderItem extends Storable {
 	public void setMenuItem(MenuItem item) {
 		if(item != null) {
 			this.mMenuItem = item;
+			markDirty(MENUITEM);
 		}
 	}
 	
@@ -113,6 +117,19 @@ public class CurrentOrderItem extends Storable {
 		po.put(QUANTITY, this.mQuantity);
 		return po;
 	}
+
+	/**
+	 * Copies the menu item and quantity of newer.
+	 * @param newer Newer copy of this item
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		CurrentOrderItem item = (CurrentOrderItem) newer;
+		mMenuItem = item.mMenuItem;
+		mQuantity = item.mQuantity;
+		return true;
+	}
 	
 //	/**
 //	 * Writes this CurrentOrderItem to Parcel dest in the order:
@@ -59,7 +59,7 @@ public class CustomerRequest extends TimeableStorable {
 	public CustomerRequest(ParseObject parseObject) throws ParseException {
 		super(parseObject);
 		mDescription = parseObject.getString(DESCRIPTION);
-		mUserInfo = new UserInfo(parseObject.getParseObject(USER));
+		mUserInfo = StorableIdentityMap.decode(UserInfo.class, parseObject.getParseObject(USER));
 		if(mUserInfo == null) {
 			throw new IllegalArgumentException("Request could not be created with a null user.");
 		}
@@ -110,6 +110,17 @@ public class CustomerRequest extends TimeableStorable {
 		return po;
 	}
 
+	/**
+	 * Nothing of a request changes once it is made and its user
+	 * refreshes itself, so there is nothing to copy.
+	 * @param newer Newer copy of this request
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		return true;
+	}
+
 //	/**
 //	 * Creates a CustomerRequest object from the given Parcel.
 //	 * 
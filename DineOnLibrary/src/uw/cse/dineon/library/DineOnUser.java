@@ -72,7 +72,7 @@ public class DineOnUser extends Storable {
 	 */
 	public DineOnUser(ParseObject po) throws ParseException {
 		super(po);
-		mUserInfo = new UserInfo(po.getParseObject(USER_INFO));
+		mUserInfo = StorableIdentityMap.decode(UserInfo.class, po.getParseObject(USER_INFO));
 		mFavRestaurants = ParseUtil.toListOfStorables(
 				RestaurantInfo.class, po.getList(FAVORITE_RESTAURANTS)); 
 		mReservations = ParseUtil.toListOfStorables(
@@ -87,6 +87,24 @@ public class DineOnUser extends Storable {
 
 
 
+	/**
+	 * Copies the favorites, reservations, friends and dining session of newer.
+	 * @param newer Newer copy of this user
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		DineOnUser user = (DineOnUser) newer;
+		mFavRestaurants.clear();
+		mFavRestaurants.addAll(user.mFavRestaurants);
+		mReservations.clear();
+		mReservations.addAll(user.mReservations);
+		mFriendsLists.clear();
+		mFriendsLists.addAll(user.mFriendsLists);
+		mDiningSession = user.mDiningSession;
+		return true;
+	}
+
 	@Override
 	public ParseObject packObject() {
 		ParseObject pobj = super.packObject();
@@ -182,6 +200,7 @@ public class DineOnUser extends Storable {
 	 */
 	public void setDiningSession(DiningSession diningSession) {
 		this.mDiningSession = diningSession;
+		markDirty(DINING_SESSION);
 	}
 
 	/**
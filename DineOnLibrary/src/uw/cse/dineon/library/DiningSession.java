@@ -25,6 +25,9 @@ import com.parse.ParseObject;
  * Table Num of -2 = Pick up
  * etc...
  * 
+ * The lists returned by the getters are read only copies that are
+ * shared until the list changes.
+ * 
  * @author zachr81, mhotan
  */
 public class DiningSession extends TimeableStorable {
@@ -35,6 +38,22 @@ public class DiningSession extends TimeableStorable {
 	public static final String TABLE_ID = "tableId";
 	public static final String REQUESTS = "requests";
 	public static final String RESTAURANT_INFO = "rest";
+
+	/**
+	 * Highest table id a session can have.
+	 */
+	public static final int MAX_TABLE_ID = 1000;
+
+	/**
+	 * Keys of the nested objects to download along with a session.
+	 */
+	public static final String[] INCLUDES = {
+		USERS,
+		ORDERS,
+		ORDERS + "." + Order.USER_INFO,
+		REQUESTS,
+		REQUESTS + "." + CustomerRequest.USER
+	};
 	
 	
 	// list of users involved in this session
@@ -46,9 +65,33 @@ public class DiningSession extends TimeableStorable {
 	
 	private final RestaurantInfo mRest;
 
+	// Read only copies of the lists above
+	private final ListSnapshot<UserInfo> mUserSnapshot;
+	private final ListSnapshot<Order> mOrderSnapshot;
+	private final ListSnapshot<CustomerRequest> mRequestSnapshot;
+
 	// ID of table the dining is taking place at
 	private int mTableID;	
 
+	/**
+	 * Notified when this is refreshed in place, null if nobody is.
+	 */
+	private volatile RefreshListener mRefreshListener;
+
+	/**
+	 * Listener of a session that can change its table and users when it
+	 * is refreshed with a newer copy from the cloud.
+	 */
+	public interface RefreshListener {
+
+		/**
+		 * Called after session was refreshed in place.
+		 * Not called while the session is locked.
+		 * @param session Session that was refreshed
+		 */
+		void onRefreshed(DiningSession session);
+	}
+
 	/**
 	 * Creates a dining session instance that is associated to a particular table.
 	 * Takes current time as 
@@ -76,6 +119,9 @@ public class DiningSession extends TimeableStorable {
 		mOrders = new ArrayList<Order>();
 		mPendingRequests = new ArrayList<CustomerRequest>();
 		mRest = rInfo;
+		mUserSnapshot = new ListSnapshot<UserInfo>(mUsers, this);
+		mOrderSnapshot = new ListSnapshot<Order>(mOrders, this);
+		mRequestSnapshot = new ListSnapshot<CustomerRequest>(mPendingRequests, this);
 	}
 
 	/**
@@ -91,7 +137,11 @@ public class DiningSession extends TimeableStorable {
 		mUsers = ParseUtil.toListOfStorables(UserInfo.class, po.getList(USERS));
 		mOrders = ParseUtil.toListOfStorables(Order.class, po.getList(ORDERS));
 		mPendingRequests = ParseUtil.toListOfStorables(CustomerRequest.class, po.getList(REQUESTS));
-		mRest = new RestaurantInfo(po.getParseObject(RESTAURANT_INFO));
+		mRest = StorableIdentityMap.decode(
+				RestaurantInfo.class, po.getParseObject(RESTAURANT_INFO));
+		mUserSnapshot = new ListSnapshot<UserInfo>(mUsers, this);
+		mOrderSnapshot = new ListSnapshot<Order>(mOrders, this);
+		mRequestSnapshot = new ListSnapshot<CustomerRequest>(mPendingRequests, this);
 	}
 
 	/**
@@ -102,35 +152,82 @@ public class DiningSession extends TimeableStorable {
 	@Override
 	public ParseObject packObject() {
 		ParseObject po = super.packObject();
-		po.put(USERS, ParseUtil.toListOfParseObjects(mUsers));
-		po.put(ORDERS, ParseUtil.toListOfParseObjects(mOrders));
-		po.put(REQUESTS, ParseUtil.toListOfParseObjects(mPendingRequests));
-		po.put(RESTAURANT_INFO, this.mRest.packObject());
+		packList(po, USERS, mUsers);
+		packList(po, ORDERS, mOrders);
+		packList(po, REQUESTS, mPendingRequests);
+		// The restaurant never changes and saves its own information.
+		if (isDirty(RESTAURANT_INFO)) {
+			po.put(RESTAURANT_INFO, this.mRest.packObject());
+		}
 		po.put(TABLE_ID, mTableID);
 		return po;
 	}
 
+	/**
+	 * Copies the table, users, orders and requests of newer
+	 * and notifies the refresh listener.
+	 * @param newer Newer copy of this session
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		DiningSession session = (DiningSession) newer;
+		synchronized (this) {
+			mTableID = session.mTableID;
+			mUsers.clear();
+			mUsers.addAll(session.mUsers);
+			mUserSnapshot.changed();
+			mOrders.clear();
+			mOrders.addAll(session.mOrders);
+			mOrderSnapshot.changed();
+			mPendingRequests.clear();
+			mPendingRequests.addAll(session.mPendingRequests);
+			mRequestSnapshot.changed();
+		}
+		RefreshListener listener = mRefreshListener;
+		if (listener != null) {
+			listener.onRefreshed(this);
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the listener to notify when this is refreshed in place,
+	 * IE the restaurant that indexes this session by table and users.
+	 * @param listener Listener to notify, null for none
+	 */
+	public void setRefreshListener(RefreshListener listener) {
+		mRefreshListener = listener;
+	}
+
+	/**
+	 * @return Listener notified when this is refreshed in place, null if none
+	 */
+	public RefreshListener getRefreshListener() {
+		return mRefreshListener;
+	}
+
 	/**
 	 * Pending orders are defined as orders that have been placed
 	 * but not received by the customer.
-	 * @return A list of current pending orders
+	 * @return A read only list of current pending orders
 	 */
 	public List<Order> getOrders() {
-		return new ArrayList<Order>(mOrders);
+		return mOrderSnapshot.get();
 	}
 
 	/**
-	 * @return the users of the dining session.
+	 * @return the users of the dining session, read only.
 	 */
 	public List<UserInfo> getUsers() {
-		return new ArrayList<UserInfo>(mUsers);
+		return mUserSnapshot.get();
 	}
 	
 	/**
-	 * @return the requests of the dining session.
+	 * @return the requests of the dining session, read only.
 	 */
 	public List<CustomerRequest> getRequests() {
-		return new ArrayList<CustomerRequest>(mPendingRequests);
+		return mRequestSnapshot.get();
 	}
 
 	/**
@@ -159,8 +256,10 @@ public class DiningSession extends TimeableStorable {
 	 * Adds a order to be pending for this session.
 	 * @param order to add.
 	 */
-	public void addPendingOrder(Order order) {
+	public synchronized void addPendingOrder(Order order) {
 		mOrders.add(order);
+		mOrderSnapshot.changed();
+		markAdded(ORDERS, order);
 	}
 
 	/**
@@ -168,17 +267,20 @@ public class DiningSession extends TimeableStorable {
 	 * @param newId to set to 
 	 */
 	public void resetTableID(int newId) {
-		if(newId < 0 || newId > 1000) {
+		if(newId < 0 || newId > MAX_TABLE_ID) {
 			throw new IllegalArgumentException("Invalid tableId");
 		}
 		mTableID = newId;
+		markDirty(TABLE_ID);
 	}
 
 	/**
 	 * @param userInfo to add to the session
 	 */
-	public void addUser(UserInfo userInfo) {
+	public synchronized void addUser(UserInfo userInfo) {
 		this.mUsers.add(userInfo);
+		mUserSnapshot.changed();
+		markAdded(USERS, userInfo);
 	}
 
 	/**
@@ -186,8 +288,11 @@ public class DiningSession extends TimeableStorable {
 	 * he or she exists.
 	 * @param userInfo Information of User to remove
 	 */
-	public void removeUser(UserInfo userInfo) {
-		this.mUsers.remove(userInfo);
+	public synchronized void removeUser(UserInfo userInfo) {
+		if (this.mUsers.remove(userInfo)) {
+			mUserSnapshot.changed();
+			markRemoved(USERS, userInfo);
+		}
 	}
 
 	/**
@@ -195,15 +300,17 @@ public class DiningSession extends TimeableStorable {
 	 * 
 	 * @param request request to be added
 	 */
-	public void addRequest(CustomerRequest request) {
-
+	public synchronized void addRequest(CustomerRequest request) {
+		mPendingRequests.add(request);
+		mRequestSnapshot.changed();
+		markAdded(REQUESTS, request);
 	}
 
 	@Override
 	public void deleteFromCloud() {
 
 		// Delete all the request at this time
-		for (CustomerRequest r: mPendingRequests) {
+		for (CustomerRequest r: getRequests()) {
 			r.deleteFromCloud();
 		}
 
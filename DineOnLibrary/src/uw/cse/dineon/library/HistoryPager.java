@@ -0,0 +1,162 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Pages through the history of a restaurant in chronological order.
+ * Each page is downloaded with a single query that only touches the day
+ * partitions within the requested range.
+ *
+ * Pages continue from the time of the last record returned instead of
+ * skipping over the records already seen, so later pages are as cheap as
+ * the first one.
+ *
+ * NOTE: nextPage downloads from the network so do not call it on the
+ * main thread.
+ *
+ * @param <T> Type of the items in the history
+ */
+public class HistoryPager<T extends Storable> {
+
+	/**
+	 * Class of the items.
+	 */
+	private final Class<T> mClazz;
+
+	/**
+	 * Restaurant whose history to page through.
+	 */
+	private final ParseObject mRestaurant;
+
+	/**
+	 * Type of records to page through.
+	 */
+	private final String mType;
+
+	/**
+	 * Keys of the item to download along with it.
+	 */
+	private final String[] mIncludes;
+
+	/**
+	 * End of the range, exclusive.
+	 */
+	private final Date mTo;
+
+	/**
+	 * Number of items per page.
+	 */
+	private final int mPageSize;
+
+	/**
+	 * Time of the last record returned, start of the range before the
+	 * first page.
+	 */
+	private Date mFrom;
+
+	/**
+	 * Ids of the records returned that happened exactly at mFrom.
+	 */
+	private final List<String> mSeenAtFrom;
+
+	/**
+	 * Whether there may be more pages.
+	 */
+	private boolean mHasNext;
+
+	/**
+	 * Creates a pager over the history of restaurant.
+	 * @param clazz Class of the items
+	 * @param restaurant Restaurant whose history to page through
+	 * @param type Type of the records, IE HistoryRecord.TYPE_ORDER
+	 * @param from Start of the range, inclusive
+	 * @param to End of the range, exclusive
+	 * @param pageSize Number of items per page
+	 * @param includes Keys of the item to download with it
+	 */
+	HistoryPager(Class<T> clazz, ParseObject restaurant, String type,
+			Date from, Date to, int pageSize, String... includes) {
+		if (from == null || to == null) {
+			throw new IllegalArgumentException("History range needs a start and an end");
+		}
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		mClazz = clazz;
+		mRestaurant = restaurant;
+		mType = type;
+		mFrom = from;
+		mTo = to;
+		mPageSize = Math.min(pageSize, ParseUtil.MAX_QUERY_LIMIT);
+		mIncludes = includes;
+		mSeenAtFrom = new ArrayList<String>();
+		mHasNext = from.before(to);
+	}
+
+	/**
+	 * @return false if there are definitely no more pages.
+	 */
+	public synchronized boolean hasNextPage() {
+		return mHasNext;
+	}
+
+	/**
+	 * @return Maximum number of items per page
+	 */
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * Downloads the next page of items.
+	 * NOTE: Do not call on the main thread.
+	 * @return The next page of items, empty if there are no more.
+	 * @throws ParseException if the page could not be downloaded
+	 */
+	public synchronized List<T> nextPage() throws ParseException {
+		List<T> page = new ArrayList<T>();
+		if (!mHasNext) {
+			return page;
+		}
+
+		StorageQuery query = new StorageQuery(HistoryRecord.class.getSimpleName());
+		query.whereEqualTo(HistoryRecord.RESTAURANT, mRestaurant);
+		query.whereEqualTo(HistoryRecord.TYPE, mType);
+		// Only look in the day partitions of the range
+		query.whereGreaterThanOrEqualTo(HistoryRecord.DAY, HistoryRecord.dayOf(mFrom));
+		query.whereLessThanOrEqualTo(HistoryRecord.DAY, HistoryRecord.dayOf(mTo));
+		query.whereGreaterThanOrEqualTo(HistoryRecord.TIME, mFrom);
+		query.whereLessThan(HistoryRecord.TIME, mTo);
+		if (!mSeenAtFrom.isEmpty()) {
+			query.whereNotContainedIn(ParseUtil.OBJECT_ID, mSeenAtFrom);
+		}
+		query.orderByAscending(HistoryRecord.TIME);
+		query.include(HistoryRecord.ITEM);
+		for (String include: mIncludes) {
+			query.include(HistoryRecord.ITEM + "." + include);
+		}
+		query.setLimit(mPageSize);
+
+		List<ParseObject> found = Storable.getBackend().find(query);
+		for (ParseObject po: found) {
+			HistoryRecord record = new HistoryRecord(po);
+			page.add(record.getItem(mClazz));
+
+			// Continue after this record next time
+			if (!record.getTime().equals(mFrom)) {
+				mFrom = record.getTime();
+				mSeenAtFrom.clear();
+			}
+			mSeenAtFrom.add(record.getObjId());
+		}
+		mHasNext = found.size() == mPageSize;
+		return page;
+	}
+}
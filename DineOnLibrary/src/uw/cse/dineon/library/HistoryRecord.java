@@ -0,0 +1,186 @@
+package uw.cse.dineon.library;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * A single entry of a restaurant's history, IE a completed order or a
+ * user that visited.  History is stored as one record per entry instead of
+ * as lists inside the Restaurant so the restaurant stays small no matter
+ * how long it has been open.
+ *
+ * Records are partitioned by the day they happened on so the history
+ * can be queried one day or a range of days at a time.
+ */
+public class HistoryRecord extends Storable {
+
+	// Parse used Keys
+	public static final String RESTAURANT = "restaurant";
+	public static final String TYPE = "historyType";
+	public static final String ITEM = "historyItem";
+	public static final String DAY = "historyDay";
+	public static final String TIME = "historyTime";
+
+	/**
+	 * Type of a record of a completed order.
+	 */
+	public static final String TYPE_ORDER = "order";
+
+	/**
+	 * Type of a record of a user that visited.
+	 */
+	public static final String TYPE_USER = "user";
+
+	/**
+	 * Time zone days are partitioned in.
+	 */
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	/**
+	 * Restaurant this record belongs to.
+	 */
+	private final ParseObject mRestaurant;
+
+	/**
+	 * Type of this record.
+	 */
+	private final String mType;
+
+	/**
+	 * Reference to the item this record is about.
+	 */
+	private final ParseObject mItem;
+
+	/**
+	 * Time this record happened at.
+	 */
+	private final Date mTime;
+
+	/**
+	 * Creates a record of a completed order.
+	 * The record happened at the time the order was placed.
+	 * @param restaurant Restaurant the order was placed at
+	 * @param order Order that was completed
+	 * @return new record
+	 */
+	public static HistoryRecord forOrder(Restaurant restaurant, Order order) {
+		return new HistoryRecord(restaurant, TYPE_ORDER, order, order.getOriginatingTime());
+	}
+
+	/**
+	 * Creates a record of a user that visited.
+	 * @param restaurant Restaurant the user visited
+	 * @param user User that visited
+	 * @param time Time the user left
+	 * @return new record
+	 */
+	public static HistoryRecord forUser(Restaurant restaurant, UserInfo user, Date time) {
+		return new HistoryRecord(restaurant, TYPE_USER, user, time);
+	}
+
+	/**
+	 * Creates a new record.
+	 * @param restaurant Restaurant this record belongs to
+	 * @param type Type of the record
+	 * @param item Item the record is about
+	 * @param time Time the record happened at, current time if null
+	 */
+	private HistoryRecord(Restaurant restaurant, String type, Storable item, Date time) {
+		super(HistoryRecord.class);
+		if (restaurant == null || item == null) {
+			throw new IllegalArgumentException("History record needs a restaurant and an item");
+		}
+		mRestaurant = restaurant.mCompleteObject;
+		mType = type;
+		mItem = item.mCompleteObject;
+		mTime = time == null ? new Date() : time;
+	}
+
+	/**
+	 * Creates a record from a ParseObject.
+	 * @param po Parse object to build from
+	 * @throws ParseException if the record can't be read from po
+	 */
+	public HistoryRecord(ParseObject po) throws ParseException {
+		super(po);
+		mRestaurant = po.getParseObject(RESTAURANT);
+		mType = po.getString(TYPE);
+		mItem = po.getParseObject(ITEM);
+		mTime = po.getDate(TIME);
+	}
+
+	/**
+	 * Records never change once they are stored.
+	 * @param newer Newer copy of this record
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		return true;
+	}
+
+	@Override
+	public ParseObject packObject() {
+		ParseObject po = super.packObject();
+		po.put(RESTAURANT, mRestaurant);
+		po.put(TYPE, mType);
+		po.put(ITEM, mItem);
+		po.put(DAY, dayOf(mTime));
+		po.put(TIME, mTime);
+		return po;
+	}
+
+	/**
+	 * @return Type of this record, IE TYPE_ORDER
+	 */
+	public String getType() {
+		return mType;
+	}
+
+	/**
+	 * @return Time this record happened at
+	 */
+	public Date getTime() {
+		return mTime;
+	}
+
+	/**
+	 * @return Day this record happened on, see dayOf
+	 */
+	public int getDay() {
+		return dayOf(mTime);
+	}
+
+	/**
+	 * Returns the item this record is about.
+	 * NOTE: May download the item, do not call on the main thread.
+	 * @param <T> Type of the item
+	 * @param clazz Class of the item, IE Order.class for TYPE_ORDER
+	 * @return The item
+	 */
+	public <T extends Storable> T getItem(Class<T> clazz) {
+		return ParseUtil.parseObjectToClass(clazz, mItem);
+	}
+
+	/**
+	 * Returns the day partition that date falls in, as year * 10000 +
+	 * month * 100 + day of month in UTC.  IE 20130315.
+	 * Days compare in the same order as the dates they contain and are
+	 * the same on every device no matter what time zone it is set to.
+	 * @param date Date to find the day of
+	 * @return Day of date
+	 */
+	public static int dayOf(Date date) {
+		Calendar cal = Calendar.getInstance(UTC);
+		cal.setTime(date);
+		return cal.get(Calendar.YEAR) * 10000
+				+ (cal.get(Calendar.MONTH) + 1) * 100
+				+ cal.get(Calendar.DAY_OF_MONTH);
+	}
+}
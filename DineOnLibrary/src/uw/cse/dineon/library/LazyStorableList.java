@@ -0,0 +1,204 @@
+package uw.cse.dineon.library;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
+import com.parse.ParseObject;
+
+/**
+ * List of Storables that is backed by the raw Parse references of a
+ * parent object.  None of the children are downloaded until the list is
+ * first read or explicitly loaded.  This allows large aggregates like the
+ * Restaurant to be built in a single round trip and only hydrate the
+ * children a particular screen needs.
+ *
+ * Packing an unloaded list does not download anything, the original
+ * pointers are handed back as is.  Appending to an unloaded list does not
+ * download anything either, so history lists that are only ever added to 
+ * stay cheap.
+ *
+ * NOTE: Loading downloads from the network so avoid reading an unloaded
+ * list on the main thread.  Use load() from a background thread instead.
+ * Calling load() does not hold the lock of the list while downloading,
+ * so other threads can still append to or pack the list meanwhile.
+ *
+ * @param <T> Storable type of the elements
+ */
+public class LazyStorableList<T extends Storable> extends AbstractList<T> {
+
+	/**
+	 * Class of the elements.
+	 */
+	private final Class<T> mClazz;
+
+	/**
+	 * Raw references to the elements in the cloud.
+	 * Null once this list has been loaded.
+	 */
+	private List<Object> mReferences;
+
+	/**
+	 * Loaded elements. Null until this list has been loaded.
+	 */
+	private List<T> mElements;
+
+	/**
+	 * Elements appended while this list was not loaded yet.
+	 */
+	private final List<T> mAppended;
+
+	/**
+	 * Creates a lazy list of elements of type clazz that are referenced by
+	 * references.
+	 * @param clazz Class of the elements
+	 * @param references List of ParseObjects that reference each element,
+	 * 	null is treated as empty
+	 */
+	public LazyStorableList(Class<T> clazz, List<Object> references) {
+		if (clazz == null) {
+			throw new IllegalArgumentException("Null class for lazy list");
+		}
+		mClazz = clazz;
+		mReferences = references == null ? new ArrayList<Object>()
+				: new ArrayList<Object>(references);
+		mAppended = new ArrayList<T>();
+	}
+
+	/**
+	 * @return true if all the elements have been downloaded and built.
+	 */
+	public synchronized boolean isLoaded() {
+		return mElements != null;
+	}
+
+	/**
+	 * Downloads and builds all the elements of this list if it has not
+	 * done so already.
+	 * NOTE: Do not call on the main thread.
+	 * @return This list for chaining.
+	 */
+	public LazyStorableList<T> load() {
+		List<Object> references;
+		synchronized (this) {
+			if (mElements != null) {
+				return this;
+			}
+			references = new ArrayList<Object>(mReferences);
+		}
+
+		List<T> elements = ParseUtil.toListOfStorables(mClazz, references);
+
+		synchronized (this) {
+			// The references never change before the list is loaded.
+			// If another thread loaded or cleared it meanwhile keep that.
+			if (mElements == null) {
+				elements.addAll(mAppended);
+				mElements = elements;
+				mAppended.clear();
+				mReferences = null;
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the ParseObject representation of this list.
+	 * If the list has not been loaded then the original references are
+	 * returned without downloading anything.
+	 * @return List of ParseObjects for packing.
+	 */
+	public synchronized List<ParseObject> toParseObjects() {
+		if (mElements != null) {
+			return ParseUtil.toListOfParseObjects(mElements);
+		}
+		List<ParseObject> pObjects = new ArrayList<ParseObject>(
+				mReferences.size() + mAppended.size());
+		for (Object o: mReferences) {
+			pObjects.add((ParseObject) o);
+		}
+		pObjects.addAll(ParseUtil.toListOfParseObjects(mAppended));
+		return pObjects;
+	}
+
+	/**
+	 * Replaces the elements of this list with the elements of newer.
+	 * If newer is a lazy list that has not been loaded this list takes
+	 * over its references, so nothing is downloaded either way.
+	 * @param newer List whose elements to take
+	 */
+	void replaceWith(List<T> newer) {
+		List<Object> references = null;
+		List<T> elements = null;
+		List<T> appended = new ArrayList<T>();
+		if (newer instanceof LazyStorableList) {
+			LazyStorableList<T> lazy = (LazyStorableList<T>) newer;
+			synchronized (lazy) {
+				if (lazy.mElements != null) {
+					elements = new ArrayList<T>(lazy.mElements);
+				} else {
+					references = new ArrayList<Object>(lazy.mReferences);
+					appended.addAll(lazy.mAppended);
+				}
+			}
+		} else {
+			elements = new ArrayList<T>(newer);
+		}
+
+		synchronized (this) {
+			mReferences = references;
+			mElements = elements;
+			mAppended.clear();
+			mAppended.addAll(appended);
+			modCount++;
+		}
+	}
+
+	@Override
+	public synchronized T get(int index) {
+		return load().mElements.get(index);
+	}
+
+	@Override
+	public synchronized int size() {
+		// Size is known without downloading anything.
+		if (mElements == null) {
+			return mReferences.size() + mAppended.size();
+		}
+		return mElements.size();
+	}
+
+	@Override
+	public synchronized T set(int index, T element) {
+		return load().mElements.set(index, element);
+	}
+
+	@Override
+	public synchronized void add(int index, T element) {
+		if (mElements == null && index == size()) {
+			// Appending does not require anything to be downloaded.
+			mAppended.add(element);
+		} else {
+			load().mElements.add(index, element);
+		}
+		modCount++;
+	}
+
+	@Override
+	public synchronized T remove(int index) {
+		T removed = load().mElements.remove(index);
+		modCount++;
+		return removed;
+	}
+
+	@Override
+	public synchronized void clear() {
+		// No need to download anything just to throw it away.
+		mElements = new ArrayList<T>();
+		mAppended.clear();
+		mReferences = null;
+		modCount++;
+	}
+}
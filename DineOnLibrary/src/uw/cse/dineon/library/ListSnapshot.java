@@ -0,0 +1,77 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read only copy of a list that is shared until the list changes.
+ *
+ * Getters hand out the same unmodifiable copy to every caller so reading
+ * a list that did not change allocates nothing.  Once the owner changes
+ * the list it calls changed() and the next read makes a new copy.
+ * Copies that were handed out before never change, so callers can
+ * iterate them on any thread while the owner keeps changing the list.
+ *
+ * The owner has to change the list and call changed() while holding
+ * lock.  Copies are made while holding lock as well so a copy never
+ * sees half of a change.  Lists that are downloaded lazily, see
+ * LazyStorableList, are downloaded before taking lock.
+ *
+ * @param <T> Type of the elements
+ */
+class ListSnapshot<T> {
+
+	/**
+	 * List to copy.
+	 */
+	private final List<T> mList;
+
+	/**
+	 * Lock the owner holds while changing the list.
+	 */
+	private final Object mLock;
+
+	/**
+	 * Current copy of the list, null if the list changed since.
+	 */
+	private volatile List<T> mCopy;
+
+	/**
+	 * Creates a snapshot of list.
+	 * @param list List to copy
+	 * @param lock Lock the owner holds while changing list
+	 */
+	ListSnapshot(List<T> list, Object lock) {
+		mList = list;
+		mLock = lock;
+	}
+
+	/**
+	 * @return Unmodifiable copy of the list as of the last change
+	 */
+	List<T> get() {
+		List<T> copy = mCopy;
+		if (copy != null) {
+			return copy;
+		}
+		if (mList instanceof LazyStorableList) {
+			// Nobody has to wait on the lock while this downloads
+			((LazyStorableList<?>) mList).load();
+		}
+		synchronized (mLock) {
+			if (mCopy == null) {
+				mCopy = Collections.unmodifiableList(new ArrayList<T>(mList));
+			}
+			return mCopy;
+		}
+	}
+
+	/**
+	 * Notifies this snapshot that the list changed.
+	 * Must be called while holding the lock.
+	 */
+	void changed() {
+		mCopy = null;
+	}
+}
@@ -73,6 +73,14 @@ public abstract class LocatableStorable extends Storable {
 		return po;
 	}
 
+	/**
+	 * Copies the location of newer, used by subclasses that refresh in place.
+	 * @param newer Newer copy of this object
+	 */
+	protected void refreshLocation(LocatableStorable newer) {
+		mLocation = newer.mLocation;
+	}
+
 	/**
 	 * Sets the current location of this object.
 	 * @param longitude longitude of this object
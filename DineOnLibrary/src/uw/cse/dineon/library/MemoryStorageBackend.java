@@ -0,0 +1,520 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.store.ParseObjectCodec;
+import uw.cse.dineon.library.util.ParseUtil;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.parse.GetCallback;
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery.CachePolicy;
+import com.parse.SaveCallback;
+
+/**
+ * Storage backend that keeps every object in memory instead of the cloud.
+ * Used to run the order and session flows without a network, IE for
+ * throughput and latency benchmarks.
+ *
+ * Objects are stored encoded the same way LocalStore stores them, so
+ * downloads return new copies just like the cloud does.  Every object
+ * gets an object id and creation and update times when it is saved.
+ * The update time of an object only changes when its fields changed.
+ *
+ * Every call waits for an artificial latency first to simulate the
+ * round trip to the cloud.  Background calls run on a pool of threads
+ * and notify their callbacks on the main thread like Parse does.
+ *
+ * Saved objects keep their pending operations since Parse offers no
+ * way to clear them, so list operations are not supported.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+
+	/**
+	 * Default number of threads that run background calls.
+	 */
+	public static final int DEFAULT_THREADS = 4;
+
+	/**
+	 * Stored objects keyed by class name and object id.
+	 */
+	private final Map<String, Record> mObjects;
+
+	/**
+	 * Runs background calls.
+	 */
+	private final ExecutorService mExecutor;
+
+	/**
+	 * Handler of the main thread to notify callbacks with.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Source of object ids.
+	 */
+	private final AtomicLong mNextId;
+
+	/**
+	 * Time in milliseconds every call waits before it runs.
+	 */
+	private volatile long mLatency;
+
+	// Number of calls that completed
+	private final AtomicInteger mSaves;
+	private final AtomicInteger mDeletes;
+	private final AtomicInteger mReads;
+
+	/**
+	 * Creates an empty backend with the default number of threads.
+	 * @param latency Time in milliseconds every call waits before it runs
+	 */
+	public MemoryStorageBackend(long latency) {
+		this(latency, DEFAULT_THREADS);
+	}
+
+	/**
+	 * Creates an empty backend.
+	 * @param latency Time in milliseconds every call waits before it runs
+	 * @param threads Number of threads that run background calls
+	 */
+	public MemoryStorageBackend(long latency, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("Need at least one thread");
+		}
+		setLatency(latency);
+		mObjects = new ConcurrentHashMap<String, Record>();
+		mExecutor = Executors.newFixedThreadPool(threads);
+		mHandler = new Handler(Looper.getMainLooper());
+		mNextId = new AtomicLong();
+		mSaves = new AtomicInteger();
+		mDeletes = new AtomicInteger();
+		mReads = new AtomicInteger();
+	}
+
+	/**
+	 * @param latency Time in milliseconds every call waits before it runs
+	 */
+	public void setLatency(long latency) {
+		if (latency < 0) {
+			throw new IllegalArgumentException("Latency can't be negative");
+		}
+		mLatency = latency;
+	}
+
+	/**
+	 * @return Time in milliseconds every call waits before it runs
+	 */
+	public long getLatency() {
+		return mLatency;
+	}
+
+	/**
+	 * @return Number of saves that completed
+	 */
+	public int getSaveCount() {
+		return mSaves.get();
+	}
+
+	/**
+	 * @return Number of deletes that completed
+	 */
+	public int getDeleteCount() {
+		return mDeletes.get();
+	}
+
+	/**
+	 * @return Number of round trips of fetches, gets and queries that completed
+	 */
+	public int getReadCount() {
+		return mReads.get();
+	}
+
+	/**
+	 * @return Number of objects stored
+	 */
+	public int size() {
+		return mObjects.size();
+	}
+
+	/**
+	 * Removes every stored object.
+	 */
+	public void clear() {
+		mObjects.clear();
+	}
+
+	/**
+	 * Stops the threads of this backend.  Background calls
+	 * made after this are rejected.
+	 */
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	@Override
+	public void save(ParseObject object) throws ParseException {
+		delay();
+		List<ParseObject> objects = new ArrayList<ParseObject>();
+		Set<ParseObject> seen = Collections.newSetFromMap(
+				new IdentityHashMap<ParseObject, Boolean>());
+		collect(object, seen, objects);
+
+		Date now = new Date();
+		try {
+			for (ParseObject po: objects) {
+				store(po, now);
+			}
+		} catch (JSONException e) {
+			throw new ParseException(ParseException.OTHER_CAUSE,
+					"Unable to save " + object.getClassName() + ": " + e.getMessage());
+		}
+		mSaves.incrementAndGet();
+	}
+
+	@Override
+	public void saveInBackground(final ParseObject object, final SaveCallback callback) {
+		mExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				ParseException error = null;
+				try {
+					save(object);
+				} catch (ParseException e) {
+					error = e;
+				}
+				notifyDone(callback, error);
+			}
+		});
+	}
+
+	@Override
+	public void saveEventually(ParseObject object, SaveCallback callback) {
+		// Memory is always available
+		saveInBackground(object, callback);
+	}
+
+	@Override
+	public void deleteInBackground(final ParseObject object) {
+		final String KEY = keyOf(object.getClassName(), object.getObjectId());
+		mExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				delay();
+				if (KEY != null) {
+					mObjects.remove(KEY);
+				}
+				mDeletes.incrementAndGet();
+			}
+		});
+	}
+
+	@Override
+	public void deleteAllInBackground(final StorageQuery query) {
+		mExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				delay();
+				mReads.incrementAndGet();
+				String prefix = keyOf(query.getClassName(), "");
+				for (Map.Entry<String, Record> entry: mObjects.entrySet()) {
+					if (!entry.getKey().startsWith(prefix)) {
+						continue;
+					}
+					try {
+						if (!query.matches(decode(query.getClassName(), entry.getValue()))) {
+							continue;
+						}
+					} catch (ParseException e) {
+						continue;
+					}
+					mObjects.remove(entry.getKey());
+					mDeletes.incrementAndGet();
+				}
+			}
+		});
+	}
+
+	@Override
+	public void fetchIfNeeded(ParseObject object) throws ParseException {
+		if (object.isDataAvailable()) {
+			return;
+		}
+		// Objects from this backend always come with their nested objects.
+		// A pointer can't be filled in from outside of Parse.
+		throw new ParseException(ParseException.OBJECT_NOT_FOUND,
+				"Can't fetch " + object.getClassName() + " pointer from memory");
+	}
+
+	@Override
+	public ParseObject get(String className, String objId, String... includes)
+			throws ParseException {
+		ParseObject found = getIfUpdatedSince(className, objId, null, includes);
+		if (found == null) {
+			throw new ParseException(ParseException.OBJECT_NOT_FOUND,
+					"No " + className + " with id " + objId);
+		}
+		return found;
+	}
+
+	@Override
+	public ParseObject getIfUpdatedSince(String className, String objId, Date since,
+			String... includes) throws ParseException {
+		delay();
+		String key = keyOf(className, objId);
+		Record record = key == null ? null : mObjects.get(key);
+		mReads.incrementAndGet();
+		if (record == null || (since != null && !record.mUpdatedAt.after(since))) {
+			return null;
+		}
+		return decode(className, record);
+	}
+
+	@Override
+	public void getInBackground(final String className, final String objId,
+			CachePolicy policy, final GetCallback callback) {
+		mExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				ParseObject found = null;
+				ParseException error = null;
+				try {
+					found = get(className, objId);
+				} catch (ParseException e) {
+					error = e;
+				}
+				final ParseObject FOUND = found;
+				final ParseException ERROR = error;
+				mHandler.post(new Runnable() {
+
+					@Override
+					public void run() {
+						callback.done(FOUND, ERROR);
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public List<ParseObject> getAll(String className, Collection<String> objIds,
+			String... includes) throws ParseException {
+		List<ParseObject> found = new ArrayList<ParseObject>(objIds.size());
+		// Same number of round trips as the cloud needs
+		for (int i = 0; i < objIds.size(); i += ParseUtil.MAX_QUERY_LIMIT) {
+			delay();
+			mReads.incrementAndGet();
+		}
+		for (String objId: objIds) {
+			String key = keyOf(className, objId);
+			Record record = key == null ? null : mObjects.get(key);
+			if (record != null) {
+				found.add(decode(className, record));
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public List<ParseObject> find(StorageQuery query) throws ParseException {
+		delay();
+		mReads.incrementAndGet();
+		String prefix = keyOf(query.getClassName(), "");
+		List<ParseObject> objects = new ArrayList<ParseObject>();
+		for (Map.Entry<String, Record> entry: mObjects.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				objects.add(decode(query.getClassName(), entry.getValue()));
+			}
+		}
+		return query.filter(objects);
+	}
+
+	@Override
+	public String findSaved(String className, String key) throws ParseException {
+		delay();
+		mReads.incrementAndGet();
+		String prefix = keyOf(className, "");
+		for (Map.Entry<String, Record> entry: mObjects.entrySet()) {
+			if (!entry.getKey().startsWith(prefix)) {
+				continue;
+			}
+			try {
+				JSONObject json = new JSONObject(entry.getValue().mJSON);
+				if (key.equals(json.optString(ParseUtil.SAVE_KEY, null))) {
+					return entry.getKey().substring(prefix.length());
+				}
+			} catch (JSONException e) {
+				throw new ParseException(ParseException.OTHER_CAUSE,
+						"Unable to decode " + className + ": " + e.getMessage());
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public boolean supportsListOperations() {
+		return false;
+	}
+
+	/**
+	 * Stores the current state of po.  Its update time only changes
+	 * if it changed since it was last stored.
+	 * @param po Object to store, must have an object id
+	 * @param now Time of the save
+	 * @throws JSONException if po can't be encoded
+	 */
+	private void store(ParseObject po, Date now) throws JSONException {
+		JSONObject json = ParseObjectCodec.encode(po);
+		ParseObjectCodec.setTimes(json, null, null);
+		String encoded = json.toString();
+		String key = keyOf(po.getClassName(), po.getObjectId());
+
+		synchronized (mObjects) {
+			Record old = mObjects.get(key);
+			if (old == null) {
+				mObjects.put(key, new Record(encoded, now, now));
+			} else if (!old.mJSON.equals(encoded)) {
+				mObjects.put(key, new Record(encoded, old.mCreatedAt, now));
+			}
+		}
+	}
+
+	/**
+	 * Adds value and every object nested in it that has its data to
+	 * objects.  Objects that were never saved get an object id.
+	 * @param value Value to search
+	 * @param seen Objects that were already searched
+	 * @param objects Objects to store
+	 */
+	private void collect(Object value, Set<ParseObject> seen, List<ParseObject> objects) {
+		if (value instanceof ParseObject) {
+			ParseObject po = (ParseObject) value;
+			if (!seen.add(po) || !po.isDataAvailable()) {
+				return;
+			}
+			synchronized (po) {
+				if (po.getObjectId() == null) {
+					po.setObjectId(String.format("m%09d", mNextId.incrementAndGet()));
+				}
+			}
+			objects.add(po);
+			for (String key: po.keySet()) {
+				collect(po.get(key), seen, objects);
+			}
+		} else if (value instanceof List) {
+			for (Object element: (List<?>) value) {
+				collect(element, seen, objects);
+			}
+		} else if (value instanceof Map) {
+			for (Object element: ((Map<?, ?>) value).values()) {
+				collect(element, seen, objects);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds a stored object.
+	 * @param className Class of the object
+	 * @param record Stored state of the object
+	 * @return New copy of the object with its times
+	 * @throws ParseException if the object can't be decoded
+	 */
+	private static ParseObject decode(String className, Record record) throws ParseException {
+		try {
+			JSONObject json = new JSONObject(record.mJSON);
+			ParseObjectCodec.setTimes(json, record.mCreatedAt, record.mUpdatedAt);
+			return ParseObjectCodec.decode(json);
+		} catch (JSONException e) {
+			throw new ParseException(ParseException.OTHER_CAUSE,
+					"Unable to decode " + className + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Waits for the artificial latency.
+	 */
+	private void delay() {
+		long latency = mLatency;
+		if (latency == 0) {
+			return;
+		}
+		try {
+			Thread.sleep(latency);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Notifies callback of a completed save on the main thread.
+	 * @param callback Callback to notify, can be null
+	 * @param error Error of the save, null if it succeeded
+	 */
+	private void notifyDone(final SaveCallback callback, final ParseException error) {
+		if (callback == null) {
+			return;
+		}
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				callback.done(error);
+			}
+		});
+	}
+
+	/**
+	 * @param className Class name of an object
+	 * @param objId Object id of the object
+	 * @return Key the object is stored under, null if it has no id
+	 */
+	private static String keyOf(String className, String objId) {
+		if (objId == null) {
+			return null;
+		}
+		return className + "/" + objId;
+	}
+
+	/**
+	 * Stored state of a single object.
+	 */
+	private static class Record {
+
+		private final String mJSON;
+		private final Date mCreatedAt;
+		private final Date mUpdatedAt;
+
+		/**
+		 * Creates a record.
+		 * @param json Encoded object without times
+		 * @param createdAt Time the object was first stored
+		 * @param updatedAt Time the object last changed
+		 */
+		Record(String json, Date createdAt, Date updatedAt) {
+			mJSON = json;
+			mCreatedAt = createdAt;
+			mUpdatedAt = updatedAt;
+		}
+	}
+}
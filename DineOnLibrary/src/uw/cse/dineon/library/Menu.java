@@ -66,6 +66,7 @@ public class Menu extends Storable {
 	 */
 	public void setName(String name) {
 		this.mName = name;
+		markDirty(NAME);
 	}
 
 	/**
@@ -139,6 +140,20 @@ public class Menu extends Storable {
 		return po;
 	}
 
+	/**
+	 * Copies the name and items of newer.
+	 * @param newer Newer copy of this menu
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		Menu menu = (Menu) newer;
+		mName = menu.mName;
+		mItems.clear();
+		mItems.addAll(menu.mItems);
+		return true;
+	}
+
 	/**
 	 * Return the menu name for string.
 	 * @return String name of the menu
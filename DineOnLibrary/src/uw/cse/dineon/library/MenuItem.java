@@ -18,12 +18,14 @@ public class MenuItem extends Storable {
 	private static final String DESCRIPTION = "description";
 	private static final String TITLE = "menuItemTitle";
 	private static final String IMAGE = "dineOnImage";
+	private static final String PREP_TIME = "prepTime";
 
 	private int mProductID;		// ID of this product
 	private double mPrice;
 	private String mTitle; // price of this product
 	private String mDescription;	// description of this product
 	private DineOnImage mImage;
+	private int mPrepTime;	// minutes it takes to prepare, 0 if unknown
 
 	/**
 	 * Creates a new MenuItem with the given parameters.
@@ -56,9 +58,10 @@ public class MenuItem extends Storable {
 		mPrice = po.getDouble(PRICE);
 		mDescription = po.getString(DESCRIPTION);
 		mTitle = po.getString(TITLE);
+		mPrepTime = po.getInt(PREP_TIME);
 		ParseObject imageParseObject = po.getParseObject(IMAGE);
 		if (imageParseObject != null) {
-			mImage = new DineOnImage(imageParseObject);
+			mImage = StorableIdentityMap.decode(DineOnImage.class, imageParseObject);
 		}
 	}
 	
@@ -68,6 +71,7 @@ public class MenuItem extends Storable {
 	 */
 	public void setImage(DineOnImage image) {
 		mImage = image;
+		markDirty(IMAGE);
 	}
 
 	/**
@@ -90,7 +94,8 @@ public class MenuItem extends Storable {
 	 */
 	public void setProductID(int productID) {
 		if(productID > -1) {	// or some other arbitrary value
-			this.mProductID = productID;			
+			this.mProductID = productID;
+			markDirty(PRODUCT_ID);
 		}
 	}
 
@@ -106,6 +111,7 @@ public class MenuItem extends Storable {
 	 */
 	public void setTitle(String title) {
 		mTitle = title;
+		markDirty(TITLE);
 	}
 
 	/**
@@ -124,6 +130,7 @@ public class MenuItem extends Storable {
 			throw new IllegalArgumentException("Price cannot be negative.");
 		}
 		this.mPrice = price;
+		markDirty(PRICE);
 	}
 
 	/**
@@ -139,9 +146,28 @@ public class MenuItem extends Storable {
 	public void setDescription(String description) {
 		if(description != null) {
 			this.mDescription = description;
+			markDirty(DESCRIPTION);
 		}
 	}
 
+	/**
+	 * @return Minutes it takes to prepare this item, 0 if unknown
+	 */
+	public int getPrepTime() {
+		return mPrepTime;
+	}
+
+	/**
+	 * @param minutes Minutes it takes to prepare this item, 0 if unknown
+	 */
+	public void setPrepTime(int minutes) {
+		if(minutes < 0) {
+			throw new IllegalArgumentException("Prep time cannot be negative.");
+		}
+		this.mPrepTime = minutes;
+		markDirty(PREP_TIME);
+	}
+
 	/**
 	 * Packs this MenuItem into a ParseObject to be stored.
 	 * 
@@ -154,11 +180,29 @@ public class MenuItem extends Storable {
 		pobj.put(PRICE, mPrice);
 		pobj.put(DESCRIPTION, mDescription);
 		pobj.put(TITLE, mTitle);
+		pobj.put(PREP_TIME, mPrepTime);
 		if (mImage != null) {
 			pobj.put(IMAGE, mImage.packObject());
 		}
 		return pobj;
 	}
+
+	/**
+	 * Copies every field of newer.
+	 * @param newer Newer copy of this item
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		MenuItem item = (MenuItem) newer;
+		mProductID = item.mProductID;
+		mPrice = item.mPrice;
+		mTitle = item.mTitle;
+		mDescription = item.mDescription;
+		mImage = item.mImage;
+		mPrepTime = item.mPrepTime;
+		return true;
+	}
 //
 //	/**
 //	 * Creates a menu item from Parcel.
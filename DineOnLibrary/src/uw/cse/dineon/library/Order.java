@@ -1,6 +1,7 @@
 package uw.cse.dineon.library;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import uw.cse.dineon.library.util.ParseUtil;
@@ -23,6 +24,7 @@ public class Order extends TimeableStorable {
 	private final int mTableID;		// ID for table the order is from
 	private final UserInfo mUserInfo;			// Info of user who placed order
 	private final List<CurrentOrderItem> mMenuItems;	// list of items in this order
+	private final List<CurrentOrderItem> mReadOnlyItems;	// view of items handed out
 
 	/**
 	 * Creates a new Order object from the given parameters.
@@ -40,6 +42,7 @@ public class Order extends TimeableStorable {
 		this.mTableID = tableID;
 		this.mUserInfo = originator;
 		this.mMenuItems = new ArrayList<CurrentOrderItem>(menuItems);
+		this.mReadOnlyItems = Collections.unmodifiableList(mMenuItems);
 	}
 
 	/**
@@ -51,12 +54,13 @@ public class Order extends TimeableStorable {
 	public Order(ParseObject po) throws ParseException {
 		super(po);
 		mTableID = po.getInt(TABLE_ID);
-		mUserInfo = new UserInfo(po.getParseObject(USER_INFO));
+		mUserInfo = StorableIdentityMap.decode(UserInfo.class, po.getParseObject(USER_INFO));
 		if(mUserInfo == null) {
 			throw new IllegalArgumentException("Can't create order with null user.");	
 		}
 		
 		mMenuItems = ParseUtil.toListOfStorables(CurrentOrderItem.class, po.getList(MENU_ITEMS));
+		mReadOnlyItems = Collections.unmodifiableList(mMenuItems);
 
 	}
 
@@ -82,10 +86,12 @@ public class Order extends TimeableStorable {
 	}
 
 	/**
-	 * @return the menuItems
+	 * The items of an order never change so the same
+	 * read only list is returned every time.
+	 * @return the menuItems, read only
 	 */
 	public List<CurrentOrderItem> getMenuItems() {
-		return new ArrayList<CurrentOrderItem>(mMenuItems);
+		return mReadOnlyItems;
 	}
 
 	/**
@@ -102,6 +108,17 @@ public class Order extends TimeableStorable {
 		return po;
 	}
 
+	/**
+	 * Nothing of an order changes once it is placed and its user
+	 * refreshes itself, so there is nothing to copy.
+	 * @param newer Newer copy of this order
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		return true;
+	}
+
 //	/**
 //	 * Writes this Order to Parcel dest in the order:
 //	 * int, int, int, int, List<MenuItem>
@@ -0,0 +1,208 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
+import android.util.Log;
+
+import com.parse.DeleteCallback;
+import com.parse.FindCallback;
+import com.parse.GetCallback;
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseQuery.CachePolicy;
+import com.parse.SaveCallback;
+
+/**
+ * Storage backend that stores objects in the Parse cloud.
+ * This is the backend every Storable uses unless told otherwise.
+ */
+public class ParseStorageBackend implements StorageBackend {
+
+	private static final String TAG = ParseStorageBackend.class.getSimpleName();
+
+	/**
+	 * Cache policy of downloads.
+	 */
+	private final CachePolicy mPolicy;
+
+	/**
+	 * Creates a backend that downloads from the network and
+	 * falls back to the cache if the network is not available.
+	 */
+	public ParseStorageBackend() {
+		this(CachePolicy.NETWORK_ELSE_CACHE);
+	}
+
+	/**
+	 * Creates a backend that downloads with policy.
+	 * @param policy Cache policy of downloads
+	 */
+	public ParseStorageBackend(CachePolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("Can't have null cache policy");
+		}
+		mPolicy = policy;
+	}
+
+	@Override
+	public void save(ParseObject object) throws ParseException {
+		object.save();
+	}
+
+	@Override
+	public void saveInBackground(ParseObject object, SaveCallback callback) {
+		object.saveInBackground(callback);
+	}
+
+	@Override
+	public void saveEventually(ParseObject object, SaveCallback callback) {
+		object.saveEventually(callback);
+	}
+
+	@Override
+	public void deleteInBackground(ParseObject object) {
+		object.deleteInBackground();
+	}
+
+	@Override
+	public void deleteAllInBackground(final StorageQuery query) {
+		// A cached answer would find objects that are deleted already
+		query.toParseQuery(CachePolicy.NETWORK_ONLY).findInBackground(new FindCallback() {
+
+			@Override
+			public void done(List<ParseObject> objects, ParseException e) {
+				if (e != null) {
+					Log.e(TAG, "Unable to find " + query.getClassName() 
+							+ " to delete: " + e.getMessage());
+					return;
+				}
+				deletePage(query, objects);
+			}
+		});
+	}
+
+	@Override
+	public void fetchIfNeeded(ParseObject object) throws ParseException {
+		object.fetchIfNeeded();
+	}
+
+	@Override
+	public ParseObject get(String className, String objId, String... includes)
+			throws ParseException {
+		return query(className, includes).get(objId);
+	}
+
+	@Override
+	public void getInBackground(String className, String objId, CachePolicy policy,
+			GetCallback callback) {
+		ParseQuery query = query(className);
+		if (policy != null) {
+			query.setCachePolicy(policy);
+		}
+		query.getInBackground(objId, callback);
+	}
+
+	@Override
+	public List<ParseObject> getAll(String className, Collection<String> objIds,
+			String... includes) throws ParseException {
+		List<String> ids = new ArrayList<String>(objIds);
+		List<ParseObject> found = new ArrayList<ParseObject>(ids.size());
+		// One query per chunk of ids the cloud answers at once
+		for (int start = 0; start < ids.size(); start += ParseUtil.MAX_QUERY_LIMIT) {
+			List<String> chunk = ids.subList(
+					start, Math.min(start + ParseUtil.MAX_QUERY_LIMIT, ids.size()));
+			ParseQuery query = query(className, includes);
+			query.whereContainedIn(ParseUtil.OBJECT_ID, chunk);
+			query.setLimit(chunk.size());
+			found.addAll(query.find());
+		}
+		return found;
+	}
+
+	@Override
+	public List<ParseObject> find(StorageQuery query) throws ParseException {
+		return query.toParseQuery(mPolicy).find();
+	}
+
+	@Override
+	public ParseObject getIfUpdatedSince(String className, String objId, Date since,
+			String... includes) throws ParseException {
+		ParseQuery query = query(className, includes);
+		query.whereEqualTo(ParseUtil.OBJECT_ID, objId);
+		if (since != null) {
+			query.whereGreaterThan(ParseUtil.UPDATED_AT, since);
+		}
+		List<ParseObject> found = query.find();
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	@Override
+	public String findSaved(String className, String key) throws ParseException {
+		ParseQuery query = new ParseQuery(className);
+		// A cached answer could miss an object saved since
+		query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+		query.whereEqualTo(ParseUtil.SAVE_KEY, key);
+		query.setLimit(1);
+		List<ParseObject> found = query.find();
+		return found.isEmpty() ? null : found.get(0).getObjectId();
+	}
+
+	@Override
+	public boolean supportsListOperations() {
+		return true;
+	}
+
+	/**
+	 * Deletes a page of objects query found and looks for the next page
+	 * once they are all deleted.  Stops at the first failed delete so
+	 * objects that can't be deleted are not found over and over.
+	 * @param query Query the objects were found with
+	 * @param page Objects to delete
+	 */
+	private void deletePage(final StorageQuery query, final List<ParseObject> page) {
+		if (page.isEmpty()) {
+			return;
+		}
+		DeleteCallback callback = new DeleteCallback() {
+
+			private int mRemaining = page.size();
+			private boolean mFailed;
+
+			@Override
+			public void done(ParseException e) {
+				if (e != null && !mFailed) {
+					mFailed = true;
+					Log.e(TAG, "Unable to delete " + query.getClassName() 
+							+ ": " + e.getMessage());
+				}
+				if (--mRemaining == 0 && !mFailed && page.size() >= query.getLimit()) {
+					deleteAllInBackground(query);
+				}
+			}
+		};
+		for (ParseObject object: page) {
+			object.deleteInBackground(callback);
+		}
+	}
+
+	/**
+	 * Creates a query for objects of className.
+	 * @param className Class of the objects
+	 * @param includes Keys of nested objects to download along with them
+	 * @return Query to add restrictions to
+	 */
+	private ParseQuery query(String className, String... includes) {
+		ParseQuery query = new ParseQuery(className);
+		query.setCachePolicy(mPolicy);
+		for (String include: includes) {
+			query.include(include);
+		}
+		return query;
+	}
+}
@@ -0,0 +1,158 @@
+package uw.cse.dineon.library;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.store.ParseObjectCodec;
+import android.util.Log;
+
+import com.parse.ParseObject;
+
+/**
+ * Puts the object a push notification is about into the push itself so
+ * the receiver does not have to download it before it can react.
+ *
+ * The object is encoded with ParseObjectCodec next to the object ids the
+ * push always carried.  If the encoded object is too large for a push, the
+ * shared objects it refers to (see SHARED) are sent as pointers instead.
+ * If it is still too large it is left out.
+ *
+ * The receiver only uses the object if the payload has the current VERSION,
+ * every pointer refers to an object it already has and the object is not
+ * older than the copy it already has.  Otherwise it downloads the object by
+ * id like it always did.
+ */
+public final class PushPayload {
+
+	private static final String TAG = PushPayload.class.getSimpleName();
+
+	/**
+	 * Version of the payload format.  Receivers ignore payloads
+	 * of any other version.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Key of the payload version.
+	 */
+	public static final String KEY_VERSION = "payloadVersion";
+
+	/**
+	 * Key of the encoded object.
+	 */
+	public static final String KEY_OBJECT = "payloadObject";
+
+	/**
+	 * Maximum length of the data of a push.  Pushes to Android are limited
+	 * to 4 KB including everything Parse adds to the data.
+	 */
+	public static final int MAX_LENGTH = 3072;
+
+	/**
+	 * Classes that are decoded through the StorableIdentityMap wherever they
+	 * are nested, keyed by class name.  Receivers usually have these already
+	 * so they can be sent as pointers.
+	 */
+	private static final Map<String, Class<? extends Storable>> SHARED =
+			new HashMap<String, Class<? extends Storable>>();
+
+	static {
+		SHARED.put(UserInfo.class.getSimpleName(), UserInfo.class);
+		SHARED.put(Order.class.getSimpleName(), Order.class);
+		SHARED.put(CustomerRequest.class.getSimpleName(), CustomerRequest.class);
+		SHARED.put(RestaurantInfo.class.getSimpleName(), RestaurantInfo.class);
+	}
+
+	/**
+	 * Cannot instantiate.
+	 */
+	private PushPayload() { }
+
+	/**
+	 * Puts storable into the push data jobj if it fits.
+	 * Storable must have been saved, the push is about its saved state.
+	 * @param jobj Push data to add to
+	 * @param storable Object the push is about
+	 * @return true if the object was added, false if the receiver has to download it
+	 */
+	public static boolean attach(JSONObject jobj, Storable storable) {
+		return attach(jobj, storable.mCompleteObject);
+	}
+
+	/**
+	 * Puts po into the push data jobj if it fits.
+	 * Po must have been saved, the push is about its saved state.
+	 * @param jobj Push data to add to
+	 * @param po Object the push is about
+	 * @return true if the object was added, false if the receiver has to download it
+	 */
+	public static boolean attach(JSONObject jobj, ParseObject po) {
+		try {
+			jobj.put(KEY_VERSION, VERSION);
+			jobj.put(KEY_OBJECT, ParseObjectCodec.encode(po));
+			if (jobj.toString().length() <= MAX_LENGTH) {
+				return true;
+			}
+			jobj.put(KEY_OBJECT, ParseObjectCodec.encode(po, SHARED.keySet()));
+			if (jobj.toString().length() <= MAX_LENGTH) {
+				return true;
+			}
+		} catch (JSONException e) {
+			Log.w(TAG, "Unable to put " + po.getClassName() + " into push: " + e.getMessage());
+		}
+		jobj.remove(KEY_OBJECT);
+		jobj.remove(KEY_VERSION);
+		return false;
+	}
+
+	/**
+	 * Returns the object of class clazz with id objId from the push data jobj.
+	 * @param jobj Push data
+	 * @param clazz Class of the object
+	 * @param objId Object id of the object
+	 * @return The object with its data or null if it has to be downloaded
+	 */
+	public static ParseObject extract(JSONObject jobj, Class<? extends Storable> clazz,
+			String objId) {
+		if (jobj.optInt(KEY_VERSION, 0) != VERSION) {
+			return null;
+		}
+		JSONObject json = jobj.optJSONObject(KEY_OBJECT);
+		if (json == null) {
+			return null;
+		}
+		try {
+			// Pointers the receiver can't resolve without a download
+			for (ParseObject pointer: ParseObjectCodec.findPointers(json)) {
+				Class<? extends Storable> shared = SHARED.get(pointer.getClassName());
+				if (shared == null 
+						|| StorableIdentityMap.get(shared, pointer.getObjectId()) == null) {
+					return null;
+				}
+			}
+
+			ParseObject po = ParseObjectCodec.decode(json);
+			if (!clazz.getSimpleName().equals(po.getClassName())
+					|| !po.getObjectId().equals(objId)) {
+				return null;
+			}
+
+			// The copy we have is newer than the payload
+			Storable known = StorableIdentityMap.get(clazz, objId);
+			Date knownUpdate = known == null ? null : known.getUpdatedAt();
+			if (knownUpdate != null && (po.getUpdatedAt() == null
+					|| po.getUpdatedAt().before(knownUpdate))) {
+				return null;
+			}
+			return po;
+		} catch (JSONException e) {
+			Log.w(TAG, "Unable to read " + clazz.getSimpleName() + " from push: "
+					+ e.getMessage());
+			return null;
+		}
+	}
+}
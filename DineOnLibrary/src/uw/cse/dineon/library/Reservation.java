@@ -46,8 +46,8 @@ public class Reservation extends TimeableStorable {
 	 */
 	public Reservation(ParseObject po) throws ParseException {
 		super(po);
-		mUserInfo = new UserInfo(po.getParseObject(USER_INFO));
-		mRestInfo = new RestaurantInfo(po.getParseObject(REST_INFO));
+		mUserInfo = StorableIdentityMap.decode(UserInfo.class, po.getParseObject(USER_INFO));
+		mRestInfo = StorableIdentityMap.decode(RestaurantInfo.class, po.getParseObject(REST_INFO));
 		
 		if(mRestInfo == null) {
 			throw new IllegalArgumentException(
@@ -85,6 +85,17 @@ public class Reservation extends TimeableStorable {
 		return po;
 	}
 
+	/**
+	 * Nothing of a reservation changes once it is made and its user and
+	 * restaurant refresh themselves, so there is nothing to copy.
+	 * @param newer Newer copy of this reservation
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		return true;
+	}
+
 //	/**
 //	 * Writes this Reservation to Parcel dest in the order:
 //	 * UserInfo, RestaurantInfo, Time, DiningSession
@@ -2,7 +2,12 @@ package uw.cse.dineon.library;
 
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import uw.cse.dineon.library.image.DineOnImage;
 import uw.cse.dineon.library.util.ParseUtil;
@@ -14,7 +19,29 @@ import com.parse.ParseUser;
 /**
  * This class represents a Restaurant.  Where internally 
  * the class can tracks its profile representation and List of current 
- * and old restaurant transactions.
+ * restaurant transactions.
+ * 
+ * Old transactions like completed orders and users that visited are not 
+ * stored in the restaurant. They are stored as HistoryRecords and can 
+ * be paged through with getPastOrders(Date, Date, int) and 
+ * getPastUsers(Date, Date, int).
+ * 
+ * Current sessions, orders, requests and reservations are indexed by
+ * object id, and sessions by table and by user as well, so finding one
+ * does not depend on how busy the restaurant is.  Every change to the
+ * lists goes through this class to keep the indexes up to date.
+ * 
+ * The lists returned by the getters are read only copies that are shared
+ * until the list changes, so reading them does not allocate anything and
+ * they can be iterated while the restaurant is changed on another thread.
+ * 
+ * A restaurant can be changed from any thread, IE by satellites and save
+ * callbacks in the background while the UI reads it.  Every change to the
+ * lists, their indexes and the changes that still have to be saved happens
+ * while holding the lock of the restaurant.  packObject holds the same lock
+ * so the packed object is a snapshot of the whole restaurant at one point
+ * in time.  Packing never downloads anything so the lock is only held
+ * briefly.
  * @author zachr81, mhotan
  */
 public class Restaurant extends Storable {
@@ -22,33 +49,56 @@ public class Restaurant extends Storable {
 	// Parse used Keys
 	public static final String RESERVATION_LIST = "reservationList";
 	public static final String INFO = "restaurantInfo";
-	public static final String PAST_ORDERS = "pastOrders";
 	public static final String PENDING_ORDERS = "pendingOrders";
+	// Keys restaurants used to store their history under
+	public static final String PAST_ORDERS = "pastOrders";
 	public static final String PAST_USERS = "pastUsers";
 	public static final String SESSIONS = "restaurantDiningSessions";
 	public static final String CUSTOMER_REQUESTS = "customerRequests";
 
+	/**
+	 * Keys of the lists that the restaurant needs to run its floor.
+	 * These are good candidates to prefetch in the background
+	 * right after download.
+	 */
+	public static final String[] ACTIVE_FIELDS = {
+		PENDING_ORDERS, SESSIONS, CUSTOMER_REQUESTS, RESERVATION_LIST
+	};
+
+	/**
+	 * Number of recently completed orders kept in memory.  Older ones
+	 * are only kept as HistoryRecords.
+	 */
+	public static final int MAX_RECENT_ORDERS = 100;
+
 	/**
 	 * Restaurant information.
 	 */
 	private final RestaurantInfo mRestInfo;
 
 	/**
-	 * Past Orders placed at this restaurant.
-	 * Also includes any recently placed orders.
+	 * The last MAX_RECENT_ORDERS orders completed since this restaurant
+	 * was created or downloaded, oldest first.
+	 * Not stored with the restaurant, see HistoryRecord.
 	 */
 	private final List<Order> mPastOrders;
 
 	/**
-	 * Past Orders placed at this restaurant.
-	 * Also includes any recently placed orders.
+	 * Orders placed at this restaurant that have not been completed yet.
 	 */
 	private final List<Order> mPendingOrders;
 
 	/**
-	 * Past users that have visited the restaurant.
+	 * References to history that is still stored in the restaurant
+	 * by older versions.  Empty once it has been moved to HistoryRecords.
+	 */
+	private final List<Object> mLegacyHistory;
+
+	/**
+	 * True if the legacy history has to be removed from the cloud
+	 * on the next pack.
 	 */
-	private final List<UserInfo> mPastUsers;
+	private boolean mDropLegacyHistory;
 
 	/**
 	 * Currently pending reservations.
@@ -64,21 +114,58 @@ public class Restaurant extends Storable {
 	 * Customer request that is not associated with the restaurant.
 	 */
 	private final List<CustomerRequest> mCustomerRequests;
+
+	// Indexes of the lists above by object id
+	private final StorableIndex<Order> mPendingOrderIndex;
+	private final StorableIndex<Order> mPastOrderIndex;
+	private final StorableIndex<Reservation> mReservationIndex;
+	private final StorableIndex<DiningSession> mSessionIndex;
+	private final StorableIndex<CustomerRequest> mRequestIndex;
+
+	// Read only copies of the lists above
+	private final ListSnapshot<Order> mPendingOrderSnapshot;
+	private final ListSnapshot<Order> mPastOrderSnapshot;
+	private final ListSnapshot<Reservation> mReservationSnapshot;
+	private final ListSnapshot<DiningSession> mSessionSnapshot;
+	private final ListSnapshot<CustomerRequest> mRequestSnapshot;
+
+	/**
+	 * Current dining sessions by table, null until first used.
+	 */
+	private Map<Integer, List<DiningSession>> mSessionsByTable;
+
+	/**
+	 * Current dining sessions by object id of their users, null until first used.
+	 */
+	private Map<String, DiningSession> mSessionsByUser;
+
+	/**
+	 * Builds the session indexes again when a current session was
+	 * refreshed in place, since its table and users may have changed.
+	 */
+	private final DiningSession.RefreshListener mSessionRefreshed = 
+			new DiningSession.RefreshListener() {
+
+		@Override
+		public void onRefreshed(DiningSession session) {
+			sessionRefreshed(session);
+		}
+	};
 	
 	/**
 	 * Temporary order used for persistent data references.
 	 */
-	private Order tempOrder;
+	private volatile Order tempOrder;
 	
 	/**
 	 * Temporary request to store persistent reference.
 	 */
-	private CustomerRequest tempRequest;
+	private volatile CustomerRequest tempRequest;
 	
 	/**
 	 * Temporary dining session for a persistent reference.
 	 */
-	private DiningSession tempDiningSession;
+	private volatile DiningSession tempDiningSession;
 
 	/**
 	 * Create a bare bones Restaurant with just a name.
@@ -91,53 +178,221 @@ public class Restaurant extends Storable {
 		mRestInfo = new RestaurantInfo(user);
 
 		mPastOrders = new ArrayList<Order>();
-		mPastUsers = new ArrayList<UserInfo>();
+		mLegacyHistory = new ArrayList<Object>();
 
 		mPendingOrders = new ArrayList<Order>();
 		mReservations = new ArrayList<Reservation>();
 		mSessions = new ArrayList<DiningSession>();
 		mCustomerRequests = new ArrayList<CustomerRequest>();
+
+		mPendingOrderIndex = new StorableIndex<Order>(mPendingOrders);
+		mPastOrderIndex = new StorableIndex<Order>(mPastOrders);
+		mReservationIndex = new StorableIndex<Reservation>(mReservations);
+		mSessionIndex = new StorableIndex<DiningSession>(mSessions);
+		mRequestIndex = new StorableIndex<CustomerRequest>(mCustomerRequests);
+
+		mPendingOrderSnapshot = new ListSnapshot<Order>(mPendingOrders, this);
+		mPastOrderSnapshot = new ListSnapshot<Order>(mPastOrders, this);
+		mReservationSnapshot = new ListSnapshot<Reservation>(mReservations, this);
+		mSessionSnapshot = new ListSnapshot<DiningSession>(mSessions, this);
+		mRequestSnapshot = new ListSnapshot<CustomerRequest>(mCustomerRequests, this);
 	}
 
 	/**
 	 * Creates a Restaurant object from the given ParseObject.
 	 * 
+	 * Only the restaurant information is built right away. All the lists
+	 * of orders, reservations, sessions and requests are downloaded
+	 * the first time they are read.  Use prefetch to load the lists 
+	 * a particular screen needs in the background.
+	 * 
 	 * @param po Parse object to build from
 	 * @throws ParseException 
 	 */
 	public Restaurant(ParseObject po) throws ParseException {
 		super(po);
-		mRestInfo = new RestaurantInfo(po.getParseObject(INFO));
+		mRestInfo = StorableIdentityMap.decode(RestaurantInfo.class, po.getParseObject(INFO));
 
-		mPastOrders = ParseUtil.toListOfStorables(Order.class, po.getList(PAST_ORDERS));
-		mPastUsers = ParseUtil.toListOfStorables(UserInfo.class, po.getList(PAST_USERS));
+		mPastOrders = new ArrayList<Order>();
+		mLegacyHistory = new ArrayList<Object>();
+		if (po.getList(PAST_ORDERS) != null) {
+			mLegacyHistory.addAll(po.getList(PAST_ORDERS));
+		}
+		if (po.getList(PAST_USERS) != null) {
+			mLegacyHistory.addAll(po.getList(PAST_USERS));
+		}
 
-		mPendingOrders = ParseUtil.toListOfStorables(
+		mPendingOrders = new LazyStorableList<Order>(
 				Order.class, po.getList(PENDING_ORDERS)); 
-		mReservations = ParseUtil.toListOfStorables(
+		mReservations = new LazyStorableList<Reservation>(
 				Reservation.class, po.getList(RESERVATION_LIST)); 
-		mSessions = ParseUtil.toListOfStorables(DiningSession.class, po.getList(SESSIONS));
-		mCustomerRequests = ParseUtil.toListOfStorables(
+		mSessions = new LazyStorableList<DiningSession>(
+				DiningSession.class, po.getList(SESSIONS));
+		mCustomerRequests = new LazyStorableList<CustomerRequest>(
 				CustomerRequest.class, po.getList(CUSTOMER_REQUESTS));
+
+		// Built on first use so the lists are still downloaded lazily
+		mPendingOrderIndex = new StorableIndex<Order>(mPendingOrders);
+		mPastOrderIndex = new StorableIndex<Order>(mPastOrders);
+		mReservationIndex = new StorableIndex<Reservation>(mReservations);
+		mSessionIndex = new StorableIndex<DiningSession>(mSessions);
+		mRequestIndex = new StorableIndex<CustomerRequest>(mCustomerRequests);
+
+		mPendingOrderSnapshot = new ListSnapshot<Order>(mPendingOrders, this);
+		mPastOrderSnapshot = new ListSnapshot<Order>(mPastOrders, this);
+		mReservationSnapshot = new ListSnapshot<Reservation>(mReservations, this);
+		mSessionSnapshot = new ListSnapshot<DiningSession>(mSessions, this);
+		mRequestSnapshot = new ListSnapshot<CustomerRequest>(mCustomerRequests, this);
+	}
+
+	/**
+	 * Downloads the lists associated with the given keys if they
+	 * have not been downloaded already.  Unknown keys are ignored.
+	 * NOTE: Do not call on the main thread.
+	 * @param keys Parse keys of the lists to load, IE PENDING_ORDERS
+	 */
+	public void prefetch(String... keys) {
+		for (String key: keys) {
+			List<? extends Storable> list = getListForKey(key);
+			if (list instanceof LazyStorableList) {
+				((LazyStorableList<?>) list).load();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the list associated with key has already been downloaded.
+	 * @param key Parse key of the list, IE PAST_ORDERS
+	 * @return true if reading the list will not cause a download.
+	 */
+	public boolean isLoaded(String key) {
+		List<? extends Storable> list = getListForKey(key);
+		if (list instanceof LazyStorableList) {
+			return ((LazyStorableList<?>) list).isLoaded();
+		}
+		return list != null;
+	}
+
+	/**
+	 * Returns the internal list that is stored under key.
+	 * @param key Parse key of the list
+	 * @return internal list or null if no list exists for key
+	 */
+	private List<? extends Storable> getListForKey(String key) {
+		if (PENDING_ORDERS.equals(key)) {
+			return mPendingOrders;
+		} else if (RESERVATION_LIST.equals(key)) {
+			return mReservations;
+		} else if (SESSIONS.equals(key)) {
+			return mSessions;
+		} else if (CUSTOMER_REQUESTS.equals(key)) {
+			return mCustomerRequests;
+		}
+		return null;
 	}
 	
+	/**
+	 * Packs the restaurant as it is at a single point in time.
+	 * Changes made on other threads wait until packing is done.
+	 * @return ParseObject containing the packed restaurant
+	 */
 	@Override
-	public ParseObject packObject() {
+	public synchronized ParseObject packObject() {
 		ParseObject po = super.packObject();
 		po.put(INFO, mRestInfo.packObject());
 
-		// Pack up old stuff
-		po.put(PAST_ORDERS, ParseUtil.toListOfParseObjects(mPastOrders));
-		po.put(PAST_USERS, ParseUtil.toListOfParseObjects(mPastUsers));
+		// History is stored in HistoryRecords now
+		if (mDropLegacyHistory) {
+			po.remove(PAST_ORDERS);
+			po.remove(PAST_USERS);
+			mDropLegacyHistory = false;
+		}
 
-		// Pack current stuff
-		po.put(PENDING_ORDERS, ParseUtil.toListOfParseObjects(mPendingOrders));
-		po.put(RESERVATION_LIST, ParseUtil.toListOfParseObjects(mReservations));
-		po.put(SESSIONS, ParseUtil.toListOfParseObjects(mSessions));
-		po.put(CUSTOMER_REQUESTS, ParseUtil.toListOfParseObjects(mCustomerRequests));	
+		// Only the lists that changed since the last pack are sent
+		packList(po, PENDING_ORDERS, mPendingOrders);
+		packList(po, RESERVATION_LIST, mReservations);
+		packList(po, SESSIONS, mSessions);
+		packList(po, CUSTOMER_REQUESTS, mCustomerRequests);
 		return po;
 	}
 
+	/**
+	 * Copies the current orders, reservations, sessions and requests of
+	 * newer.  Lists that are downloaded lazily take over the references of
+	 * newer so nothing is downloaded while holding the lock.
+	 * @param newer Newer copy of this restaurant
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		Restaurant restaurant = (Restaurant) newer;
+		// Lists that were created here can only take loaded elements
+		loadFor(mPendingOrders, restaurant.mPendingOrders);
+		loadFor(mReservations, restaurant.mReservations);
+		loadFor(mSessions, restaurant.mSessions);
+		loadFor(mCustomerRequests, restaurant.mCustomerRequests);
+		synchronized (this) {
+			replaceList(mPendingOrders, restaurant.mPendingOrders);
+			mPendingOrderIndex.invalidate();
+			mPendingOrderSnapshot.changed();
+			replaceList(mReservations, restaurant.mReservations);
+			mReservationIndex.invalidate();
+			mReservationSnapshot.changed();
+			replaceList(mSessions, restaurant.mSessions);
+			mSessionIndex.invalidate();
+			mSessionsByTable = null;
+			mSessionsByUser = null;
+			mSessionSnapshot.changed();
+			replaceList(mCustomerRequests, restaurant.mCustomerRequests);
+			mRequestIndex.invalidate();
+			mRequestSnapshot.changed();
+		}
+		return true;
+	}
+
+	/**
+	 * Downloads the lists that are downloaded lazily and not loaded yet.
+	 * Called before taking the lock of this restaurant so other threads
+	 * never wait on the lock while a list is downloaded.
+	 * NOTE: Do not call on the main thread.
+	 * @param lists Lists the caller is about to read
+	 */
+	private static void load(List<?>... lists) {
+		for (List<?> list: lists) {
+			if (list instanceof LazyStorableList) {
+				((LazyStorableList<?>) list).load();
+			}
+		}
+	}
+
+	/**
+	 * Loads newer if it is lazy and list is not, see replaceList.
+	 * NOTE: Do not call on the main thread.
+	 * @param list List that will take the elements of newer
+	 * @param newer List whose elements to take
+	 */
+	private static void loadFor(List<? extends Storable> list, List<? extends Storable> newer) {
+		if (!(list instanceof LazyStorableList) && newer instanceof LazyStorableList) {
+			((LazyStorableList<?>) newer).load();
+		}
+	}
+
+	/**
+	 * Replaces the elements of list with the elements of newer.
+	 * Requires the lock of this restaurant.
+	 * @param <T> Type of the elements
+	 * @param list List to change
+	 * @param newer List whose elements to take
+	 */
+	private static <T extends Storable> void replaceList(List<T> list, List<T> newer) {
+		if (list instanceof LazyStorableList) {
+			((LazyStorableList<T>) list).replaceWith(newer);
+		} else {
+			list.clear();
+			list.addAll(newer);
+		}
+	}
+
 	/////////////////////////////////////////////////////
 	////  Setter methods
 	/////////////////////////////////////////////////////
@@ -160,45 +415,216 @@ public class Restaurant extends Storable {
 	}
 
 	/**
-	 * Returns a list copy of Customer Requests.
+	 * Returns a read only copy of the Customer Requests.
 	 * @return the customerRequests that this restaurant is aware of
 	 */
 	public List<CustomerRequest> getCustomerRequests() {
-		return new ArrayList<CustomerRequest>(mCustomerRequests);
+		return mRequestSnapshot.get();
 	}
 
 	/**
-	 * Returns a list of all current reservations that the Restaurant has tracked.
+	 * Returns a read only list of all current reservations 
+	 * that the Restaurant has tracked.
 	 * 
 	 * @return List<Reservation>
 	 */
 	public List<Reservation> getReservationList() {
-		return new ArrayList<Reservation>(mReservations);
+		return mReservationSnapshot.get();
 	}
 
 	/**
-	 * Returns the current list of past orders placed at the restaurant.
-	 * @return List<Order> of past orders placed at the restaurant.
+	 * Returns the last MAX_RECENT_ORDERS orders that were completed since
+	 * this restaurant was created or downloaded.  For older orders use 
+	 * getPastOrders(Date, Date, int).
+	 * @return Read only List<Order> of recently completed orders.
 	 */
 	public List<Order> getPastOrders() {
-		return new ArrayList<Order>(mPastOrders);
+		return mPastOrderSnapshot.get();
+	}
+
+	/**
+	 * Returns a pager over the orders completed at this restaurant that
+	 * were placed between from and to, oldest first.
+	 * @param from Start of the range, inclusive
+	 * @param to End of the range, exclusive
+	 * @param pageSize Number of orders per page
+	 * @return Pager that downloads a page at a time
+	 */
+	public HistoryPager<Order> getPastOrders(Date from, Date to, int pageSize) {
+		return new HistoryPager<Order>(Order.class, mCompleteObject, 
+				HistoryRecord.TYPE_ORDER, from, to, pageSize, Order.USER_INFO);
+	}
+
+	/**
+	 * Returns a pager over the users that left this restaurant 
+	 * between from and to, oldest first.
+	 * @param from Start of the range, inclusive
+	 * @param to End of the range, exclusive
+	 * @param pageSize Number of users per page
+	 * @return Pager that downloads a page at a time
+	 */
+	public HistoryPager<UserInfo> getPastUsers(Date from, Date to, int pageSize) {
+		return new HistoryPager<UserInfo>(UserInfo.class, mCompleteObject, 
+				HistoryRecord.TYPE_USER, from, to, pageSize, UserInfo.PARSEUSER);
+	}
+
+	/**
+	 * Moves history that older versions stored inside the restaurant
+	 * into HistoryRecords and saves the restaurant without the old lists.
+	 * Does nothing if there is no such history.
+	 * 
+	 * Every record is saved with a key made of the restaurant and the item
+	 * it is about.  Records an earlier attempt already saved are skipped,
+	 * so a migration that was cut short before the restaurant was saved
+	 * does not record the same history twice when it runs again.
+	 * 
+	 * Older versions did not keep the time a user visited so visits are
+	 * recorded at the time the restaurant was last saved, the latest
+	 * they can have happened.
+	 * NOTE: Do not call on the main thread.
+	 * @throws ParseException if the history could not be moved
+	 */
+	public void migrateHistory() throws ParseException {
+		List<Object> legacy;
+		synchronized (this) {
+			if (mLegacyHistory.isEmpty()) {
+				return;
+			}
+			legacy = new ArrayList<Object>(mLegacyHistory);
+		}
+
+		StorageBackend backend = Storable.getBackend();
+		String className = HistoryRecord.class.getSimpleName();
+		Date visited = mCompleteObject.getUpdatedAt();
+		List<Storable> nested = new ArrayList<Storable>();
+		for (ParseObject item: ParseUtil.fetchAllIfNeeded(legacy, nested)) {
+			String key = getObjId() + ":" + item.getObjectId();
+			if (backend.findSaved(className, key) != null) {
+				continue;
+			}
+			HistoryRecord record;
+			if (Order.class.getSimpleName().equals(item.getClassName())) {
+				Order order = ParseUtil.parseObjectToClass(Order.class, item);
+				record = HistoryRecord.forOrder(this, order);
+			} else {
+				UserInfo user = ParseUtil.parseObjectToClass(UserInfo.class, item);
+				record = HistoryRecord.forUser(this, user, visited);
+			}
+			record.setSaveKey(key);
+			record.saveOnCurrentThread();
+		}
+
+		synchronized (this) {
+			mDropLegacyHistory = true;
+		}
+		try {
+			saveOnCurrentThread();
+		} catch (ParseException e) {
+			synchronized (this) {
+				// Removed on the next save or attempt to migrate
+				mDropLegacyHistory = true;
+			}
+			throw e;
+		}
+		synchronized (this) {
+			mLegacyHistory.clear();
+		}
 	}
 
 	/**
 	 * List of current running dining sessions.
-	 * @return List<DiningSession>
+	 * @return Read only List<DiningSession>
 	 */
 	public List<DiningSession> getSessions() {
-		return new ArrayList<DiningSession>(mSessions);
+		return mSessionSnapshot.get();
 	}
 
 	/**
 	 * Each one of the restaurants have pending dining sessions.
 	 * Returns all the orders of all the pending dining sessions.
-	 * @return a list of all pending orders 
+	 * @return a read only list of all pending orders 
 	 */
 	public List<Order> getPendingOrders() {
-		return new ArrayList<Order>(mPendingOrders);
+		return mPendingOrderSnapshot.get();
+	}
+
+	/**
+	 * Returns the current dining session with the given object id.
+	 * @param objId Object id of the session
+	 * @return The session or null if it is not a current session
+	 */
+	public DiningSession getDiningSession(String objId) {
+		load(mSessions);
+		synchronized (this) {
+			return mSessionIndex.get(objId);
+		}
+	}
+
+	/**
+	 * Returns the pending order with the given object id.
+	 * @param objId Object id of the order
+	 * @return The order or null if it is not pending
+	 */
+	public Order getPendingOrder(String objId) {
+		load(mPendingOrders);
+		synchronized (this) {
+			return mPendingOrderIndex.get(objId);
+		}
+	}
+
+	/**
+	 * Returns the customer request with the given object id.
+	 * @param objId Object id of the request
+	 * @return The request or null if the restaurant does not have it
+	 */
+	public CustomerRequest getCustomerRequest(String objId) {
+		load(mCustomerRequests);
+		synchronized (this) {
+			return mRequestIndex.get(objId);
+		}
+	}
+
+	/**
+	 * Returns the reservation with the given object id.
+	 * @param objId Object id of the reservation
+	 * @return The reservation or null if the restaurant does not have it
+	 */
+	public Reservation getReservation(String objId) {
+		load(mReservations);
+		synchronized (this) {
+			return mReservationIndex.get(objId);
+		}
+	}
+
+	/**
+	 * Returns the current dining sessions at a table.
+	 * @param tableID Table number
+	 * @return List of sessions at the table, empty if there are none
+	 */
+	public List<DiningSession> getSessionsAtTable(int tableID) {
+		load(mSessions);
+		synchronized (this) {
+			List<DiningSession> sessions = sessionsByTable().get(tableID);
+			if (sessions == null) {
+				return new ArrayList<DiningSession>();
+			}
+			return new ArrayList<DiningSession>(sessions);
+		}
+	}
+
+	/**
+	 * Returns the current dining session a user takes part in.
+	 * @param userObjId Object id of the UserInfo of the user
+	 * @return The session or null if the user is not dining here
+	 */
+	public DiningSession getSessionOfUser(String userObjId) {
+		if (userObjId == null) {
+			return null;
+		}
+		load(mSessions);
+		synchronized (this) {
+			return sessionsByUser().get(userObjId);
+		}
 	}
 
 	/////////////////////////////////////////////////////
@@ -209,16 +635,22 @@ public class Restaurant extends Storable {
 	 * Add a new customer request.
 	 * @param newReq request to add
 	 */
-	public void addCustomerRequest(CustomerRequest newReq) {
+	public synchronized void addCustomerRequest(CustomerRequest newReq) {
 		mCustomerRequests.add(newReq);
+		mRequestIndex.added(newReq);
+		mRequestSnapshot.changed();
+		markAdded(CUSTOMER_REQUESTS, newReq);
 	}
 
 	/**
 	 * Adds the given reservation to the reservation list.
 	 * @param newReservation to add
 	 */
-	public void addReservation(Reservation newReservation) {
+	public synchronized void addReservation(Reservation newReservation) {
 		mReservations.add(newReservation);
+		mReservationIndex.added(newReservation);
+		mReservationSnapshot.changed();
+		markAdded(RESERVATION_LIST, newReservation);
 	}
 
 	/**
@@ -229,11 +661,22 @@ public class Restaurant extends Storable {
 		if (order == null) {
 			return;
 		}
-
-		// Move from list of pending orders to
-		// list of past orders
-		if (mPendingOrders.remove(order)) {
-			mPastOrders.add(order);
+		load(mPendingOrders);
+		synchronized (this) {
+			// Move from list of pending orders to
+			// list of past orders
+			if (remove(mPendingOrders, mPendingOrderIndex, order)) {
+				markRemoved(PENDING_ORDERS, order);
+				mPastOrders.add(order);
+				mPastOrderIndex.added(order);
+				if (mPastOrders.size() > MAX_RECENT_ORDERS) {
+					// Still in the history records
+					mPastOrderIndex.removed(mPastOrders.remove(0));
+				}
+				mPendingOrderSnapshot.changed();
+				mPastOrderSnapshot.changed();
+				recordHistory(HistoryRecord.forOrder(this, order));
+			}
 		}
 	}
 	
@@ -242,18 +685,27 @@ public class Restaurant extends Storable {
 	 * @param order Order to cancel.
 	 */
 	public void cancelPendingOrder(Order order) {
-		mPendingOrders.remove(order);
+		load(mPendingOrders);
+		synchronized (this) {
+			if (remove(mPendingOrders, mPendingOrderIndex, order)) {
+				markRemoved(PENDING_ORDERS, order);
+				mPendingOrderSnapshot.changed();
+			}
+		}
 	}
 
 	/**
 	 * Adds a pending order to a restaurant.
 	 * @param order Order to be added. cannot be null.
 	 */
-	public void addOrder(Order order) {
+	public synchronized void addOrder(Order order) {
 		if (order == null) {
 			throw new NullPointerException("Order being added to restaurant is null");
 		}
 		mPendingOrders.add(order);
+		mPendingOrderIndex.added(order);
+		mPendingOrderSnapshot.changed();
+		markAdded(PENDING_ORDERS, order);
 	}
 
 	/**
@@ -264,11 +716,37 @@ public class Restaurant extends Storable {
 		if (session == null) { // Invalid input
 			return;
 		}
-		if (mSessions.contains(session)) { // Already tracking this session
-			return;
+		load(mSessions);
+		synchronized (this) {
+			if (mSessionIndex.contains(session)) { // Already tracking this session
+				return;
+			}
+
+			mSessions.add(session);
+			sessionAdded(session);
+			markAdded(SESSIONS, session);
+			mSessionSnapshot.changed();
 		}
+	}
 
-		mSessions.add(session);
+	/**
+	 * Moves a current dining session to another table.
+	 * The session has to be saved afterwards.
+	 * @param session Session to move
+	 * @param tableID Number of the new table
+	 */
+	public void changeTable(DiningSession session, int tableID) {
+		load(mSessions);
+		synchronized (this) {
+			boolean current = mSessionIndex.get(session.getObjId()) == session;
+			if (current) {
+				sessionRemoved(session);
+			}
+			session.resetTableID(tableID);
+			if (current) {
+				sessionAdded(session);
+			}
+		}
 	}
 
 	/**
@@ -279,21 +757,32 @@ public class Restaurant extends Storable {
 		if (session == null) {
 			return;
 		}
-		//Remove pending orders
-		List<Order> orders = session.getOrders();
-		for (Order o : orders) {
-			mPendingOrders.remove(o);
-		}
-		//Remove customer requests
-		List<CustomerRequest> requests = session.getRequests();
-		for (CustomerRequest r : requests) {
-			mCustomerRequests.remove(r);
-		}
+		load(mPendingOrders, mCustomerRequests, mSessions);
+		synchronized (this) {
+			//Remove pending orders
+			if (removeAll(mPendingOrders, mPendingOrderIndex, 
+					session.getOrders(), PENDING_ORDERS)) {
+				mPendingOrderSnapshot.changed();
+			}
+			//Remove customer requests
+			if (removeAll(mCustomerRequests, mRequestIndex, 
+					session.getRequests(), CUSTOMER_REQUESTS)) {
+				mRequestSnapshot.changed();
+			}
 		
-		// If we found the session.
-		if (mSessions.remove(session)) {
-			mPastUsers.addAll(session.getUsers());
-			session.deleteFromCloud();
+			// If we found the session.
+			if (remove(mSessions, mSessionIndex, session)) {
+				sessionRemoved(session);
+				markRemoved(SESSIONS, session);
+				mSessionSnapshot.changed();
+				Date now = new Date();
+				for (UserInfo user: session.getUsers()) {
+					if (user != null) {
+						recordHistory(HistoryRecord.forUser(this, user, now));
+					}
+				}
+				session.deleteFromCloud();
+			}
 		}
 	}
 
@@ -302,8 +791,14 @@ public class Restaurant extends Storable {
 	 * @param oldReq request to remove
 	 */
 	public void removeCustomerRequest(CustomerRequest oldReq) {
-		mCustomerRequests.remove(oldReq);
-		oldReq.deleteFromCloud();
+		load(mCustomerRequests);
+		synchronized (this) {
+			if (remove(mCustomerRequests, mRequestIndex, oldReq)) {
+				markRemoved(CUSTOMER_REQUESTS, oldReq);
+				mRequestSnapshot.changed();
+			}
+			oldReq.deleteFromCloud();
+		}
 	}
 
 	/**
@@ -311,16 +806,328 @@ public class Restaurant extends Storable {
 	 * @param removeReservation from restaurant
 	 */
 	public void removeReservation(Reservation removeReservation) {
-		mReservations.remove(removeReservation);
-		// TODO Delete the reservation from parse
+		load(mReservations);
+		synchronized (this) {
+			if (remove(mReservations, mReservationIndex, removeReservation)) {
+				markRemoved(RESERVATION_LIST, removeReservation);
+				mReservationSnapshot.changed();
+			}
+			// TODO Delete the reservation from parse
+		}
+	}
+
+	/////////////////////////////////////////////////////
+	////  Merging changes made by customers
+	/////////////////////////////////////////////////////
+
+	/**
+	 * Merges a newer copy of a dining session at this restaurant, IE one
+	 * that was downloaded by a SyncEngine.  A session the restaurant does
+	 * not know is only added if it was created after since, older ones were
+	 * already removed by the restaurant.  Orders and requests of the session
+	 * that were created after since and are unknown are added as well.
+	 * @param session Newer copy of the session
+	 * @param since Time the restaurant last knew about everything, null if always
+	 * @return true if the restaurant changed and has to be saved
+	 */
+	public boolean mergeDiningSession(DiningSession session, Date since) {
+		load(mSessions, mPendingOrders, mCustomerRequests);
+		synchronized (this) {
+			boolean changed = false;
+			DiningSession current = mSessionIndex.get(session.getObjId());
+			if (current == session) {
+				// Refreshed in place when it was decoded
+				sessionRefreshed(session);
+			} else if (current != null) {
+				if (replace(mSessions, mSessionIndex, session)) {
+					sessionRemoved(current);
+					sessionAdded(session);
+					mSessionSnapshot.changed();
+				}
+			} else if (isCreatedAfter(session, since)) {
+				mSessions.add(session);
+				sessionAdded(session);
+				markAdded(SESSIONS, session);
+				mSessionSnapshot.changed();
+				changed = true;
+			}
+			for (Order order: session.getOrders()) {
+				if (!mPendingOrderIndex.contains(order) && !mPastOrderIndex.contains(order)
+						&& isCreatedAfter(order, since)) {
+					addOrder(order);
+					changed = true;
+				}
+			}
+			for (CustomerRequest request: session.getRequests()) {
+				if (!mRequestIndex.contains(request) && isCreatedAfter(request, since)) {
+					addCustomerRequest(request);
+					changed = true;
+				}
+			}
+			return changed;
+		}
+	}
+
+	/**
+	 * Merges a newer copy of a pending order.
+	 * Orders that are not pending at this restaurant are ignored.
+	 * @param order Newer copy of the order
+	 */
+	public void mergeOrder(Order order) {
+		load(mPendingOrders);
+		synchronized (this) {
+			if (replace(mPendingOrders, mPendingOrderIndex, order)) {
+				mPendingOrderSnapshot.changed();
+			}
+		}
+	}
+
+	/**
+	 * Merges a newer copy of a customer request.
+	 * Requests that are not pending at this restaurant are ignored.
+	 * @param request Newer copy of the request
+	 */
+	public void mergeCustomerRequest(CustomerRequest request) {
+		load(mCustomerRequests);
+		synchronized (this) {
+			if (replace(mCustomerRequests, mRequestIndex, request)) {
+				mRequestSnapshot.changed();
+			}
+		}
+	}
+
+	/**
+	 * Merges a newer copy of a reservation at this restaurant.  A reservation
+	 * the restaurant does not know is only added if it was created after since.
+	 * @param reservation Newer copy of the reservation
+	 * @param since Time the restaurant last knew about everything, null if always
+	 * @return true if the restaurant changed and has to be saved
+	 */
+	public boolean mergeReservation(Reservation reservation, Date since) {
+		load(mReservations);
+		synchronized (this) {
+			if (mReservationIndex.contains(reservation)) {
+				if (replace(mReservations, mReservationIndex, reservation)) {
+					mReservationSnapshot.changed();
+				}
+				return false;
+			}
+			if (!isCreatedAfter(reservation, since)) {
+				return false;
+			}
+			addReservation(reservation);
+			return true;
+		}
+	}
+
+	/**
+	 * Replaces the element of list that is the same object as newer.
+	 * Elements with changes that were not saved yet are kept.
+	 * @param <T> Type of the elements
+	 * @param list List to replace in
+	 * @param index Index of list
+	 * @param newer Newer copy of the element
+	 * @return true if the element was replaced, false if it was kept
+	 * 	or list does not contain it
+	 */
+	private static <T extends Storable> boolean replace(List<T> list, 
+			StorableIndex<T> index, T newer) {
+		T current = index.get(newer.getObjId());
+		if (current == null || current == newer || current.hasUnsavedChanges()) {
+			return false;
+		}
+		list.set(list.indexOf(current), newer);
+		index.added(newer);
+		return true;
+	}
+
+	/**
+	 * Removes element from list if list contains it.
+	 * Only searches list if the index has the element.
+	 * @param <T> Type of the elements
+	 * @param list List to remove from
+	 * @param index Index of list
+	 * @param element Element to remove
+	 * @return true if element was removed
+	 */
+	private static <T extends Storable> boolean remove(List<T> list, 
+			StorableIndex<T> index, T element) {
+		if (!index.contains(element)) {
+			return false;
+		}
+		list.remove(element);
+		index.removed(element);
+		return true;
+	}
+
+	/**
+	 * Removes all of elements that list contains in a single pass over list.
+	 * @param <T> Type of the elements
+	 * @param list List to remove from
+	 * @param index Index of list
+	 * @param elements Elements to remove
+	 * @param key Parse key list is stored under
+	 * @return true if any element was removed
+	 */
+	private <T extends Storable> boolean removeAll(List<T> list, 
+			StorableIndex<T> index, List<T> elements, String key) {
+		Set<String> toRemove = new HashSet<String>();
+		for (T element: elements) {
+			if (index.contains(element)) {
+				toRemove.add(element.getObjId());
+			}
+		}
+		boolean removed = false;
+		for (int i = list.size() - 1; i >= 0 && !toRemove.isEmpty(); --i) {
+			T element = list.get(i);
+			if (toRemove.remove(element.getObjId())) {
+				list.remove(i);
+				index.removed(element);
+				markRemoved(key, element);
+				removed = true;
+			}
+		}
+		return removed;
 	}
 
 	/**
-	 * Clears all the past orders from this restaurant.
+	 * @return Current dining sessions by table
 	 */
-	public void clearPastOrders() {
-		// TODO For each of the Orders delete from parse
+	private Map<Integer, List<DiningSession>> sessionsByTable() {
+		if (mSessionsByTable == null) {
+			mSessionsByTable = new HashMap<Integer, List<DiningSession>>();
+			for (DiningSession session: mSessions) {
+				session.setRefreshListener(mSessionRefreshed);
+				addToTable(session);
+			}
+		}
+		return mSessionsByTable;
+	}
+
+	/**
+	 * @return Current dining sessions by object id of their users
+	 */
+	private Map<String, DiningSession> sessionsByUser() {
+		if (mSessionsByUser == null) {
+			mSessionsByUser = new HashMap<String, DiningSession>();
+			for (DiningSession session: mSessions) {
+				session.setRefreshListener(mSessionRefreshed);
+				addUsers(session);
+			}
+		}
+		return mSessionsByUser;
+	}
+
+	/**
+	 * Indexes a session that was added to the sessions.
+	 * @param session Session that was added
+	 */
+	private void sessionAdded(DiningSession session) {
+		mSessionIndex.added(session);
+		session.setRefreshListener(mSessionRefreshed);
+		if (mSessionsByTable != null) {
+			addToTable(session);
+		}
+		if (mSessionsByUser != null) {
+			addUsers(session);
+		}
+	}
+
+	/**
+	 * Removes a session that was removed from the sessions from the indexes.
+	 * @param session Session that was removed
+	 */
+	private void sessionRemoved(DiningSession session) {
+		if (session.getRefreshListener() == mSessionRefreshed) {
+			session.setRefreshListener(null);
+		}
+		if (mSessionsByTable != null) {
+			List<DiningSession> atTable = mSessionsByTable.get(session.getTableID());
+			if (atTable != null) {
+				for (int i = atTable.size() - 1; i >= 0; --i) {
+					if (atTable.get(i) == session || atTable.get(i).equals(session)) {
+						atTable.remove(i);
+					}
+				}
+				if (atTable.isEmpty()) {
+					mSessionsByTable.remove(session.getTableID());
+				}
+			}
+		}
+		if (mSessionsByUser != null) {
+			for (UserInfo user: session.getUsers()) {
+				DiningSession indexed = user == null ? null : mSessionsByUser.get(user.getObjId());
+				if (indexed != null && (indexed == session || indexed.equals(session))) {
+					mSessionsByUser.remove(user.getObjId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the session indexes so they are built again when next used.
+	 * @param session Session that was refreshed in place
+	 */
+	private synchronized void sessionRefreshed(DiningSession session) {
+		mSessionsByTable = null;
+		mSessionsByUser = null;
+		mSessionSnapshot.changed();
+	}
+
+	/**
+	 * @param session Session to add to the table index
+	 */
+	private void addToTable(DiningSession session) {
+		List<DiningSession> atTable = mSessionsByTable.get(session.getTableID());
+		if (atTable == null) {
+			atTable = new ArrayList<DiningSession>(1);
+			mSessionsByTable.put(session.getTableID(), atTable);
+		}
+		atTable.add(session);
+	}
+
+	/**
+	 * @param session Session whose users to add to the user index
+	 */
+	private void addUsers(DiningSession session) {
+		for (UserInfo user: session.getUsers()) {
+			if (user != null && user.getObjId() != null) {
+				mSessionsByUser.put(user.getObjId(), session);
+			}
+		}
+	}
+
+
+	/**
+	 * @param storable Storable to check
+	 * @param since Time to compare with, null if always
+	 * @return true if storable was created in the cloud after since
+	 */
+	private static boolean isCreatedAfter(Storable storable, Date since) {
+		if (since == null) {
+			return true;
+		}
+		Date created = storable.getCreatedAt();
+		return created != null && created.after(since);
+	}
+
+	/**
+	 * Clears the recently completed orders from this restaurant.
+	 * Their history records are kept.
+	 */
+	public synchronized void clearPastOrders() {
 		mPastOrders.clear();
+		mPastOrderIndex.invalidate();
+		mPastOrderSnapshot.changed();
+	}
+
+	/**
+	 * Stores record in the cloud.  Records are saved on their own 
+	 * so the restaurant does not have to be saved with them.
+	 * @param record Record to store
+	 */
+	private void recordHistory(HistoryRecord record) {
+		record.saveEventually(null);
 	}
 	
 	/**
@@ -347,58 +1154,33 @@ public class Restaurant extends Storable {
 		if (user == null) {
 			return;
 		}
-		// NOTE (MH) Because we have to replace the old version
-		// of this user with a current version.
-		// We have to check for object ID equality to find the object to replace 
-
-		// Find the UserInfo to remove in past users
-		UserInfo toRemove = null;
-		for (UserInfo info : mPastUsers) {
-			if (info.getObjId().equals(user.getObjId())) {
-				toRemove = info;
-			}
-		}
-		// Effectively replaces.
-		if (toRemove != null) {
-			mPastUsers.remove(toRemove);
-			mPastUsers.add(user);
-		}
-
-		// Find the user if they exist in the past .
-		for (DiningSession session: mSessions) {
-			toRemove = null;
-			for (UserInfo sessionUser: session.getUsers()) {
-
-				// Find the user to remove.
-				if (sessionUser.getObjId().equals(user.getObjId())) {
-					toRemove = sessionUser;
-					break;
-				}
-			}
-
-			// Remove and replace new user
-			if (toRemove != null) {
-				session.removeUser(toRemove);
-				session.addUser(user);
-			}
+		// Every reference to this user that was decoded from the cloud
+		// shares the same instance, so updating it updates them all.
+		UserInfo current = StorableIdentityMap.get(UserInfo.class, user.getObjId());
+		if (current != null) {
+			current.updateFrom(user);
 		}
 	}
 	
 	@Override
 	public void deleteFromCloud() {
-		for (Order order: mPastOrders) {
+		for (Order order: getPastOrders()) {
 			order.deleteFromCloud();
 		}
-		for (Order order: mPendingOrders) {
+		for (Order order: getPendingOrders()) {
 			order.deleteFromCloud();
 		}
-		for (Reservation reservation: mReservations) {
+		for (Reservation reservation: getReservationList()) {
 			reservation.deleteFromCloud();
 		}
-		for (CustomerRequest request: mCustomerRequests) {
+		for (CustomerRequest request: getCustomerRequests()) {
 			request.deleteFromCloud();
 		}
 		
+		StorageQuery history = new StorageQuery(HistoryRecord.class.getSimpleName());
+		history.whereEqualTo(HistoryRecord.RESTAURANT, mCompleteObject);
+		Storable.getBackend().deleteAllInBackground(history);
+
 		mRestInfo.deleteFromCloud();
 		super.deleteFromCloud();
 	}
@@ -408,7 +1190,14 @@ public class Restaurant extends Storable {
 	 * @param session to remove
 	 */
 	public void delete(DiningSession session) {
-		mSessions.remove(session);
+		load(mSessions);
+		synchronized (this) {
+			if (remove(mSessions, mSessionIndex, session)) {
+				sessionRemoved(session);
+				markRemoved(SESSIONS, session);
+				mSessionSnapshot.changed();
+			}
+		}
 		session.deleteFromCloud();
 	}
 	
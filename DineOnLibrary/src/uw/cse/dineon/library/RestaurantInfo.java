@@ -14,6 +14,8 @@ import com.parse.ParseUser;
 
 /**
  * Class for storing information on Restaurants.
+ * The images can be changed while the information is packed 
+ * on another thread.
  * @author Espeo196, mhotan
  *
  */
@@ -81,7 +83,7 @@ public class RestaurantInfo extends LocatableStorable {
 	}
 	
 	@Override
-	public ParseObject packObject() {
+	public synchronized ParseObject packObject() {
 		ParseObject po = super.packObject();
 		po.put(PARSEUSER, mUser);
 		po.put(NAME, mName);
@@ -95,6 +97,26 @@ public class RestaurantInfo extends LocatableStorable {
 		return po;
 	}
 
+	/**
+	 * Copies the contact information, location, images and menus of newer.
+	 * @param newer Newer copy of this restaurant
+	 * @return true
+	 */
+	@Override
+	protected synchronized boolean refreshFrom(Storable newer) {
+		RestaurantInfo info = (RestaurantInfo) newer;
+		refreshLocation(info);
+		mAddress = info.mAddress;
+		mHours = info.mHours;
+		mPhone = info.mPhone;
+		mMainImageIndex = info.mMainImageIndex;
+		mImageList.clear();
+		mImageList.addAll(info.mImageList);
+		mMenus.clear();
+		mMenus.addAll(info.mMenus);
+		return true;
+	}
+
 	/**
 	 * @return String Restaurant name
 	 */
@@ -170,6 +192,7 @@ public class RestaurantInfo extends LocatableStorable {
 		} else {
 			this.mAddress = address;
 		}
+		markDirty(ADDR);
 		
 		// Set the location based off this address
 		if (mAddress.hasLatitude() && mAddress.hasLongitude()) {
@@ -189,6 +212,7 @@ public class RestaurantInfo extends LocatableStorable {
 	 */
 	public void setHours(String hours) {
 		this.mHours = hours;
+		markDirty(HOURS);
 	}
 	
 	/**
@@ -206,13 +230,14 @@ public class RestaurantInfo extends LocatableStorable {
 	 */
 	public void setPhone(String number) {
 		this.mPhone = number;
+		markDirty(PHONE);
 	}
 
 	/**
 	 * Returns the main image if it exists.
 	 * @return the main image if it exists, null if no image is set to default
 	 */
-	public DineOnImage getMainImage() {
+	public synchronized DineOnImage getMainImage() {
 		if (mImageList.isEmpty()) {
 			return null;
 		} else if (mMainImageIndex < 0 || mMainImageIndex >= mImageList.size()) {
@@ -225,7 +250,7 @@ public class RestaurantInfo extends LocatableStorable {
 	 * Returns a list of all the general images of this restaurant.
 	 * @return List of images.
 	 */
-	public List<DineOnImage> getImageList() {
+	public synchronized List<DineOnImage> getImageList() {
 		return new ArrayList<DineOnImage>(mImageList);
 	}
 	
@@ -233,7 +258,7 @@ public class RestaurantInfo extends LocatableStorable {
 	 * Remove the image at the index.
 	 * @param index Index to remove.
 	 */
-	public void removeAtIndex(int index) {
+	public synchronized void removeAtIndex(int index) {
 		if (mImageList.isEmpty()) {
 			return;
 		}
@@ -246,7 +271,7 @@ public class RestaurantInfo extends LocatableStorable {
 	 * Adds an image to the end of the group of images.
 	 * @param image Image to add to the restaurant.
 	 */
-	void addImage(DineOnImage image) {
+	synchronized void addImage(DineOnImage image) {
 		if (image == null) {
 			return;
 		}
@@ -258,7 +283,7 @@ public class RestaurantInfo extends LocatableStorable {
 	 * @param image Image to del
 	 * @return True upon success, false on failure
 	 */
-	public boolean removeImage(DineOnImage image) {
+	public synchronized boolean removeImage(DineOnImage image) {
 		if (image == null) {
 			return false;
 		}
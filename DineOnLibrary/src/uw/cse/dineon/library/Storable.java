@@ -1,5 +1,17 @@
 package uw.cse.dineon.library;
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
 import com.parse.ParseACL;
 import com.parse.ParseException;
 import com.parse.ParseObject;
@@ -14,6 +26,18 @@ import com.parse.SaveCallback;
  * This abstract class provides the method definitions that are
  * required to convert ParseObjects and java objects.
  *
+ * Storables that were downloaded from the cloud only have to send the
+ * fields that changed since they were downloaded or last packed.
+ * Subclasses report changes with markDirty, markAdded and markRemoved
+ * and pack their lists with packList so that unchanged lists are not
+ * uploaded again and changed lists are sent as add or remove operations.
+ *
+ * Packed changes stay unsaved until the save that sends them succeeds.
+ * If that save fails the changed fields are sent in full on the next pack.
+ *
+ * Storables are saved to the Parse cloud unless another StorageBackend
+ * is set with setBackend, IE to benchmark without a network.
+ *
  * @author Jordan, Mike
  *
  */
@@ -30,6 +54,66 @@ public abstract class Storable {
 	 */
 	protected final ParseObject mCompleteObject;
 
+	/**
+	 * Approximate number of bytes a pointer takes up in a save request 
+	 * not including its class name and object id.
+	 */
+	private static final int POINTER_OVERHEAD = 
+			"{\"__type\":\"Pointer\",\"className\":\"\",\"objectId\":\"\"},".length();
+
+	/**
+	 * Approximate length of an object id that has not been assigned yet.
+	 */
+	private static final int OBJECT_ID_LENGTH = 10;
+
+	/**
+	 * Keys of fields that have to be sent in full on the next pack.
+	 */
+	private final Set<String> mDirtyKeys = new HashSet<String>();
+
+	/**
+	 * Pending additions to or removals from lists keyed by the list key.
+	 */
+	private final Map<String, ListDelta> mListDeltas = new HashMap<String, ListDelta>();
+
+	/**
+	 * Keys of fields that were packed but not saved yet mapped to
+	 * the number of the pack that packed them.
+	 */
+	private final Map<String, Long> mUnsaved = new HashMap<String, Long>();
+
+	/**
+	 * Storables packed by a save on this thread mapped to the number
+	 * of their pack, null if no save is packing on this thread.
+	 */
+	private static final ThreadLocal<Map<Storable, Long>> PACKING = 
+			new ThreadLocal<Map<Storable, Long>>();
+
+	/**
+	 * Backend every storable is saved to, deleted from and downloaded from.
+	 */
+	private static volatile StorageBackend mBackend = new ParseStorageBackend();
+
+	/**
+	 * True if every field has to be sent, IE this object has never been saved.
+	 */
+	private boolean mPackAll;
+
+	/**
+	 * Approximate number of bytes the last pack avoided sending.
+	 */
+	private long mBytesSaved;
+
+	/**
+	 * Number of times this has been packed.
+	 */
+	private long mPackCount;
+
+	/**
+	 * Time of the cloud copy this was last refreshed from, null if never.
+	 */
+	private Date mRefreshedAt;
+
 	/**
 	 * Creates an empty storable with associated class name.
 	 * @param clazz Particular class for storable
@@ -40,6 +124,7 @@ public abstract class Storable {
 		acl.setPublicReadAccess(true);
 		acl.setPublicWriteAccess(true);
 		mCompleteObject.setACL(acl);
+		mPackAll = true;
 		checkRep();
 	}
 
@@ -55,12 +140,31 @@ public abstract class Storable {
 		// Initially Parse Provides a pointer to value a value in the cloud
 		// 		for nested classes.
 		// We have to explicitly fetch the object if we need it.
-		parseObject.fetchIfNeeded();
+		mBackend.fetchIfNeeded(parseObject);
 		mCompleteObject = parseObject;
 		checkRep();
 	}
 
 
+	/**
+	 * Replaces the backend every storable is saved to, deleted from
+	 * and downloaded from.  Only meant for tests and benchmarks.
+	 * @param backend Backend to use from now on
+	 */
+	public static void setBackend(StorageBackend backend) {
+		if (backend == null) {
+			throw new IllegalArgumentException("Can't have null storage backend");
+		}
+		mBackend = backend;
+	}
+
+	/**
+	 * @return Backend every storable is saved to, deleted from and downloaded from
+	 */
+	public static StorageBackend getBackend() {
+		return mBackend;
+	}
+
 	/**
 	 * Inserts this objects fields and returns the ParseObject
 	 * representation.
@@ -71,9 +175,233 @@ public abstract class Storable {
 		acl.setPublicReadAccess(true);
 		acl.setPublicWriteAccess(true);
 		mCompleteObject.setACL(acl);
+		long packCount;
+		synchronized (this) {
+			mBytesSaved = 0;
+			packCount = ++mPackCount;
+		}
+		Map<Storable, Long> packing = PACKING.get();
+		if (packing != null) {
+			packing.put(this, packCount);
+		}
 		return mCompleteObject;
 	}
 
+	/**
+	 * Marks the field stored under key as changed so it is sent in full
+	 * on the next pack.
+	 * @param key Parse key of the field
+	 */
+	protected synchronized void markDirty(String key) {
+		mListDeltas.remove(key);
+		mDirtyKeys.add(key);
+	}
+
+	/**
+	 * Records that element was added to the end of the list stored under key.
+	 * @param key Parse key of the list
+	 * @param element Element that was added
+	 */
+	protected synchronized void markAdded(String key, Storable element) {
+		if (mPackAll || mDirtyKeys.contains(key)) {
+			return; // The whole list will be sent anyway.
+		}
+		ListDelta delta = mListDeltas.get(key);
+		if (delta == null) {
+			delta = new ListDelta();
+			mListDeltas.put(key, delta);
+		}
+		if (!removeSame(delta.mRemoved, element)) {
+			delta.mAdded.add(element);
+		}
+		checkDelta(key, delta);
+	}
+
+	/**
+	 * Records that element was removed from the list stored under key.
+	 * @param key Parse key of the list
+	 * @param element Element that was removed
+	 */
+	protected synchronized void markRemoved(String key, Storable element) {
+		if (mPackAll || mDirtyKeys.contains(key)) {
+			return; // The whole list will be sent anyway.
+		}
+		if (element.getObjId() == null) {
+			// Can't identify it in the cloud, send the whole list instead.
+			markDirty(key);
+			return;
+		}
+		ListDelta delta = mListDeltas.get(key);
+		if (delta == null) {
+			delta = new ListDelta();
+			mListDeltas.put(key, delta);
+		}
+		if (!removeSame(delta.mAdded, element)) {
+			delta.mRemoved.add(element);
+		}
+		checkDelta(key, delta);
+	}
+
+	/**
+	 * Returns whether the field stored under key has to be sent on the next pack.
+	 * @param key Parse key of the field
+	 * @return true if the field changed or this has never been saved
+	 */
+	protected synchronized boolean isDirty(String key) {
+		return mPackAll || mDirtyKeys.contains(key) || mListDeltas.containsKey(key);
+	}
+
+	/**
+	 * @return true if there are changes that have not been saved yet,
+	 * 	including changes that are being saved
+	 */
+	public synchronized boolean hasUnsavedChanges() {
+		return mPackAll || !mDirtyKeys.isEmpty() || !mListDeltas.isEmpty() 
+				|| !mUnsaved.isEmpty();
+	}
+
+	/**
+	 * Returns the approximate number of bytes the last call to packObject
+	 * did not have to send because they had not changed.
+	 * @return bytes saved by the last pack
+	 */
+	public synchronized long getBytesSavedByLastPack() {
+		return mBytesSaved;
+	}
+
+	/**
+	 * Puts list into po under key.  If only elements were added or
+	 * only elements were removed since the last pack then only those
+	 * elements are sent.  If the list has not changed nothing is sent.
+	 * Backends that don't support list operations always get the whole list.
+	 * @param po ParseObject to pack into
+	 * @param key Parse key of the list
+	 * @param list List to pack
+	 */
+	protected synchronized void packList(ParseObject po, String key, 
+			List<? extends Storable> list) {
+		if (mPackAll || mDirtyKeys.remove(key) || !mBackend.supportsListOperations()) {
+			mListDeltas.remove(key);
+			mUnsaved.put(key, mPackCount);
+			po.put(key, ParseUtil.toListOfParseObjects(list));
+			return;
+		}
+
+		long fullSize = estimateSize(list);
+		ListDelta delta = mListDeltas.remove(key);
+		if (delta == null) {
+			mBytesSaved += fullSize;
+			return;
+		}
+		mUnsaved.put(key, mPackCount);
+		// The cloud does not allow adding and removing in the same save
+		// so checkDelta made sure only one of them happened.
+		if (!delta.mAdded.isEmpty()) {
+			po.addAll(key, ParseUtil.toListOfParseObjects(delta.mAdded));
+			mBytesSaved += fullSize - estimateSize(delta.mAdded);
+		} else {
+			po.removeAll(key, ParseUtil.toListOfParseObjects(delta.mRemoved));
+			mBytesSaved += fullSize - estimateSize(delta.mRemoved);
+		}
+	}
+
+	/**
+	 * Called once a save has packed this.  Scalar fields are packed
+	 * every time so their changes are now being saved as well.
+	 * @param packCount Number of the pack of the save
+	 */
+	private synchronized void onPackedForSave(long packCount) {
+		for (String key: mDirtyKeys) {
+			mUnsaved.put(key, packCount);
+		}
+		mDirtyKeys.clear();
+	}
+
+	/**
+	 * Called once a save that packed this has finished.  The changes
+	 * it sent are either saved or have to be sent in full again.
+	 * @param packCount Number of the pack of the save
+	 * @param saved true if the save succeeded
+	 */
+	private synchronized void onSaveDone(long packCount, boolean saved) {
+		if (saved) {
+			mPackAll = false;
+		}
+		Iterator<Map.Entry<String, Long>> iter = mUnsaved.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<String, Long> entry = iter.next();
+			if (entry.getValue() > packCount) {
+				continue; // Sent by a later save
+			}
+			iter.remove();
+			if (!saved) {
+				// The operations that were sent may be lost, send the whole field.
+				markDirty(entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Makes sure the delta of key can be sent as a single operation.
+	 * Otherwise the whole list is marked to be sent.
+	 * @param key Parse key of the list
+	 * @param delta Delta of the list
+	 */
+	private void checkDelta(String key, ListDelta delta) {
+		if (!delta.mAdded.isEmpty() && !delta.mRemoved.isEmpty()) {
+			markDirty(key);
+		} else if (delta.mAdded.isEmpty() && delta.mRemoved.isEmpty()) {
+			mListDeltas.remove(key);
+		}
+	}
+
+	/**
+	 * Removes the exact instance element from list.
+	 * @param list List to remove from
+	 * @param element Element to remove
+	 * @return true if the element was removed
+	 */
+	private static boolean removeSame(List<Storable> list, Storable element) {
+		for (int i = 0; i < list.size(); ++i) {
+			if (list.get(i) == element) {
+				list.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Approximates the number of bytes list takes up as a list of pointers.
+	 * Does not download or pack any of the elements.
+	 * @param list List to measure
+	 * @return Approximate size in bytes
+	 */
+	private static long estimateSize(List<? extends Storable> list) {
+		long size = 0;
+		if (list instanceof LazyStorableList) {
+			for (ParseObject po: ((LazyStorableList<?>) list).toParseObjects()) {
+				size += estimateSize(po);
+			}
+			return size;
+		}
+		for (Storable s: list) {
+			size += estimateSize(s.mCompleteObject);
+		}
+		return size;
+	}
+
+	/**
+	 * Approximates the number of bytes po takes up as a pointer.
+	 * @param po Object to measure
+	 * @return Approximate size in bytes
+	 */
+	private static long estimateSize(ParseObject po) {
+		String id = po.getObjectId();
+		return POINTER_OVERHEAD + po.getClassName().length()
+				+ (id == null ? OBJECT_ID_LENGTH : id.length());
+	}
+
 	/**
 	 *
 	 * @return String objId
@@ -82,6 +410,59 @@ public abstract class Storable {
 		return mCompleteObject.getObjectId();
 	}
 
+	/**
+	 * @return Time this object was last updated in the cloud,
+	 * 	null if it was never saved
+	 */
+	public Date getUpdatedAt() {
+		Date updated = mCompleteObject.getUpdatedAt();
+		synchronized (this) {
+			if (mRefreshedAt != null && (updated == null || mRefreshedAt.after(updated))) {
+				return mRefreshedAt;
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * Updates this in place with the state of newer, a more recent copy
+	 * of the same object that was decoded from the cloud.  Since every
+	 * reference to the object shares this instance they all see the change.
+	 * StorableIdentityMap never replaces an instance that was handed out,
+	 * so every Storable that can change in the cloud has to copy its state.
+	 * @param newer Newer copy of this object, of the same class and object id
+	 * @return true if this was updated, false if this keeps its old state
+	 */
+	protected boolean refreshFrom(Storable newer) {
+		return false;
+	}
+
+	/**
+	 * Refreshes this in place with newer.  Changes that were not saved yet
+	 * are kept, so this is not refreshed while it has any.  The next newer
+	 * copy that is decoded after they are saved refreshes this instead.
+	 * @param newer Newer copy of this object, of the same class and object id
+	 * @return true if the state of newer was applied, false if this still
+	 * 	has the state it had before
+	 */
+	boolean refresh(Storable newer) {
+		if (hasUnsavedChanges() || !refreshFrom(newer)) {
+			return false;
+		}
+		synchronized (this) {
+			mRefreshedAt = newer.getUpdatedAt();
+		}
+		return true;
+	}
+
+	/**
+	 * @return Time this object was first saved in the cloud,
+	 * 	null if it was never saved
+	 */
+	public Date getCreatedAt() {
+		return mCompleteObject.getCreatedAt();
+	}
+
 	/**
 	 * Save this Storable object in the background.
 	 * Notifies completion or failure via the inputted callback
@@ -89,12 +470,8 @@ public abstract class Storable {
 	 * @param saveCallBack callback to handle the event on save completion or failure
 	 */
 	public void saveInBackGround(SaveCallback saveCallBack) {
-		ParseObject po = this.packObject();
-		if (saveCallBack != null) {
-			po.saveInBackground(saveCallBack);
-		} else {
-			po.saveInBackground();
-		}
+		SavedCallback callback = new SavedCallback(saveCallBack);
+		mBackend.saveInBackground(callback.pack(), callback);
 	}
 
 	/**
@@ -105,12 +482,8 @@ public abstract class Storable {
 	 * @param saveCallBack callback to handle the event on save completion or failure
 	 */
 	public void saveEventually(SaveCallback saveCallBack) {
-		ParseObject po = this.packObject();
-		if (saveCallBack != null) {
-			po.saveEventually(saveCallBack);
-		} else {
-			po.saveEventually();
-		}
+		SavedCallback callback = new SavedCallback(saveCallBack);
+		mBackend.saveEventually(callback.pack(), callback);
 	}
 
 	/**
@@ -119,8 +492,15 @@ public abstract class Storable {
 	 * @throws ParseException Could not download
 	 */
 	public void saveOnCurrentThread() throws ParseException {
-		ParseObject po = this.packObject();
-		po.save();
+		SavedCallback callback = new SavedCallback(null);
+		ParseObject po = callback.pack();
+		try {
+			mBackend.save(po);
+		} catch (ParseException e) {
+			callback.done(e);
+			throw e;
+		}
+		callback.done(null);
 	}
 
 	/**
@@ -138,7 +518,7 @@ public abstract class Storable {
 	 * to eventually occur.
 	 */
 	public void deleteFromCloud() {
-		mCompleteObject.deleteInBackground();
+		mBackend.deleteInBackground(mCompleteObject);
 	}
 
 	/**
@@ -215,6 +595,17 @@ public abstract class Storable {
 //		return 0;
 //	}
 	
+	/**
+	 * Sets the idempotency key this object is saved with the first time.
+	 * An attempt to save it again can then find the copy an earlier
+	 * attempt saved instead of making a second one, see
+	 * StorageBackend.findSaved.
+	 * @param key Key that is the same for every attempt to save this
+	 */
+	public void setSaveKey(String key) {
+		mCompleteObject.put(ParseUtil.SAVE_KEY, key);
+	}
+
 	/**
 	 * Sets the object Id of this object.
 	 * @param objId string to set the Parse ID to.
@@ -223,4 +614,59 @@ public abstract class Storable {
 		mCompleteObject.setObjectId(objId);
 	}
 
+	/**
+	 * Elements added to and removed from a list since the last pack.
+	 */
+	private static class ListDelta {
+		private final List<Storable> mAdded = new ArrayList<Storable>();
+		private final List<Storable> mRemoved = new ArrayList<Storable>();
+	}
+
+	/**
+	 * Save callback that records the outcome of a save in every storable
+	 * it packed before notifying the client.
+	 */
+	private class SavedCallback extends SaveCallback {
+
+		private final SaveCallback mClientCallback;
+		private final Map<Storable, Long> mPacked;
+
+		/**
+		 * @param clientCallback Callback to notify, can be null
+		 */
+		public SavedCallback(SaveCallback clientCallback) {
+			mClientCallback = clientCallback;
+			mPacked = new IdentityHashMap<Storable, Long>();
+		}
+
+		/**
+		 * Packs this storable and the storables packed along with it.
+		 * @return ParseObject to save
+		 */
+		public ParseObject pack() {
+			Map<Storable, Long> outer = PACKING.get();
+			PACKING.set(mPacked);
+			ParseObject po;
+			try {
+				po = packObject();
+			} finally {
+				PACKING.set(outer);
+			}
+			for (Map.Entry<Storable, Long> entry: mPacked.entrySet()) {
+				entry.getKey().onPackedForSave(entry.getValue());
+			}
+			return po;
+		}
+
+		@Override
+		public void done(ParseException e) {
+			for (Map.Entry<Storable, Long> entry: mPacked.entrySet()) {
+				entry.getKey().onSaveDone(entry.getValue(), e == null);
+			}
+			if (mClientCallback != null) {
+				mClientCallback.done(e);
+			}
+		}
+	}
+
 }
@@ -0,0 +1,24 @@
+package uw.cse.dineon.library;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Builds a particular type of Storable from its ParseObject
+ * representation.  Every Storable that can be downloaded has one of these
+ * registered in the StorableRegistry so decoding never has to go through
+ * reflection.
+ * 
+ * @param <T> Type of Storable this factory builds
+ */
+public interface StorableFactory<T extends Storable> {
+
+	/**
+	 * Creates a Storable instance from the ParseObject.
+	 * @param po ParseObject that was created by packing a T
+	 * @return new instance of T
+	 * @throws ParseException if the object could not be downloaded
+	 */
+	T create(ParseObject po) throws ParseException;
+
+}
@@ -0,0 +1,309 @@
+package uw.cse.dineon.library;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Identity map of every Storable decoded from the cloud during the session
+ * of the current user.
+ *
+ * The same ParseObject id is decoded into exactly one Storable instance so
+ * that aggregates like the Restaurant share a single UserInfo between its
+ * past users, dining sessions, orders and requests instead of holding one
+ * copy per reference.  An update to an entity is therefore a single change
+ * to a single instance.
+ *
+ * A newer copy of an object refreshes the remembered instance in place
+ * so sessions, orders and requests that reference it see the change.
+ * An instance that was handed out is never replaced by another one.
+ *
+ * Entries are keyed by (Parse class name, object id) and only weakly
+ * referenced so instances nobody uses anymore can still be garbage collected.
+ *
+ * Every user session has its own entries.  A decode that is still running
+ * when the session ends only adds to the entries of the session it
+ * started in, so instances of the last user never leak into the next one.
+ *
+ * NOTE: Call startSession() when a user logs in or out.
+ */
+public final class StorableIdentityMap {
+
+	/**
+	 * Entries of the current user session.
+	 */
+	private static volatile Session mSession = new Session();
+
+	/**
+	 * Hidden constructor.
+	 */
+	private StorableIdentityMap() { }
+
+	/**
+	 * Returns the instance of clazz that represents po.
+	 * If po was already decoded and that instance is still in use then
+	 * that instance is returned.  Otherwise a new instance is built by the
+	 * factory registered in StorableRegistry and remembered.
+	 *
+	 * If po is known to be newer than the remembered instance the remembered
+	 * instance is refreshed from it, see Storable.refreshFrom.  The
+	 * remembered instance is returned even if it has to keep its state
+	 * because it has changes that were not saved yet.
+	 *
+	 * @param <T> Type of Storable
+	 * @param clazz Class to decode po into
+	 * @param po ParseObject to decode
+	 * @return instance of clazz that represents po
+	 * @throws ParseException if the object could not be downloaded
+	 */
+	public static <T extends Storable> T decode(Class<T> clazz, ParseObject po)
+			throws ParseException {
+		String objId = po.getObjectId();
+		if (objId == null) {
+			// Never saved so it can't be referenced by anybody else.
+			return StorableRegistry.getFactory(clazz).create(po);
+		}
+
+		Session session = mSession;
+		String key = keyFor(clazz, objId);
+		T stale;
+		synchronized (session) {
+			T cached = session.lookUp(clazz, key, po.getUpdatedAt());
+			if (cached != null) {
+				return cached;
+			}
+			stale = session.lookUp(clazz, key, null);
+		}
+
+		// Build and refresh outside the lock because building may download.
+		T storable = StorableRegistry.getFactory(clazz).create(po);
+		if (stale != null) {
+			// Only remember that stale is up to date if it really is, so a
+			// refresh that had to wait for local changes is tried again.
+			if (stale.refresh(storable)) {
+				synchronized (session) {
+					if (session.lookUp(clazz, key, null) == stale) {
+						session.put(key, stale, po.getUpdatedAt());
+					}
+				}
+			}
+			return stale;
+		}
+		synchronized (session) {
+			// Another thread may have beaten us to it.
+			T cached = session.lookUp(clazz, key, null);
+			if (cached != null) {
+				return cached;
+			}
+			session.put(key, storable, po.getUpdatedAt());
+		}
+		return storable;
+	}
+
+	/**
+	 * Downloads known again only if it changed in the cloud since it was
+	 * last updated and refreshes it with the newer copy, see decode.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param <T> Type of Storable
+	 * @param clazz Class of known
+	 * @param known Instance to check
+	 * @param includes Keys of nested objects to download along with it
+	 * @return The instance that represents known after the check,
+	 * 	known itself unless it was not remembered
+	 * @throws ParseException if the newer copy could not be downloaded
+	 */
+	public static <T extends Storable> T refreshIfUpdated(Class<T> clazz, T known, 
+			String... includes) throws ParseException {
+		if (known.getObjId() == null || known.getUpdatedAt() == null) {
+			return known;
+		}
+		ParseObject found = Storable.getBackend().getIfUpdatedSince(
+				clazz.getSimpleName(), known.getObjId(), known.getUpdatedAt(), includes);
+		if (found == null) {
+			return known;
+		}
+		return decode(clazz, found);
+	}
+
+	/**
+	 * Returns the instance of clazz with object id objId.
+	 * @param <T> Type of Storable
+	 * @param clazz Class of the instance
+	 * @param objId Object id of the instance
+	 * @return The instance or null if there is no such instance in use
+	 */
+	public static <T extends Storable> T get(Class<T> clazz, String objId) {
+		if (clazz == null || objId == null) {
+			return null;
+		}
+		Session session = mSession;
+		synchronized (session) {
+			return session.lookUp(clazz, keyFor(clazz, objId), null);
+		}
+	}
+
+	/**
+	 * Remembers storable as the instance that represents its object id.
+	 * Useful for objects that were created locally and then saved.
+	 * @param storable Storable to remember, must have an object id
+	 */
+	public static void put(Storable storable) {
+		if (storable == null || storable.getObjId() == null) {
+			throw new IllegalArgumentException(
+					"Can't remember a Storable that has not been saved");
+		}
+		Session session = mSession;
+		synchronized (session) {
+			session.put(keyFor(storable.getClass(), storable.getObjId()), storable, null);
+		}
+	}
+
+	/**
+	 * Forgets the instance of clazz with object id objId.
+	 * @param clazz Class of the instance
+	 * @param objId Object id of the instance
+	 */
+	public static void remove(Class<? extends Storable> clazz, String objId) {
+		if (clazz == null || objId == null) {
+			return;
+		}
+		Session session = mSession;
+		synchronized (session) {
+			session.mEntries.remove(keyFor(clazz, objId));
+		}
+	}
+
+	/**
+	 * Ends the current user session and starts a new one without any
+	 * instances.  Decodes that are still running finish in the old session.
+	 */
+	public static void startSession() {
+		mSession = new Session();
+	}
+
+	/**
+	 * Forgets every instance of the current session.
+	 */
+	public static void clear() {
+		Session session = mSession;
+		synchronized (session) {
+			session.mEntries.clear();
+			// Drains the queue, none of the entries are left to remove
+			session.purge();
+		}
+	}
+
+	/**
+	 * @return number of instances remembered in the current session.
+	 */
+	public static int size() {
+		Session session = mSession;
+		synchronized (session) {
+			session.purge();
+			return session.mEntries.size();
+		}
+	}
+
+	/**
+	 * @param clazz Class of the instance
+	 * @param objId Object id of the instance
+	 * @return Key for the instance
+	 */
+	private static String keyFor(Class<?> clazz, String objId) {
+		return clazz.getSimpleName() + ":" + objId;
+	}
+
+	/**
+	 * Instances remembered during one user session.
+	 * Not thread safe, callers synchronize on the session.
+	 */
+	private static class Session {
+
+		/**
+		 * Entries keyed by Parse class name and object id.
+		 */
+		private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+		/**
+		 * Queue the garbage collector adds cleared entries to.
+		 */
+		private final ReferenceQueue<Storable> mCleared = new ReferenceQueue<Storable>();
+
+		/**
+		 * Returns the live instance stored under key.
+		 * @param <T> Type of Storable
+		 * @param clazz Class of the instance
+		 * @param key Key of the instance
+		 * @param updatedAt Last time the caller knows the object was updated,
+		 * 	null if unknown
+		 * @return The instance or null if there is none or it is out of date
+		 */
+		@SuppressWarnings("unchecked")
+		<T extends Storable> T lookUp(Class<T> clazz, String key, Date updatedAt) {
+			Entry entry = mEntries.get(key);
+			if (entry == null) {
+				return null;
+			}
+			Storable storable = entry.get();
+			if (storable == null || !clazz.isInstance(storable)) {
+				return null;
+			}
+			if (updatedAt != null && entry.mUpdatedAt != null
+					&& updatedAt.after(entry.mUpdatedAt)) {
+				return null;
+			}
+			return (T) storable;
+		}
+
+		/**
+		 * Stores storable under key.
+		 * @param key Key to store under
+		 * @param storable Storable to store
+		 * @param updatedAt Last time the object was updated in the cloud, null if unknown
+		 */
+		void put(String key, Storable storable, Date updatedAt) {
+			purge();
+			mEntries.put(key, new Entry(key, storable, updatedAt, mCleared));
+		}
+
+		/**
+		 * Removes all the entries whose instances were garbage collected.
+		 */
+		void purge() {
+			Entry cleared;
+			while ((cleared = (Entry) mCleared.poll()) != null) {
+				// Only remove if it was not replaced in the meantime.
+				if (mEntries.get(cleared.mKey) == cleared) {
+					mEntries.remove(cleared.mKey);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Weak reference to a decoded instance.
+	 */
+	private static class Entry extends WeakReference<Storable> {
+
+		private final String mKey;
+		private final Date mUpdatedAt;
+
+		/**
+		 * @param key Key the entry is stored under
+		 * @param storable Instance to reference
+		 * @param updatedAt Last time the object was updated in the cloud
+		 * @param cleared Queue of the session to add the entry to once cleared
+		 */
+		public Entry(String key, Storable storable, Date updatedAt,
+				ReferenceQueue<Storable> cleared) {
+			super(storable, cleared);
+			mKey = key;
+			mUpdatedAt = updatedAt;
+		}
+	}
+}
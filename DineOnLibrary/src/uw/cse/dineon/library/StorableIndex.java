@@ -0,0 +1,143 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the Storables in a list by their object id.
+ *
+ * The index is built the first time it is used so lists that are
+ * downloaded lazily, see LazyStorableList, are not downloaded early.
+ * Afterwards the owner of the list has to tell the index about every
+ * element it adds or removes.
+ *
+ * Elements that have not been saved yet have no object id.  They are
+ * indexed as soon as they have one.
+ *
+ * Not thread safe, the owner of the list has to synchronize.  Building
+ * the index reads the whole list, so the owner has to load a lazy list
+ * before it takes its lock.
+ *
+ * @param <T> Type of the elements
+ */
+class StorableIndex<T extends Storable> {
+
+	/**
+	 * List that is indexed.
+	 */
+	private final List<T> mList;
+
+	/**
+	 * Elements by object id, null until the index is built.
+	 */
+	private Map<String, T> mById;
+
+	/**
+	 * Elements that had no object id when they were indexed.
+	 */
+	private final List<T> mWithoutId;
+
+	/**
+	 * Creates an index of list.
+	 * @param list List to index
+	 */
+	StorableIndex(List<T> list) {
+		mList = list;
+		mWithoutId = new ArrayList<T>();
+	}
+
+	/**
+	 * @param objId Object id of the element
+	 * @return The element with objId, null if the list has none
+	 */
+	T get(String objId) {
+		if (objId == null) {
+			return null;
+		}
+		index();
+		return mById.get(objId);
+	}
+
+	/**
+	 * @param element Element to look for
+	 * @return true if the list contains an element equal to element
+	 */
+	boolean contains(T element) {
+		return element != null && get(element.getObjId()) != null;
+	}
+
+	/**
+	 * Indexes an element that was added to the list.
+	 * @param element Element that was added
+	 */
+	void added(T element) {
+		if (mById != null) {
+			put(element);
+		}
+	}
+
+	/**
+	 * Removes an element that was removed from the list.
+	 * Lists remove by object id so any copy of the element works.
+	 * @param element Element that was removed
+	 */
+	void removed(T element) {
+		if (mById == null) {
+			return;
+		}
+		String objId = element.getObjId();
+		if (objId != null) {
+			mById.remove(objId);
+		}
+		for (Iterator<T> it = mWithoutId.iterator(); it.hasNext();) {
+			if (it.next() == element) {
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Builds the index again the next time it is used.
+	 */
+	void invalidate() {
+		mById = null;
+		mWithoutId.clear();
+	}
+
+	/**
+	 * Builds the index if needed and indexes elements that
+	 * were saved since they were indexed.
+	 */
+	private void index() {
+		if (mById == null) {
+			mById = new HashMap<String, T>();
+			for (T element: mList) {
+				put(element);
+			}
+			return;
+		}
+		if (mWithoutId.isEmpty()) {
+			return;
+		}
+		List<T> waiting = new ArrayList<T>(mWithoutId);
+		mWithoutId.clear();
+		for (T element: waiting) {
+			put(element);
+		}
+	}
+
+	/**
+	 * @param element Element to index
+	 */
+	private void put(T element) {
+		String objId = element.getObjId();
+		if (objId == null) {
+			mWithoutId.add(element);
+		} else {
+			mById.put(objId, element);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package uw.cse.dineon.library;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import uw.cse.dineon.library.image.DineOnImage;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Registry of StorableFactories keyed by Parse class name.
+ *
+ * All the Storables of this library are registered up front so decoding
+ * a ParseObject is a single map lookup and a constructor call.  Any other
+ * Storable is looked up reflectively once and then cached as a factory.
+ */
+public final class StorableRegistry {
+
+	/**
+	 * Factories keyed by Parse class name.
+	 */
+	private static final Map<String, StorableFactory<?>> FACTORIES =
+			new ConcurrentHashMap<String, StorableFactory<?>>();
+
+	/**
+	 * Classes of the factories keyed by Parse class name.
+	 */
+	private static final Map<String, Class<? extends Storable>> CLASSES =
+			new ConcurrentHashMap<String, Class<? extends Storable>>();
+
+	static {
+		register(Order.class, new StorableFactory<Order>() {
+			@Override
+			public Order create(ParseObject po) throws ParseException {
+				return new Order(po);
+			}
+		});
+		register(MenuItem.class, new StorableFactory<MenuItem>() {
+			@Override
+			public MenuItem create(ParseObject po) throws ParseException {
+				return new MenuItem(po);
+			}
+		});
+		register(UserInfo.class, new StorableFactory<UserInfo>() {
+			@Override
+			public UserInfo create(ParseObject po) throws ParseException {
+				return new UserInfo(po);
+			}
+		});
+		register(DiningSession.class, new StorableFactory<DiningSession>() {
+			@Override
+			public DiningSession create(ParseObject po) throws ParseException {
+				return new DiningSession(po);
+			}
+		});
+		register(CustomerRequest.class, new StorableFactory<CustomerRequest>() {
+			@Override
+			public CustomerRequest create(ParseObject po) throws ParseException {
+				return new CustomerRequest(po);
+			}
+		});
+		register(Reservation.class, new StorableFactory<Reservation>() {
+			@Override
+			public Reservation create(ParseObject po) throws ParseException {
+				return new Reservation(po);
+			}
+		});
+		register(Menu.class, new StorableFactory<Menu>() {
+			@Override
+			public Menu create(ParseObject po) throws ParseException {
+				return new Menu(po);
+			}
+		});
+		register(DineOnImage.class, new StorableFactory<DineOnImage>() {
+			@Override
+			public DineOnImage create(ParseObject po) throws ParseException {
+				return new DineOnImage(po);
+			}
+		});
+		register(RestaurantInfo.class, new StorableFactory<RestaurantInfo>() {
+			@Override
+			public RestaurantInfo create(ParseObject po) throws ParseException {
+				return new RestaurantInfo(po);
+			}
+		});
+		register(CurrentOrderItem.class, new StorableFactory<CurrentOrderItem>() {
+			@Override
+			public CurrentOrderItem create(ParseObject po) throws ParseException {
+				return new CurrentOrderItem(po);
+			}
+		});
+		register(Restaurant.class, new StorableFactory<Restaurant>() {
+			@Override
+			public Restaurant create(ParseObject po) throws ParseException {
+				return new Restaurant(po);
+			}
+		});
+		register(DineOnUser.class, new StorableFactory<DineOnUser>() {
+			@Override
+			public DineOnUser create(ParseObject po) throws ParseException {
+				return new DineOnUser(po);
+			}
+		});
+		register(HistoryRecord.class, new StorableFactory<HistoryRecord>() {
+			@Override
+			public HistoryRecord create(ParseObject po) throws ParseException {
+				return new HistoryRecord(po);
+			}
+		});
+	}
+
+	/**
+	 * Hidden constructor.
+	 */
+	private StorableRegistry() { }
+
+	/**
+	 * Registers factory as the way to build instances of clazz.
+	 * Replaces any factory that was previously registered.
+	 * @param <T> Type of Storable
+	 * @param clazz Class the factory builds
+	 * @param factory Factory to use
+	 */
+	public static <T extends Storable> void register(
+			Class<T> clazz, StorableFactory<T> factory) {
+		if (clazz == null || factory == null) {
+			throw new IllegalArgumentException("Can't register null factory or class");
+		}
+		FACTORIES.put(clazz.getSimpleName(), factory);
+		CLASSES.put(clazz.getSimpleName(), clazz);
+	}
+
+	/**
+	 * Returns the factory that builds instances of clazz.
+	 * @param <T> Type of Storable
+	 * @param clazz Class to find the factory for
+	 * @return Factory for clazz, never null
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends Storable> StorableFactory<T> getFactory(Class<T> clazz) {
+		StorableFactory<?> factory = FACTORIES.get(clazz.getSimpleName());
+		if (factory == null) {
+			// Not one of ours, look it up once and remember it.
+			StorableFactory<T> reflective = new ReflectiveFactory<T>(clazz);
+			FACTORIES.put(clazz.getSimpleName(), reflective);
+			CLASSES.put(clazz.getSimpleName(), clazz);
+			return reflective;
+		}
+		return (StorableFactory<T>) factory;
+	}
+
+	/**
+	 * Returns the factory registered for a Parse class name.
+	 * @param className Parse class name, IE ParseObject.getClassName()
+	 * @return Factory for the class name or null if none is registered
+	 */
+	public static StorableFactory<?> getFactory(String className) {
+		return FACTORIES.get(className);
+	}
+
+	/**
+	 * Returns the class registered for a Parse class name.
+	 * @param className Parse class name, IE ParseObject.getClassName()
+	 * @return Class of the registered factory or null if none is registered
+	 */
+	public static Class<? extends Storable> getStorableClass(String className) {
+		return CLASSES.get(className);
+	}
+
+	/**
+	 * Factory for Storables that were never registered.
+	 * The constructor is found once per class instead of once per object.
+	 * @param <T> Type of Storable
+	 */
+	private static class ReflectiveFactory<T extends Storable> implements StorableFactory<T> {
+
+		private final Constructor<T> mCtor;
+
+		/**
+		 * Finds the constructor of clazz that takes a ParseObject.
+		 * @param clazz Class to build
+		 */
+		public ReflectiveFactory(Class<T> clazz) {
+			try {
+				mCtor = clazz.getConstructor(ParseObject.class);
+			} catch (NoSuchMethodException e) {
+				throw new RuntimeException("Constructor for: " + clazz.getSimpleName()
+						+ " that takes one ParseObject not found!");
+			}
+		}
+
+		@Override
+		public T create(ParseObject po) throws ParseException {
+			try {
+				return mCtor.newInstance(po);
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof ParseException) {
+					throw (ParseException) e.getCause();
+				}
+				throw new RuntimeException(e.getCause());
+			} catch (InstantiationException e) {
+				throw new RuntimeException(e);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+}
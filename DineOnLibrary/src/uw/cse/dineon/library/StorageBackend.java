@@ -0,0 +1,141 @@
+package uw.cse.dineon.library;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import com.parse.GetCallback;
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery.CachePolicy;
+import com.parse.SaveCallback;
+
+/**
+ * Place Storables are saved to, deleted from and downloaded from.
+ *
+ * Normally this is the Parse cloud, see ParseStorageBackend.  For tests
+ * and benchmarks that must not depend on the network the backend can be
+ * replaced with MemoryStorageBackend through Storable.setBackend.
+ *
+ * Implementations must be thread safe.
+ */
+public interface StorageBackend {
+
+	/**
+	 * Saves object and every unsaved object nested in it.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param object Object to save
+	 * @throws ParseException if the object could not be saved
+	 */
+	void save(ParseObject object) throws ParseException;
+
+	/**
+	 * Saves object in the background.
+	 * @param object Object to save
+	 * @param callback Notified on the main thread when the save completes, can be null
+	 */
+	void saveInBackground(ParseObject object, SaveCallback callback);
+
+	/**
+	 * Saves object in the background whenever the backend is available.
+	 * @param object Object to save
+	 * @param callback Notified on the main thread when the save completes, can be null
+	 */
+	void saveEventually(ParseObject object, SaveCallback callback);
+
+	/**
+	 * Deletes object in the background.
+	 * @param object Object to delete
+	 */
+	void deleteInBackground(ParseObject object);
+
+	/**
+	 * Deletes every object query finds in the background, also the
+	 * ones beyond the limit of query.
+	 * @param query Query of the objects to delete
+	 */
+	void deleteAllInBackground(StorageQuery query);
+
+	/**
+	 * Downloads the data of object if it only is a pointer.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param object Object to fetch
+	 * @throws ParseException if the data could not be downloaded
+	 */
+	void fetchIfNeeded(ParseObject object) throws ParseException;
+
+	/**
+	 * Downloads a single object.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param className Class of the object
+	 * @param objId Object id of the object
+	 * @param includes Keys of nested objects to download along with it
+	 * @return The object with its data
+	 * @throws ParseException if the object does not exist or could not be downloaded
+	 */
+	ParseObject get(String className, String objId, String... includes)
+			throws ParseException;
+
+	/**
+	 * Downloads a single object in the background.
+	 * @param className Class of the object
+	 * @param objId Object id of the object
+	 * @param policy Cache policy of the download, null for the default of the backend
+	 * @param callback Notified on the main thread with the object or the error
+	 */
+	void getInBackground(String className, String objId, CachePolicy policy,
+			GetCallback callback);
+
+	/**
+	 * Downloads every object of className with one of objIds in as few
+	 * round trips as possible.  Objects that don't exist are left out.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param className Class of the objects
+	 * @param objIds Object ids of the objects, any number of them
+	 * @param includes Keys of nested objects to download along with them
+	 * @return The objects with their data in no particular order
+	 * @throws ParseException if the objects could not be downloaded
+	 */
+	List<ParseObject> getAll(String className, Collection<String> objIds,
+			String... includes) throws ParseException;
+
+	/**
+	 * Downloads the objects query finds.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param query Query to run
+	 * @return The objects found with their data, at most the limit of query
+	 * @throws ParseException if the objects could not be downloaded
+	 */
+	List<ParseObject> find(StorageQuery query) throws ParseException;
+
+	/**
+	 * Downloads a single object only if it changed after since.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param className Class of the object
+	 * @param objId Object id of the object
+	 * @param since Time of the copy the caller has
+	 * @param includes Keys of nested objects to download along with it
+	 * @return The object with its data, null if it did not change
+	 * @throws ParseException if the object could not be downloaded
+	 */
+	ParseObject getIfUpdatedSince(String className, String objId, Date since,
+			String... includes) throws ParseException;
+
+	/**
+	 * Finds the object of className that was saved with an idempotency key,
+	 * IE by an earlier attempt to save it whose answer got lost.
+	 * NOTE: Blocks, do not call on the main thread.
+	 * @param className Class of the object
+	 * @param key Idempotency key the object was saved with, see Storable.setSaveKey
+	 * @return Object id of the object, null if no object was saved with key
+	 * @throws ParseException if the objects could not be searched
+	 */
+	String findSaved(String className, String key) throws ParseException;
+
+	/**
+	 * Returns whether saves apply the add and remove list operations
+	 * made since the last save.  If not lists have to be packed in full.
+	 * @return true if list operations can be sent
+	 */
+	boolean supportsListOperations();
+}
@@ -0,0 +1,443 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import uw.cse.dineon.library.util.ParseUtil;
+
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseQuery.CachePolicy;
+
+/**
+ * Query for objects of a single class that any StorageBackend can run,
+ * see StorageBackend.find.  The methods are named after the ParseQuery
+ * methods they stand for.
+ *
+ * Values of keys are compared the way the cloud compares them.  Nested
+ * objects are compared by object id, dates, numbers and strings by their
+ * natural order.
+ */
+public class StorageQuery {
+
+	/**
+	 * Kinds of restriction on the value of a key.
+	 */
+	private enum Operator {
+		EQUAL, CONTAINED_IN, NOT_CONTAINED_IN, GREATER_THAN, GREATER_OR_EQUAL,
+		LESS_THAN, LESS_OR_EQUAL, MATCHES
+	}
+
+	/**
+	 * Class of the objects to find.
+	 */
+	private final String mClassName;
+
+	/**
+	 * Restrictions every object found must meet.
+	 */
+	private final List<Constraint> mConstraints;
+
+	/**
+	 * Keys of nested objects to download along with the objects found.
+	 */
+	private final List<String> mIncludes;
+
+	/**
+	 * Key to sort by in ascending order, null if unordered.
+	 */
+	private String mOrderBy;
+
+	/**
+	 * Maximum number of objects to find.
+	 */
+	private int mLimit;
+
+	/**
+	 * Cache policy to run with, null for the default of the backend.
+	 */
+	private CachePolicy mPolicy;
+
+	/**
+	 * Creates a query for every object of className.
+	 * @param className Class of the objects to find
+	 */
+	public StorageQuery(String className) {
+		if (className == null) {
+			throw new IllegalArgumentException("Can't query null class");
+		}
+		mClassName = className;
+		mConstraints = new ArrayList<Constraint>();
+		mIncludes = new ArrayList<String>();
+		mLimit = ParseUtil.MAX_QUERY_LIMIT;
+	}
+
+	/**
+	 * @return Class of the objects to find
+	 */
+	public String getClassName() {
+		return mClassName;
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param value Value the key must have
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereEqualTo(String key, Object value) {
+		return restrict(key, Operator.EQUAL, value);
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param values Values one of which the key must have
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereContainedIn(String key, Collection<?> values) {
+		return restrict(key, Operator.CONTAINED_IN, new ArrayList<Object>(values));
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param values Values none of which the key may have
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereNotContainedIn(String key, Collection<?> values) {
+		return restrict(key, Operator.NOT_CONTAINED_IN, new ArrayList<Object>(values));
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param value Value the value of the key must be greater than
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereGreaterThan(String key, Object value) {
+		return restrict(key, Operator.GREATER_THAN, value);
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param value Value the value of the key must be at least
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereGreaterThanOrEqualTo(String key, Object value) {
+		return restrict(key, Operator.GREATER_OR_EQUAL, value);
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param value Value the value of the key must be less than
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereLessThan(String key, Object value) {
+		return restrict(key, Operator.LESS_THAN, value);
+	}
+
+	/**
+	 * @param key Key of the value
+	 * @param value Value the value of the key must be at most
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereLessThanOrEqualTo(String key, Object value) {
+		return restrict(key, Operator.LESS_OR_EQUAL, value);
+	}
+
+	/**
+	 * @param key Key of a nested object
+	 * @param inner Query the nested object must match
+	 * @return This query for chaining
+	 */
+	public StorageQuery whereMatchesQuery(String key, StorageQuery inner) {
+		return restrict(key, Operator.MATCHES, inner);
+	}
+
+	/**
+	 * @param keys Keys of nested objects to download along with the objects
+	 * @return This query for chaining
+	 */
+	public StorageQuery include(String... keys) {
+		for (String key: keys) {
+			mIncludes.add(key);
+		}
+		return this;
+	}
+
+	/**
+	 * @param key Key to sort the objects found by, smallest value first
+	 * @return This query for chaining
+	 */
+	public StorageQuery orderByAscending(String key) {
+		mOrderBy = key;
+		return this;
+	}
+
+	/**
+	 * @param limit Maximum number of objects to find,
+	 * 	at most ParseUtil.MAX_QUERY_LIMIT
+	 * @return This query for chaining
+	 */
+	public StorageQuery setLimit(int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Limit must be positive");
+		}
+		mLimit = Math.min(limit, ParseUtil.MAX_QUERY_LIMIT);
+		return this;
+	}
+
+	/**
+	 * @return Maximum number of objects to find
+	 */
+	public int getLimit() {
+		return mLimit;
+	}
+
+	/**
+	 * Backends that do not cache ignore the policy.
+	 * @param policy Cache policy to run with, null for the default of the backend
+	 * @return This query for chaining
+	 */
+	public StorageQuery setCachePolicy(CachePolicy policy) {
+		mPolicy = policy;
+		return this;
+	}
+
+	/**
+	 * @return Cache policy to run with, null for the default of the backend
+	 */
+	public CachePolicy getCachePolicy() {
+		return mPolicy;
+	}
+
+	/**
+	 * Builds the ParseQuery this query stands for.
+	 * @param defaultPolicy Cache policy to use if this query has none
+	 * @return Query to run on Parse
+	 */
+	ParseQuery toParseQuery(CachePolicy defaultPolicy) {
+		ParseQuery query = new ParseQuery(mClassName);
+		query.setCachePolicy(mPolicy == null ? defaultPolicy : mPolicy);
+		for (Constraint c: mConstraints) {
+			switch (c.mOperator) {
+			case EQUAL:
+				query.whereEqualTo(c.mKey, c.mValue);
+				break;
+			case CONTAINED_IN:
+				query.whereContainedIn(c.mKey, (Collection<?>) c.mValue);
+				break;
+			case NOT_CONTAINED_IN:
+				query.whereNotContainedIn(c.mKey, (Collection<?>) c.mValue);
+				break;
+			case GREATER_THAN:
+				query.whereGreaterThan(c.mKey, c.mValue);
+				break;
+			case GREATER_OR_EQUAL:
+				query.whereGreaterThanOrEqualTo(c.mKey, c.mValue);
+				break;
+			case LESS_THAN:
+				query.whereLessThan(c.mKey, c.mValue);
+				break;
+			case LESS_OR_EQUAL:
+				query.whereLessThanOrEqualTo(c.mKey, c.mValue);
+				break;
+			case MATCHES:
+				query.whereMatchesQuery(c.mKey,
+						((StorageQuery) c.mValue).toParseQuery(defaultPolicy));
+				break;
+			default:
+				throw new IllegalStateException("Unknown operator " + c.mOperator);
+			}
+		}
+		for (String include: mIncludes) {
+			query.include(include);
+		}
+		if (mOrderBy != null) {
+			query.orderByAscending(mOrderBy);
+		}
+		query.setLimit(mLimit);
+		return query;
+	}
+
+	/**
+	 * Returns whether po meets every restriction of this query.
+	 * Used by backends that run queries themselves.
+	 * @param po Object with its data available
+	 * @return true if po is one of the objects this query finds
+	 */
+	public boolean matches(ParseObject po) {
+		if (po == null || !mClassName.equals(po.getClassName())) {
+			return false;
+		}
+		for (Constraint c: mConstraints) {
+			if (!c.matches(valueOf(po, c.mKey))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the objects of objects that match this query in the order of
+	 * this query and drops the ones past the limit.
+	 * @param objects Objects with their data available
+	 * @return Objects this query finds among objects
+	 */
+	public List<ParseObject> filter(Collection<ParseObject> objects) {
+		List<ParseObject> found = new ArrayList<ParseObject>();
+		for (ParseObject po: objects) {
+			if (matches(po)) {
+				found.add(po);
+			}
+		}
+		if (mOrderBy != null) {
+			final String KEY = mOrderBy;
+			Collections.sort(found, new Comparator<ParseObject>() {
+
+				@Override
+				public int compare(ParseObject lhs, ParseObject rhs) {
+					return compareValues(valueOf(lhs, KEY), valueOf(rhs, KEY));
+				}
+			});
+		}
+		return found.size() > mLimit ? found.subList(0, mLimit) : found;
+	}
+
+	/**
+	 * Restricts the value of key, replacing an earlier restriction of
+	 * the same kind like ParseQuery does.
+	 * @param key Key of the value
+	 * @param operator Kind of restriction
+	 * @param value Value to compare with
+	 * @return This query for chaining
+	 */
+	private StorageQuery restrict(String key, Operator operator, Object value) {
+		for (Iterator<Constraint> it = mConstraints.iterator(); it.hasNext();) {
+			Constraint c = it.next();
+			if (c.mKey.equals(key) && c.mOperator == operator) {
+				it.remove();
+			}
+		}
+		mConstraints.add(new Constraint(key, operator, value));
+		return this;
+	}
+
+	/**
+	 * @param po Object to read
+	 * @param key Key of the value, including the keys every object has
+	 * @return Value of key in po
+	 */
+	private static Object valueOf(ParseObject po, String key) {
+		if (ParseUtil.OBJECT_ID.equals(key)) {
+			return po.getObjectId();
+		} else if (ParseUtil.UPDATED_AT.equals(key)) {
+			return po.getUpdatedAt();
+		}
+		return po.get(key);
+	}
+
+	/**
+	 * Compares two values the way the cloud does.  Missing values
+	 * come first.
+	 * @param lhs First value
+	 * @param rhs Second value
+	 * @return Negative, zero or positive like Comparator.compare
+	 */
+	@SuppressWarnings("unchecked")
+	private static int compareValues(Object lhs, Object rhs) {
+		Object left = comparable(lhs);
+		Object right = comparable(rhs);
+		if (left == null || right == null) {
+			return left == null ? (right == null ? 0 : -1) : 1;
+		}
+		if (left instanceof Number && right instanceof Number) {
+			return Double.compare(((Number) left).doubleValue(), ((Number) right).doubleValue());
+		}
+		if (left instanceof Comparable && left.getClass().isInstance(right)) {
+			return ((Comparable<Object>) left).compareTo(right);
+		}
+		return left.toString().compareTo(right.toString());
+	}
+
+	/**
+	 * @param value Value of a key
+	 * @return Value to compare value by, the object id for nested objects
+	 */
+	private static Object comparable(Object value) {
+		if (value instanceof ParseObject) {
+			return ((ParseObject) value).getObjectId();
+		}
+		return value;
+	}
+
+	/**
+	 * Single restriction on the value of a key.
+	 */
+	private static class Constraint {
+
+		private final String mKey;
+		private final Operator mOperator;
+		private final Object mValue;
+
+		/**
+		 * Creates a restriction.
+		 * @param key Key of the value
+		 * @param operator Kind of restriction
+		 * @param value Value to compare with
+		 */
+		Constraint(String key, Operator operator, Object value) {
+			mKey = key;
+			mOperator = operator;
+			mValue = value;
+		}
+
+		/**
+		 * @param actual Value of the key in an object
+		 * @return true if actual meets this restriction
+		 */
+		boolean matches(Object actual) {
+			switch (mOperator) {
+			case EQUAL:
+				return actual != null && compareValues(actual, mValue) == 0;
+			case CONTAINED_IN:
+				return contains((Collection<?>) mValue, actual);
+			case NOT_CONTAINED_IN:
+				return !contains((Collection<?>) mValue, actual);
+			case GREATER_THAN:
+				return actual != null && compareValues(actual, mValue) > 0;
+			case GREATER_OR_EQUAL:
+				return actual != null && compareValues(actual, mValue) >= 0;
+			case LESS_THAN:
+				return actual != null && compareValues(actual, mValue) < 0;
+			case LESS_OR_EQUAL:
+				return actual != null && compareValues(actual, mValue) <= 0;
+			case MATCHES:
+				// Nested objects can only be matched if they came with their data
+				return actual instanceof ParseObject
+						&& ((ParseObject) actual).isDataAvailable()
+						&& ((StorageQuery) mValue).matches((ParseObject) actual);
+			default:
+				return false;
+			}
+		}
+
+		/**
+		 * @param values Values to look in
+		 * @param actual Value to look for
+		 * @return true if one of values equals actual
+		 */
+		private static boolean contains(Collection<?> values, Object actual) {
+			if (actual == null) {
+				return false;
+			}
+			for (Object value: values) {
+				if (compareValues(actual, value) == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
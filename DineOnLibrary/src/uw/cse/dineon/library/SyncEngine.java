@@ -0,0 +1,406 @@
+package uw.cse.dineon.library;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uw.cse.dineon.library.util.ParseUtil;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Keeps a Restaurant up to date with the changes customers make in the
+ * cloud without downloading the restaurant again.
+ *
+ * For every class of object the restaurant tracks the engine remembers a
+ * watermark, the time of the most recent change it has seen.  A sync only
+ * asks for the dining sessions, orders, customer requests and reservations
+ * of this restaurant that were updated at or after their watermark and
+ * skips the ones it already saw at the watermark, so changes that happen
+ * at the same time as the watermark are not lost.
+ *
+ * A sync happens in two steps.  pull downloads the changes and must not be
+ * called on the main thread.  merge applies them to the restaurant and must
+ * be called on the thread that changes the restaurant, IE the main thread.
+ * The changes are only decoded by merge, decoding refreshes the instances
+ * the restaurant holds so it must not happen while they are in use.
+ */
+public class SyncEngine {
+
+	private static final String TAG = SyncEngine.class.getSimpleName();
+
+	/**
+	 * Restaurant to keep up to date.
+	 */
+	private final Restaurant mRestaurant;
+
+	/**
+	 * Time the restaurant last knew about every object, IE when it was
+	 * last saved before the first sync.  Objects created before this that
+	 * the restaurant does not know have been removed by it.
+	 */
+	private final Date mSince;
+
+	/**
+	 * Time of the most recent change seen keyed by class name.
+	 */
+	private final Map<String, Date> mWatermarks;
+
+	/**
+	 * Ids of the objects seen that changed exactly at the watermark
+	 * keyed by class name.
+	 */
+	private final Map<String, Set<String>> mSeenAtWatermark;
+
+	/**
+	 * Number of objects pulled by the last sync keyed by class name.
+	 */
+	private final Map<String, Integer> mLastPulled;
+
+	/**
+	 * Number of syncs that were pulled.
+	 */
+	private int mSyncCount;
+
+	/**
+	 * Number of objects pulled by all syncs.
+	 */
+	private long mTotalPulled;
+
+	/**
+	 * Creates an engine that keeps restaurant up to date.  Restaurant must
+	 * have its active fields loaded, see Restaurant.ACTIVE_FIELDS.
+	 * @param restaurant Restaurant to keep up to date
+	 */
+	public SyncEngine(Restaurant restaurant) {
+		if (restaurant == null) {
+			throw new IllegalArgumentException("Can't sync null restaurant");
+		}
+		mRestaurant = restaurant;
+		mSince = restaurant.getUpdatedAt();
+		mWatermarks = new HashMap<String, Date>();
+		mSeenAtWatermark = new HashMap<String, Set<String>>();
+		mLastPulled = new HashMap<String, Integer>();
+
+		// Anything that changed after the oldest copy we have might be newer
+		initWatermark(DiningSession.class, restaurant.getSessions());
+		initWatermark(Order.class, restaurant.getPendingOrders());
+		initWatermark(CustomerRequest.class, restaurant.getCustomerRequests());
+		initWatermark(Reservation.class, restaurant.getReservationList());
+	}
+
+	/**
+	 * Sets the watermark of clazz to the oldest update of the restaurant and
+	 * the objects in list.
+	 * @param clazz Class of the objects
+	 * @param list Objects the restaurant has
+	 */
+	private void initWatermark(Class<? extends Storable> clazz, List<? extends Storable> list) {
+		Date oldest = mSince;
+		for (Storable storable: list) {
+			Date updated = storable.getUpdatedAt();
+			if (updated != null && (oldest == null || updated.before(oldest))) {
+				oldest = updated;
+			}
+		}
+		mWatermarks.put(clazz.getSimpleName(), oldest);
+		mSeenAtWatermark.put(clazz.getSimpleName(), new HashSet<String>());
+	}
+
+	/**
+	 * Downloads everything that changed since the last sync.
+	 * NOTE: Do not call on the main thread.
+	 * @return Changes to merge into the restaurant
+	 * @throws ParseException if the changes could not be downloaded
+	 */
+	public Result pull() throws ParseException {
+		Result result = new Result();
+		ParseObject info = mRestaurant.getInfo().mCompleteObject;
+
+		// Sessions and reservations are found by restaurant so new ones show up
+		StorageQuery sessions = changedSince(DiningSession.class);
+		sessions.whereEqualTo(DiningSession.RESTAURANT_INFO, info);
+		for (String include: DiningSession.INCLUDES) {
+			sessions.include(include);
+		}
+		pull(DiningSession.class, sessions, result.mSessions, result);
+
+		StorageQuery reservations = changedSince(Reservation.class);
+		reservations.whereEqualTo(Reservation.REST_INFO, info);
+		reservations.include(Reservation.USER_INFO);
+		pull(Reservation.class, reservations, result.mReservations, result);
+
+		// Orders and requests don't know their restaurant, only ask for
+		// the ones we have, new ones arrive with their session.
+		// The ids are asked for in chunks the cloud answers at once.
+		List<String> orderIds = idsOf(mRestaurant.getPendingOrders());
+		for (int start = 0; start < orderIds.size(); start += ParseUtil.MAX_QUERY_LIMIT) {
+			StorageQuery orders = changedSince(Order.class);
+			orders.whereContainedIn(ParseUtil.OBJECT_ID, chunk(orderIds, start));
+			orders.include(Order.USER_INFO);
+			pull(Order.class, orders, result.mOrders, result);
+		}
+
+		List<String> requestIds = idsOf(mRestaurant.getCustomerRequests());
+		for (int start = 0; start < requestIds.size(); start += ParseUtil.MAX_QUERY_LIMIT) {
+			StorageQuery requests = changedSince(CustomerRequest.class);
+			requests.whereContainedIn(ParseUtil.OBJECT_ID, chunk(requestIds, start));
+			requests.include(CustomerRequest.USER);
+			pull(CustomerRequest.class, requests, result.mRequests, result);
+		}
+
+		synchronized (this) {
+			mSyncCount++;
+			mTotalPulled += result.size();
+			mLastPulled.put(DiningSession.class.getSimpleName(), result.mSessions.size());
+			mLastPulled.put(Reservation.class.getSimpleName(), result.mReservations.size());
+			mLastPulled.put(Order.class.getSimpleName(), result.mOrders.size());
+			mLastPulled.put(CustomerRequest.class.getSimpleName(), result.mRequests.size());
+		}
+		return result;
+	}
+
+	/**
+	 * Decodes the changes of a pull, applies them to the restaurant and
+	 * moves the watermarks past them.
+	 * NOTE: Call on the thread that changes the restaurant.
+	 * @param result Changes to apply
+	 * @return true if the restaurant changed and has to be saved
+	 */
+	public synchronized boolean merge(Result result) {
+		boolean changed = false;
+		for (Order order: decode(Order.class, result.mOrders)) {
+			mRestaurant.mergeOrder(order);
+		}
+		for (CustomerRequest request: decode(CustomerRequest.class, result.mRequests)) {
+			mRestaurant.mergeCustomerRequest(request);
+		}
+		for (DiningSession session: decode(DiningSession.class, result.mSessions)) {
+			changed |= mRestaurant.mergeDiningSession(session, mSince);
+		}
+		for (Reservation reservation: decode(Reservation.class, result.mReservations)) {
+			changed |= mRestaurant.mergeReservation(reservation, mSince);
+		}
+		for (Map.Entry<String, Date> entry: result.mLatest.entrySet()) {
+			String className = entry.getKey();
+			Date current = mWatermarks.get(className);
+			Set<String> seen = result.mSeenAtLatest.get(className);
+			if (current == null || entry.getValue().after(current)) {
+				mWatermarks.put(className, entry.getValue());
+				mSeenAtWatermark.put(className, new HashSet<String>(seen));
+			} else if (entry.getValue().equals(current)) {
+				mSeenAtWatermark.get(className).addAll(seen);
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * @param clazz Class of objects
+	 * @return Time of the most recent change to objects of clazz that has
+	 * 	been merged, null if everything is asked for
+	 */
+	public synchronized Date getWatermark(Class<? extends Storable> clazz) {
+		return mWatermarks.get(clazz.getSimpleName());
+	}
+
+	/**
+	 * @return Number of syncs that were pulled
+	 */
+	public synchronized int getSyncCount() {
+		return mSyncCount;
+	}
+
+	/**
+	 * @return Number of objects pulled by all syncs together
+	 */
+	public synchronized long getTotalPulled() {
+		return mTotalPulled;
+	}
+
+	/**
+	 * @param clazz Class of objects
+	 * @return Number of objects of clazz pulled by the last sync
+	 */
+	public synchronized int getLastPulled(Class<? extends Storable> clazz) {
+		Integer pulled = mLastPulled.get(clazz.getSimpleName());
+		return pulled == null ? 0 : pulled;
+	}
+
+	/**
+	 * Creates a query for the objects of clazz that changed at or since its
+	 * watermark and were not seen at the watermark already.  Changes come
+	 * oldest first so the query can continue where a full page stopped.
+	 * @param clazz Class of objects
+	 * @return Query to add restrictions to
+	 */
+	private synchronized StorageQuery changedSince(Class<? extends Storable> clazz) {
+		StorageQuery query = new StorageQuery(clazz.getSimpleName());
+		Date watermark = mWatermarks.get(clazz.getSimpleName());
+		Set<String> seen = mSeenAtWatermark.get(clazz.getSimpleName());
+		if (watermark != null) {
+			query.whereGreaterThanOrEqualTo(ParseUtil.UPDATED_AT, watermark);
+			if (!seen.isEmpty()) {
+				query.whereNotContainedIn(ParseUtil.OBJECT_ID, seen);
+			}
+		}
+		query.orderByAscending(ParseUtil.UPDATED_AT);
+		query.setLimit(ParseUtil.MAX_QUERY_LIMIT);
+		return query;
+	}
+
+	/**
+	 * Runs query page by page until a page is not full and records the
+	 * most recent change in result.  Each page continues at the time of
+	 * the last change of the page before, skipping the objects that were
+	 * already returned at that time.  The objects are not decoded, see merge.
+	 * @param clazz Class of the objects
+	 * @param query Query made by changedSince to run
+	 * @param pulled List to add the objects found to, oldest change first
+	 * @param result Result to record the most recent change in
+	 * @throws ParseException if the query failed
+	 */
+	private void pull(Class<? extends Storable> clazz, StorageQuery query,
+			List<ParseObject> pulled, Result result) throws ParseException {
+		int before = pulled.size();
+		Date latest;
+		Set<String> seenAtLatest;
+		synchronized (this) {
+			latest = mWatermarks.get(clazz.getSimpleName());
+			seenAtLatest = new HashSet<String>(mSeenAtWatermark.get(clazz.getSimpleName()));
+		}
+		List<ParseObject> found;
+		do {
+			found = Storable.getBackend().find(query);
+			for (ParseObject po: found) {
+				pulled.add(po);
+				if (!po.getUpdatedAt().equals(latest)) {
+					latest = po.getUpdatedAt();
+					seenAtLatest.clear();
+				}
+				seenAtLatest.add(po.getObjectId());
+			}
+			if (latest != null) {
+				query.whereGreaterThanOrEqualTo(ParseUtil.UPDATED_AT, latest);
+				query.whereNotContainedIn(ParseUtil.OBJECT_ID, seenAtLatest);
+			}
+		} while (found.size() == ParseUtil.MAX_QUERY_LIMIT);
+
+		if (pulled.size() > before) {
+			result.recordLatest(clazz.getSimpleName(), latest, seenAtLatest);
+		}
+	}
+
+	/**
+	 * Decodes pulled objects through the StorableIdentityMap, which
+	 * refreshes the instances that are known already.  Objects that can't
+	 * be decoded are left out.
+	 * @param <T> Type of the objects
+	 * @param clazz Class of the objects
+	 * @param pulled Objects to decode
+	 * @return Decoded objects in the same order
+	 */
+	private static <T extends Storable> List<T> decode(Class<T> clazz, 
+			List<ParseObject> pulled) {
+		List<T> decoded = new ArrayList<T>(pulled.size());
+		for (ParseObject po: pulled) {
+			try {
+				decoded.add(StorableIdentityMap.decode(clazz, po));
+			} catch (ParseException e) {
+				Log.e(TAG, "Unable to decode " + clazz.getSimpleName() 
+						+ " " + po.getObjectId() + ": " + e.getMessage());
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * @param ids Ids to take a chunk of
+	 * @param start Index of the first id of the chunk
+	 * @return At most ParseUtil.MAX_QUERY_LIMIT ids starting at start
+	 */
+	private static List<String> chunk(List<String> ids, int start) {
+		return ids.subList(start, Math.min(start + ParseUtil.MAX_QUERY_LIMIT, ids.size()));
+	}
+
+	/**
+	 * @param list Objects to get the ids of
+	 * @return Ids of the objects in list that have been saved
+	 */
+	private static List<String> idsOf(List<? extends Storable> list) {
+		List<String> ids = new ArrayList<String>(list.size());
+		for (Storable storable: list) {
+			if (storable.getObjId() != null) {
+				ids.add(storable.getObjId());
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Changes downloaded by a single pull.
+	 */
+	public static class Result {
+
+		// Objects as downloaded, they are decoded by merge
+		private final List<ParseObject> mSessions = new ArrayList<ParseObject>();
+		private final List<ParseObject> mOrders = new ArrayList<ParseObject>();
+		private final List<ParseObject> mRequests = new ArrayList<ParseObject>();
+		private final List<ParseObject> mReservations = new ArrayList<ParseObject>();
+
+		/**
+		 * Time of the most recent change pulled keyed by class name.
+		 */
+		private final Map<String, Date> mLatest = new HashMap<String, Date>();
+
+		/**
+		 * Ids of the objects pulled that changed at the most recent change
+		 * keyed by class name.
+		 */
+		private final Map<String, Set<String>> mSeenAtLatest = 
+				new HashMap<String, Set<String>>();
+
+		/**
+		 * Creates an empty result.
+		 */
+		Result() { }
+
+		/**
+		 * Records the most recent change of a query, chunks of the same
+		 * class keep the latest one.
+		 * @param className Class of the objects
+		 * @param latest Time of the most recent change the query found
+		 * @param seen Ids of the objects that changed at latest
+		 */
+		private void recordLatest(String className, Date latest, Set<String> seen) {
+			Date current = mLatest.get(className);
+			if (current == null || latest.after(current)) {
+				mLatest.put(className, latest);
+				mSeenAtLatest.put(className, seen);
+			} else if (latest.equals(current)) {
+				mSeenAtLatest.get(className).addAll(seen);
+			}
+		}
+
+		/**
+		 * @return Number of objects pulled
+		 */
+		public int size() {
+			return mSessions.size() + mOrders.size()
+					+ mRequests.size() + mReservations.size();
+		}
+
+		/**
+		 * @return true if nothing changed
+		 */
+		public boolean isEmpty() {
+			return size() == 0;
+		}
+	}
+}
@@ -4,11 +4,14 @@ import java.io.File;
 import java.net.URI;
 
 import uw.cse.dineon.library.image.DineOnImage;
+import uw.cse.dineon.library.image.DineOnImage.Variant;
 import uw.cse.dineon.library.image.ImageCache;
 import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
 import uw.cse.dineon.library.image.ImageIO;
+import uw.cse.dineon.library.image.ImageLoader;
 import uw.cse.dineon.library.image.ImageObtainable;
 import uw.cse.dineon.library.image.ImageObtainer;
+import uw.cse.dineon.library.image.Size;
 import uw.cse.dineon.library.util.DineOnConstants;
 import android.content.Context;
 import android.content.Intent;
@@ -19,7 +22,6 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
 import android.support.v4.app.FragmentActivity;
-import android.support.v4.util.LruCache;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -47,9 +49,9 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 	protected DineOnStandardActivity thisAct;
 
 	/**
-	 * Image cache for use in memory.
+	 * Loads images in memory, from disk or network off the main thread.
 	 */
-	private LruCache<String, Bitmap> mImageMemCache;
+	private ImageLoader mImageLoader;
 
 	/**
 	 * Protected reference for ease of use.
@@ -93,17 +95,9 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 		// lets only use 1 / 8 the memory available
 		final int CACHESIZE = MAXMEMORY / 8;
 
-		mImageMemCache = new LruCache<String, Bitmap>(CACHESIZE) {
-			@Override
-			protected int sizeOf(String key, Bitmap bitmap) {
-				// The cache size will be measured in kilobytes rather than
-				// number of items.
-				return bitmap.getByteCount() / 1024;
-			}
-		};
-
 		mPersImageCache = new ImageCache(this);
 		mPersImageCache.open();
+		mImageLoader = new ImageLoader(mPersImageCache, CACHESIZE);
 
 		this.mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 		this.mLocation = null;
@@ -128,7 +122,7 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 	
 	@Override
 	protected void onDestroy() {
-		
+		mImageLoader.shutdown();
 		super.onDestroy();
 	}
 
@@ -223,6 +217,12 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 		getImage(image, callback);
 	}
 
+	@Override
+	public ImageLoader.Ticket onGetImage(DineOnImage image, Size size, 
+			ImageGetCallback callback) {
+		return getImage(image, size, callback);
+	}
+
 	/////////////////////////////////////////////////////////////////////
 	/////  Getters that sub activities can use
 	/////////////////////////////////////////////////////////////////////
@@ -241,47 +241,75 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 	 * @return Bitmap associated with this image. 
 	 */
 	protected Bitmap getBitmapFromMemCache(DineOnImage image) {
-		String id = image.getObjId();
-		return mImageMemCache.get(id);
+		return getBitmapFromMemCache(image, Variant.FULL);
+	}
+
+	/**
+	 * Memory cache to upload a version of an image.
+	 * @param image image to get from memory cache
+	 * @param variant Version of the image
+	 * @return Bitmap associated with this version of the image. 
+	 */
+	protected Bitmap getBitmapFromMemCache(DineOnImage image, Variant variant) {
+		return mImageLoader.getFromMemory(image, variant);
 	}
 
 	/**
 	 * Attempts to get the image as fast as possible.
 	 * @param image image to get.
 	 * @param callback Callback to get back
+	 * @return Ticket to cancel the request with, null if nothing is loaded
 	 */
-	protected void getImage(final DineOnImage image, final ImageGetCallback callback) {
+	protected ImageLoader.Ticket getImage(DineOnImage image, ImageGetCallback callback) {
+		return getImage(image, Variant.FULL, callback);
+	}
+
+	/**
+	 * Attempts to get a version of the image as fast as possible.
+	 * Requests for the same version that overlap share one load and the
+	 * callback is always called on the main thread.
+	 * @param image image to get.
+	 * @param variant Version of the image to get
+	 * @param callback Callback to get back
+	 * @return Ticket to cancel the request with, IE when the view
+	 * 	the image is for is recycled.  Null if nothing is loaded
+	 */
+	protected ImageLoader.Ticket getImage(DineOnImage image, Variant variant, 
+			ImageGetCallback callback) {
 		if (callback == null) {
-			return; // Cant call back to no one
+			return null; // Cant call back to no one
 		}
 
 		if (image == null) {
 			callback.onImageReceived(new RuntimeException("Null DineOnImage"), null);
-			return;
+			return null;
 		}
 
-		// Check in memory cache
-		Bitmap ret = getBitmapFromMemCache(image);
-		if (ret != null) {
-			callback.onImageReceived(null, ret);
-			return;
-		}
+		// Check in memory cache, then in the disk cache or network
+		return mImageLoader.load(image, variant, callback);
+	}
 
-		Log.w(tag, "Cache miss for image " + image.getObjId());
+	/**
+	 * Attempts to get the smallest version of the image that fills size as
+	 * fast as possible.  The image is decoded no bigger than needed for size.
+	 * @param image image to get.
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to get back
+	 * @return Ticket to cancel the request with, IE when the view
+	 * 	the image is for is recycled.  Null if nothing is loaded
+	 */
+	protected ImageLoader.Ticket getImage(DineOnImage image, Size size, 
+			ImageGetCallback callback) {
+		if (callback == null) {
+			return null; // Cant call back to no one
+		}
 
-		// Check in SQL database or network
-		mPersImageCache.getImageFromCache(image, new ImageGetCallback() {
+		if (image == null) {
+			callback.onImageReceived(new RuntimeException("Null DineOnImage"), null);
+			return null;
+		}
 
-			@Override
-			public void onImageReceived(Exception e, Bitmap b) {
-				if (e == null) {
-					addImageToCache(image, b);
-					callback.onImageReceived(null, b);
-				} else {
-					callback.onImageReceived(e, null);
-				}
-			}
-		});
+		return mImageLoader.load(image, size, callback);
 	}
 
 	/////////////////////////////////////////////////////////////////////
@@ -305,9 +333,18 @@ public class DineOnStandardActivity extends FragmentActivity implements ImageObt
 	 * @param bitmap Bitmap to use.
 	 */
 	protected void addImageToCache(DineOnImage image, Bitmap bitmap) {
-		String id = image.getObjId();
-		mImageMemCache.put(id, bitmap);
-		mPersImageCache.addToCache(image);
+		addImageToCache(image, Variant.FULL, bitmap);
+	}
+
+	/**
+	 * Adds a version of an image to cache replacing old version if it exists.
+	 * @param image image to associate bitmap to
+	 * @param variant Version of the image bitmap is
+	 * @param bitmap Bitmap to use.
+	 */
+	protected void addImageToCache(DineOnImage image, Variant variant, Bitmap bitmap) {
+		mImageLoader.putInMemory(image, variant, bitmap);
+		mPersImageCache.addToCache(image, variant);
 	}
 
 	@Override
@@ -0,0 +1,103 @@
+package uw.cse.dineon.library.image;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * Bitmaps that are not shown anymore and whose memory can be decoded into,
+ * IE bitmaps evicted from a memory cache.  Reusing them instead of allocating
+ * new ones keeps the garbage collector from pausing while lists scroll.
+ *
+ * Until API 19 BitmapFactory only decodes into a bitmap of exactly the same
+ * size and configuration and never while sampling, so only those are reused.
+ * Bitmaps are held softly so the pool never keeps memory the system needs.
+ */
+public class BitmapPool {
+
+	private final int mMaxCount;
+	private final LinkedList<SoftReference<Bitmap>> mBitmaps;
+
+	/**
+	 * Creates an empty pool.
+	 * @param maxCount Maximum number of bitmaps to hold
+	 */
+	public BitmapPool(int maxCount) {
+		if (maxCount < 0) {
+			throw new IllegalArgumentException("Pool can't hold " + maxCount + " bitmaps");
+		}
+		mMaxCount = maxCount;
+		mBitmaps = new LinkedList<SoftReference<Bitmap>>();
+	}
+
+	/**
+	 * Offers a bitmap to be decoded into.  Only pass bitmaps that are not
+	 * shown anymore.  Bitmaps that can't be decoded into are ignored.
+	 * @param b Bitmap that is not used anymore
+	 */
+	public synchronized void put(Bitmap b) {
+		if (b == null || b.isRecycled() || !b.isMutable() || mMaxCount == 0) {
+			return;
+		}
+		mBitmaps.addFirst(new SoftReference<Bitmap>(b));
+		while (mBitmaps.size() > mMaxCount) {
+			mBitmaps.removeLast();
+		}
+	}
+
+	/**
+	 * Removes a bitmap that an image of the given size can be decoded into.
+	 * @param width Width of the decoded image
+	 * @param height Height of the decoded image
+	 * @param config Configuration of the decoded image
+	 * @return Bitmap to decode into or null if there is none
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		Iterator<SoftReference<Bitmap>> iter = mBitmaps.iterator();
+		while (iter.hasNext()) {
+			Bitmap b = iter.next().get();
+			if (b == null || b.isRecycled()) {
+				// Collected by the system
+				iter.remove();
+			} else if (b.getWidth() == width && b.getHeight() == height
+					&& b.getConfig() == config) {
+				iter.remove();
+				return b;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Prepares options whose bounds were decoded to decode into a bitmap
+	 * of this pool if there is a fitting one.  The decoded image is always
+	 * made mutable so it can be reused later on.
+	 * @param options Options with the bounds and sample size of the image
+	 */
+	public void prepare(BitmapFactory.Options options) {
+		options.inMutable = true;
+		if (options.inSampleSize > 1) {
+			return;
+		}
+		Bitmap.Config config = options.inPreferredConfig == null
+				? Bitmap.Config.ARGB_8888 : options.inPreferredConfig;
+		options.inBitmap = get(options.outWidth, options.outHeight, config);
+	}
+
+	/**
+	 * @return Number of bitmaps held, including ones the system may have collected
+	 */
+	public synchronized int size() {
+		return mBitmaps.size();
+	}
+
+	/**
+	 * Drops every bitmap.
+	 */
+	public synchronized void clear() {
+		mBitmaps.clear();
+	}
+}
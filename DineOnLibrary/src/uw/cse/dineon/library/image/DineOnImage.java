@@ -2,9 +2,13 @@ package uw.cse.dineon.library.image;
 
 import java.io.ByteArrayOutputStream;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
 
 import uw.cse.dineon.library.Storable;
 import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
+import uw.cse.dineon.library.util.DineOnConstants;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.util.Log;
@@ -19,6 +23,10 @@ import com.parse.SaveCallback;
  * Abstract data type that represents an image.  Although this extends Storable
  * it is highly not advised to put this in an intent.  Due to size of images, this can take
  * a serious performance hit depending on the size of the image. 
+ * 
+ * Every image is stored in multiple versions, one per Variant, so clients
+ * can download the smallest version that is big enough for their view.
+ * Photos are stored as JPEG, images with transparency as PNG.
  * @author Michael Hotan, mhotan@cs.washington.edu
  */
 public class DineOnImage extends Storable {
@@ -29,11 +37,72 @@ public class DineOnImage extends Storable {
 	 * Static constants to send Parse data through.
 	 */
 	public static final String IMAGE = "dineOnImage";
+	public static final String IMAGE_LIST = "dineOnImageList";
+	public static final String IMAGE_THUMBNAIL = "dineOnImageThumbnail";
 
 	/**
-	 * The ParseFile of this image.
+	 * Quality to compress photos with.
 	 */
-	private ParseFile mImgFile;
+	public static final int JPEG_QUALITY = 80;
+
+	/**
+	 * The versions an image is stored in, smallest first.
+	 */
+	public enum Variant {
+		THUMBNAIL(DineOnConstants.THUMBNAIL_IMAGE_DIMENSION, IMAGE_THUMBNAIL),
+		LIST(DineOnConstants.LIST_IMAGE_DIMENSION, IMAGE_LIST),
+		FULL(DineOnConstants.LONGEST_IMAGE_DIMENSION, IMAGE);
+
+		private final int mDimension;
+		private final String mKey;
+
+		/**
+		 * @param dimension Longest dimension of this version
+		 * @param key Key to store the file of this version under
+		 */
+		private Variant(int dimension, String key) {
+			mDimension = dimension;
+			mKey = key;
+		}
+
+		/**
+		 * @return Longest dimension of this version
+		 */
+		public int getDimension() {
+			return mDimension;
+		}
+
+		/**
+		 * @return Key the file of this version is stored under
+		 */
+		public String getKey() {
+			return mKey;
+		}
+
+		/**
+		 * Returns the smallest version that fills size without scaling up.
+		 * @param size Size the image is shown at, null for full size
+		 * @return Smallest adequate version
+		 */
+		public static Variant forSize(Size size) {
+			if (size == null || size.width <= 0 || size.height <= 0) {
+				return FULL;
+			}
+			int longest = Math.max(size.width, size.height);
+			for (Variant v : values()) {
+				if (v.mDimension >= longest) {
+					return v;
+				}
+			}
+			return FULL;
+		}
+	}
+
+	/**
+	 * The ParseFiles of this image by version.
+	 * Images stored before there were versions only have FULL.
+	 */
+	private final Map<Variant, ParseFile> mFiles;
 
 	/**
 	 * Synchronized constructor for a DineOnImage.
@@ -44,6 +113,7 @@ public class DineOnImage extends Storable {
 	 */
 	public DineOnImage(Bitmap b) throws ParseException {
 		super(DineOnImage.class);
+		mFiles = new EnumMap<Variant, ParseFile>(Variant.class);
 		updateImage(b);
 	}
 
@@ -58,7 +128,8 @@ public class DineOnImage extends Storable {
 	 */
 	public DineOnImage(Bitmap b, SaveCallback onSave) {
 		super(DineOnImage.class);
-		updateImg(b, null);
+		mFiles = new EnumMap<Variant, ParseFile>(Variant.class);
+		updateImg(b, onSave);
 	}
 
 	/**
@@ -68,7 +139,32 @@ public class DineOnImage extends Storable {
 	 */
 	public DineOnImage(ParseObject po) throws ParseException {
 		super(po); // This does an implicit fetch
-		mImgFile = po.getParseFile(IMAGE);
+		mFiles = new EnumMap<Variant, ParseFile>(Variant.class);
+		for (Variant v : Variant.values()) {
+			ParseFile file = po.getParseFile(v.getKey());
+			if (file != null) {
+				mFiles.put(v, file);
+			}
+		}
+	}
+
+	/**
+	 * Copies the files of newer.
+	 * @param newer Newer copy of this image
+	 * @return true
+	 */
+	@Override
+	protected boolean refreshFrom(Storable newer) {
+		DineOnImage image = (DineOnImage) newer;
+		Map<Variant, ParseFile> files;
+		synchronized (image.mFiles) {
+			files = new EnumMap<Variant, ParseFile>(image.mFiles);
+		}
+		synchronized (mFiles) {
+			mFiles.clear();
+			mFiles.putAll(files);
+		}
+		return true;
 	}
 
 	@Override
@@ -90,9 +186,11 @@ public class DineOnImage extends Storable {
 		if (b == null) {
 			throw new IllegalArgumentException("DineOnImage Constructor, Bitmap cannot be null");
 		}
-		mImgFile = new ParseFile(bitmapToByteArray(b));
-		mImgFile.save(); // Asyncronous call
-		mCompleteObject.put(IMAGE, mImgFile);
+		Map<Variant, ParseFile> files = createFiles(b);
+		for (ParseFile file : files.values()) {
+			file.save();
+		}
+		setFiles(files);
 		mCompleteObject.save();
 	}
 
@@ -106,54 +204,172 @@ public class DineOnImage extends Storable {
 		if (b == null) {
 			throw new IllegalArgumentException("DineOnImage Constructor, Bitmap cannot be null");
 		}
-		final SaveCallback LOCALCALLBACK = onSave;
-		final ParseFile FILE = new ParseFile(bitmapToByteArray(b));
-		FILE.saveInBackground(new SaveCallback() {
+		Map<Variant, ParseFile> files = createFiles(b);
+		saveFiles(files, files.keySet().iterator(), onSave);
+	}
+
+	/**
+	 * Saves the files in the background one after another and updates
+	 * the container object once all of them are saved.
+	 * @param files Files to save
+	 * @param toSave Versions of files still to save
+	 * @param onSave a callback which is notified once the object is saved, can be null
+	 */
+	private void saveFiles(final Map<Variant, ParseFile> files,
+			final Iterator<Variant> toSave, final SaveCallback onSave) {
+		if (!toSave.hasNext()) {
+			// We successfully saved our files
+			// Now update our container object
+			setFiles(files);
+			if (onSave != null) {
+				mCompleteObject.saveInBackground(onSave);
+			} else {
+				mCompleteObject.saveInBackground();
+			}
+			return;
+		}
+		files.get(toSave.next()).saveInBackground(new SaveCallback() {
 
 			@Override
-			public void done(ParseException arg0) {
-				// We successfully saved our file
-				// Now update our container object
-				mImgFile = FILE;
-				mCompleteObject.put(IMAGE, mImgFile);
-				if (LOCALCALLBACK != null) {
-					mCompleteObject.saveInBackground(LOCALCALLBACK);
-				} else {
-					mCompleteObject.saveInBackground();
+			public void done(ParseException e) {
+				if (e != null) {
+					Log.e(TAG, "Unable to save image file: " + e.getMessage());
+					if (onSave != null) {
+						onSave.done(e);
+					}
+					return;
 				}
-
+				saveFiles(files, toSave, onSave);
 			}
 		});
 	}
 
 	/**
-	 * Attempts to get the image asynchronously.  Returns results through callback.
+	 * Encodes every version of b.
+	 * @param b Bitmap to encode
+	 * @return Unsaved file of every version
+	 */
+	private static Map<Variant, ParseFile> createFiles(Bitmap b) {
+		Map<Variant, ParseFile> files = new EnumMap<Variant, ParseFile>(Variant.class);
+		for (Variant v : Variant.values()) {
+			files.put(v, new ParseFile(bitmapToByteArray(scaleToFit(b, v.getDimension()))));
+		}
+		return files;
+	}
+
+	/**
+	 * Replaces the files of this image with saved files.
+	 * @param files Saved file of every version
+	 */
+	private void setFiles(Map<Variant, ParseFile> files) {
+		synchronized (mFiles) {
+			mFiles.clear();
+			mFiles.putAll(files);
+		}
+		for (Map.Entry<Variant, ParseFile> e : files.entrySet()) {
+			mCompleteObject.put(e.getKey().getKey(), e.getValue());
+		}
+	}
+
+	/**
+	 * Returns the file of the smallest stored version that is at least
+	 * as big as variant, or the biggest stored version if there is none.
+	 * @param variant Version wanted
+	 * @return File to download or null if this image has no files
+	 */
+	private ParseFile getFile(Variant variant) {
+		synchronized (mFiles) {
+			ParseFile biggest = null;
+			for (Variant v : Variant.values()) {
+				ParseFile file = mFiles.get(v);
+				if (file == null) {
+					continue;
+				}
+				if (v.compareTo(variant) >= 0) {
+					return file;
+				}
+				biggest = file;
+			}
+			return biggest;
+		}
+	}
+
+	/**
+	 * Attempts to get the smallest version of the image that fills size.
+	 * Returns results through callback asynchronously.
+	 * @param size Size the image is shown at, null for full size
 	 * @param callback Callback to return a result to
 	 */
-	void getImageBitmap(final ImageGetCallback callback) {
-		if (!mImgFile.isDataAvailable()) { // data is not available
-			mImgFile.getDataInBackground(new GetDataCallback() {
-
-				@Override
-				public void done(byte[] img, ParseException e) {
-					if (e == null) { // Success!
-						Bitmap b = byteArrayToBitmap(img);
-						callback.onImageReceived(null, b);
-					} else { // Something bad happened.
-						callback.onImageReceived(e, null);
-					}
+	public void getImageBitmap(Size size, ImageGetCallback callback) {
+		getImageBitmap(Variant.forSize(size), size, callback);
+	}
+
+	/**
+	 * Attempts to get the full size image asynchronously.  Returns results through callback.
+	 * @param callback Callback to return a result to
+	 */
+	void getImageBitmap(ImageGetCallback callback) {
+		getImageBitmap(Variant.FULL, callback);
+	}
+
+	/**
+	 * Attempts to get a version of the image asynchronously.  Returns results through callback.
+	 * @param variant Version to get
+	 * @param callback Callback to return a result to
+	 */
+	void getImageBitmap(Variant variant, ImageGetCallback callback) {
+		getImageBitmap(variant, null, callback);
+	}
+
+	/**
+	 * Attempts to get a version of the image sampled down to the size it is
+	 * shown at asynchronously.  Returns results through callback.
+	 * @param variant Version to get
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to return a result to
+	 */
+	private void getImageBitmap(Variant variant, final Size size, 
+			final ImageGetCallback callback) {
+		getImageData(variant, new GetDataCallback() {
+
+			@Override
+			public void done(byte[] img, ParseException e) {
+				if (e == null) { // Success!
+					Bitmap b = byteArrayToBitmap(img, size);
+					callback.onImageReceived(null, b);
+				} else { // Something bad happened.
+					callback.onImageReceived(e, null);
 				}
-			});
+			}
+		});
+	}
+
+	/**
+	 * Attempts to get the encoded bytes of a version of the image.
+	 * Returns results through callback, asynchronously if they have
+	 * to be downloaded.
+	 * @param variant Version to get
+	 * @param callback Callback to return the bytes to
+	 */
+	void getImageData(Variant variant, GetDataCallback callback) {
+		ParseFile imgFile = getFile(variant);
+		if (imgFile == null) {
+			callback.done(null, new ParseException(
+					ParseException.OBJECT_NOT_FOUND, "Image has no file"));
+		} else if (!imgFile.isDataAvailable()) { // data is not available
+			imgFile.getDataInBackground(callback);
 		} else { // We have the data.
+			byte[] img;
 			try {
-				Bitmap b  = byteArrayToBitmap(mImgFile.getData());
-				callback.onImageReceived(null, b);
+				img = imgFile.getData();
 			} catch (ParseException e) { 
 				// Strange error happened
 				Log.e(TAG, "Unable to get data for this Image when it exists " 
 						+ "Exception: " + e.getMessage());
-				callback.onImageReceived(e, null);
+				callback.done(null, e);
+				return;
 			}
+			callback.done(img, null);
 		}
 	}
 
@@ -170,7 +386,54 @@ public class DineOnImage extends Storable {
 	 * @return true if Image is available
 	 */
 	public boolean isDataAvailable() {
-		return mImgFile.isDataAvailable();
+		return isDataAvailable(Variant.FULL);
+	}
+
+	/**
+	 * Checks if the data of a version is available locally.
+	 * @param variant Version to check
+	 * @return true if that version of the Image is available
+	 */
+	public boolean isDataAvailable(Variant variant) {
+		ParseFile imgFile = getFile(variant);
+		return imgFile != null && imgFile.isDataAvailable();
+	}
+
+	/**
+	 * Returns a key that identifies a version of this image, IE for caches.
+	 * The key of the full version is the object id.
+	 * @param variant Version of the image
+	 * @return Key of the version
+	 */
+	public String getCacheKey(Variant variant) {
+		if (variant == Variant.FULL) {
+			return getObjId();
+		}
+		return getObjId() + "_" + variant.name();
+	}
+
+	/**
+	 * Scales b down so its longest side is at most longest.
+	 * @param b Bitmap to scale
+	 * @param longest Longest side allowed
+	 * @return b if it fits already, else a scaled copy
+	 */
+	public static Bitmap scaleToFit(Bitmap b, int longest) {
+		Size size = ImageIO.fitWithin(new Size(b.getWidth(), b.getHeight()), longest);
+		if (size.width == b.getWidth() && size.height == b.getHeight()) {
+			return b;
+		}
+		return Bitmap.createScaledBitmap(b, size.width, size.height, true);
+	}
+
+	/**
+	 * Returns the format to store b in.  Photos are compressed lossy,
+	 * images with transparency lossless because JPEG has no alpha.
+	 * @param b Bitmap to store
+	 * @return Format to compress b with
+	 */
+	public static Bitmap.CompressFormat getCompressFormat(Bitmap b) {
+		return b.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG;
 	}
 
 	/**
@@ -180,7 +443,8 @@ public class DineOnImage extends Storable {
 	 */
 	public static byte[] bitmapToByteArray(Bitmap b) {
 		ByteArrayOutputStream stream = new ByteArrayOutputStream();
-		b.compress(Bitmap.CompressFormat.PNG, 100, stream);
+		Bitmap.CompressFormat format = getCompressFormat(b);
+		b.compress(format, format == Bitmap.CompressFormat.JPEG ? JPEG_QUALITY : 100, stream);
 		return stream.toByteArray();
 	}
 
@@ -194,4 +458,16 @@ public class DineOnImage extends Storable {
 		return BitmapFactory.decodeByteArray(imgArray, 0, imgArray.length);
 	}
 
+	/**
+	 * Converts a valid byte array to a Bitmap sampled down to the size it is shown at.
+	 * The Bitmap is at least as big as size but never decoded at more pixels than
+	 * needed.
+	 * @param imgArray Array to convert
+	 * @param size Size the image is shown at, null for full size
+	 * @return Corresponding Bitmap or null if imgArray is not an image.
+	 */
+	public static Bitmap byteArrayToBitmap(byte[] imgArray, Size size) {
+		return ImageIO.decodeSampled(imgArray, size, null);
+	}
+
 }
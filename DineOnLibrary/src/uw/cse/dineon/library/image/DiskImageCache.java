@@ -0,0 +1,419 @@
+package uw.cse.dineon.library.image;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+/**
+ * Keeps encoded images in files in the cache directory of the application.
+ * Only the metadata of an image, IE when it was last updated and used and
+ * how many bytes it has, is kept in SQLite.
+ *
+ * Images are decoded straight from their file without holding any lock, so
+ * any number of threads can read at the same time.  Files are written under
+ * a temporary name and then renamed so readers never see half an image.
+ *
+ * The files never take more than the byte budget.  Once an image is added
+ * that goes over the budget the images that were used least recently are
+ * deleted with a single statement, found through the index on the time
+ * they were last used.
+ */
+public class DiskImageCache {
+
+	private static final String TAG = DiskImageCache.class.getSimpleName();
+
+	/**
+	 * Name of the directory in the cache directory the images are kept in.
+	 */
+	public static final String DIRECTORY = "dineonimages";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	/**
+	 * Most images to delete with a single statement, SQLite allows
+	 * 999 arguments per statement.
+	 */
+	private static final int MAX_BATCH = 500;
+
+	private static final String BY_KEY = ImageSQLiteHelper.COLUMN_PARSEID + " = ?";
+
+	private static final String[] INFO_COLUMNS = {
+		ImageSQLiteHelper.COLUMN_LAST_UDPATED
+	};
+
+	private static final String[] EVICT_COLUMNS = {
+		ImageSQLiteHelper.COLUMN_PARSEID,
+		ImageSQLiteHelper.COLUMN_SIZE
+	};
+
+	private final ImageSQLiteHelper mSQLHelper;
+	private final File mDirectory;
+	private final long mMaxBytes;
+	private SQLiteDatabase mDb;
+
+	/**
+	 * Guards the metadata and renaming or deleting files.
+	 */
+	private final Object mLock = new Object();
+
+	// Number of images deleted to stay in the budget or because they expired
+	private int mEvictions;
+
+	/**
+	 * Creates a cache that keeps its files in the cache directory of context.
+	 * @param context Context to create SQLiteHelper and find the directory
+	 * @param maxBytes Byte budget of the image files
+	 */
+	public DiskImageCache(Context context, long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Byte budget must be positive");
+		}
+		mSQLHelper = new ImageSQLiteHelper(context);
+		mDirectory = new File(context.getCacheDir(), DIRECTORY);
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Opens the current database.
+	 * Must call before referencing the cache
+	 */
+	public void open() {
+		synchronized (mLock) {
+			mDb = mSQLHelper.getWritableDatabase();
+			if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+				Log.e(TAG, "Unable to create image directory " + mDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Closes the current database.
+	 */
+	public void close() {
+		synchronized (mLock) {
+			if (mDb != null) {
+				mDb.close();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of images evicted since this cache was created
+	 */
+	public int getEvictionCount() {
+		synchronized (mLock) {
+			return mEvictions;
+		}
+	}
+
+	/**
+	 * @return Byte budget of the image files
+	 */
+	public long getMaxSize() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * Writes the encoded image data under key replacing the image that
+	 * was there.  Then evicts images until the cache fits its budget.
+	 * NOTE Make sure you are in background thread
+	 * @param key Key of the image
+	 * @param data Encoded image
+	 * @param lastUpdated Time the image was last updated in the cloud
+	 * @return true if the image was written, false otherwise
+	 */
+	public boolean put(String key, byte[] data, long lastUpdated) {
+		if (key == null || data == null) {
+			throw new IllegalArgumentException("Can't cache image without key or data");
+		}
+
+		// Write outside the lock so readers and other writers don't wait
+		File temp = null;
+		FileOutputStream out = null;
+		try {
+			if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+				throw new IOException("Unable to create " + mDirectory);
+			}
+			temp = File.createTempFile(key, TEMP_SUFFIX, mDirectory);
+			out = new FileOutputStream(temp);
+			out.write(data);
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			Log.e(TAG, "Unable to write image " + key + ": " + e.getMessage());
+			deleteFile(temp);
+			return false;
+		} finally {
+			closeQuietly(out);
+		}
+
+		ContentValues values = new ContentValues();
+		values.put(ImageSQLiteHelper.COLUMN_PARSEID, key);
+		values.put(ImageSQLiteHelper.COLUMN_LAST_UDPATED, lastUpdated);
+		values.put(ImageSQLiteHelper.COLUMN_LAST_USED, System.currentTimeMillis());
+		values.put(ImageSQLiteHelper.COLUMN_SIZE, (long) data.length);
+		synchronized (mLock) {
+			if (!isOpen() || !temp.renameTo(getFile(key))) {
+				Log.e(TAG, "Unable to add image " + key);
+				deleteFile(temp);
+				return false;
+			}
+			mDb.insertWithOnConflict(ImageSQLiteHelper.TABLE_IMAGES, null,
+					values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+		trimToSize(mMaxBytes);
+		return true;
+	}
+
+	/**
+	 * Decodes the image with key from its file.
+	 * Marks the image as used so it is evicted last.
+	 * @param key Key of the image
+	 * @return The image or null if it is not in the cache
+	 */
+	public Bitmap get(String key) {
+		return get(key, null, null);
+	}
+
+	/**
+	 * Decodes the image with key from its file sampled down to the size it is
+	 * shown at.  Marks the image as used so it is evicted last.
+	 * @param key Key of the image
+	 * @param size Size the image is shown at, null for full size
+	 * @param pool Pool of bitmaps to decode into, null to always allocate
+	 * @return The image or null if it is not in the cache
+	 */
+	public Bitmap get(String key, Size size, BitmapPool pool) {
+		File file = getFile(key);
+		if (!file.isFile()) {
+			return null;
+		}
+		Bitmap b = ImageIO.decodeSampled(file, size, pool);
+		if (b == null) {
+			// Evicted while decoding or broken
+			Log.w(TAG, "Unable to decode cached image " + key);
+			return null;
+		}
+		ContentValues values = new ContentValues();
+		values.put(ImageSQLiteHelper.COLUMN_LAST_USED, System.currentTimeMillis());
+		synchronized (mLock) {
+			if (isOpen()) {
+				mDb.update(ImageSQLiteHelper.TABLE_IMAGES, values, BY_KEY, new String[] {key});
+			}
+		}
+		return b;
+	}
+
+	/**
+	 * Returns the time the image with key was last updated in the cloud.
+	 * @param key Key of the image
+	 * @return Time in milliseconds or -1 if the image is not in the cache
+	 */
+	public long getLastUpdated(String key) {
+		Cursor cursor = null;
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return -1;
+			}
+			cursor = mDb.query(ImageSQLiteHelper.TABLE_IMAGES, INFO_COLUMNS,
+					BY_KEY, new String[] {key}, null, null, null);
+		}
+		long lastUpdated = cursor.moveToFirst() ? cursor.getLong(0) : -1;
+		cursor.close();
+		return lastUpdated;
+	}
+
+	/**
+	 * @param key Key of the image
+	 * @return true if the image with key is in the cache
+	 */
+	public boolean contains(String key) {
+		return getLastUpdated(key) >= 0;
+	}
+
+	/**
+	 * Deletes the image with key if it is in the cache.
+	 * @param key Key of the image
+	 */
+	public void remove(String key) {
+		synchronized (mLock) {
+			removeLocked(key);
+		}
+	}
+
+	/**
+	 * Deletes every image.
+	 */
+	public void clear() {
+		synchronized (mLock) {
+			if (isOpen()) {
+				mDb.delete(ImageSQLiteHelper.TABLE_IMAGES, null, null);
+			}
+			File[] files = mDirectory.listFiles();
+			if (files != null) {
+				for (File f : files) {
+					deleteFile(f);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Number of bytes of all the images in the cache
+	 */
+	public long size() {
+		Cursor cursor = null;
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return 0;
+			}
+			cursor = mDb.query(ImageSQLiteHelper.TABLE_IMAGES,
+					new String[] {"sum(" + ImageSQLiteHelper.COLUMN_SIZE + ")"},
+					null, null, null, null, null);
+		}
+		long size = cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		cursor.close();
+		return size;
+	}
+
+	/**
+	 * Deletes the images that were used least recently until
+	 * the images take at most maxBytes.
+	 * NOTE Make sure you are in background thread
+	 * @param maxBytes Number of bytes the images may take
+	 * @return Number of images deleted
+	 */
+	public int trimToSize(long maxBytes) {
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return 0;
+			}
+			long size = size();
+			if (size <= maxBytes) {
+				return 0;
+			}
+			List<String> evicted = new ArrayList<String>();
+			Cursor cursor = mDb.query(ImageSQLiteHelper.TABLE_IMAGES, EVICT_COLUMNS,
+					null, null, null, null, ImageSQLiteHelper.COLUMN_LAST_USED + " ASC");
+			for (boolean more = cursor.moveToFirst(); more && size > maxBytes;
+					more = cursor.moveToNext()) {
+				evicted.add(cursor.getString(0));
+				size -= cursor.getLong(1);
+			}
+			cursor.close();
+			removeAllLocked(evicted);
+			mEvictions += evicted.size();
+			return evicted.size();
+		}
+	}
+
+	/**
+	 * Deletes the images that were not used since time.
+	 * NOTE Make sure you are in background thread
+	 * @param time Time in milliseconds
+	 * @return Number of images deleted
+	 */
+	public int removeUnusedSince(long time) {
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return 0;
+			}
+			String where = ImageSQLiteHelper.COLUMN_LAST_USED + " < ?";
+			String[] args = new String[] {String.valueOf(time)};
+			List<String> expired = new ArrayList<String>();
+			Cursor cursor = mDb.query(ImageSQLiteHelper.TABLE_IMAGES, EVICT_COLUMNS,
+					where, args, null, null, null);
+			for (boolean more = cursor.moveToFirst(); more; more = cursor.moveToNext()) {
+				expired.add(cursor.getString(0));
+			}
+			cursor.close();
+			mDb.delete(ImageSQLiteHelper.TABLE_IMAGES, where, args);
+			for (String key : expired) {
+				deleteFile(getFile(key));
+			}
+			mEvictions += expired.size();
+			return expired.size();
+		}
+	}
+
+	/**
+	 * @param key Key of the image
+	 * @return File the image with key is kept in
+	 */
+	public File getFile(String key) {
+		return new File(mDirectory, key);
+	}
+
+	/**
+	 * Deletes the image with key, must hold mLock.
+	 * @param key Key of the image
+	 */
+	private void removeLocked(String key) {
+		if (isOpen()) {
+			mDb.delete(ImageSQLiteHelper.TABLE_IMAGES, BY_KEY, new String[] {key});
+		}
+		deleteFile(getFile(key));
+	}
+
+	/**
+	 * Deletes the images with keys in batches of MAX_BATCH, must hold mLock.
+	 * @param keys Keys of the images
+	 */
+	private void removeAllLocked(List<String> keys) {
+		for (int from = 0; from < keys.size(); from += MAX_BATCH) {
+			List<String> batch = keys.subList(from, Math.min(keys.size(), from + MAX_BATCH));
+			StringBuilder where = new StringBuilder(ImageSQLiteHelper.COLUMN_PARSEID);
+			where.append(" IN (");
+			for (int i = 0; i < batch.size(); ++i) {
+				where.append(i == 0 ? "?" : ", ?");
+			}
+			where.append(')');
+			mDb.delete(ImageSQLiteHelper.TABLE_IMAGES, where.toString(),
+					batch.toArray(new String[batch.size()]));
+		}
+		for (String key : keys) {
+			deleteFile(getFile(key));
+		}
+	}
+
+	/**
+	 * @return true if the database is open, must hold mLock
+	 */
+	private boolean isOpen() {
+		return mDb != null && mDb.isOpen();
+	}
+
+	/**
+	 * Deletes f if it exists.
+	 * @param f File to delete, can be null
+	 */
+	private static void deleteFile(File f) {
+		if (f != null && f.exists() && !f.delete()) {
+			Log.w(TAG, "Unable to delete " + f);
+		}
+	}
+
+	/**
+	 * Closes out ignoring errors.
+	 * @param out Stream to close, can be null
+	 */
+	private static void closeQuietly(FileOutputStream out) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			Log.w(TAG, "Unable to close image file: " + e.getMessage());
+		}
+	}
+}
@@ -2,14 +2,15 @@ package uw.cse.dineon.library.image;
 
 import java.util.Calendar;
 
-import android.content.ContentValues;
+import uw.cse.dineon.library.image.DineOnImage.Variant;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
 import android.os.AsyncTask;
 import android.util.Log;
 
+import com.parse.GetDataCallback;
+import com.parse.ParseException;
+
 /**
  * This cache has the capability of referencing the network or the cache to retrieve images.
  * The cache will have to reference the network to find if the file exists 
@@ -18,6 +19,11 @@ import android.util.Log;
  * 
  * In order to use this class the application must be initialized with Parse.
  * 
+ * Every version of an image is cached separately under its cache key.
+ * The images are kept as the files that were downloaded in a DiskImageCache,
+ * so they are never encoded again.  The files stay within a byte budget, the
+ * images used least recently are evicted first.
+ * 
  * @author mhotan
  */
 public class ImageCache {
@@ -28,35 +34,36 @@ public class ImageCache {
 	private static final long EXPIRATION_TIME = 604800000; // 1 week in ms
 	private static final long OUTDATED_TIME = MINUTE_MS; // 1 minute
 
+	/**
+	 * Default byte budget of the images on disk.
+	 */
+	public static final long MAX_CACHE_BYTES = 20 * 1024 * 1024; // 20 MB
+
 	private static final String TAG = ImageCache.class.getSimpleName();
 
-	private final ImageSQLiteHelper mSQLHelper;
-	//	private final java.text.DateFormat mDateFormat;
+	private final DiskImageCache mDisk;
 	private CacheCleaner mCleaner;
-	private SQLiteDatabase mDb;
 
-	private AsyncImageAdder mLastAdder;
-
-	private final Object mLock = new Object();
-
-	private static final String[] RELEVANT_COLUMNS = { 
-		ImageSQLiteHelper.COLUMN_PARSEID,
-		ImageSQLiteHelper.COLUMN_LAST_UDPATED,
-		ImageSQLiteHelper.COLUMN_IMG
-	};
-
-	private static final String[] CONTAINS_ELEMENT = {
-		ImageSQLiteHelper.COLUMN_PARSEID,
-		ImageSQLiteHelper.COLUMN_LAST_UDPATED,
-	};
+	// Number of images found in and missing from the cache
+	private int mHits;
+	private int mMisses;
 
 	/**
 	 * Creates a data source that can connect to the Database or Parse.
 	 * @param context Context to create SQLiteHelper
 	 */
 	public ImageCache(Context context) {
-		mSQLHelper = new ImageSQLiteHelper(context);
-		// Create a date format that stays constant for data base writing and reading.
+		this(context, MAX_CACHE_BYTES);
+	}
+
+	/**
+	 * Creates a data source that can connect to the Database or Parse
+	 * and keeps at most maxBytes of images on disk.
+	 * @param context Context to create SQLiteHelper
+	 * @param maxBytes Byte budget of the images on disk
+	 */
+	public ImageCache(Context context, long maxBytes) {
+		mDisk = new DiskImageCache(context, maxBytes);
 	}
 
 	/**
@@ -64,21 +71,36 @@ public class ImageCache {
 	 * Must call before referencing the cache
 	 */
 	public void open() {
-		mDb = mSQLHelper.getWritableDatabase();
+		mDisk.open();
 	}
 
 	/**
 	 * Closes the current database.
+	 * Images that are still being added in the background are dropped.
 	 */
 	public void close() {
-		// If there is a current thread processing still
-		// set the thread to close the DB
-		synchronized (mLock) {
-			if (mLastAdder != null) {
-				mLastAdder.setCloseOnFinish(true);
-			}
-		}
-		mDb.close();
+		mDisk.close();
+	}
+
+	/**
+	 * @return Number of images that were found in the cache
+	 */
+	public synchronized int getHitCount() {
+		return mHits;
+	}
+
+	/**
+	 * @return Number of images that had to be downloaded
+	 */
+	public synchronized int getMissCount() {
+		return mMisses;
+	}
+
+	/**
+	 * @return Number of images evicted from the cache
+	 */
+	public int getEvictionCount() {
+		return mDisk.getEvictionCount();
 	}
 
 	/**
@@ -88,22 +110,33 @@ public class ImageCache {
 	 * @param image Image to add to Cache
 	 */
 	public void addToCache(DineOnImage image) {
+		addToCache(image, Variant.FULL);
+	}
+
+	/**
+	 * Adds a version of an already saved image to the cache.
+	 * Possibly does asynchronously call to retrieve the image from the cloud
+	 * @param image Image to add to Cache
+	 * @param variant Version of the image to add
+	 */
+	public void addToCache(DineOnImage image, Variant variant) {
 		// if we have it in the cache then ignore adding it.
-		if (hasRecentInCache(image)) {
+		if (hasRecentInCache(image, variant)) {
 			return;
 		}
 		final DineOnImage TOSAVE = image;
-		TOSAVE.getImageBitmap(new ImageGetCallback() {
+		final String KEY = image.getCacheKey(variant);
+		TOSAVE.getImageData(variant, new GetDataCallback() {
 
 			@Override
-			public void onImageReceived(Exception e, Bitmap b) {
+			public void done(byte[] data, ParseException e) {
 				if (e != null) {
 					// For images that can't be retrieve we just ignore
-					Log.e(TAG, "Unable to add SQLite database because of Exception: " 
+					Log.e(TAG, "Unable to add to the cache because of Exception: " 
 							+ e.getMessage());
 					return;
 				}
-				addImageToDB(TOSAVE, b);
+				addImageToDisk(TOSAVE, KEY, data);
 			}
 		});
 	}
@@ -115,49 +148,22 @@ public class ImageCache {
 	 * @return true if there is a recent version of image added, false otherwise
 	 */
 	public boolean hasRecentInCache(DineOnImage image) {
-		Cursor cursor = null;
-		synchronized (mLock) {
-			if (!mDb.isOpen()) {
-				return false;
-			}
-			
-			cursor = mDb.query(
-					ImageSQLiteHelper.TABLE_IMAGES, 
-					CONTAINS_ELEMENT,
-					ImageSQLiteHelper.COLUMN_PARSEID + " = ?",
-					new String[] {image.getObjId()}
-					, null, null, null);
-		}
-		if (!cursor.moveToFirst()) {
-			return false;
-		}
-		long lastUpdated = cursor.getLong(1);
-		cursor.close();
-		return !isOutdated(lastUpdated, image.getLastUpdatedTime().getTime());
+		return hasRecentInCache(image, Variant.FULL);
 	}
 
 	/**
-	 * Returns if there is a version of the image in the cache.
-	 * @param image Image to look for
-	 * @return if there is any version of the image in the database.
+	 * This method checks if there is a recent copy of a version of the image in
+	 * the app.  if it does then true is returned.
+	 * @param image Image to check for
+	 * @param variant Version of the image to check for
+	 * @return true if there is a recent version of image added, false otherwise
 	 */
-	private boolean hasVersionInCache(DineOnImage image) {
-		Cursor cursor = null;
-		synchronized (mLock) {
-			if (!mDb.isOpen()) {
-				return false;
-			}
-			
-			cursor = mDb.query(
-					ImageSQLiteHelper.TABLE_IMAGES, 
-					CONTAINS_ELEMENT,
-					ImageSQLiteHelper.COLUMN_PARSEID + " = ?",
-					new String[] {image.getObjId()}
-					, null, null, null);
+	public boolean hasRecentInCache(DineOnImage image, Variant variant) {
+		long lastUpdated = mDisk.getLastUpdated(image.getCacheKey(variant));
+		if (lastUpdated < 0) {
+			return false;
 		}
-		boolean hasVal = cursor.moveToFirst();
-		cursor.close();
-		return hasVal;
+		return !isOutdated(lastUpdated, image.getLastUpdatedTime().getTime());
 	}
 
 	/**
@@ -169,203 +175,179 @@ public class ImageCache {
 	 * @param image to get Bitmap from.
 	 * @param callback Callback to use on receipt.
 	 */
-	public void getImageFromCache(final DineOnImage image, final ImageGetCallback callback) {
-		Cursor cursor = null;
-		synchronized (mLock) {
-			if (!mDb.isOpen()) {
-				return;
-			}
-			
-			cursor = mDb.query(
-					ImageSQLiteHelper.TABLE_IMAGES, 
-					RELEVANT_COLUMNS,
-					ImageSQLiteHelper.COLUMN_PARSEID + " = ?",
-					new String[] {image.getObjId()}
-					, null, null, null);
-		}
-
-		final boolean HAVEINCACHE = cursor.moveToFirst();
-
-		final long TIMENOW = Calendar.getInstance().getTime().getTime();
-
-		// If we have something in the cache
-		// Check if we are up to date.
-		if (HAVEINCACHE) {
-
-			boolean getFromCache = false;
-			long lastUpdateMS = 0;
-
-			// We have the image in the cache and but we have to compare if 
-			// the last time it was updated is after our last time in the cache.
-			lastUpdateMS = image.getLastUpdatedTime().getTime();
-			long ourLastTime = cursor.getLong(1);
-
-			// If our date precedes that date the image
-			// was last updated then don't get it from the cache
-			getFromCache = !isOutdated(ourLastTime, lastUpdateMS);
-
-			// Check if our image is the most recent one 
-			// on the server.
-			if (getFromCache) {
-				byte[] byteImg = cursor.getBlob(2);
-				Bitmap toReturn = DineOnImage.byteArrayToBitmap(byteImg);
-				String parseId = cursor.getString(0);
-				cursor.close();
+	public void getImageFromCache(DineOnImage image, ImageGetCallback callback) {
+		getImageFromCache(image, Variant.FULL, callback);
+	}
 
-				// Notify the user we have completed 
-				callback.onImageReceived(null, toReturn);
+	/**
+	 * Attempts to get a version of the image from the cache if it exists, else
+	 * it will try to get it from the network.
+	 * 
+	 * Result will be passed through callback.
+	 * 
+	 * @param image to get Bitmap from.
+	 * @param variant Version of the image to get
+	 * @param callback Callback to use on receipt.
+	 */
+	public void getImageFromCache(DineOnImage image, Variant variant, 
+			ImageGetCallback callback) {
+		getImageFromCache(image, variant, null, callback);
+	}
 
-				// Update the time
-				updateLastUsedTime(parseId, TIMENOW);
-				return;
-			}
-		} 
+	/**
+	 * Attempts to get the smallest version of the image that fills size from 
+	 * the cache if it exists, else it will try to get it from the network.
+	 * The image is sampled down to size while it is decoded.
+	 * 
+	 * Result will be passed through callback.
+	 * 
+	 * @param image to get Bitmap from.
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to use on receipt.
+	 */
+	public void getImageFromCache(DineOnImage image, Size size, ImageGetCallback callback) {
+		getImageFromCache(image, Variant.forSize(size), size, callback);
+	}
 
-		// Couldnt find image so close cursor.
-		cursor.close();
+	/**
+	 * Attempts to get a version of the image sampled down to size.
+	 * 
+	 * @param image to get Bitmap from.
+	 * @param variant Version of the image to get
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to use on receipt.
+	 */
+	private void getImageFromCache(final DineOnImage image, Variant variant, 
+			final Size size, final ImageGetCallback callback) {
+		final String KEY = image.getCacheKey(variant);
+
+		Bitmap toReturn = getFromDisk(image, variant, size, null);
+		if (toReturn != null) {
+			// Notify the user we have completed 
+			callback.onImageReceived(null, toReturn);
+			return;
+		}
 
-		// Can reach here with two cases
+		// Can reach here with three cases
 		// Case 1. Our image's last updated value in the cache is before the one on the server
 		// Case 2. We have never seen this image before.
+		// Case 3. The file of the image was deleted
 		// In either case we have to attempt to get the latest copy
-		// of the image. Upon successful retrieval save to Cache.
+		// of the image. Upon successful retrieval save to Cache
+		// replacing the old copy.
 		// Always notify the callback what has happened
-		image.getImageBitmap(new ImageGetCallback() {
+		image.getImageData(variant, new GetDataCallback() {
 
 			@Override
-			public void onImageReceived(Exception e, Bitmap b) {
-				if (e == null) {
-					// Got a copy from the cloud.
-					// Update our value if we have it
-					if (HAVEINCACHE) {
-						// Our cache got out of sync.
-						// We have the image but it was really old.
-						// So update the image with most recent version.
-						// Giving it fresh times
-						long newTime = image.getLastUpdatedTime().getTime();
-						updateTimes(image.getObjId(), TIMENOW, newTime);
-						updateImage(image.getObjId(), b);
-					} else {
-						addImageToDB(image, b);
-					}
-				} // pass back the result.
-				callback.onImageReceived(e, b);
+			public void done(byte[] data, ParseException e) {
+				if (e != null) {
+					callback.onImageReceived(e, null);
+					return;
+				}
+				Bitmap b = DineOnImage.byteArrayToBitmap(data, size);
+				if (b == null) {
+					callback.onImageReceived(new IllegalStateException(
+							"Unable to decode image " + KEY), null);
+					return;
+				}
+				// Got a copy from the cloud.
+				addImageToDisk(image, KEY, data);
+				// pass back the result.
+				callback.onImageReceived(null, b);
 			}
 		});
 	}
 
 	/**
-	 * For a image with Parse id parseID in the cloud update the time last updated.
-	 * @param parseId String id of the image
-	 * @param time time last updated.
-	 */
-	private void updateLastUsedTime(String parseId, long time) {
-		// Update our database with this Image's last used to NOW.
-		ContentValues cv = new ContentValues();
-		cv.put(ImageSQLiteHelper.COLUMN_LAST_USED, time);
-		updateByParseId(parseId, cv);
-	}
-
-	/**
-	 * Updates the times of a specific image in the data base with the specific times.
-	 * If item does not exist then no effect will incur.
-	 * @param parseId Parse Id of the image.
-	 * @param lastUsed Time of last use to update to
-	 * @param lastUpdated Time of last Updated to update to.
+	 * Compares our date vs the last updated date to check if our version is not to old.
+	 * 
+	 * @param ourDate Date that we save
+	 * @param lastUpdated The date th
+	 * @return true if our test is outdated compared to the last updated Date
 	 */
-	private void updateTimes(String parseId, long lastUsed, long lastUpdated) {
-		ContentValues cv = new ContentValues();
-		cv.put(ImageSQLiteHelper.COLUMN_LAST_USED, lastUsed);
-		cv.put(ImageSQLiteHelper.COLUMN_LAST_UDPATED, lastUpdated);
-		updateByParseId(parseId, cv);
+	private static boolean isOutdated(long ourDate, long lastUpdated) {
+		long timeDiff = lastUpdated - ourDate;
+		return timeDiff > OUTDATED_TIME;
 	}
 
 	/**
-	 *  Update the image at a particular parseId in the table. 
-	 * 
-	 * @param parseId Parse id of image in DB
-	 * @param b Bitmap to store
+	 * Decodes a version of the image from the disk if the copy
+	 * there is the most recent one on the server.
+	 * NOTE Make sure you are in background thread
+	 * @param image Image to get
+	 * @param variant Version of the image to get
+	 * @return The version of the image or null if it has to be downloaded
 	 */
-	private void updateImage(String parseId, Bitmap b) {
-		ContentValues cv = new ContentValues();
-		cv.put(ImageSQLiteHelper.COLUMN_IMG, DineOnImage.bitmapToByteArray(b));
-		updateByParseId(parseId, cv);
+	Bitmap getFromDisk(DineOnImage image, Variant variant) {
+		return getFromDisk(image, variant, null, null);
 	}
 
 	/**
-	 * Updates a specific value in the data base by parse Id.
-	 * @param parseId Parse ID of the image to update
-	 * @param cv Content values to update with
+	 * Decodes a version of the image from the disk sampled down to the size
+	 * it is shown at if the copy there is the most recent one on the server.
+	 * NOTE Make sure you are in background thread
+	 * @param image Image to get
+	 * @param variant Version of the image to get
+	 * @param size Size the image is shown at, null for full size
+	 * @param pool Pool of bitmaps to decode into, null to always allocate
+	 * @return The version of the image or null if it has to be downloaded
 	 */
-	private void updateByParseId(String parseId, ContentValues cv) {
-		String where = ImageSQLiteHelper.COLUMN_PARSEID + " = ?";
-		int result = -1;
-		synchronized (mLock) {
-			if (!mDb.isOpen()) {
-				return;
-			}
-			result = mDb.update(ImageSQLiteHelper.TABLE_IMAGES, 
-					cv, where, new String[] {parseId});
+	Bitmap getFromDisk(DineOnImage image, Variant variant, Size size, BitmapPool pool) {
+		Bitmap b = null;
+		// Check if our image is the most recent one 
+		// on the server.
+		if (hasRecentInCache(image, variant)) {
+			// Decode straight from the file, this also marks it as used
+			b = mDisk.get(image.getCacheKey(variant), size, pool);
 		}
-		if (result <= 0) {
-			Log.w(TAG, "Unable to update using updateByParseId");
+		synchronized (this) {
+			if (b != null) {
+				mHits++;
+			} else {
+				mMisses++;
+			}
 		}
+		return b;
 	}
 
 	/**
-	 * Compares our date vs the last updated date to check if our version is not to old.
-	 * 
-	 * @param ourDate Date that we save
-	 * @param lastUpdated The date th
-	 * @return true if our test is outdated compared to the last updated Date
+	 * Writes the encoded version of an image to the disk on the current thread.
+	 * NOTE Make sure you are in background thread
+	 * @param image Image to add
+	 * @param variant Version of the image data is
+	 * @param data Encoded version of the image as it was downloaded
 	 */
-	private static boolean isOutdated(long ourDate, long lastUpdated) {
-		long timeDiff = lastUpdated - ourDate;
-		return timeDiff > OUTDATED_TIME;
+	void putOnDisk(DineOnImage image, Variant variant, byte[] data) {
+		String key = image.getCacheKey(variant);
+		if (!mDisk.put(key, data, image.getLastUpdatedTime().getTime())) {
+			Log.e(TAG, "Unable to add image " + key + " to the cache");
+		}
 	}
 
 	/**
-	 * Adds an image contained in DineOnImage with corresponding Bitmap to 
-	 * the database.
+	 * Writes the encoded version of an image to the disk in the background.
 	 * @param image Image to add
-	 * @param b Bitmap version of the image.
+	 * @param key Cache key of the version of the image
+	 * @param data Encoded version of the image as it was downloaded
 	 */
-	private void addImageToDB(DineOnImage image, Bitmap b) {
-		// Synchronize so that this operation is
-		// atomic with respect to data base calls
-		synchronized (mLock) {
-			// Here we check if the database is even open
-			// if it is then 
-			if (!mDb.isOpen()) {
-				return;
-			}
-			// If there was a previous last adder then 
-			// don't let it close the DB
-			if (mLastAdder != null) {
-				mLastAdder.setCloseOnFinish(false);
-			}
-			mLastAdder = new AsyncImageAdder(image, b);
-			mLastAdder.setCloseOnFinish(true);
-		} 
-		mLastAdder.execute();
+	private void addImageToDisk(DineOnImage image, String key, byte[] data) {
+		new AsyncImageAdder(key, data, image.getLastUpdatedTime().getTime()).execute();
 	}
 
 	/**
-	 * Deletes this image from the Cache if it exists.
+	 * Deletes every version of this image from the Cache if it exists.
 	 * @param image Image to delete.
 	 */
 	public void deleteImage(DineOnImage image) {
-		synchronized (mLock) {
-			mDb.delete(
-					ImageSQLiteHelper.TABLE_IMAGES, 
-					ImageSQLiteHelper.COLUMN_PARSEID + " = ?",
-					new String[] {image.getObjId()});
+		for (Variant v : Variant.values()) {
+			mDisk.remove(image.getCacheKey(v));
 		}
 	}
 
 	/**
 	 * Single call that sparks an asycnronous cleaning of the cache.
-	 * Good to call toward the end of an application instance.
+	 * Deletes the images that expired and evicts images until the cache
+	 * fits its budget.  Good to call toward the end of an application instance.
 	 */
 	public void cleanUpCache() {
 		// If there is already a cleaner running don't worry about it.
@@ -393,47 +375,22 @@ public class ImageCache {
 		public void onImageReceived(Exception e, Bitmap b);
 	}
 
-	private static final String[] DELETE_COLUMNS = {
-		ImageSQLiteHelper.COLUMN_ID,
-		ImageSQLiteHelper.COLUMN_LAST_USED,
-	};
-
 	/**
-	 * Helper class that cleans up the data base in the background.
+	 * Helper class that cleans up the cache in the background.
 	 * @author mhotan 
 	 */
 	private class CacheCleaner extends AsyncTask<Void, Void, Void> {
 
 		@Override
 		protected Void doInBackground(Void... params) {
-			synchronized (mLock) {
-				if (!mDb.isOpen()) {
-					return null;
-				}
-				
-				Cursor cursor = mDb.query(ImageSQLiteHelper.TABLE_IMAGES,
-						DELETE_COLUMNS, null, null, null, null, null);
-
-				// Current time
-				long now = Calendar.getInstance().getTime().getTime();
-
-				// Iterate through all files in the database
-				while (!cursor.isAfterLast()) {
-
-					// Get the last used date and compare with the current date
-					long lastUsed = cursor.getLong(1);
-
-					// See if the time since last use is longer then expiration.
-					if (now - lastUsed > EXPIRATION_TIME) {
-						mDb.delete(ImageSQLiteHelper.TABLE_IMAGES,
-								ImageSQLiteHelper.COLUMN_ID + " = " + cursor.getLong(0),
-								null);
-					}
-
-					// Make sure we continue the iteration.
-					cursor.moveToNext();
-				}
-			}
+			// Current time
+			long now = Calendar.getInstance().getTime().getTime();
+
+			// Delete everything that was not used for longer then expiration.
+			int deleted = mDisk.removeUnusedSince(now - EXPIRATION_TIME);
+			deleted += mDisk.trimToSize(mDisk.getMaxSize());
+			Log.i(TAG, "Cleaned " + deleted + " images from the cache, hits: " 
+					+ getHitCount() + ", misses: " + getMissCount());
 			return null;
 		}
 
@@ -449,83 +406,28 @@ public class ImageCache {
 	 */
 	private class AsyncImageAdder extends AsyncTask<Void, Void, Void> {
 
-		private final DineOnImage mImage;
-		private final Bitmap mBitmap;
-
-		private boolean mCloseOnFinish;
+		private final String mKey;
+		private final byte[] mData;
+		private final long mLastUpdated;
 
 		/**
-		 * Sets whether this task will close the database one this back ground
-		 * activity finishes.
-		 * @param close true if you want this thread to close the database on close
-		 * 	false other wise
+		 * Sets the image adder to this version of an image.
+		 * @param key Cache key of the version of the image
+		 * @param data Encoded version of the image
+		 * @param lastUpdated Time the image was last updated
 		 */
-		public void setCloseOnFinish(boolean close) {
-			mCloseOnFinish = close;
-		}
-
-//		/**
-//		 * Shows if the thread is set to close.
-//		 * @return if thread will close the database on complete.
-//		 */
-//		public boolean isSetToClose(){
-//			return mCloseOnFinish;
-//		}
-
-		/**
-		 * Sets teh image adder to this dine on image 
-		 * and bitmap.
-		 * @param image image to add in background
-		 * @param bitmap Bitmap to add that belongs to image.
-		 */
-		public AsyncImageAdder(DineOnImage image, Bitmap bitmap) {
-			mImage = image;
-			mBitmap = bitmap;
+		public AsyncImageAdder(String key, byte[] data, long lastUpdated) {
+			mKey = key;
+			mData = data;
+			mLastUpdated = lastUpdated;
 		}
 
 		@Override
 		protected Void doInBackground(Void... params) {
-			long lastAnything = mImage.getLastUpdatedTime().getTime();
-			ContentValues values = new ContentValues();	
-
-			// Place the most recent data to the row
-			values.put(ImageSQLiteHelper.COLUMN_LAST_UDPATED, lastAnything);
-			values.put(ImageSQLiteHelper.COLUMN_LAST_USED, lastAnything);
-			values.put(ImageSQLiteHelper.COLUMN_IMG, DineOnImage.bitmapToByteArray(mBitmap));
-
-			// We have all the data
-			if (hasVersionInCache(mImage)) {
-				updateByParseId(mImage.getObjId(), values);
-			} else {
-				values.put(ImageSQLiteHelper.COLUMN_PARSEID, mImage.getObjId());
-				long id = -1;
-
-				// Fine grain locking over database insertion
-				synchronized (mLock) {
-					if (!mDb.isOpen()) {
-						Log.e(TAG, "Cannot add image in closed database");
-						return null;
-					}
-					
-					id = mDb.insert(ImageSQLiteHelper.TABLE_IMAGES, null, values);
-				}
-
-				if (id == -1) {
-					Log.e(TAG, 
-							"Unable to \"insert\" SQLite " 
-									+ "database because of some unknown reason");
-				}
+			if (!mDisk.put(mKey, mData, mLastUpdated)) {
+				Log.e(TAG, "Unable to add image " + mKey + " to the cache");
 			}
 			return null;
 		}
-
-		@Override
-		protected void onPostExecute(Void result) {
-			if (mCloseOnFinish) {
-				mDb.close();
-			}
-			mLastAdder = null;
-		}
 	}
 }
-
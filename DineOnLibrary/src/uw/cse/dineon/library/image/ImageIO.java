@@ -1,5 +1,6 @@
 package uw.cse.dineon.library.image;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -135,6 +136,112 @@ public final class ImageIO {
 		return new Size(width, height);
 	}
 
+	/**
+	 * Scales size down proportionally so its longest side is at most longest.
+	 * Sizes that fit already are not scaled up.
+	 * @param size Size to scale
+	 * @param longest Longest side allowed
+	 * @return proportional size that fits
+	 */
+	public static Size fitWithin(Size size, int longest) {
+		int max = Math.max(size.width, size.height);
+		if (max <= longest) {
+			return size;
+		}
+		float ratio = (float) longest / (float) max;
+		return new Size(Math.max(1, Math.round(size.width * ratio)),
+				Math.max(1, Math.round(size.height * ratio)));
+	}
+
+	/**
+	 * Calculates the largest power of two to sample an image by so it
+	 * still fills target.  Decoders round other values down to a power of two.
+	 * @param width Width of the encoded image
+	 * @param height Height of the encoded image
+	 * @param target Size the image is shown at, null or non positive for full size
+	 * @return Sample size to decode the image with, at least 1
+	 */
+	public static int calculateInSampleSize(int width, int height, Size target) {
+		int sampleSize = 1;
+		if (target == null || target.width <= 0 || target.height <= 0) {
+			return sampleSize;
+		}
+		// Halve as long as both sides stay at least as big as the target
+		while (width / (sampleSize * 2) >= target.width 
+				&& height / (sampleSize * 2) >= target.height) {
+			sampleSize *= 2;
+		}
+		return sampleSize;
+	}
+
+	/**
+	 * Decodes an encoded image sampled down to the size it is shown at.
+	 * @param data Encoded image
+	 * @param target Size the image is shown at, null for full size
+	 * @param pool Pool of bitmaps to decode into, null to always allocate
+	 * @return Decoded image at least as big as target or null if data is not an image
+	 */
+	public static Bitmap decodeSampled(byte[] data, Size target, BitmapPool pool) {
+		BitmapFactory.Options bmpOptions = new BitmapFactory.Options();
+		bmpOptions.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, bmpOptions);
+		if (!prepareSampled(bmpOptions, target, pool)) {
+			return null;
+		}
+		try {
+			return BitmapFactory.decodeByteArray(data, 0, data.length, bmpOptions);
+		} catch (IllegalArgumentException e) {
+			// The bitmap of the pool did not fit after all
+			bmpOptions.inBitmap = null;
+			return BitmapFactory.decodeByteArray(data, 0, data.length, bmpOptions);
+		}
+	}
+
+	/**
+	 * Decodes an image file sampled down to the size it is shown at.
+	 * @param file File of the encoded image
+	 * @param target Size the image is shown at, null for full size
+	 * @param pool Pool of bitmaps to decode into, null to always allocate
+	 * @return Decoded image at least as big as target or null if file is not an image
+	 */
+	public static Bitmap decodeSampled(File file, Size target, BitmapPool pool) {
+		String path = file.getPath();
+		BitmapFactory.Options bmpOptions = new BitmapFactory.Options();
+		bmpOptions.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, bmpOptions);
+		if (!prepareSampled(bmpOptions, target, pool)) {
+			return null;
+		}
+		try {
+			return BitmapFactory.decodeFile(path, bmpOptions);
+		} catch (IllegalArgumentException e) {
+			// The bitmap of the pool did not fit after all
+			bmpOptions.inBitmap = null;
+			return BitmapFactory.decodeFile(path, bmpOptions);
+		}
+	}
+
+	/**
+	 * Prepares options whose bounds were decoded to decode the image.
+	 * @param bmpOptions Options with the decoded bounds
+	 * @param target Size the image is shown at, null for full size
+	 * @param pool Pool of bitmaps to decode into, null to always allocate
+	 * @return false if the bounds could not be decoded
+	 */
+	private static boolean prepareSampled(BitmapFactory.Options bmpOptions, 
+			Size target, BitmapPool pool) {
+		if (bmpOptions.outWidth <= 0 || bmpOptions.outHeight <= 0) {
+			return false;
+		}
+		bmpOptions.inJustDecodeBounds = false;
+		bmpOptions.inSampleSize = calculateInSampleSize(
+				bmpOptions.outWidth, bmpOptions.outHeight, target);
+		if (pool != null) {
+			pool.prepare(bmpOptions);
+		}
+		return true;
+	}
+
 	/**
 	 * Uses resolver to load the Bitmap image stored at the path distinguished at uri.
 	 * If a size is specified then the image will attempted to be loaded at that size
@@ -0,0 +1,615 @@
+package uw.cse.dineon.library.image;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import uw.cse.dineon.library.image.DineOnImage.Variant;
+import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.util.LruCache;
+
+import com.parse.GetDataCallback;
+import com.parse.ParseException;
+
+/**
+ * Loads images for views without blocking the main thread.
+ *
+ * Images are looked up in memory first, then on the disk of an ImageCache
+ * and finally downloaded.  Reading from the disk and decoding happens on a
+ * small pool of DECODE_THREADS threads.  Results are always delivered on
+ * the main thread.
+ *
+ * Loads of the same version of an image that overlap share one disk read
+ * and download, IE when several rows of a list show the same restaurant.
+ * Every load returns a Ticket that can be cancelled once its view is
+ * recycled.  A read that nobody waits for anymore is skipped.
+ *
+ * Loads for a view size decode the image sampled down to that size and are
+ * kept in memory by image and size.  Images this loader decoded are reused
+ * for later decodes once they are evicted from memory and no ticket that
+ * got them holds them anymore.  Cancel a ticket once its view stops
+ * showing the image.
+ */
+public class ImageLoader {
+
+	/**
+	 * Number of threads that read and decode images.
+	 */
+	public static final int DECODE_THREADS = 2;
+
+	/**
+	 * Number of evicted images to keep for decoding into.
+	 */
+	public static final int POOL_SIZE = 8;
+
+	private final ImageCache mCache;
+	private final LruCache<String, Bitmap> mMemCache;
+
+	/**
+	 * Evicted images to decode into.
+	 */
+	private final BitmapPool mPool;
+
+	/**
+	 * Images this loader decoded.  Only those are reused, images put
+	 * in memory from outside may still be shown.
+	 */
+	private final Set<Bitmap> mDecoded;
+
+	/**
+	 * Number of tickets holding each image this loader decoded.
+	 * Guarded by mInFlight.
+	 */
+	private final Map<Bitmap, Integer> mHeld;
+
+	/**
+	 * Decoded images evicted from memory while tickets still hold them.
+	 * They are reused once the last one lets go.  Guarded by mInFlight.
+	 */
+	private final Set<Bitmap> mEvictedHeld;
+
+	/**
+	 * Reads and decodes images.
+	 */
+	private final Executor mExecutor;
+
+	/**
+	 * Delivers results on the main thread.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Loads that are not finished by memory key of their image version.
+	 * Also guards the tickets of every load.
+	 */
+	private final Map<String, Load> mInFlight;
+
+	// Number of loads that shared the work of another load
+	private int mCoalesced;
+
+	/**
+	 * Creates a loader for images in cache.
+	 * @param cache Opened cache to read and write images with
+	 * @param memoryCacheKb Size of the memory cache in kilobytes
+	 */
+	public ImageLoader(ImageCache cache, int memoryCacheKb) {
+		this(cache, memoryCacheKb, Executors.newFixedThreadPool(DECODE_THREADS));
+	}
+
+	/**
+	 * Creates a loader for images in cache that reads with executor.
+	 * @param cache Opened cache to read and write images with
+	 * @param memoryCacheKb Size of the memory cache in kilobytes
+	 * @param executor Executor to read and decode images with
+	 */
+	protected ImageLoader(ImageCache cache, int memoryCacheKb, Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Can't load images without an executor");
+		}
+		mCache = cache;
+		mExecutor = executor;
+		mHandler = new Handler(Looper.getMainLooper());
+		mInFlight = new HashMap<String, Load>();
+		mPool = new BitmapPool(POOL_SIZE);
+		mDecoded = Collections.synchronizedSet(
+				Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>()));
+		mHeld = new WeakHashMap<Bitmap, Integer>();
+		mEvictedHeld = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+		mMemCache = new LruCache<String, Bitmap>(memoryCacheKb) {
+			@Override
+			protected int sizeOf(String key, Bitmap bitmap) {
+				// The cache size will be measured in kilobytes rather than
+				// number of items.
+				return bitmap.getByteCount() / 1024;
+			}
+
+			@Override
+			protected void entryRemoved(boolean evicted, String key, 
+					Bitmap oldValue, Bitmap newValue) {
+				// Replaced images may still be shown
+				if (evicted) {
+					evict(oldValue);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Loads a version of image and passes it to callback on the main thread.
+	 * If the image is in memory callback is called before this returns.
+	 * @param image Image to load
+	 * @param variant Version of the image to load
+	 * @param callback Callback to pass the image to
+	 * @return Ticket to cancel the load with
+	 */
+	public Ticket load(DineOnImage image, Variant variant, ImageGetCallback callback) {
+		return load(image, variant, null, callback);
+	}
+
+	/**
+	 * Loads the smallest version of image that fills size sampled down to
+	 * size and passes it to callback on the main thread.
+	 * If the image is in memory callback is called before this returns.
+	 * @param image Image to load
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to pass the image to
+	 * @return Ticket to cancel the load with
+	 */
+	public Ticket load(DineOnImage image, Size size, ImageGetCallback callback) {
+		return load(image, Variant.forSize(size), size, callback);
+	}
+
+	/**
+	 * Loads a version of image sampled down to size.
+	 * @param image Image to load
+	 * @param variant Version of the image to load
+	 * @param size Size the image is shown at, null for full size
+	 * @param callback Callback to pass the image to
+	 * @return Ticket to cancel the load with
+	 */
+	private Ticket load(DineOnImage image, Variant variant, Size size, 
+			ImageGetCallback callback) {
+		if (image == null || variant == null || callback == null) {
+			throw new IllegalArgumentException("Can't load without image, version or callback");
+		}
+		String key = getMemoryKey(image, variant, size);
+		Ticket ticket = new Ticket(key, callback);
+		Bitmap b;
+		synchronized (mInFlight) {
+			// Hold it before it can be evicted and reused
+			b = mMemCache.get(key);
+			if (b != null) {
+				hold(ticket, b);
+			}
+		}
+		if (b != null) {
+			ticket.deliver(null, b);
+			return ticket;
+		}
+
+		Load load;
+		boolean start = false;
+		synchronized (mInFlight) {
+			load = mInFlight.get(key);
+			if (load == null) {
+				load = new Load(image, variant, size, key);
+				mInFlight.put(key, load);
+				start = true;
+			} else {
+				mCoalesced++;
+			}
+			load.mTickets.add(ticket);
+		}
+		if (start) {
+			final Load TOREAD = load;
+			mExecutor.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					read(TOREAD);
+				}
+			});
+		}
+		return ticket;
+	}
+
+	/**
+	 * @param image Image to look for
+	 * @param variant Version of the image
+	 * @return The version of the image if it is in memory, null otherwise
+	 */
+	public Bitmap getFromMemory(DineOnImage image, Variant variant) {
+		return mMemCache.get(getMemoryKey(image, variant, null));
+	}
+
+	/**
+	 * @param image Image to look for
+	 * @param size Size the image is shown at
+	 * @return The image loaded for size if it is in memory, null otherwise
+	 */
+	public Bitmap getFromMemory(DineOnImage image, Size size) {
+		return mMemCache.get(getMemoryKey(image, Variant.forSize(size), size));
+	}
+
+	/**
+	 * Keeps a version of an image in memory replacing the old one.
+	 * @param image Image b belongs to
+	 * @param variant Version of the image b is
+	 * @param b Bitmap to keep
+	 */
+	public void putInMemory(DineOnImage image, Variant variant, Bitmap b) {
+		mMemCache.put(getMemoryKey(image, variant, null), b);
+	}
+
+	/**
+	 * @return Number of loads that shared the work of another load
+	 */
+	public int getCoalescedCount() {
+		synchronized (mInFlight) {
+			return mCoalesced;
+		}
+	}
+
+	/**
+	 * @return Number of loads that are not finished
+	 */
+	public int getInFlightCount() {
+		synchronized (mInFlight) {
+			return mInFlight.size();
+		}
+	}
+
+	/**
+	 * @return Pool of evicted images that are decoded into
+	 */
+	public BitmapPool getPool() {
+		return mPool;
+	}
+
+	/**
+	 * Cancels every load, stops the threads and empties the memory cache.
+	 * The loader can't be used afterwards.
+	 */
+	public void shutdown() {
+		synchronized (mInFlight) {
+			for (Load load : mInFlight.values()) {
+				for (Ticket t : load.mTickets) {
+					t.mCancelled = true;
+				}
+				load.mTickets.clear();
+			}
+			mInFlight.clear();
+			mHeld.clear();
+			mEvictedHeld.clear();
+		}
+		if (mExecutor instanceof ExecutorService) {
+			((ExecutorService) mExecutor).shutdownNow();
+		}
+		mMemCache.evictAll();
+		mPool.clear();
+	}
+
+	/**
+	 * Reads a version of an image from the disk, tests can override this.
+	 * NOTE Called on a decode thread
+	 * @param image Image to read
+	 * @param variant Version of the image
+	 * @param size Size the image is shown at, null for full size
+	 * @return The image or null if it has to be downloaded
+	 */
+	protected Bitmap readFromDisk(DineOnImage image, Variant variant, Size size) {
+		return mCache.getFromDisk(image, variant, size, mPool);
+	}
+
+	/**
+	 * Downloads a version of an image, tests can override this.
+	 * @param image Image to download
+	 * @param variant Version of the image
+	 * @param callback Callback to pass the encoded image to
+	 */
+	protected void download(DineOnImage image, Variant variant, GetDataCallback callback) {
+		image.getImageData(variant, callback);
+	}
+
+	/**
+	 * Decodes a downloaded image, tests can override this.
+	 * NOTE Called on a decode thread
+	 * @param data Encoded image
+	 * @param size Size the image is shown at, null for full size
+	 * @return The image or null if data is not an image
+	 */
+	protected Bitmap decode(byte[] data, Size size) {
+		return ImageIO.decodeSampled(data, size, mPool);
+	}
+
+	/**
+	 * Writes a downloaded image to the disk, tests can override this.
+	 * NOTE Called on a decode thread
+	 * @param image Image data belongs to
+	 * @param variant Version of the image data is
+	 * @param data Encoded image
+	 */
+	protected void store(DineOnImage image, Variant variant, byte[] data) {
+		mCache.putOnDisk(image, variant, data);
+	}
+
+	/**
+	 * Runs r on the main thread, tests can override this.
+	 * @param r Runnable to run
+	 */
+	protected void deliver(Runnable r) {
+		mHandler.post(r);
+	}
+
+	/**
+	 * Reads load from the disk or starts its download.
+	 * @param load Load to read
+	 */
+	private void read(final Load load) {
+		if (load.isAbandoned()) {
+			return;
+		}
+		Bitmap b = readFromDisk(load.mImage, load.mVariant, load.mSize);
+		if (b != null) {
+			finish(load, null, b);
+			return;
+		}
+		if (load.isAbandoned()) {
+			return;
+		}
+		download(load.mImage, load.mVariant, new GetDataCallback() {
+
+			@Override
+			public void done(final byte[] data, ParseException e) {
+				if (e != null) {
+					finish(load, e, null);
+					return;
+				}
+				mExecutor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						decodeAndStore(load, data);
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Decodes the downloaded image of load, passes it on and writes it to the disk.
+	 * @param load Load that was downloaded
+	 * @param data Encoded image
+	 */
+	private void decodeAndStore(Load load, byte[] data) {
+		Bitmap b = decode(data, load.mSize);
+		if (b == null) {
+			finish(load, new IllegalStateException("Unable to decode image " + load.mKey), null);
+			return;
+		}
+		finish(load, null, b);
+		store(load.mImage, load.mVariant, data);
+	}
+
+	/**
+	 * Returns the key an image is kept in memory with.
+	 * @param image Image to load
+	 * @param variant Version of the image
+	 * @param size Size the image is shown at, null for full size
+	 * @return Key of the image sampled down to size
+	 */
+	private static String getMemoryKey(DineOnImage image, Variant variant, Size size) {
+		String key = image.getCacheKey(variant);
+		if (size == null || size.width <= 0 || size.height <= 0) {
+			return key;
+		}
+		return key + "_" + size.width + "x" + size.height;
+	}
+
+	/**
+	 * Finishes load and passes the result to every ticket still waiting.
+	 * @param load Load that finished
+	 * @param e Exception that occurred or null if success
+	 * @param b Image if success
+	 */
+	private void finish(Load load, final Exception e, final Bitmap b) {
+		final List<Ticket> TICKETS;
+		synchronized (mInFlight) {
+			if (mInFlight.get(load.mKey) == load) {
+				mInFlight.remove(load.mKey);
+			}
+			TICKETS = new ArrayList<Ticket>(load.mTickets);
+			load.mTickets.clear();
+			if (b != null) {
+				// Held until delivered or cancelled so eviction can't reuse it
+				mDecoded.add(b);
+				for (Ticket t : TICKETS) {
+					hold(t, b);
+				}
+			}
+		}
+		if (b != null) {
+			mMemCache.put(load.mKey, b);
+		}
+		if (TICKETS.isEmpty()) {
+			return;
+		}
+		deliver(new Runnable() {
+
+			@Override
+			public void run() {
+				for (Ticket t : TICKETS) {
+					t.deliver(e, b);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Makes ticket hold b so it is not reused while ticket may show it.
+	 * NOTE Call while holding the lock of mInFlight
+	 * @param ticket Ticket that gets b
+	 * @param b Image ticket gets
+	 */
+	private void hold(Ticket ticket, Bitmap b) {
+		ticket.mHeld = b;
+		if (!mDecoded.contains(b)) {
+			return;
+		}
+		Integer count = mHeld.get(b);
+		mHeld.put(b, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * Lets go of the image ticket holds and reuses it if it was evicted
+	 * and nobody else holds it.
+	 * NOTE Call while holding the lock of mInFlight
+	 * @param ticket Ticket that does not show its image anymore
+	 */
+	private void release(Ticket ticket) {
+		Bitmap b = ticket.mHeld;
+		ticket.mHeld = null;
+		if (b == null) {
+			return;
+		}
+		Integer count = mHeld.get(b);
+		if (count == null) {
+			return;
+		}
+		if (count > 1) {
+			mHeld.put(b, count - 1);
+			return;
+		}
+		mHeld.remove(b);
+		if (mEvictedHeld.remove(b) && mDecoded.remove(b)) {
+			mPool.put(b);
+		}
+	}
+
+	/**
+	 * Reuses an image evicted from memory once no ticket holds it.
+	 * @param b Image that was evicted
+	 */
+	private void evict(Bitmap b) {
+		synchronized (mInFlight) {
+			if (!mDecoded.contains(b)) {
+				// Put in memory from outside, may still be shown
+				return;
+			}
+			if (mHeld.containsKey(b)) {
+				mEvictedHeld.add(b);
+				return;
+			}
+			mDecoded.remove(b);
+		}
+		mPool.put(b);
+	}
+
+	/**
+	 * Handle of a single load of an image.
+	 */
+	public final class Ticket {
+
+		private final String mKey;
+		private final ImageGetCallback mCallback;
+		private volatile boolean mCancelled;
+
+		/**
+		 * Image this ticket got and may show, guarded by mInFlight.
+		 */
+		private Bitmap mHeld;
+
+		/**
+		 * @param key Memory key of the image version to load
+		 * @param callback Callback to pass the image to
+		 */
+		private Ticket(String key, ImageGetCallback callback) {
+			mKey = key;
+			mCallback = callback;
+		}
+
+		/**
+		 * Makes sure the callback of this load is not called anymore and
+		 * lets go of the image it got, IE once the view the image was for
+		 * is recycled.  The image must not be shown after this as its
+		 * memory may be decoded into.
+		 */
+		public void cancel() {
+			synchronized (mInFlight) {
+				mCancelled = true;
+				release(this);
+				Load load = mInFlight.get(mKey);
+				if (load == null || !load.mTickets.remove(this)) {
+					return;
+				}
+				if (load.mTickets.isEmpty()) {
+					// Nobody waits for it, a later load starts over
+					mInFlight.remove(mKey);
+				}
+			}
+		}
+
+		/**
+		 * @return true if this load was cancelled
+		 */
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+
+		/**
+		 * Passes the result to the callback unless this load was cancelled.
+		 * @param e Exception that occurred or null if success
+		 * @param b Image if success
+		 */
+		private void deliver(Exception e, Bitmap b) {
+			if (!mCancelled) {
+				mCallback.onImageReceived(e, b);
+			}
+		}
+	}
+
+	/**
+	 * A read of one version of an image shared by every ticket that wants it.
+	 */
+	private class Load {
+
+		private final DineOnImage mImage;
+		private final Variant mVariant;
+		private final Size mSize;
+		private final String mKey;
+		private final List<Ticket> mTickets;
+
+		/**
+		 * @param image Image to load
+		 * @param variant Version of the image
+		 * @param size Size the image is shown at, null for full size
+		 * @param key Memory key of the version at size
+		 */
+		Load(DineOnImage image, Variant variant, Size size, String key) {
+			mImage = image;
+			mVariant = variant;
+			mSize = size;
+			mKey = key;
+			mTickets = new ArrayList<Ticket>();
+		}
+
+		/**
+		 * @return true if nobody waits for this load anymore
+		 */
+		boolean isAbandoned() {
+			synchronized (mInFlight) {
+				return mInFlight.get(mKey) != this;
+			}
+		}
+	}
+}
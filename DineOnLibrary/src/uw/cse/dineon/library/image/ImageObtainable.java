@@ -30,5 +30,15 @@ public interface ImageObtainable {
 	 * @param callback Callback to use when image is loaded.
 	 */
 	void onGetImage(DineOnImage image, ImageGetCallback callback);
+
+	/**
+	 * Gets the smallest version of an image that fills size from the listener.
+	 * @param image Image to get.
+	 * @param size Size the image is shown at
+	 * @param callback Callback to use when image is loaded.
+	 * @return Ticket to cancel the request with once the view
+	 * 	the image is for is recycled, null if nothing is loaded
+	 */
+	ImageLoader.Ticket onGetImage(DineOnImage image, Size size, ImageGetCallback callback);
 	
 }
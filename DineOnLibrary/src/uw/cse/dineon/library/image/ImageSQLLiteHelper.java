@@ -6,7 +6,8 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 /**
- * SQLLite helper for retrieving local images.
+ * SQLLite helper for the metadata of locally cached images.
+ * The images themselves are files, see DiskImageCache.
  * @author mhotan
  */
 class ImageSQLiteHelper extends SQLiteOpenHelper {
@@ -22,22 +23,27 @@ class ImageSQLiteHelper extends SQLiteOpenHelper {
 	public static final String COLUMN_ID = "_id";
 	// Parse ID where Image was received
 	// This is our unique identifier
+	// Versions other than the full image append their name, see DineOnImage.getCacheKey
 	public static final String COLUMN_PARSEID = "parseid";
 	// Columnn for when the image was last updated
 	public static final String COLUMN_LAST_UDPATED = "last_updated";
 	// Column for when the image was last used.
 	public static final String COLUMN_LAST_USED = "last_used";
-	// Column for actual image storage
-	public static final String COLUMN_IMG = "image";
+	// Column for the number of bytes of the image file
+	public static final String COLUMN_SIZE = "size";
 
 	private static final String DATABASE_NAME = "images.db";
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 4;
 	private static final String DATABASE_CREATE = "create table " + TABLE_IMAGES 
 			+ "(" + COLUMN_ID + " integer primary key autoincrement, " 
-			+ COLUMN_PARSEID + " text not null, "
+			+ COLUMN_PARSEID + " text not null unique, "
 			+ COLUMN_LAST_UDPATED + " long, "
 			+ COLUMN_LAST_USED + " long, "
-			+ COLUMN_IMG + " BLOB);";
+			+ COLUMN_SIZE + " long not null default 0);";
+	// Images are evicted in the order they were last used
+	private static final String INDEX_CREATE = "create index if not exists " 
+			+ TABLE_IMAGES + "_" + COLUMN_LAST_USED + " on " 
+			+ TABLE_IMAGES + "(" + COLUMN_LAST_USED + ");";
 
 	/**
 	 * Creates a SQL Lite helper for accessing the image database.
@@ -50,10 +56,16 @@ class ImageSQLiteHelper extends SQLiteOpenHelper {
 	@Override
 	public void onCreate(SQLiteDatabase db) {
 		db.execSQL(DATABASE_CREATE);
+		db.execSQL(INDEX_CREATE);
 	}
 
 	@Override
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		if (oldVersion == 3) {
+			// Same table, only the index is new
+			db.execSQL(INDEX_CREATE);
+			return;
+		}
 		Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
 						+ newVersion + ", which will destroy all old data");
 		db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGES);
@@ -0,0 +1,245 @@
+package uw.cse.dineon.library.store;
+
+import java.util.Date;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * On device store of decoded Storables like the Restaurant or the DineOnUser.
+ * Each record is stored with every nested object that was downloaded along
+ * with it, IE a Restaurant is stored with its menus, dining sessions and
+ * orders.  That way an application can start from the last state it saw
+ * without going to the network and only download what changed since.
+ *
+ * Records are stored with the time they were last updated in the cloud
+ * and optionally the Parse id of the user they belong to.
+ */
+public class LocalStore {
+
+	private static final String TAG = LocalStore.class.getSimpleName();
+
+	private final StorableSQLiteHelper mSQLHelper;
+	private SQLiteDatabase mDb;
+
+	private final Object mLock = new Object();
+
+	private static final String[] DATA_COLUMNS = {
+		StorableSQLiteHelper.COLUMN_DATA
+	};
+
+	/**
+	 * Creates a store that keeps its records in the database of context.
+	 * @param context Context to create SQLiteHelper
+	 */
+	public LocalStore(Context context) {
+		mSQLHelper = new StorableSQLiteHelper(context);
+	}
+
+	/**
+	 * Opens the current database.
+	 * Must call before referencing the store
+	 */
+	public void open() {
+		synchronized (mLock) {
+			mDb = mSQLHelper.getWritableDatabase();
+		}
+	}
+
+	/**
+	 * Closes the current database.
+	 */
+	public void close() {
+		synchronized (mLock) {
+			if (mDb != null) {
+				mDb.close();
+			}
+		}
+	}
+
+	/**
+	 * Stores storable replacing any older record of it.
+	 * NOTE: Packs storable so it has to be called on the thread that
+	 * changes it, the write itself is done on the calling thread.
+	 * @param storable Storable to store, must have been saved before
+	 * @param owner Parse id of the user storable belongs to, can be null
+	 * @return true if storable was stored, false otherwise
+	 */
+	public boolean put(Storable storable, String owner) {
+		ContentValues values = toValues(storable, owner);
+		return values != null && write(values);
+	}
+
+	/**
+	 * Stores storable replacing any older record of it.  Storable is
+	 * packed on the calling thread and written in the background.
+	 * @param storable Storable to store, must have been saved before
+	 * @param owner Parse id of the user storable belongs to, can be null
+	 */
+	public void putInBackground(Storable storable, String owner) {
+		final ContentValues VALUES = toValues(storable, owner);
+		if (VALUES == null) {
+			return;
+		}
+		AsyncTask<Void, Void, Void> writer = new AsyncTask<Void, Void, Void>() {
+
+			@Override
+			protected Void doInBackground(Void... params) {
+				write(VALUES);
+				return null;
+			}
+		};
+		writer.execute();
+	}
+
+	/**
+	 * Returns the stored record of the object with id objId.
+	 * @param <T> Type of the record
+	 * @param clazz Class of the record
+	 * @param objId Parse id of the object
+	 * @return The stored record or null if there is none
+	 */
+	public <T extends Storable> T get(Class<T> clazz, String objId) {
+		return read(clazz, StorableSQLiteHelper.COLUMN_PARSEID + " = ? AND "
+				+ StorableSQLiteHelper.COLUMN_CLASS + " = ?",
+				new String[] {objId, clazz.getSimpleName()});
+	}
+
+	/**
+	 * Returns the most recently updated record of class clazz that
+	 * belongs to the user with id owner.
+	 * @param <T> Type of the record
+	 * @param clazz Class of the record
+	 * @param owner Parse id of the user
+	 * @return The stored record or null if there is none
+	 */
+	public <T extends Storable> T getByOwner(Class<T> clazz, String owner) {
+		return read(clazz, StorableSQLiteHelper.COLUMN_OWNER + " = ? AND "
+				+ StorableSQLiteHelper.COLUMN_CLASS + " = ?",
+				new String[] {owner, clazz.getSimpleName()});
+	}
+
+	/**
+	 * Deletes the record of storable if there is one.
+	 * @param storable Storable to delete
+	 */
+	public void remove(Storable storable) {
+		synchronized (mLock) {
+			if (mDb == null || !mDb.isOpen()) {
+				return;
+			}
+			mDb.delete(StorableSQLiteHelper.TABLE_OBJECTS,
+					StorableSQLiteHelper.COLUMN_PARSEID + " = ?",
+					new String[] {storable.getObjId()});
+		}
+	}
+
+	/**
+	 * Deletes every record, IE when the user logs out.
+	 */
+	public void clear() {
+		synchronized (mLock) {
+			if (mDb == null || !mDb.isOpen()) {
+				return;
+			}
+			mDb.delete(StorableSQLiteHelper.TABLE_OBJECTS, null, null);
+		}
+	}
+
+	/**
+	 * Packs and encodes storable into a row of the table.
+	 * @param storable Storable to encode
+	 * @param owner Parse id of the user storable belongs to, can be null
+	 * @return Row to write or null if storable can't be stored
+	 */
+	private static ContentValues toValues(Storable storable, String owner) {
+		ParseObject po = storable.packObject();
+		String data;
+		try {
+			data = ParseObjectCodec.encode(po).toString();
+		} catch (JSONException e) {
+			Log.w(TAG, "Unable to store " + po.getClassName() + ": " + e.getMessage());
+			return null;
+		}
+		Date updated = po.getUpdatedAt();
+
+		ContentValues values = new ContentValues();
+		values.put(StorableSQLiteHelper.COLUMN_PARSEID, po.getObjectId());
+		values.put(StorableSQLiteHelper.COLUMN_CLASS, po.getClassName());
+		values.put(StorableSQLiteHelper.COLUMN_OWNER, owner);
+		values.put(StorableSQLiteHelper.COLUMN_LAST_UPDATED,
+				updated == null ? 0L : updated.getTime());
+		values.put(StorableSQLiteHelper.COLUMN_DATA, data);
+		return values;
+	}
+
+	/**
+	 * Writes a row replacing the existing row of the same object.
+	 * @param values Row to write
+	 * @return true if the row was written, false otherwise
+	 */
+	private boolean write(ContentValues values) {
+		long id = -1;
+		synchronized (mLock) {
+			if (mDb == null || !mDb.isOpen()) {
+				Log.e(TAG, "Cannot store object in closed database");
+				return false;
+			}
+			id = mDb.insertWithOnConflict(StorableSQLiteHelper.TABLE_OBJECTS, null,
+					values, SQLiteDatabase.CONFLICT_REPLACE);
+		}
+		if (id == -1) {
+			Log.e(TAG, "Unable to \"insert\" SQLite database because of some unknown reason");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Reads and decodes the most recently updated record that matches selection.
+	 * @param <T> Type of the record
+	 * @param clazz Class of the record
+	 * @param selection Where clause
+	 * @param args Arguments of the where clause
+	 * @return The record or null if there is none
+	 */
+	private <T extends Storable> T read(Class<T> clazz, String selection, String[] args) {
+		Cursor cursor = null;
+		synchronized (mLock) {
+			if (mDb == null || !mDb.isOpen()) {
+				return null;
+			}
+			cursor = mDb.query(StorableSQLiteHelper.TABLE_OBJECTS, DATA_COLUMNS,
+					selection, args, null, null,
+					StorableSQLiteHelper.COLUMN_LAST_UPDATED + " DESC", "1");
+		}
+		if (!cursor.moveToFirst()) {
+			cursor.close();
+			return null;
+		}
+		String data = cursor.getString(0);
+		cursor.close();
+
+		try {
+			ParseObject po = ParseObjectCodec.decode(new JSONObject(data));
+			return StorableIdentityMap.decode(clazz, po);
+		} catch (JSONException e) {
+			Log.w(TAG, "Unable to read stored " + clazz.getSimpleName() + ": " + e.getMessage());
+		} catch (ParseException e) {
+			Log.w(TAG, "Unable to read stored " + clazz.getSimpleName() + ": " + e.getMessage());
+		}
+		return null;
+	}
+}
@@ -0,0 +1,369 @@
+package uw.cse.dineon.library.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * On device log of operations that still have to be sent, IE pushes
+ * telling a restaurant that a customer checked in or placed an order.
+ * Operations stay in the log until they are removed, so they survive
+ * losing the connection and restarts of the application.
+ *
+ * Every operation has a unique idempotency key.  Adding an operation
+ * whose key is in the log already does nothing and the receiver can use
+ * the key to ignore an operation that was sent more than once.
+ *
+ * An operation can carry an encoded object that has to be saved before
+ * the operation is sent, IE a new order.  Operations are returned oldest
+ * first together with the number of failed attempts to send them and
+ * the earliest time to attempt again.
+ */
+public class OperationLog {
+
+	private static final String TAG = OperationLog.class.getSimpleName();
+
+	private final OperationSQLiteHelper mSQLHelper;
+	private SQLiteDatabase mDb;
+
+	private final Object mLock = new Object();
+
+	private static final String[] ALL_COLUMNS = {
+		OperationSQLiteHelper.COLUMN_ID,
+		OperationSQLiteHelper.COLUMN_KEY,
+		OperationSQLiteHelper.COLUMN_ACTION,
+		OperationSQLiteHelper.COLUMN_CHANNEL,
+		OperationSQLiteHelper.COLUMN_DATA,
+		OperationSQLiteHelper.COLUMN_PAYLOAD,
+		OperationSQLiteHelper.COLUMN_ATTEMPTS,
+		OperationSQLiteHelper.COLUMN_NEXT_ATTEMPT,
+		OperationSQLiteHelper.COLUMN_CREATED
+	};
+
+	private static final String BY_ID = OperationSQLiteHelper.COLUMN_ID + " = ?";
+
+	/**
+	 * Creates a log that keeps its operations in the database of context.
+	 * @param context Context to create SQLiteHelper
+	 */
+	public OperationLog(Context context) {
+		mSQLHelper = new OperationSQLiteHelper(context);
+	}
+
+	/**
+	 * Opens the current database.
+	 * Must call before referencing the log
+	 */
+	public void open() {
+		synchronized (mLock) {
+			mDb = mSQLHelper.getWritableDatabase();
+		}
+	}
+
+	/**
+	 * Closes the current database.
+	 */
+	public void close() {
+		synchronized (mLock) {
+			if (mDb != null) {
+				mDb.close();
+			}
+		}
+	}
+
+	/**
+	 * Adds an operation to the end of the log.
+	 * @param key Idempotency key of the operation
+	 * @param action Action of the operation
+	 * @param channel Channel to send the operation to
+	 * @param data Data to send
+	 * @param payload Encoded object to save before sending, null if none
+	 * @param created Time the operation was made in milliseconds
+	 * @return true if the operation was added, false if an operation with
+	 * 	the same key is in the log already or it could not be written
+	 */
+	public boolean add(String key, String action, String channel,
+			JSONObject data, JSONObject payload, long created) {
+		if (key == null || action == null || channel == null || data == null) {
+			throw new IllegalArgumentException("Can't log operation without key, "
+					+ "action, channel or data");
+		}
+		ContentValues values = new ContentValues();
+		values.put(OperationSQLiteHelper.COLUMN_KEY, key);
+		values.put(OperationSQLiteHelper.COLUMN_ACTION, action);
+		values.put(OperationSQLiteHelper.COLUMN_CHANNEL, channel);
+		values.put(OperationSQLiteHelper.COLUMN_DATA, data.toString());
+		values.put(OperationSQLiteHelper.COLUMN_PAYLOAD,
+				payload == null ? null : payload.toString());
+		values.put(OperationSQLiteHelper.COLUMN_CREATED, created);
+
+		long id = -1;
+		synchronized (mLock) {
+			if (!isOpen()) {
+				Log.e(TAG, "Cannot log operation in closed database");
+				return false;
+			}
+			id = mDb.insertWithOnConflict(OperationSQLiteHelper.TABLE_OPERATIONS, null,
+					values, SQLiteDatabase.CONFLICT_IGNORE);
+		}
+		return id != -1;
+	}
+
+	/**
+	 * @return The oldest operation or null if the log is empty
+	 */
+	public Operation peek() {
+		List<Operation> first = read("1");
+		return first.isEmpty() ? null : first.get(0);
+	}
+
+	/**
+	 * @return Every operation, oldest first
+	 */
+	public List<Operation> getAll() {
+		return read(null);
+	}
+
+	/**
+	 * @return Number of operations in the log
+	 */
+	public int size() {
+		Cursor cursor = null;
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return 0;
+			}
+			cursor = mDb.query(OperationSQLiteHelper.TABLE_OPERATIONS,
+					new String[] {"count(*)"}, null, null, null, null, null);
+		}
+		int count = cursor.moveToFirst() ? cursor.getInt(0) : 0;
+		cursor.close();
+		return count;
+	}
+
+	/**
+	 * Replaces the data of an operation and forgets its payload,
+	 * IE once the payload was saved and its id is in the data.
+	 * @param id Row id of the operation
+	 * @param data New data to send
+	 */
+	public void setData(long id, JSONObject data) {
+		ContentValues values = new ContentValues();
+		values.put(OperationSQLiteHelper.COLUMN_DATA, data.toString());
+		values.putNull(OperationSQLiteHelper.COLUMN_PAYLOAD);
+		update(id, values);
+	}
+
+	/**
+	 * Records a failed attempt to send an operation.
+	 * @param id Row id of the operation
+	 * @param attempts Number of failed attempts so far
+	 * @param nextAttempt Earliest time in milliseconds to attempt again
+	 */
+	public void retryLater(long id, int attempts, long nextAttempt) {
+		ContentValues values = new ContentValues();
+		values.put(OperationSQLiteHelper.COLUMN_ATTEMPTS, attempts);
+		values.put(OperationSQLiteHelper.COLUMN_NEXT_ATTEMPT, nextAttempt);
+		update(id, values);
+	}
+
+	/**
+	 * Lets every operation be attempted right away, IE once the
+	 * connection is back.  The number of failed attempts is kept.
+	 */
+	public void retryNow() {
+		ContentValues values = new ContentValues();
+		values.put(OperationSQLiteHelper.COLUMN_NEXT_ATTEMPT, 0L);
+		synchronized (mLock) {
+			if (isOpen()) {
+				mDb.update(OperationSQLiteHelper.TABLE_OPERATIONS, values, null, null);
+			}
+		}
+	}
+
+	/**
+	 * Removes an operation, IE once it was sent.
+	 * @param id Row id of the operation
+	 */
+	public void remove(long id) {
+		synchronized (mLock) {
+			if (isOpen()) {
+				mDb.delete(OperationSQLiteHelper.TABLE_OPERATIONS, BY_ID,
+						new String[] {String.valueOf(id)});
+			}
+		}
+	}
+
+	/**
+	 * Deletes every operation.
+	 */
+	public void clear() {
+		synchronized (mLock) {
+			if (isOpen()) {
+				mDb.delete(OperationSQLiteHelper.TABLE_OPERATIONS, null, null);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the database is open, must hold mLock
+	 */
+	private boolean isOpen() {
+		return mDb != null && mDb.isOpen();
+	}
+
+	/**
+	 * Updates a single operation.
+	 * @param id Row id of the operation
+	 * @param values Columns to update
+	 */
+	private void update(long id, ContentValues values) {
+		synchronized (mLock) {
+			if (!isOpen()) {
+				Log.e(TAG, "Cannot update operation in closed database");
+				return;
+			}
+			mDb.update(OperationSQLiteHelper.TABLE_OPERATIONS, values, BY_ID,
+					new String[] {String.valueOf(id)});
+		}
+	}
+
+	/**
+	 * Reads operations oldest first.  Operations that can't be
+	 * decoded are removed.
+	 * @param limit Maximum number of operations to read, null for all
+	 * @return The operations
+	 */
+	private List<Operation> read(String limit) {
+		List<Operation> operations = new ArrayList<Operation>();
+		List<Long> broken = new ArrayList<Long>();
+		Cursor cursor = null;
+		synchronized (mLock) {
+			if (!isOpen()) {
+				return operations;
+			}
+			cursor = mDb.query(OperationSQLiteHelper.TABLE_OPERATIONS, ALL_COLUMNS,
+					null, null, null, null, OperationSQLiteHelper.COLUMN_ID + " ASC", limit);
+		}
+		for (boolean more = cursor.moveToFirst(); more; more = cursor.moveToNext()) {
+			try {
+				operations.add(new Operation(cursor));
+			} catch (JSONException e) {
+				Log.w(TAG, "Dropping operation that can't be read: " + e.getMessage());
+				broken.add(cursor.getLong(0));
+			}
+		}
+		cursor.close();
+		for (Long id: broken) {
+			remove(id);
+		}
+		if (!broken.isEmpty() && limit != null) {
+			return read(limit);
+		}
+		return operations;
+	}
+
+	/**
+	 * An operation of the log.  Changing it does not change the log.
+	 */
+	public static final class Operation {
+
+		private final long mId;
+		private final String mKey;
+		private final String mAction;
+		private final String mChannel;
+		private final JSONObject mData;
+		private final JSONObject mPayload;
+		private final int mAttempts;
+		private final long mNextAttempt;
+		private final long mCreated;
+
+		/**
+		 * Reads the operation at the current row of cursor.
+		 * @param cursor Cursor over ALL_COLUMNS
+		 * @throws JSONException if the data or payload can't be decoded
+		 */
+		private Operation(Cursor cursor) throws JSONException {
+			mId = cursor.getLong(0);
+			mKey = cursor.getString(1);
+			mAction = cursor.getString(2);
+			mChannel = cursor.getString(3);
+			mData = new JSONObject(cursor.getString(4));
+			mPayload = cursor.isNull(5) ? null : new JSONObject(cursor.getString(5));
+			mAttempts = cursor.getInt(6);
+			mNextAttempt = cursor.getLong(7);
+			mCreated = cursor.getLong(8);
+		}
+
+		/**
+		 * @return Row id of the operation
+		 */
+		public long getId() {
+			return mId;
+		}
+
+		/**
+		 * @return Idempotency key of the operation
+		 */
+		public String getKey() {
+			return mKey;
+		}
+
+		/**
+		 * @return Action of the operation
+		 */
+		public String getAction() {
+			return mAction;
+		}
+
+		/**
+		 * @return Channel to send the operation to
+		 */
+		public String getChannel() {
+			return mChannel;
+		}
+
+		/**
+		 * @return Data to send
+		 */
+		public JSONObject getData() {
+			return mData;
+		}
+
+		/**
+		 * @return Encoded object to save before sending, null if none
+		 */
+		public JSONObject getPayload() {
+			return mPayload;
+		}
+
+		/**
+		 * @return Number of failed attempts to send the operation
+		 */
+		public int getAttempts() {
+			return mAttempts;
+		}
+
+		/**
+		 * @return Earliest time in milliseconds to attempt to send again
+		 */
+		public long getNextAttempt() {
+			return mNextAttempt;
+		}
+
+		/**
+		 * @return Time in milliseconds the operation was made
+		 */
+		public long getCreated() {
+			return mCreated;
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package uw.cse.dineon.library.store;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * SQLLite helper for the log of operations that still have to be sent.
+ */
+class OperationSQLiteHelper extends SQLiteOpenHelper {
+
+	private static final String TAG = OperationSQLiteHelper.class.getSimpleName();
+
+	/**
+	 * Name of the SQL Lite table that contains the operations.
+	 */
+	public static final String TABLE_OPERATIONS = "operations";
+
+	// Column of the SQL ID of the operation
+	// Operations are sent in the order of this column
+	public static final String COLUMN_ID = "_id";
+	// Idempotency key of the operation
+	public static final String COLUMN_KEY = "opkey";
+	// Column for the action of the operation
+	public static final String COLUMN_ACTION = "action";
+	// Column for the channel to send the operation to
+	public static final String COLUMN_CHANNEL = "channel";
+	// Column for the data to send
+	public static final String COLUMN_DATA = "data";
+	// Column for the encoded object to save before sending, if any
+	public static final String COLUMN_PAYLOAD = "payload";
+	// Column for the number of failed attempts to send
+	public static final String COLUMN_ATTEMPTS = "attempts";
+	// Column for the earliest time to attempt to send again
+	public static final String COLUMN_NEXT_ATTEMPT = "next_attempt";
+	// Column for when the operation was added
+	public static final String COLUMN_CREATED = "created";
+
+	private static final String DATABASE_NAME = "operations.db";
+	private static final int DATABASE_VERSION = 1;
+	private static final String DATABASE_CREATE = "create table " + TABLE_OPERATIONS
+			+ "(" + COLUMN_ID + " integer primary key autoincrement, "
+			+ COLUMN_KEY + " text not null unique, "
+			+ COLUMN_ACTION + " text not null, "
+			+ COLUMN_CHANNEL + " text not null, "
+			+ COLUMN_DATA + " text not null, "
+			+ COLUMN_PAYLOAD + " text, "
+			+ COLUMN_ATTEMPTS + " integer not null default 0, "
+			+ COLUMN_NEXT_ATTEMPT + " long not null default 0, "
+			+ COLUMN_CREATED + " long not null);";
+
+	/**
+	 * Creates a SQL Lite helper for accessing the operation database.
+	 * @param ctx Context to create the database in.
+	 */
+	OperationSQLiteHelper(Context ctx) {
+		super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL(DATABASE_CREATE);
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
+						+ newVersion + ", which will destroy all old data");
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_OPERATIONS);
+		onCreate(db);
+	}
+
+}
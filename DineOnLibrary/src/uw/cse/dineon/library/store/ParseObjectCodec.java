@@ -0,0 +1,455 @@
+package uw.cse.dineon.library.store;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.parse.ParseFile;
+import com.parse.ParseGeoPoint;
+import com.parse.ParseObject;
+
+/**
+ * Converts ParseObjects to and from JSON in the same format the Parse
+ * cloud sends them in.  Nested objects that have their data are written
+ * out in full so that an object graph, IE a Restaurant with its dining
+ * sessions and orders, can be rebuilt without going back to the network.
+ *
+ * Decoded objects look exactly like objects that were just downloaded,
+ * they have their data available and no unsaved changes.
+ *
+ * Objects that were never saved can be encoded with encodeUnsaved and
+ * rebuilt with decodeUnsaved, IE to save them once there is a connection.
+ */
+public final class ParseObjectCodec {
+
+	// Keys of the Parse JSON format
+	private static final String TYPE = "__type";
+	private static final String CLASS_NAME = "className";
+	private static final String OBJECT_ID = "objectId";
+	private static final String CREATED_AT = "createdAt";
+	private static final String UPDATED_AT = "updatedAt";
+	private static final String ACL = "ACL";
+	private static final String ISO = "iso";
+	private static final String LATITUDE = "latitude";
+	private static final String LONGITUDE = "longitude";
+	private static final String NAME = "name";
+	private static final String URL = "url";
+
+	// Types of the Parse JSON format
+	private static final String TYPE_OBJECT = "Object";
+	private static final String TYPE_POINTER = "Pointer";
+	private static final String TYPE_DATE = "Date";
+	private static final String TYPE_GEOPOINT = "GeoPoint";
+	private static final String TYPE_FILE = "File";
+
+	/**
+	 * Key the decoded object is placed under inside the holder.
+	 */
+	private static final String ROOT = "root";
+
+	/**
+	 * Key the fields of a fetched object are placed under by Parse.
+	 */
+	private static final String DATA = "data";
+
+	/**
+	 * Cannot instantiate.
+	 */
+	private ParseObjectCodec() { }
+
+	/**
+	 * Encodes po and every nested object that has its data.
+	 * Nested objects that have not been downloaded are written as pointers.
+	 * @param po Object to encode
+	 * @return JSON representation of po
+	 * @throws JSONException if po or a nested object has not been saved yet or
+	 * 	contains a value that can't be encoded
+	 */
+	public static JSONObject encode(ParseObject po) throws JSONException {
+		return encode(po, Collections.<String>emptySet());
+	}
+
+	/**
+	 * Encodes po and every nested object that has its data, except nested
+	 * objects of the classes in pointerClasses which are written as pointers.
+	 * Used when the receiver is known to have those objects already.
+	 * @param po Object to encode
+	 * @param pointerClasses Class names of nested objects to write as pointers
+	 * @return JSON representation of po
+	 * @throws JSONException if po or a nested object has not been saved yet or
+	 * 	contains a value that can't be encoded
+	 */
+	public static JSONObject encode(ParseObject po, Set<String> pointerClasses) 
+			throws JSONException {
+		if (po == null) {
+			throw new IllegalArgumentException("Can't encode null object");
+		}
+		Set<ParseObject> path = Collections.newSetFromMap(
+				new IdentityHashMap<ParseObject, Boolean>());
+		return encodeObject(po, path, pointerClasses, false);
+	}
+
+	/**
+	 * Encodes po, which was never saved, with everything needed to save it.
+	 * Nested objects that were never saved are written in full, nested
+	 * objects that were saved are written as pointers because saving only
+	 * references them.
+	 * @param po Object to encode
+	 * @return JSON representation of po
+	 * @throws JSONException if po was saved or contains a value that can't be encoded
+	 */
+	public static JSONObject encodeUnsaved(ParseObject po) throws JSONException {
+		if (po == null) {
+			throw new IllegalArgumentException("Can't encode null object");
+		}
+		if (po.getObjectId() != null) {
+			throw new JSONException("Can't encode saved " + po.getClassName() + " as unsaved");
+		}
+		Set<ParseObject> path = Collections.newSetFromMap(
+				new IdentityHashMap<ParseObject, Boolean>());
+		return encodeObject(po, path, Collections.<String>emptySet(), true);
+	}
+
+	/**
+	 * Finds every pointer in an encoded object, IE nested objects
+	 * that would have to be downloaded to be used.
+	 * @param json Encoded object
+	 * @return Objects without data, one per pointer
+	 */
+	public static List<ParseObject> findPointers(JSONObject json) {
+		List<ParseObject> pointers = new ArrayList<ParseObject>();
+		findPointers(json, pointers);
+		return pointers;
+	}
+
+	/**
+	 * Adds a ParseObject without data for every pointer in value to pointers.
+	 * @param value JSON value to search
+	 * @param pointers List to add to
+	 */
+	private static void findPointers(Object value, List<ParseObject> pointers) {
+		if (value instanceof JSONObject) {
+			JSONObject json = (JSONObject) value;
+			if (TYPE_POINTER.equals(json.optString(TYPE))) {
+				pointers.add(ParseObject.createWithoutData(
+						json.optString(CLASS_NAME), json.optString(OBJECT_ID)));
+				return;
+			}
+			Iterator<?> keys = json.keys();
+			while (keys.hasNext()) {
+				findPointers(json.opt(keys.next().toString()), pointers);
+			}
+		} else if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			for (int i = 0; i < array.length(); ++i) {
+				findPointers(array.opt(i), pointers);
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds an object that was encoded with encode.
+	 * @param json JSON representation of the object
+	 * @return The object with its data available
+	 * @throws JSONException if json is not an encoded object
+	 */
+	public static ParseObject decode(JSONObject json) throws JSONException {
+		if (json == null || !TYPE_OBJECT.equals(json.optString(TYPE))) {
+			throw new JSONException("Not an encoded ParseObject");
+		}
+		JSONObject wrapper = new JSONObject();
+		wrapper.put(ROOT, json);
+		Holder holder = new Holder();
+		holder.merge(wrapper);
+		ParseObject po = holder.getParseObject(ROOT);
+		if (po == null) {
+			throw new JSONException("Unable to decode " + json.optString(CLASS_NAME));
+		}
+		return po;
+	}
+
+	/**
+	 * Rebuilds an object that was encoded with encodeUnsaved.  Unlike
+	 * decode every field of the object is an unsaved change, so saving
+	 * the object saves it and every nested object that was never saved.
+	 * @param json JSON representation of the object
+	 * @return The object ready to be saved
+	 * @throws JSONException if json is not an encoded unsaved object
+	 */
+	public static ParseObject decodeUnsaved(JSONObject json) throws JSONException {
+		if (json == null || !TYPE_OBJECT.equals(json.optString(TYPE)) 
+				|| json.has(OBJECT_ID)) {
+			throw new JSONException("Not an encoded unsaved ParseObject");
+		}
+		return (ParseObject) decodeUnsavedValue(json);
+	}
+
+	/**
+	 * Sets the times an encoded object was created and last updated,
+	 * the same way the cloud does when it saves an object.
+	 * @param json Encoded object
+	 * @param createdAt Time the object was created, null to remove
+	 * @param updatedAt Time the object was last updated, null to remove
+	 * @throws JSONException if the times can't be put into json
+	 */
+	public static void setTimes(JSONObject json, Date createdAt, Date updatedAt)
+			throws JSONException {
+		json.remove(CREATED_AT);
+		json.remove(UPDATED_AT);
+		if (createdAt != null) {
+			json.put(CREATED_AT, formatDate(createdAt));
+		}
+		if (updatedAt != null) {
+			json.put(UPDATED_AT, formatDate(updatedAt));
+		}
+	}
+
+	/**
+	 * Encodes po with all its fields.
+	 * @param po Object to encode
+	 * @param path Objects that are currently being encoded
+	 * @param pointerClasses Class names of nested objects to write as pointers
+	 * @param unsaved true if objects that were never saved can be encoded
+	 * @return JSON representation of po
+	 * @throws JSONException if po can't be encoded
+	 */
+	private static JSONObject encodeObject(ParseObject po, Set<ParseObject> path,
+			Set<String> pointerClasses, boolean unsaved) throws JSONException {
+		if (po.getObjectId() == null && !unsaved) {
+			throw new JSONException("Can't encode unsaved " + po.getClassName());
+		}
+		JSONObject json = new JSONObject();
+		json.put(TYPE, TYPE_OBJECT);
+		json.put(CLASS_NAME, po.getClassName());
+		if (po.getObjectId() != null) {
+			json.put(OBJECT_ID, po.getObjectId());
+		}
+		if (po.getCreatedAt() != null) {
+			json.put(CREATED_AT, formatDate(po.getCreatedAt()));
+		}
+		if (po.getUpdatedAt() != null) {
+			json.put(UPDATED_AT, formatDate(po.getUpdatedAt()));
+		}
+
+		path.add(po);
+		for (String key: po.keySet()) {
+			// Access is set again every time an object is packed
+			if (ACL.equals(key)) {
+				continue;
+			}
+			json.put(key, encodeValue(po.get(key), path, pointerClasses, unsaved));
+		}
+		path.remove(po);
+		return json;
+	}
+
+	/**
+	 * Encodes a single field value.
+	 * @param value Value to encode
+	 * @param path Objects that are currently being encoded
+	 * @param pointerClasses Class names of nested objects to write as pointers
+	 * @param unsaved true if objects that were never saved can be encoded,
+	 * 	objects that were saved are written as pointers then
+	 * @return JSON representation of value
+	 * @throws JSONException if value can't be encoded
+	 */
+	private static Object encodeValue(Object value, Set<ParseObject> path,
+			Set<String> pointerClasses, boolean unsaved) throws JSONException {
+		if (value == null) {
+			return JSONObject.NULL;
+		}
+		if (value instanceof ParseObject) {
+			ParseObject po = (ParseObject) value;
+			if (po.getObjectId() == null && path.contains(po)) {
+				throw new JSONException("Can't encode cycle of unsaved " + po.getClassName());
+			}
+			// Cycles and objects we never downloaded become pointers
+			if (po.getObjectId() != null && (unsaved || path.contains(po) 
+					|| !po.isDataAvailable() || pointerClasses.contains(po.getClassName()))) {
+				JSONObject pointer = new JSONObject();
+				pointer.put(TYPE, TYPE_POINTER);
+				pointer.put(CLASS_NAME, po.getClassName());
+				pointer.put(OBJECT_ID, po.getObjectId());
+				return pointer;
+			}
+			return encodeObject(po, path, pointerClasses, unsaved);
+		}
+		if (value instanceof Date) {
+			JSONObject date = new JSONObject();
+			date.put(TYPE, TYPE_DATE);
+			date.put(ISO, formatDate((Date) value));
+			return date;
+		}
+		if (value instanceof ParseGeoPoint) {
+			ParseGeoPoint point = (ParseGeoPoint) value;
+			JSONObject geo = new JSONObject();
+			geo.put(TYPE, TYPE_GEOPOINT);
+			geo.put(LATITUDE, point.getLatitude());
+			geo.put(LONGITUDE, point.getLongitude());
+			return geo;
+		}
+		if (value instanceof ParseFile) {
+			ParseFile file = (ParseFile) value;
+			if (file.getUrl() == null) {
+				throw new JSONException("Can't encode unsaved file");
+			}
+			JSONObject fileJSON = new JSONObject();
+			fileJSON.put(TYPE, TYPE_FILE);
+			fileJSON.put(NAME, file.getName());
+			fileJSON.put(URL, file.getUrl());
+			return fileJSON;
+		}
+		if (value instanceof List) {
+			JSONArray array = new JSONArray();
+			for (Object element: (List<?>) value) {
+				array.put(encodeValue(element, path, pointerClasses, unsaved));
+			}
+			return array;
+		}
+		if (value instanceof Map) {
+			JSONObject map = new JSONObject();
+			for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+				map.put(entry.getKey().toString(), 
+						encodeValue(entry.getValue(), path, pointerClasses, unsaved));
+			}
+			return map;
+		}
+		if (value instanceof String || value instanceof Number
+				|| value instanceof Boolean || value instanceof JSONObject
+				|| value instanceof JSONArray) {
+			return value;
+		}
+		throw new JSONException("Can't encode value of type " + value.getClass().getSimpleName());
+	}
+
+	/**
+	 * Decodes a single value that was encoded with encodeUnsaved.
+	 * @param value JSON value to decode
+	 * @return The value, unsaved objects are new objects with every field set
+	 * @throws JSONException if value can't be decoded
+	 */
+	private static Object decodeUnsavedValue(Object value) throws JSONException {
+		if (value instanceof JSONArray) {
+			JSONArray array = (JSONArray) value;
+			List<Object> list = new ArrayList<Object>(array.length());
+			for (int i = 0; i < array.length(); ++i) {
+				list.add(decodeUnsavedValue(array.get(i)));
+			}
+			return list;
+		}
+		if (!(value instanceof JSONObject)) {
+			return value == JSONObject.NULL ? null : value;
+		}
+
+		JSONObject json = (JSONObject) value;
+		String type = json.optString(TYPE, null);
+		if (TYPE_POINTER.equals(type)) {
+			return ParseObject.createWithoutData(
+					json.getString(CLASS_NAME), json.getString(OBJECT_ID));
+		}
+		if (TYPE_DATE.equals(type)) {
+			return parseDate(json.getString(ISO));
+		}
+		if (TYPE_GEOPOINT.equals(type)) {
+			return new ParseGeoPoint(json.getDouble(LATITUDE), json.getDouble(LONGITUDE));
+		}
+		if (TYPE_FILE.equals(type)) {
+			throw new JSONException("Can't decode file into unsaved object");
+		}
+
+		boolean isObject = TYPE_OBJECT.equals(type);
+		ParseObject po = isObject ? new ParseObject(json.getString(CLASS_NAME)) : null;
+		Map<String, Object> map = isObject ? null : new HashMap<String, Object>();
+		Iterator<?> keys = json.keys();
+		while (keys.hasNext()) {
+			String key = keys.next().toString();
+			if (isObject && (TYPE.equals(key) || CLASS_NAME.equals(key))) {
+				continue;
+			}
+			Object decoded = decodeUnsavedValue(json.get(key));
+			if (decoded == null) {
+				continue;
+			}
+			if (isObject) {
+				po.put(key, decoded);
+			} else {
+				map.put(key, decoded);
+			}
+		}
+		return isObject ? po : map;
+	}
+
+	/**
+	 * Formats date the way the Parse cloud does.
+	 * @param date Date to format
+	 * @return Formatted date
+	 */
+	private static String formatDate(Date date) {
+		return newDateFormat().format(date);
+	}
+
+	/**
+	 * Parses a date formatted the way the Parse cloud does.
+	 * @param date Formatted date
+	 * @return The date
+	 * @throws JSONException if date is not formatted that way
+	 */
+	private static Date parseDate(String date) throws JSONException {
+		try {
+			return newDateFormat().parse(date);
+		} catch (ParseException e) {
+			throw new JSONException("Unable to read date " + date);
+		}
+	}
+
+	/**
+	 * @return Format of the dates of the Parse cloud
+	 */
+	private static DateFormat newDateFormat() {
+		// Date formats are not thread safe
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	/**
+	 * Object that merges JSON the same way a download does.
+	 * Only used to decode, it is never saved.
+	 */
+	private static class Holder extends ParseObject {
+
+		/**
+		 * Creates an empty holder.
+		 */
+		public Holder() {
+			super(Holder.class.getSimpleName());
+		}
+
+		/**
+		 * Merges json into this object as if it was downloaded.
+		 * @param json Object in the Parse cloud format
+		 * @throws JSONException if json can't be wrapped like a fetch result
+		 */
+		public void merge(JSONObject json) throws JSONException {
+			// Fetch results carry the fields of the object under data
+			JSONObject result = new JSONObject();
+			result.put(DATA, json);
+			mergeAfterFetch(result);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package uw.cse.dineon.library.store;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+/**
+ * SQLLite helper for retrieving locally stored Storables.
+ */
+class StorableSQLiteHelper extends SQLiteOpenHelper {
+
+	private static final String TAG = StorableSQLiteHelper.class.getSimpleName();
+
+	/**
+	 * Name of the SQL Lite table that contains the objects.
+	 */
+	public static final String TABLE_OBJECTS = "dineonobjects";
+
+	// Column of the SQL ID of the object
+	public static final String COLUMN_ID = "_id";
+	// Parse ID of the object
+	// This is our unique identifier
+	public static final String COLUMN_PARSEID = "parseid";
+	// Column for the Parse class name of the object
+	public static final String COLUMN_CLASS = "classname";
+	// Column for the Parse ID of the user the object belongs to
+	public static final String COLUMN_OWNER = "owner";
+	// Column for when the object was last updated in the cloud
+	public static final String COLUMN_LAST_UPDATED = "last_updated";
+	// Column for the encoded object
+	public static final String COLUMN_DATA = "data";
+
+	private static final String DATABASE_NAME = "objects.db";
+	private static final int DATABASE_VERSION = 1;
+	private static final String DATABASE_CREATE = "create table " + TABLE_OBJECTS
+			+ "(" + COLUMN_ID + " integer primary key autoincrement, "
+			+ COLUMN_PARSEID + " text not null unique, "
+			+ COLUMN_CLASS + " text not null, "
+			+ COLUMN_OWNER + " text, "
+			+ COLUMN_LAST_UPDATED + " long, "
+			+ COLUMN_DATA + " text not null);";
+	private static final String OWNER_INDEX_CREATE = "create index "
+			+ TABLE_OBJECTS + "_" + COLUMN_OWNER + " on " + TABLE_OBJECTS
+			+ "(" + COLUMN_CLASS + ", " + COLUMN_OWNER + ");";
+
+	/**
+	 * Creates a SQL Lite helper for accessing the object database.
+	 * @param ctx Context to create the database in.
+	 */
+	StorableSQLiteHelper(Context ctx) {
+		super(ctx, DATABASE_NAME, null, DATABASE_VERSION);
+	}
+
+	@Override
+	public void onCreate(SQLiteDatabase db) {
+		db.execSQL(DATABASE_CREATE);
+		db.execSQL(OWNER_INDEX_CREATE);
+	}
+
+	@Override
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+		Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
+						+ newVersion + ", which will destroy all old data");
+		db.execSQL("DROP TABLE IF EXISTS " + TABLE_OBJECTS);
+		onCreate(db);
+	}
+
+}
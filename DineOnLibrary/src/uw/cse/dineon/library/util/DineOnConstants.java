@@ -59,6 +59,18 @@ public final class DineOnConstants {
 	 * w <= LONGEST_IMAGE_DIMENSION && h <= LONGEST_IMAGE_DIMENSION
 	 */
 	public static final int LONGEST_IMAGE_DIMENSION = 600;
+
+	/**
+	 * Longest dimension of the thumbnail version of an image,
+	 * IE for small icons.
+	 */
+	public static final int THUMBNAIL_IMAGE_DIMENSION = 150;
+
+	/**
+	 * Longest dimension of the list version of an image,
+	 * IE for the pictures in the rows of a list.
+	 */
+	public static final int LIST_IMAGE_DIMENSION = 300;
 	
 	/**
 	 * This can be used as a generalized key for Bundles.
@@ -117,6 +129,12 @@ public final class DineOnConstants {
 	// Callback Key for braodcast receiver callbacks
 	public static final String OBJ_ID = "objectId";
 	public static final String OBJ_ID_2 = "objectIdTwo";
+
+	/**
+	 * Key of an identifier that is unique to every push a satellite sends.
+	 * A push that is delivered more than once has the same identifier.
+	 */
+	public static final String EVENT_ID = "eventId";
 	public static final String TABLE_NUM = "TABLE_NUM";
 
 	// Actions for broadcast resceivers
@@ -182,6 +200,13 @@ public final class DineOnConstants {
 	 */
 	static final String CHANNEL_PREFIX = "uw_cse_dineon_";	 
 
+	/**
+	 * This is a channel prefix for Push Channels a restaurant broadcasts
+	 * to all of its customers on.  Does not start with CHANNEL_PREFIX so
+	 * it never matches the channel of a user.
+	 */
+	static final String BROADCAST_CHANNEL_PREFIX = "broadcast_uw_cse_dineon_";
+
 	/**
 	 * Returns the Date format for use with both applications.
 	 * @return Date format to use.
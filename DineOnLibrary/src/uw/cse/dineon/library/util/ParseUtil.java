@@ -4,18 +4,33 @@
 package uw.cse.dineon.library.util;
 
 
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import org.json.JSONObject;
 
+import uw.cse.dineon.library.HistoryRecord;
+import uw.cse.dineon.library.LazyStorableList;
+import uw.cse.dineon.library.Restaurant;
 import uw.cse.dineon.library.RestaurantInfo;
 import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableFactory;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorableRegistry;
 import uw.cse.dineon.library.UserInfo;
 import android.util.Log;
 
+import com.parse.ParseException;
 import com.parse.ParseObject;
 import com.parse.ParsePush;
 
@@ -30,6 +45,33 @@ import com.parse.ParsePush;
 public final class ParseUtil {
 	private static final String TAG = "ParseUtil";
 
+	/**
+	 * Classes whose nested objects fetchAllIfNeeded does not download.
+	 */
+	private static final Set<String> NOT_SEARCHED = new HashSet<String>(Arrays.asList(
+			Restaurant.class.getSimpleName(), HistoryRecord.class.getSimpleName()));
+
+	/**
+	 * Parse key of every objects id.
+	 */
+	public static final String OBJECT_ID = "objectId";
+
+	/**
+	 * Parse key of the time every object was last updated.
+	 */
+	public static final String UPDATED_AT = "updatedAt";
+
+	/**
+	 * Parse key of the idempotency key an object was first saved with,
+	 * see StorageBackend.findSaved.
+	 */
+	public static final String SAVE_KEY = "saveKey";
+
+	/**
+	 * Maximum number of results the backend will return for a single query.
+	 */
+	public static final int MAX_QUERY_LIMIT = 1000;
+
 	/**
 	 * Hidden constructor.
 	 */
@@ -393,9 +435,12 @@ public final class ParseUtil {
 		try {
 			for (String k : container.keySet()) {
 				ParseObject p = container.getParseObject(k);
-				Storable s = (Storable) Class.forName(p.getClassName()).newInstance();
-				//				s.unpackObject(p);
-				list.add(s);
+				StorableFactory<?> factory = StorableRegistry.getFactory(p.getClassName());
+				if (factory == null) {
+					Log.w(TAG, "No factory registered for " + p.getClassName());
+					continue;
+				}
+				list.add(factory.create(p));
 			}
 		} catch (Exception e) {
 			Log.d(TAG, "Error: " + e.getMessage());
@@ -408,44 +453,23 @@ public final class ParseUtil {
 	 * Given a storable class definition produce an instance of the Class based
 	 * off the ParseObject.
 	 * 
+	 * Instances are built by the factory registered in StorableRegistry
+	 * so no reflection happens per object.  Objects that were already
+	 * decoded this session are returned from the StorableIdentityMap
+	 * instead of being built again.
+	 * 
 	 * @param <T> object extending Storable
 	 * @param clazz Class to instantiate
 	 * @param po Parse object representation of the Class
 	 * @return null on failure, instance of T otherwise
 	 */
-	@SuppressWarnings("unchecked")
 	public static <T extends Storable> T parseObjectToClass(Class<T> clazz, ParseObject po) {
-		Constructor<T> ctor = null;
-		Object object = null;
 		try {
-			ctor = clazz.getConstructor(ParseObject.class);
-			object = ctor.newInstance(new Object[] {po});	
+			return StorableIdentityMap.decode(clazz, po);
 		} catch (Exception e) {
 			throw new RuntimeException(
 					"Exception occured while creating ParseObject: " + e.getMessage());
 		}
-		//		} catch (NoSuchMethodException e) {
-		//			throw new RuntimeException("Constructor for: " + clazz.getSimpleName() 
-		//					+ " that takes one ParseObject not found!");
-		//		} catch (IllegalArgumentException e) {
-		//			throw e;
-		//		} catch (InstantiationException e) {
-		//			throw new RuntimeException(
-		//"Instantiation Exception for: " + clazz.getSimpleName() 
-		//					+ " constructor that takes one ParseObject not found!");
-		//		} catch (IllegalAccessException e) {
-		//			throw new RuntimeException(
-		//"Illegal Access Exception for: " + clazz.getSimpleName() 
-		//					+ " constructor that takes one ParseObject not found!");
-		//		} catch (InvocationTargetException e) {
-		//			throw new RuntimeException("Invocation Exception for: " + clazz.getSimpleName() 
-		//					+ " constructor that takes one 
-		//ParseObject not found!\n" + e.getMessage());
-		//		}
-		if (object != null) {
-			return (T)object;
-		}
-		return null;
 	}
 
 	/**
@@ -456,6 +480,11 @@ public final class ParseUtil {
 	 * @return List of ParseObject that represents storables
 	 */
 	public static List<ParseObject> toListOfParseObjects(List<? extends Storable> storables) {
+		// Lists that were never read still only hold pointers.
+		// Hand those back instead of downloading every element.
+		if (storables instanceof LazyStorableList) {
+			return ((LazyStorableList<?>) storables).toParseObjects();
+		}
 		List<ParseObject> pObjects = new ArrayList<ParseObject>(storables.size());
 		for (Storable s: storables) {
 			pObjects.add(s.packObject());
@@ -475,15 +504,181 @@ public final class ParseUtil {
 	 */
 	public static <T extends Storable> List<T> toListOfStorables(
 			Class<T> clazz, List<Object> objects) {
-		List<T> storables = new ArrayList<T>(objects.size());
-		for (Object o: objects) {
-			ParseObject p = (ParseObject) o;
+		// Download everything we don't have in as few requests as possible
+		// so the constructors below don't each make a round trip.
+		// Hold on to the nested objects until the constructors found them.
+		List<Storable> nested = new ArrayList<Storable>();
+		List<ParseObject> fetched = fetchAllIfNeeded(objects, nested);
+		List<T> storables = new ArrayList<T>(fetched.size());
+		for (ParseObject p: fetched) {
 			T storable = (T) parseObjectToClass(clazz, p);
 			storables.add(storable);
 		}
 		return storables;
 	}
 
+	/**
+	 * Returns the ParseObjects of objects in the same order where every
+	 * object that has no data available is replaced by a downloaded copy.
+	 * 
+	 * The Storables nested in the objects are downloaded as well, one level
+	 * at a time across all the objects.  Every level takes one
+	 * StorageBackend.getAll per Parse class instead of one request per object.
+	 * Nested objects that were downloaded are decoded into the
+	 * StorableIdentityMap, so decoding the objects finds them there, and
+	 * added to nested.  Hold on to nested until the objects are decoded.
+	 * 
+	 * Objects whose instance is in the StorableIdentityMap already are not
+	 * downloaded again because decoding them returns that instance anyway.
+	 * Restaurants and history records are not searched for nested objects
+	 * since they download what they reference only when it is used.
+	 * 
+	 * If a batch fails the original pointers are kept for that batch so
+	 * they can still be fetched individually.
+	 * NOTE: This does network calls so do not call on the main thread.
+	 * 
+	 * @param objects List of Objects that must have dynamic types of ParseObjects
+	 * @param nested List to add the decoded nested objects to
+	 * @return List of ParseObjects with data available where possible
+	 */
+	public static List<ParseObject> fetchAllIfNeeded(
+			List<Object> objects, List<Storable> nested) {
+		List<ParseObject> result = new ArrayList<ParseObject>(objects.size());
+		for (Object o: objects) {
+			result.add((ParseObject) o);
+		}
+
+		Map<String, ParseObject> downloaded = new HashMap<String, ParseObject>();
+		Set<ParseObject> searched = Collections.newSetFromMap(
+				new IdentityHashMap<ParseObject, Boolean>());
+		List<List<ParseObject>> levels = new ArrayList<List<ParseObject>>();
+		List<ParseObject> level = result;
+		while (!level.isEmpty()) {
+			List<ParseObject> fetched = fetchLevel(level, downloaded);
+			if (level != result) {
+				levels.add(fetched);
+			}
+
+			// Swap in the downloaded versions and collect the next level
+			List<ParseObject> next = new ArrayList<ParseObject>();
+			for (int i = 0; i < level.size(); ++i) {
+				ParseObject p = level.get(i);
+				ParseObject d = downloaded.get(keyOf(p));
+				if (d != null) {
+					level.set(i, d);
+					p = d;
+				}
+				if (p.isDataAvailable() && searched.add(p)
+						&& !NOT_SEARCHED.contains(p.getClassName())) {
+					addNested(p, next);
+				}
+			}
+			level = next;
+		}
+
+		// Deepest first so every object finds what it references
+		for (int i = levels.size() - 1; i >= 0; --i) {
+			for (ParseObject p: levels.get(i)) {
+				try {
+					nested.add(StorableIdentityMap.decode(
+							StorableRegistry.getStorableClass(p.getClassName()), p));
+				} catch (ParseException e) {
+					Log.w(TAG, "Unable to decode " + p.getClassName() + " " 
+							+ p.getObjectId() + ": " + e.getMessage());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Downloads every object of level that has no data available, is not
+	 * downloaded yet and is not decoded already.
+	 * Takes one batch per class, the backend splits it into chunks.
+	 * @param level Objects to download
+	 * @param downloaded Objects downloaded so far keyed by keyOf, 
+	 * 	the objects downloaded by this call are added
+	 * @return Objects downloaded by this call
+	 */
+	private static List<ParseObject> fetchLevel(List<ParseObject> level,
+			Map<String, ParseObject> downloaded) {
+		// Collect the ids of all the unfetched objects per class
+		Map<String, Set<String>> unfetched = new HashMap<String, Set<String>>();
+		for (ParseObject p: level) {
+			if (p.isDataAvailable() || p.getObjectId() == null
+					|| downloaded.containsKey(keyOf(p)) || isDecoded(p)) {
+				continue;
+			}
+			Set<String> ids = unfetched.get(p.getClassName());
+			if (ids == null) {
+				ids = new LinkedHashSet<String>();
+				unfetched.put(p.getClassName(), ids);
+			}
+			ids.add(p.getObjectId());
+		}
+
+		List<ParseObject> fetched = new ArrayList<ParseObject>();
+		for (Entry<String, Set<String>> entry: unfetched.entrySet()) {
+			String className = entry.getKey();
+			try {
+				for (ParseObject p: Storable.getBackend().getAll(className, entry.getValue())) {
+					downloaded.put(keyOf(p), p);
+					fetched.add(p);
+				}
+			} catch (ParseException e) {
+				Log.w(TAG, "Unable to batch fetch " + entry.getValue().size() + " " 
+						+ className + " objects: " + e.getMessage());
+			}
+		}
+		return fetched;
+	}
+
+	/**
+	 * Adds every Storable that is stored in a field or list of p to nested.
+	 * @param p Object with data available to search
+	 * @param nested List to add to
+	 */
+	private static void addNested(ParseObject p, List<ParseObject> nested) {
+		for (String key: p.keySet()) {
+			Object value = p.get(key);
+			if (value instanceof List) {
+				for (Object element: (List<?>) value) {
+					if (isStorable(element)) {
+						nested.add((ParseObject) element);
+					}
+				}
+			} else if (isStorable(value)) {
+				nested.add((ParseObject) value);
+			}
+		}
+	}
+
+	/**
+	 * @param value Value to check
+	 * @return true if value is a ParseObject of a class in the StorableRegistry
+	 */
+	private static boolean isStorable(Object value) {
+		return value instanceof ParseObject && StorableRegistry.getStorableClass(
+				((ParseObject) value).getClassName()) != null;
+	}
+
+	/**
+	 * @param p Object to check
+	 * @return true if the StorableIdentityMap has an instance of p
+	 */
+	private static boolean isDecoded(ParseObject p) {
+		Class<? extends Storable> clazz = StorableRegistry.getStorableClass(p.getClassName());
+		return clazz != null && StorableIdentityMap.get(clazz, p.getObjectId()) != null;
+	}
+
+	/**
+	 * @param p Object to find the key of
+	 * @return Key of p that is unique across classes
+	 */
+	private static String keyOf(ParseObject p) {
+		return p.getClassName() + ":" + p.getObjectId();
+	}
+
 	/**
 	 * Returns the channel identifier for this Restaurant.
 	 * @param rest Restaurant to find channel identifier for
@@ -503,6 +698,16 @@ public final class ParseUtil {
 	}
 
 
+	/**
+	 * Returns the channel this Restaurant broadcasts to all of its
+	 * current customers on.
+	 * @param rest Restaurant to find broadcast channel for
+	 * @return Channel as string
+	 */
+	public static String getBroadcastChannel(RestaurantInfo rest) {
+		return DineOnConstants.BROADCAST_CHANNEL_PREFIX + rest.getName();
+	}
+
 	/**
 	 * Returns the channel identifier for this Restaurant.
 	 * @param user User to extract channel from
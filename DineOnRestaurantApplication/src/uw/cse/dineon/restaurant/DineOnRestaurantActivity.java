@@ -8,6 +8,7 @@ import uw.cse.dineon.library.DiningSession;
 import uw.cse.dineon.library.Order;
 import uw.cse.dineon.library.Reservation;
 import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.SyncEngine;
 import uw.cse.dineon.library.UserInfo;
 import uw.cse.dineon.library.android.DineOnStandardActivity;
 import uw.cse.dineon.library.util.Utility;
@@ -16,6 +17,7 @@ import uw.cse.dineon.restaurant.login.RestaurantLoginActivity;
 import uw.cse.dineon.restaurant.profile.ProfileActivity;
 import android.app.ProgressDialog;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
@@ -69,6 +71,27 @@ implements SateliteListener {
 	 */
 	private DineOnRestaurantActivity thisResActivity;
 
+	/**
+	 * Catches up on customer events the pipeline had to reject.
+	 */
+	private final EventPipeline.OverflowListener mOverflowListener = 
+			new EventPipeline.OverflowListener() {
+
+		@Override
+		public void onOverflowEnded(int rejected) {
+			final int REJECTED = rejected;
+			runOnUiThread(new Runnable() {
+
+				@Override
+				public void run() {
+					Toast.makeText(thisResActivity, "Catching up on " + REJECTED 
+							+ " missed customer updates", Toast.LENGTH_SHORT).show();
+					syncRestaurant();
+				}
+			});
+		}
+	};
+
 	/**
 	 * Location Listener for location based services.
 	 */
@@ -115,23 +138,114 @@ implements SateliteListener {
 	protected void onResume() {
 		super.onResume();
 		mSatellite.register(mRestaurant, thisResActivity);
+		DineOnRestaurantApplication.getPipeline().setOverflowListener(mOverflowListener);
+		syncKitchen();
+		syncFloor();
 		updateUI(); // This is the call that should trigger a lot of UI changes.
+		// We were not listening while paused, catch up on what we missed.
+		syncRestaurant();
 	}
 
 	@Override
 	protected void onPause() {
 		destroyProgressDialog();
 		mSatellite.unRegister();
+		DineOnRestaurantApplication.getPipeline().setOverflowListener(null);
+		// Don't leave changes waiting while we are not in the foreground.
+		// Once they are saved keep a copy to start from next time.
+		DineOnRestaurantApplication.getSaver().flush(new SaveCallback() {
+
+			@Override
+			public void done(ParseException e) {
+				if (e == null) {
+					DineOnRestaurantApplication.storeRestaurant();
+				} else {
+					// The stored copy would claim changes the cloud never got
+					Log.w(TAG, "Not storing the restaurant, unable to save it: " 
+							+ e.getMessage());
+				}
+			}
+		});
 		super.onPause();
 	}
 
+	/**
+	 * Downloads only what customers changed since the last sync and
+	 * merges it into the restaurant in the background.
+	 */
+	protected void syncRestaurant() {
+		final SyncEngine ENGINE = DineOnRestaurantApplication.getSyncEngine();
+		if (ENGINE == null) {
+			return;
+		}
+		AsyncTask<Void, Void, SyncEngine.Result> sync = 
+				new AsyncTask<Void, Void, SyncEngine.Result>() {
+
+			@Override
+			protected SyncEngine.Result doInBackground(Void... params) {
+				try {
+					return ENGINE.pull();
+				} catch (ParseException e) {
+					Log.w(TAG, "Unable to sync restaurant: " + e.getMessage());
+					return null;
+				}
+			}
+
+			@Override
+			protected void onPostExecute(SyncEngine.Result result) {
+				// Logged out while syncing
+				if (result == null || ENGINE != DineOnRestaurantApplication.getSyncEngine()) {
+					return;
+				}
+				Log.d(TAG, "Sync pulled " + result.size() + " objects, " 
+						+ ENGINE.getTotalPulled() + " in " + ENGINE.getSyncCount() + " syncs");
+				if (ENGINE.merge(result)) {
+					saveRestaurant();
+				}
+				if (!result.isEmpty()) {
+					syncKitchen();
+					syncFloor();
+					updateUI();
+				}
+			}
+		};
+		sync.execute();
+	}
+
+	/**
+	 * Makes the kitchen queue hold the pending orders of the restaurant.
+	 * Only the orders that changed are added or removed.
+	 */
+	protected void syncKitchen() {
+		if (mRestaurant != null) {
+			DineOnRestaurantApplication.getKitchen().sync(mRestaurant.getPendingOrders());
+		}
+	}
+
+	/**
+	 * Makes the floor state match the sessions, pending orders and
+	 * requests of the restaurant.  Only the tables that changed are updated.
+	 */
+	protected void syncFloor() {
+		if (mRestaurant != null) {
+			DineOnRestaurantApplication.getFloor().sync(mRestaurant);
+		}
+	}
+
+	/**
+	 * Schedules the restaurant to be saved.  Changes made in
+	 * quick succession are uploaded together.
+	 */
+	protected void saveRestaurant() {
+		DineOnRestaurantApplication.getSaver().save(mRestaurant);
+	}
+
 	/**
 	 * Notifies all the users that a Change in this restaurant has changed.
+	 * Sent once on the broadcast channel of the restaurant.
 	 */
 	protected void notifyAllRestaurantChange() {
-		for (DiningSession session: mRestaurant.getSessions()) {
-			notifyGroupRestaurantChange(session);
-		}
+		mSatellite.broadcastChangeRestaurantInfo(mRestaurant.getInfo());
 	}
 
 	/**
@@ -151,7 +265,23 @@ implements SateliteListener {
 	 */
 	protected void addDiningSession(DiningSession session) {
 		mRestaurant.addDiningSession(session);
-		mRestaurant.saveInBackGround(null);
+		FloorState floor = DineOnRestaurantApplication.getFloor();
+		// A session that is seated already may come back at a new table
+		if (!floor.seat(session)) {
+			floor.move(session);
+		}
+		saveRestaurant();
+	}
+
+	/**
+	 * Moves a dining session to another table.
+	 * @param session Dining Session to move
+	 * @param tableID Table id to move to
+	 */
+	protected void changeTable(DiningSession session, int tableID) {
+		mRestaurant.changeTable(session, tableID);
+		DineOnRestaurantApplication.getFloor().move(session);
+		saveRestaurant();
 	}
 
 	/**
@@ -167,12 +297,15 @@ implements SateliteListener {
 		// Cancel any pending orders for the restaurant.
 		for (Order pendingOrder: session.getOrders()) {
 			mRestaurant.cancelPendingOrder(pendingOrder);
+			DineOnRestaurantApplication.getKitchen().remove(pendingOrder);
+			DineOnRestaurantApplication.getFloor().removeOrder(pendingOrder);
 		}		
 		
 		// Finally remove the diningsession
 		mRestaurant.removeDiningSession(session);
+		DineOnRestaurantApplication.getFloor().leave(session);
 		session.deleteFromCloud();
-		mRestaurant.saveInBackGround(null);
+		saveRestaurant();
 	}
 	
 	/**
@@ -194,7 +327,10 @@ implements SateliteListener {
 	protected void addOrder(Order order) {
 		// Add the order to this restaurant.
 		mRestaurant.addOrder(order);
-		mRestaurant.saveInBackGround(null);
+		DineOnRestaurantApplication.getKitchen().add(order);
+		DineOnRestaurantApplication.getFloor().addOrder(
+				order, getSessionOf(order.getOriginalUser()));
+		saveRestaurant();
 	}
 
 	/**
@@ -203,9 +339,39 @@ implements SateliteListener {
 	 */
 	protected void completeOrder(Order order) {
 		mRestaurant.completeOrder(order);
-		mRestaurant.saveInBackGround(null);
+		DineOnRestaurantApplication.getKitchen().remove(order);
+		DineOnRestaurantApplication.getFloor().removeOrder(order);
+		saveRestaurant();
 	}
 	
+	/**
+	 * Returns the state of the tables of the restaurant floor.
+	 * @return the floor state
+	 */
+	public FloorState getFloorState() {
+		return DineOnRestaurantApplication.getFloor();
+	}
+
+	/**
+	 * Returns the dining session a customer is dining in.
+	 * @param user Customer to look for, can be null
+	 * @return The session of the customer, null if none
+	 */
+	protected DiningSession getSessionOf(UserInfo user) {
+		if (user == null) {
+			return null;
+		}
+		return mRestaurant.getSessionOfUser(user.getObjId());
+	}
+
+	/**
+	 * Returns the queue of the orders the kitchen has to prepare.
+	 * @return the kitchen queue
+	 */
+	public KitchenQueue getKitchenQueue() {
+		return DineOnRestaurantApplication.getKitchen();
+	}
+
 	/**
 	 * Returns a list of pending orders.
 	 * @return a list of pending orders
@@ -225,7 +391,9 @@ implements SateliteListener {
 	protected void addCustomerRequest(CustomerRequest request) {
 		// reference our mRestaurant object
 		mRestaurant.addCustomerRequest(request);
-		mRestaurant.saveInBackGround(null);
+		DineOnRestaurantApplication.getFloor().addRequest(
+				request, getSessionOf(request.getUserInfo()));
+		saveRestaurant();
 	}
 	
 	/**
@@ -235,8 +403,9 @@ implements SateliteListener {
 	private void removeCustomerRequests(Collection<CustomerRequest> requests) {
 		for (CustomerRequest request: requests) {
 			mRestaurant.removeCustomerRequest(request);
+			DineOnRestaurantApplication.getFloor().removeRequest(request);
 		}
-		mRestaurant.saveInBackGround(null);
+		saveRestaurant();
 	}
 
 	/**
@@ -251,7 +420,8 @@ implements SateliteListener {
 		// Remove the customer request from the 
 		// restaurant permanently.
 		mRestaurant.removeCustomerRequest(request);
-		mRestaurant.saveInBackGround(null);
+		DineOnRestaurantApplication.getFloor().removeRequest(request);
+		saveRestaurant();
 	}
 	
 	/**
@@ -273,7 +443,7 @@ implements SateliteListener {
 	protected void addReservation(Reservation reservation) {
 		// Add the order to this restaurant.
 		mRestaurant.addReservation(reservation);
-		mRestaurant.saveInBackGround(null);
+		saveRestaurant();
 	}
 
 	/**
@@ -282,7 +452,7 @@ implements SateliteListener {
 	 */
 	protected void removeReservation(Reservation reservation) {
 		mRestaurant.removeReservation(reservation);
-		mRestaurant.saveInBackGround(null);
+		saveRestaurant();
 	}
 
 	/**
@@ -309,7 +479,7 @@ implements SateliteListener {
 	@Override
 	public void onUserCheckedIn(UserInfo user, int tableID) {
 		final DiningSession DS = new DiningSession(tableID, user, mRestaurant.getInfo());
-		DS.saveInBackGround(new SaveCallback() {
+		DineOnRestaurantApplication.getSaver().save(DS, new SaveCallback() {
 
 			@Override
 			public void done(ParseException e) {
@@ -340,7 +510,7 @@ implements SateliteListener {
 		mRestaurant.updateUser(user);
 
 		// Save the changes and notify user
-		mRestaurant.saveInBackGround(null);
+		saveRestaurant();
 	}
 
 	@Override
@@ -348,29 +518,27 @@ implements SateliteListener {
 		Toast.makeText(this, "onOrderRequest", Toast.LENGTH_SHORT).show();
 
 		// TODO Validate Order
-		for (final DiningSession SESSION: mRestaurant.getSessions()) {
-			if (SESSION.getObjId().equals(sessionID)) {
-				// Found the correct session.
-				// Add the Order to the session
-				SESSION.addPendingOrder(order);
-				SESSION.saveInBackGround(new SaveCallback() {
+		final DiningSession SESSION = mRestaurant.getDiningSession(sessionID);
+		if (SESSION == null) {
+			Log.w(TAG, "No dining session " + sessionID + " for order");
+			return;
+		}
+		// Add the Order to the session
+		SESSION.addPendingOrder(order);
+		DineOnRestaurantApplication.getSaver().save(SESSION, new SaveCallback() {
 
-					@Override
-					public void done(ParseException e) {
-						if (e == null) {
-							// Tell the customer that we have received their order
-							mSatellite.confirmOrder(SESSION, order);
-							// Add the order to our restaurant
-							addOrder(order);
-						} else {
-							Log.e(TAG, "Error saving dining session" + e.getMessage());
-						}
-					}
-				});
-				// We are done there can be no duplicate
-				break;
+			@Override
+			public void done(ParseException e) {
+				if (e == null) {
+					// Tell the customer that we have received their order
+					mSatellite.confirmOrder(SESSION, order);
+					// Add the order to our restaurant
+					addOrder(order);
+				} else {
+					Log.e(TAG, "Error saving dining session" + e.getMessage());
+				}
 			}
-		}
+		});
 	}
 
 	@Override
@@ -379,29 +547,27 @@ implements SateliteListener {
 
 		// TODO Validate Request
 
-		for (final DiningSession SESSION: mRestaurant.getSessions()) {
-			if (SESSION.getObjId().equals(sessionID)) {
-				// Found the correct session.
-				// Add the Order to the session
-				SESSION.addRequest(request);
-				SESSION.saveInBackGround(new SaveCallback() {
+		final DiningSession SESSION = mRestaurant.getDiningSession(sessionID);
+		if (SESSION == null) {
+			Log.w(TAG, "No dining session " + sessionID + " for request");
+			return;
+		}
+		// Add the Request to the session
+		SESSION.addRequest(request);
+		DineOnRestaurantApplication.getSaver().save(SESSION, new SaveCallback() {
 
-					@Override
-					public void done(ParseException e) {
-						if (e == null) {
-							// Tell the customer we have received their request
-							mSatellite.confirmCustomerRequest(SESSION, request);
-							// Update our state as well
-							addCustomerRequest(request);
-						} else {
-							Log.e(TAG, "Error saving dining session" + e.getMessage());
-						}
-					}
-				});
-				// We are done there can be no duplicate
-				break;
+			@Override
+			public void done(ParseException e) {
+				if (e == null) {
+					// Tell the customer we have received their request
+					mSatellite.confirmCustomerRequest(SESSION, request);
+					// Update our state as well
+					addCustomerRequest(request);
+				} else {
+					Log.e(TAG, "Error saving dining session" + e.getMessage());
+				}
 			}
-		}
+		});
 	}
 
 	@Override
@@ -455,7 +621,10 @@ implements SateliteListener {
 		case R.id.item_logout:
 			if (mRestaurant != null) {
 				createProgressDialog(true, "Saving...", "Cleaning up and logging out");
-				mRestaurant.saveInBackGround(new SaveCallback() {
+				// Push out everything that is still waiting to be saved.
+				WriteBehindSaver saver = DineOnRestaurantApplication.getSaver();
+				saver.save(mRestaurant);
+				saver.flush(new SaveCallback() {
 
 					@Override
 					public void done(ParseException e) {
@@ -1,6 +1,9 @@
 package uw.cse.dineon.restaurant;
 
 import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.SyncEngine;
+import uw.cse.dineon.library.store.LocalStore;
 import uw.cse.dineon.library.util.DineOnConstants;
 import uw.cse.dineon.library.util.ParseUtil;
 import android.app.Application;
@@ -23,6 +26,43 @@ public class DineOnRestaurantApplication extends Application {
 	 * Reference to the current restaurant.
 	 */
 	private static Restaurant mRestaurant;
+
+	/**
+	 * Saves the restaurant and its dining sessions in the background.
+	 */
+	private static final WriteBehindSaver SAVER = 
+			new WriteBehindSaver(WriteBehindSaver.DEFAULT_WINDOW);
+
+	/**
+	 * Sends push notifications to customers in batches.
+	 */
+	private static final PushDispatcher DISPATCHER = 
+			new PushDispatcher(PushDispatcher.DEFAULT_WINDOW);
+
+	/**
+	 * Processes the events customers send in order.
+	 */
+	private static final EventPipeline PIPELINE = new EventPipeline();
+
+	/**
+	 * Pending orders of the current restaurant in the order they are due.
+	 */
+	private static final KitchenQueue KITCHEN = new KitchenQueue(KitchenQueue.DEFAULT_PREP_TIME);
+
+	/**
+	 * State of the tables of the restaurant floor.
+	 */
+	private static final FloorState FLOOR = new FloorState();
+
+	/**
+	 * On device copy of the restaurant to start from.
+	 */
+	private static LocalStore mStore;
+
+	/**
+	 * Keeps the current restaurant up to date with changes made by customers.
+	 */
+	private static SyncEngine mSyncEngine;
 	
 	/**
 	 * Logs out of this current restaurant.
@@ -34,7 +74,16 @@ public class DineOnRestaurantApplication extends Application {
 		if (ctx != null) {
 			PushService.unsubscribe(ctx, ParseUtil.getChannel(mRestaurant.getInfo()));
 		}
+		// Send what is waiting before forgetting the restaurant
+		DISPATCHER.flush();
+		KITCHEN.clear();
+		FLOOR.clear();
 		mRestaurant = null;
+		mSyncEngine = null;
+		StorableIdentityMap.startSession();
+		if (mStore != null) {
+			mStore.clear();
+		}
 		ParseUser.logOut();
 	}
 	
@@ -47,7 +96,9 @@ public class DineOnRestaurantApplication extends Application {
 			throw new IllegalArgumentException("Restaurant can't be null on log in");
 		}
 		mRestaurant = restaurant;
-		
+		mSyncEngine = new SyncEngine(restaurant);
+		KITCHEN.clear();
+		FLOOR.clear();
 	}
 	
 	/**
@@ -61,6 +112,82 @@ public class DineOnRestaurantApplication extends Application {
 	public static Restaurant getRestaurant() {
 		return mRestaurant;
 	}
+
+	/**
+	 * Returns the saver that all changes to the restaurant and its
+	 * dining sessions should be saved through.
+	 * @return The application wide saver
+	 */
+	public static WriteBehindSaver getSaver() {
+		return SAVER;
+	}
+
+	/**
+	 * Returns the dispatcher that all push notifications to
+	 * customers should be sent through.
+	 * @return The application wide dispatcher
+	 */
+	public static PushDispatcher getDispatcher() {
+		return DISPATCHER;
+	}
+
+	/**
+	 * Returns the pipeline that all events customers send
+	 * should be processed through.
+	 * @return The application wide pipeline
+	 */
+	public static EventPipeline getPipeline() {
+		return PIPELINE;
+	}
+
+	/**
+	 * Returns the queue of the orders the kitchen has to prepare.
+	 * Activities keep it in sync with the pending orders of the restaurant.
+	 * @return The application wide kitchen queue
+	 */
+	public static KitchenQueue getKitchen() {
+		return KITCHEN;
+	}
+
+	/**
+	 * Returns the state of the tables of the restaurant floor.
+	 * Activities keep it in sync with the restaurant.
+	 * @return The application wide floor state
+	 */
+	public static FloorState getFloor() {
+		return FLOOR;
+	}
+
+	/**
+	 * Returns the engine that keeps the current restaurant up to date.
+	 * @return The sync engine of the current restaurant, null if not logged in
+	 */
+	public static SyncEngine getSyncEngine() {
+		return mSyncEngine;
+	}
+
+	/**
+	 * Returns the on device store the restaurant is kept in between starts.
+	 * @return The application wide store, null if the application was not created
+	 */
+	public static LocalStore getLocalStore() {
+		return mStore;
+	}
+
+	/**
+	 * Stores the current restaurant on the device so the next start
+	 * does not have to download it again.  Must be called on the main thread.
+	 * A restaurant with unsaved changes is not stored, the stored copy is
+	 * taken for what is in the cloud when it is loaded.
+	 */
+	public static void storeRestaurant() {
+		ParseUser user = ParseUser.getCurrentUser();
+		if (mStore == null || mRestaurant == null || user == null 
+				|| mRestaurant.hasUnsavedChanges()) {
+			return;
+		}
+		mStore.putInBackground(mRestaurant, user.getObjectId());
+	}
 	
 	@Override
 	public void onCreate() {
@@ -78,6 +205,9 @@ public class DineOnRestaurantApplication extends Application {
 		ParseACL.setDefaultACL(defaultACL, true);
 		
 		ParseInstallation.getCurrentInstallation().saveInBackground();
+
+		mStore = new LocalStore(this);
+		mStore.open();
 	}
 
 }
@@ -0,0 +1,370 @@
+package uw.cse.dineon.restaurant;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Processes the events customers send to the restaurant, IE orders and
+ * check outs, between the RestaurantSatellite and its listener.
+ *
+ * Events with the same sequence key, IE events of the same dining session,
+ * are processed one after the other in the order they arrived.  Events of
+ * different sequences are processed at the same time, but never more than
+ * a fixed number at once.
+ *
+ * Events that carry an idempotency key are only processed once.  Pushes
+ * can be delivered more than once and a redelivered event has the same key.
+ * If processing an event fails its key is forgotten so a redelivery can
+ * process it again.
+ *
+ * When more events are waiting than the pipeline holds, new events are
+ * rejected until the listener catches up.  Rejected events are counted and
+ * once the pipeline is down to half its capacity the OverflowListener is
+ * told how many were rejected so it can catch up on them another way,
+ * IE by syncing with the cloud.
+ *
+ * The number of waiting events and the time from the arrival of an event
+ * until it was processed are kept.
+ */
+public class EventPipeline {
+
+	private static final String TAG = EventPipeline.class.getSimpleName();
+
+	/**
+	 * Default number of events processed at the same time.
+	 */
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	/**
+	 * Default number of events the pipeline holds including
+	 * the ones being processed.
+	 */
+	public static final int DEFAULT_CAPACITY = 128;
+
+	/**
+	 * Number of idempotency keys to remember.
+	 */
+	private static final int REMEMBERED_KEYS = 512;
+
+	/**
+	 * Number of events processed at the same time.
+	 */
+	private final int mConcurrency;
+
+	/**
+	 * Number of events the pipeline holds.
+	 */
+	private final int mCapacity;
+
+	/**
+	 * Events of every sequence in order of arrival.  The first event
+	 * of each sequence is being processed or ready to be.
+	 */
+	private final Map<String, LinkedList<Event>> mSequences;
+
+	/**
+	 * Sequences whose first event waits to be processed.
+	 */
+	private final LinkedList<String> mReady;
+
+	/**
+	 * Idempotency keys of recent events, oldest first.
+	 */
+	private final Map<String, Boolean> mSeen;
+
+	/**
+	 * Number of events being processed.
+	 */
+	private int mRunning;
+
+	/**
+	 * Number of events held.
+	 */
+	private int mDepth;
+
+	// Totals since the pipeline was created
+	private int mMaxDepth;
+	private int mProcessed;
+	private int mDuplicates;
+	private int mRejected;
+	private long mTotalLatency;
+	private long mLastLatency;
+
+	/**
+	 * Number of events rejected since the overflow listener was last told.
+	 */
+	private int mUnreported;
+
+	/**
+	 * Listener to tell about rejected events, can be null.
+	 */
+	private OverflowListener mOverflowListener;
+
+	/**
+	 * Creates a pipeline with the default concurrency and capacity.
+	 */
+	public EventPipeline() {
+		this(DEFAULT_CONCURRENCY, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a pipeline.
+	 * @param concurrency Number of events processed at the same time
+	 * @param capacity Number of events the pipeline holds
+	 */
+	public EventPipeline(int concurrency, int capacity) {
+		if (concurrency < 1 || capacity < 1) {
+			throw new IllegalArgumentException("Concurrency and capacity must be positive");
+		}
+		mConcurrency = concurrency;
+		mCapacity = capacity;
+		mSequences = new HashMap<String, LinkedList<Event>>();
+		mReady = new LinkedList<String>();
+		mSeen = new LinkedHashMap<String, Boolean>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				return size() > REMEMBERED_KEYS;
+			}
+		};
+	}
+
+	/**
+	 * Adds event to the end of its sequence.
+	 * @param event Event to process
+	 * @return true if the event will be processed, false if it is a duplicate
+	 * 	or the pipeline is full
+	 */
+	public boolean submit(Event event) {
+		if (event == null) {
+			throw new IllegalArgumentException("Can't submit null event");
+		}
+		synchronized (this) {
+			if (event.mPipeline != null) {
+				throw new IllegalStateException("Event was already submitted");
+			}
+			String key = event.mIdempotencyKey;
+			if (key != null && mSeen.containsKey(key)) {
+				mDuplicates++;
+				Log.d(TAG, "Dropped duplicate event " + key);
+				return false;
+			}
+			if (mDepth >= mCapacity) {
+				mRejected++;
+				mUnreported++;
+				Log.w(TAG, "Rejected event, " + mDepth + " events are waiting");
+				return false;
+			}
+			if (key != null) {
+				mSeen.put(key, Boolean.TRUE);
+			}
+
+			event.mPipeline = this;
+			event.mArrival = SystemClock.elapsedRealtime();
+			LinkedList<Event> sequence = mSequences.get(event.mSequenceKey);
+			if (sequence == null) {
+				sequence = new LinkedList<Event>();
+				mSequences.put(event.mSequenceKey, sequence);
+				mReady.add(event.mSequenceKey);
+			}
+			sequence.add(event);
+			mDepth++;
+			mMaxDepth = Math.max(mMaxDepth, mDepth);
+		}
+		startReady();
+		return true;
+	}
+
+	/**
+	 * Sets the listener to tell about rejected events.  Rejections are
+	 * kept until a listener can be told about them.
+	 * @param listener Listener to tell, null for none
+	 */
+	public synchronized void setOverflowListener(OverflowListener listener) {
+		mOverflowListener = listener;
+	}
+
+	/**
+	 * @return Number of events waiting or being processed
+	 */
+	public synchronized int getDepth() {
+		return mDepth;
+	}
+
+	/**
+	 * @return Highest number of events that were waiting or being processed
+	 */
+	public synchronized int getMaxDepth() {
+		return mMaxDepth;
+	}
+
+	/**
+	 * @return Number of events that were processed
+	 */
+	public synchronized int getProcessedCount() {
+		return mProcessed;
+	}
+
+	/**
+	 * @return Number of events that were dropped as duplicates
+	 */
+	public synchronized int getDuplicateCount() {
+		return mDuplicates;
+	}
+
+	/**
+	 * @return Number of events that were rejected because the pipeline was full
+	 */
+	public synchronized int getRejectedCount() {
+		return mRejected;
+	}
+
+	/**
+	 * @return Average time in milliseconds from the arrival of an event
+	 * 	until it was processed, 0 if none was processed
+	 */
+	public synchronized long getAverageLatency() {
+		return mProcessed == 0 ? 0 : mTotalLatency / mProcessed;
+	}
+
+	/**
+	 * @return Time in milliseconds from the arrival of the last
+	 * 	processed event until it was processed
+	 */
+	public synchronized long getLastLatency() {
+		return mLastLatency;
+	}
+
+	/**
+	 * Starts processing ready events while there is room.
+	 */
+	private void startReady() {
+		while (true) {
+			Event event;
+			synchronized (this) {
+				if (mRunning >= mConcurrency || mReady.isEmpty()) {
+					return;
+				}
+				event = mSequences.get(mReady.removeFirst()).getFirst();
+				mRunning++;
+			}
+			event.process();
+		}
+	}
+
+	/**
+	 * Finishes event and starts the next event of its sequence.
+	 * @param event Event that was processed
+	 * @param succeeded false if processing failed
+	 */
+	private void onComplete(Event event, boolean succeeded) {
+		OverflowListener listener = null;
+		int rejected = 0;
+		synchronized (this) {
+			LinkedList<Event> sequence = mSequences.get(event.mSequenceKey);
+			if (sequence == null || sequence.getFirst() != event) {
+				throw new IllegalStateException("Event was already completed");
+			}
+			sequence.removeFirst();
+			if (sequence.isEmpty()) {
+				mSequences.remove(event.mSequenceKey);
+			} else {
+				mReady.add(event.mSequenceKey);
+			}
+			if (!succeeded && event.mIdempotencyKey != null) {
+				mSeen.remove(event.mIdempotencyKey);
+			}
+			mRunning--;
+			mDepth--;
+			mProcessed++;
+			mLastLatency = SystemClock.elapsedRealtime() - event.mArrival;
+			mTotalLatency += mLastLatency;
+			if (mUnreported > 0 && mOverflowListener != null && mDepth <= mCapacity / 2) {
+				listener = mOverflowListener;
+				rejected = mUnreported;
+				mUnreported = 0;
+			}
+		}
+		if (listener != null) {
+			Log.w(TAG, "Pipeline has room again after rejecting " + rejected + " events");
+			listener.onOverflowEnded(rejected);
+		}
+		startReady();
+	}
+
+	/**
+	 * Listens for events the pipeline had to reject.
+	 */
+	public interface OverflowListener {
+
+		/**
+		 * Called once the pipeline has room again after it rejected events.
+		 * What the rejected events were about has to be caught up on
+		 * another way.
+		 * NOTE: Called on the thread that completed an event
+		 * @param rejected Number of events rejected since the last call
+		 */
+		void onOverflowEnded(int rejected);
+	}
+
+	/**
+	 * A single event to process.
+	 */
+	public abstract static class Event {
+
+		private final String mSequenceKey;
+		private final String mIdempotencyKey;
+		private EventPipeline mPipeline;
+		private long mArrival;
+
+		/**
+		 * Creates an event.
+		 * @param sequenceKey Key of the sequence this event is processed in
+		 * @param idempotencyKey Key that is the same for every delivery of this
+		 * 	event, null if the event can't be told apart from others
+		 */
+		protected Event(String sequenceKey, String idempotencyKey) {
+			if (sequenceKey == null) {
+				throw new IllegalArgumentException("Event needs a sequence key");
+			}
+			mSequenceKey = sequenceKey;
+			mIdempotencyKey = idempotencyKey;
+		}
+
+		/**
+		 * @return Key of the sequence this event is processed in
+		 */
+		public String getSequenceKey() {
+			return mSequenceKey;
+		}
+
+		/**
+		 * @return Key that is the same for every delivery of this event, can be null
+		 */
+		public String getIdempotencyKey() {
+			return mIdempotencyKey;
+		}
+
+		/**
+		 * Processes this event.  Must call complete once done,
+		 * the next event of the sequence waits until then.
+		 */
+		protected abstract void process();
+
+		/**
+		 * Notifies the pipeline that this event was processed.
+		 * @param succeeded false if processing failed and a redelivery
+		 * 	should be processed again
+		 */
+		protected final void complete(boolean succeeded) {
+			mPipeline.onComplete(this, succeeded);
+		}
+	}
+}
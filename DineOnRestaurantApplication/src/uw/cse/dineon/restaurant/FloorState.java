@@ -0,0 +1,619 @@
+package uw.cse.dineon.restaurant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uw.cse.dineon.library.CustomerRequest;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.UserInfo;
+import android.util.Log;
+
+/**
+ * State of the tables of the restaurant floor.
+ *
+ * Every table keeps the dining sessions seated at it, the number of
+ * orders and requests that are still open and the time it was seated.
+ * Tables are kept in an array indexed by table id, up to
+ * DiningSession.MAX_TABLE_ID, and the totals of the floor are counted as
+ * they change, so every query about a table or the floor takes O(1).
+ * Views can show the whole floor from here without going through the
+ * restaurant.
+ *
+ * The floor is changed one event at a time as customers check in, order,
+ * request, change tables and check out.  Events that were missed, IE
+ * while the activity was paused, are caught up on with sync().
+ * Listeners are notified of every table that changed.
+ *
+ * Once the last session of a table leaves the table turned.  The number
+ * of turns and how long tables were seated are kept for turnover.
+ *
+ * Not thread safe, use it on the main thread.
+ */
+public class FloorState {
+
+	private static final String TAG = FloorState.class.getSimpleName();
+
+	/**
+	 * Tables by table id, null until something happens at the table.
+	 */
+	private final Table[] mTables;
+
+	/**
+	 * Table ids of the seated sessions, open orders and open requests by
+	 * object id.  Orders and requests are removed by id only.
+	 */
+	private final Map<String, Integer> mSessionTables;
+	private final Map<String, Integer> mOrderTables;
+	private final Map<String, Integer> mRequestTables;
+
+	/**
+	 * Object ids of the sessions that opened an order or request, by
+	 * object id of the order or request.  They move with the session.
+	 */
+	private final Map<String, String> mOrderSessions;
+	private final Map<String, String> mRequestSessions;
+
+	/**
+	 * Listeners to notify of changes.
+	 */
+	private final List<Listener> mListeners;
+
+	// Totals of the floor
+	private int mOccupied;
+	private int mTurns;
+	private long mTotalTurnTime;
+
+	/**
+	 * Creates an empty floor.
+	 */
+	public FloorState() {
+		mTables = new Table[DiningSession.MAX_TABLE_ID + 1];
+		mSessionTables = new HashMap<String, Integer>();
+		mOrderTables = new HashMap<String, Integer>();
+		mRequestTables = new HashMap<String, Integer>();
+		mOrderSessions = new HashMap<String, String>();
+		mRequestSessions = new HashMap<String, String>();
+		mListeners = new ArrayList<Listener>();
+	}
+
+	/**
+	 * @param listener Listener to notify of changes
+	 */
+	public void addListener(Listener listener) {
+		if (listener != null && !mListeners.contains(listener)) {
+			mListeners.add(listener);
+		}
+	}
+
+	/**
+	 * @param listener Listener to stop notifying
+	 */
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	//////////////////////////////////////////////////////
+	//// Events
+	//////////////////////////////////////////////////////
+
+	/**
+	 * Seats a session at its table.
+	 * @param session Session that checked in
+	 * @return true if the session was seated, false if it is seated
+	 * 	already or has no object id or table
+	 */
+	public boolean seat(DiningSession session) {
+		if (session == null) {
+			throw new IllegalArgumentException("Can't seat null session");
+		}
+		String id = session.getObjId();
+		if (id == null) {
+			Log.w(TAG, "Can't seat session that was never saved");
+			return false;
+		}
+		if (mSessionTables.containsKey(id) || !isTable(session.getTableID())) {
+			return false;
+		}
+		Table table = table(session.getTableID());
+		mSessionTables.put(id, table.mTableID);
+		if (table.mSessions.isEmpty()) {
+			table.mSeatedAt = session.getStartTime().getTime();
+			mOccupied++;
+		}
+		table.mSessions.add(session);
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Removes a session from its table.  Orders and requests of the
+	 * table stay open until they are removed.
+	 * Any copy of the session with the same object id works.
+	 * @param session Session that checked out
+	 * @return true if the session was removed, false if it was not seated
+	 */
+	public boolean leave(DiningSession session) {
+		Integer tableID = session == null || session.getObjId() == null
+				? null : mSessionTables.remove(session.getObjId());
+		if (tableID == null) {
+			return false;
+		}
+		Table table = mTables[tableID];
+		for (int i = 0; i < table.mSessions.size(); ++i) {
+			if (session.getObjId().equals(table.mSessions.get(i).getObjId())) {
+				table.mSessions.remove(i);
+				break;
+			}
+		}
+		if (table.mSessions.isEmpty()) {
+			mOccupied--;
+			mTurns++;
+			mTotalTurnTime += Math.max(0, currentTime() - table.mSeatedAt);
+			table.mSeatedAt = 0;
+		}
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Moves a seated session to the table it has now, IE after the
+	 * restaurant changed its table or a refresh brought a new table id.
+	 * The open orders and requests of the session move along with it.
+	 * Any copy of the session with the same object id works.
+	 * @param session Session that may have changed tables
+	 * @return true if the session moved, false if it is not seated,
+	 * 	is at its table already or its new table is not a table
+	 */
+	public boolean move(DiningSession session) {
+		String id = session == null ? null : session.getObjId();
+		Integer from = id == null ? null : mSessionTables.get(id);
+		int tableID = session == null ? -1 : session.getTableID();
+		if (from == null || from == tableID || !isTable(tableID)) {
+			return false;
+		}
+		Table old = mTables[from];
+		Table table = table(tableID);
+		int orders = moveOpen(mOrderTables, mOrderSessions, id, tableID);
+		old.mOpenOrders -= orders;
+		table.mOpenOrders += orders;
+		int requests = moveOpen(mRequestTables, mRequestSessions, id, tableID);
+		old.mOpenRequests -= requests;
+		table.mOpenRequests += requests;
+		// Both tables are notified by leaving and seating
+		leave(session);
+		seat(session);
+		return true;
+	}
+
+	/**
+	 * Opens an order at a table.
+	 * @param order Order that was placed
+	 * @param session Session that placed the order, null if unknown
+	 * @return true if the order was added, false if it is open already
+	 * 	or has no table
+	 */
+	public boolean addOrder(Order order, DiningSession session) {
+		int tableID = session == null ? order.getTableID() : session.getTableID();
+		String id = order.getObjId();
+		if (!isTable(tableID) || id == null || mOrderTables.containsKey(id)) {
+			return false;
+		}
+		Table table = table(tableID);
+		mOrderTables.put(id, tableID);
+		if (session != null) {
+			mOrderSessions.put(id, session.getObjId());
+		}
+		table.mOpenOrders++;
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Closes an order, IE because it was completed or cancelled.
+	 * @param order Order to close
+	 * @return true if the order was open
+	 */
+	public boolean removeOrder(Order order) {
+		Integer tableID = order == null || order.getObjId() == null
+				? null : mOrderTables.remove(order.getObjId());
+		if (tableID == null) {
+			return false;
+		}
+		mOrderSessions.remove(order.getObjId());
+		Table table = mTables[tableID];
+		table.mOpenOrders--;
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Opens a request at the table of session.
+	 * @param request Request that was made
+	 * @param session Session that made the request
+	 * @return true if the request was added, false if it is open already
+	 * 	or the table is not known
+	 */
+	public boolean addRequest(CustomerRequest request, DiningSession session) {
+		String id = request.getObjId();
+		if (session == null || !isTable(session.getTableID())
+				|| id == null || mRequestTables.containsKey(id)) {
+			return false;
+		}
+		Table table = table(session.getTableID());
+		mRequestTables.put(id, table.mTableID);
+		mRequestSessions.put(id, session.getObjId());
+		table.mOpenRequests++;
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Closes a request, IE because it was handled.
+	 * @param request Request to close
+	 * @return true if the request was open
+	 */
+	public boolean removeRequest(CustomerRequest request) {
+		Integer tableID = request == null || request.getObjId() == null
+				? null : mRequestTables.remove(request.getObjId());
+		if (tableID == null) {
+			return false;
+		}
+		mRequestSessions.remove(request.getObjId());
+		Table table = mTables[tableID];
+		table.mOpenRequests--;
+		changed(table);
+		return true;
+	}
+
+	/**
+	 * Makes the floor match the restaurant, IE after it was synced.
+	 * Only what changed is added or removed.
+	 * @param restaurant Restaurant to match
+	 */
+	public void sync(Restaurant restaurant) {
+		List<DiningSession> sessions = restaurant.getSessions();
+		Set<String> ids = new HashSet<String>();
+		for (DiningSession session: sessions) {
+			ids.add(session.getObjId());
+		}
+		for (DiningSession session: seatedSessions()) {
+			if (!ids.contains(session.getObjId())) {
+				leave(session);
+			}
+		}
+		for (DiningSession session: sessions) {
+			if (!seat(session)) {
+				move(session);
+			}
+		}
+
+		List<Order> orders = restaurant.getPendingOrders();
+		ids.clear();
+		for (Order order: orders) {
+			ids.add(order.getObjId());
+		}
+		for (String id: new ArrayList<String>(mOrderTables.keySet())) {
+			if (!ids.contains(id)) {
+				mOrderSessions.remove(id);
+				close(mOrderTables.remove(id), true);
+			}
+		}
+		for (Order order: orders) {
+			addOrder(order, sessionOf(restaurant, order.getOriginalUser()));
+		}
+
+		List<CustomerRequest> requests = restaurant.getCustomerRequests();
+		ids.clear();
+		for (CustomerRequest request: requests) {
+			ids.add(request.getObjId());
+		}
+		for (String id: new ArrayList<String>(mRequestTables.keySet())) {
+			if (!ids.contains(id)) {
+				mRequestSessions.remove(id);
+				close(mRequestTables.remove(id), false);
+			}
+		}
+		for (CustomerRequest request: requests) {
+			addRequest(request, sessionOf(restaurant, request.getUserInfo()));
+		}
+	}
+
+	/**
+	 * Forgets every table and the turnover so far.
+	 * Listeners are not notified.
+	 */
+	public void clear() {
+		for (int i = 0; i < mTables.length; ++i) {
+			mTables[i] = null;
+		}
+		mSessionTables.clear();
+		mOrderTables.clear();
+		mRequestTables.clear();
+		mOrderSessions.clear();
+		mRequestSessions.clear();
+		mOccupied = 0;
+		mTurns = 0;
+		mTotalTurnTime = 0;
+	}
+
+	//////////////////////////////////////////////////////
+	//// Queries
+	//////////////////////////////////////////////////////
+
+	/**
+	 * @param tableID Table id
+	 * @return The table, null if nothing happened at it
+	 */
+	public Table getTable(int tableID) {
+		return isTable(tableID) ? mTables[tableID] : null;
+	}
+
+	/**
+	 * @param tableID Table id
+	 * @return true if a session is seated at the table
+	 */
+	public boolean isOccupied(int tableID) {
+		Table table = getTable(tableID);
+		return table != null && table.isOccupied();
+	}
+
+	/**
+	 * @param tableID Table id
+	 * @return Time in milliseconds the table is seated for, -1 if it is free
+	 */
+	public long getElapsed(int tableID) {
+		Table table = getTable(tableID);
+		if (table == null || !table.isOccupied()) {
+			return -1;
+		}
+		return Math.max(0, currentTime() - table.mSeatedAt);
+	}
+
+	/**
+	 * Returns the tables that are seated or have anything open,
+	 * by table id.  Takes O(DiningSession.MAX_TABLE_ID).
+	 * @return List of the active tables
+	 */
+	public List<Table> getActiveTables() {
+		List<Table> tables = new ArrayList<Table>();
+		for (Table table: mTables) {
+			if (table != null && table.isActive()) {
+				tables.add(table);
+			}
+		}
+		return tables;
+	}
+
+	/**
+	 * @return Number of tables a session is seated at
+	 */
+	public int getOccupiedCount() {
+		return mOccupied;
+	}
+
+	/**
+	 * @return Number of open orders on the floor
+	 */
+	public int getOpenOrderCount() {
+		return mOrderTables.size();
+	}
+
+	/**
+	 * @return Number of open requests on the floor
+	 */
+	public int getOpenRequestCount() {
+		return mRequestTables.size();
+	}
+
+	/**
+	 * @return Number of times the last session left a table
+	 */
+	public int getTurnCount() {
+		return mTurns;
+	}
+
+	/**
+	 * @return Average time in milliseconds a table was seated
+	 * 	before it turned, 0 if none turned
+	 */
+	public long getAverageTurnTime() {
+		return mTurns == 0 ? 0 : mTotalTurnTime / mTurns;
+	}
+
+	/**
+	 * Returns the current time, tests can override this.
+	 * @return Current time in milliseconds
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+
+	//////////////////////////////////////////////////////
+	//// Helpers
+	//////////////////////////////////////////////////////
+
+	/**
+	 * @param tableID Table id
+	 * @return true if tableID is a valid table id
+	 */
+	private static boolean isTable(int tableID) {
+		return tableID >= 0 && tableID <= DiningSession.MAX_TABLE_ID;
+	}
+
+	/**
+	 * @param tableID Valid table id
+	 * @return The table, created if nothing happened at it yet
+	 */
+	private Table table(int tableID) {
+		Table table = mTables[tableID];
+		if (table == null) {
+			table = new Table(tableID);
+			mTables[tableID] = table;
+		}
+		return table;
+	}
+
+	/**
+	 * @return The seated sessions
+	 */
+	private List<DiningSession> seatedSessions() {
+		List<DiningSession> sessions = new ArrayList<DiningSession>();
+		for (Integer tableID: new HashSet<Integer>(mSessionTables.values())) {
+			sessions.addAll(mTables[tableID].mSessions);
+		}
+		return sessions;
+	}
+
+	/**
+	 * Moves the open orders or requests of a session to another table.
+	 * @param tables Table ids of the open orders or requests by object id
+	 * @param sessions Session ids of the open orders or requests
+	 * @param sessionID Object id of the session that moved
+	 * @param tableID Table id to move to
+	 * @return Number of orders or requests that moved
+	 */
+	private static int moveOpen(Map<String, Integer> tables, 
+			Map<String, String> sessions, String sessionID, int tableID) {
+		int moved = 0;
+		for (Map.Entry<String, String> entry: sessions.entrySet()) {
+			if (sessionID.equals(entry.getValue())) {
+				tables.put(entry.getKey(), tableID);
+				moved++;
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Closes an order or request whose id was removed already.
+	 * @param tableID Table id of the order or request
+	 * @param order true if it is an order, false if it is a request
+	 */
+	private void close(int tableID, boolean order) {
+		Table table = mTables[tableID];
+		if (order) {
+			table.mOpenOrders--;
+		} else {
+			table.mOpenRequests--;
+		}
+		changed(table);
+	}
+
+	/**
+	 * @param restaurant Restaurant to look in
+	 * @param user User to look for, can be null
+	 * @return The session the user is dining in, null if none
+	 */
+	private static DiningSession sessionOf(Restaurant restaurant, UserInfo user) {
+		return user == null ? null : restaurant.getSessionOfUser(user.getObjId());
+	}
+
+	/**
+	 * Notifies the listeners that table changed.
+	 * @param table Table that changed
+	 */
+	private void changed(Table table) {
+		for (Listener listener: new ArrayList<Listener>(mListeners)) {
+			listener.onTableChanged(table);
+		}
+	}
+
+	/**
+	 * Listener for changes of the floor.
+	 */
+	public interface Listener {
+
+		/**
+		 * A session was seated or left or an order or request
+		 * was opened or closed at table.
+		 * @param table Table that changed
+		 */
+		void onTableChanged(Table table);
+	}
+
+	/**
+	 * State of a single table.  Only the floor changes it.
+	 */
+	public static final class Table {
+
+		private final int mTableID;
+		private final List<DiningSession> mSessions;
+		private final List<DiningSession> mReadOnlySessions;
+		private int mOpenOrders;
+		private int mOpenRequests;
+		private long mSeatedAt;
+
+		/**
+		 * Creates a free table.
+		 * @param tableID Table id
+		 */
+		private Table(int tableID) {
+			mTableID = tableID;
+			mSessions = new ArrayList<DiningSession>(1);
+			mReadOnlySessions = Collections.unmodifiableList(mSessions);
+		}
+
+		/**
+		 * @return Table id
+		 */
+		public int getTableID() {
+			return mTableID;
+		}
+
+		/**
+		 * @return The session that was seated first, null if the table is free
+		 */
+		public DiningSession getOccupant() {
+			return mSessions.isEmpty() ? null : mSessions.get(0);
+		}
+
+		/**
+		 * @return Read only list of the sessions seated at the table
+		 */
+		public List<DiningSession> getSessions() {
+			return mReadOnlySessions;
+		}
+
+		/**
+		 * @return Number of open orders of the table
+		 */
+		public int getOpenOrders() {
+			return mOpenOrders;
+		}
+
+		/**
+		 * @return Number of open requests of the table
+		 */
+		public int getOpenRequests() {
+			return mOpenRequests;
+		}
+
+		/**
+		 * @return Time in milliseconds the table was seated at, 0 if it is free
+		 */
+		public long getSeatedAt() {
+			return mSeatedAt;
+		}
+
+		/**
+		 * @return true if a session is seated at the table
+		 */
+		public boolean isOccupied() {
+			return !mSessions.isEmpty();
+		}
+
+		/**
+		 * @return true if the table is seated or has anything open
+		 */
+		public boolean isActive() {
+			return isOccupied() || mOpenOrders > 0 || mOpenRequests > 0;
+		}
+	}
+}
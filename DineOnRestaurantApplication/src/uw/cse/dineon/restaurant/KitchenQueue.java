@@ -0,0 +1,530 @@
+package uw.cse.dineon.restaurant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Queue of the orders the kitchen has to prepare, the order that is due
+ * first comes first.
+ *
+ * An order is due once the time it takes to prepare it has passed since it
+ * was placed.  The items of an order are prepared at the same time so the
+ * item that takes the longest decides, see MenuItem.getPrepTime().  Items
+ * without a prep time take the default prep time of the queue.  Orders due
+ * at the same time come in the order they were placed.
+ *
+ * Orders are kept in a binary heap so adding and removing an order
+ * takes O(log n).  Every order that is not completed when it is due
+ * breached its service level.  A timer checks for such orders as soon as
+ * the next one is due and notifies the listeners once per order.
+ *
+ * Listeners are notified of every order that is added or removed, so views
+ * can update the rows that changed instead of rebuilding the whole list.
+ *
+ * Not thread safe, use it on the main thread.
+ */
+public class KitchenQueue {
+
+	private static final String TAG = KitchenQueue.class.getSimpleName();
+
+	/**
+	 * Default number of minutes it takes to prepare an item.
+	 */
+	public static final int DEFAULT_PREP_TIME = 15;
+
+	private static final long MILLIS_PER_MINUTE = 60 * 1000;
+
+	/**
+	 * Handler to schedule service level checks with.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Checks for late orders when the next order is due.
+	 */
+	private final Runnable mChecker;
+
+	/**
+	 * Binary heap of the queued orders, the order that is due first is at 0.
+	 */
+	private final List<Entry> mHeap;
+
+	/**
+	 * Queued orders by object id.
+	 */
+	private final Map<String, Entry> mEntries;
+
+	/**
+	 * Listeners to notify of changes.
+	 */
+	private final List<Listener> mListeners;
+
+	/**
+	 * Compares orders by the time they are due.
+	 */
+	private final Comparator<Order> mComparator;
+
+	/**
+	 * Number of minutes it takes to prepare items without a prep time.
+	 */
+	private int mDefaultPrepTime;
+
+	/**
+	 * Time the next check is scheduled at, 0 if none is.
+	 */
+	private long mNextCheck;
+
+	/**
+	 * Number of orders added so far, tells apart orders placed at the same time.
+	 */
+	private long mAdded;
+
+	/**
+	 * Number of orders that were late so far.
+	 */
+	private int mLateCount;
+
+	/**
+	 * Creates an empty queue.
+	 * @param defaultPrepTime Number of minutes it takes to prepare items
+	 * 	without a prep time, must be non negative
+	 */
+	public KitchenQueue(int defaultPrepTime) {
+		setDefaultPrepTime(defaultPrepTime);
+		mHandler = new Handler(Looper.getMainLooper());
+		mHeap = new ArrayList<Entry>();
+		mEntries = new HashMap<String, Entry>();
+		mListeners = new ArrayList<Listener>();
+		mChecker = new Runnable() {
+
+			@Override
+			public void run() {
+				mNextCheck = 0;
+				checkLateOrders();
+			}
+		};
+		mComparator = new Comparator<Order>() {
+
+			@Override
+			public int compare(Order lhs, Order rhs) {
+				Entry left = mEntries.get(lhs.getObjId());
+				Entry right = mEntries.get(rhs.getObjId());
+				if (left == null || right == null) {
+					return left == right ? 0 : left == null ? 1 : -1;
+				}
+				return left.compareTo(right);
+			}
+		};
+	}
+
+	/**
+	 * Sets the number of minutes it takes to prepare items without a prep time.
+	 * Only affects orders that are added after this call.
+	 * @param minutes Number of minutes, must be non negative
+	 */
+	public void setDefaultPrepTime(int minutes) {
+		if (minutes < 0) {
+			throw new IllegalArgumentException("Prep time can't be negative");
+		}
+		mDefaultPrepTime = minutes;
+	}
+
+	/**
+	 * @param listener Listener to notify of changes
+	 */
+	public void addListener(Listener listener) {
+		if (listener != null && !mListeners.contains(listener)) {
+			mListeners.add(listener);
+		}
+	}
+
+	/**
+	 * @param listener Listener to stop notifying
+	 */
+	public void removeListener(Listener listener) {
+		mListeners.remove(listener);
+	}
+
+	/**
+	 * Adds an order to the queue.
+	 * @param order Order to add
+	 * @return true if the order was added, false if it is queued already
+	 * 	or has no object id
+	 */
+	public boolean add(Order order) {
+		if (order == null) {
+			throw new IllegalArgumentException("Can't queue null order");
+		}
+		if (order.getObjId() == null) {
+			Log.w(TAG, "Can't queue order that was never saved");
+			return false;
+		}
+		if (mEntries.containsKey(order.getObjId())) {
+			return false;
+		}
+		long placed = order.getOriginatingTime().getTime();
+		Entry entry = new Entry(order, placed, placed + getPrepTime(order), mAdded++);
+		mEntries.put(order.getObjId(), entry);
+		entry.mIndex = mHeap.size();
+		mHeap.add(entry);
+		siftUp(entry.mIndex);
+
+		for (Listener listener: new ArrayList<Listener>(mListeners)) {
+			listener.onOrderQueued(order);
+		}
+		long now = currentTime();
+		if (entry.mDue <= now) {
+			checkLateOrders();
+		} else {
+			scheduleCheck(entry.mDue, now);
+		}
+		return true;
+	}
+
+	/**
+	 * Removes an order from the queue, IE because it was completed.
+	 * Any copy of the order with the same object id works.
+	 * @param order Order to remove
+	 * @return true if the order was removed, false if it was not queued
+	 */
+	public boolean remove(Order order) {
+		Entry entry = order == null || order.getObjId() == null
+				? null : mEntries.remove(order.getObjId());
+		if (entry == null) {
+			return false;
+		}
+		int index = entry.mIndex;
+		Entry last = mHeap.remove(mHeap.size() - 1);
+		if (last != entry) {
+			mHeap.set(index, last);
+			last.mIndex = index;
+			siftDown(index);
+			siftUp(last.mIndex);
+		}
+
+		for (Listener listener: new ArrayList<Listener>(mListeners)) {
+			listener.onOrderRemoved(entry.mOrder);
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the queue hold exactly the given orders, IE the pending orders
+	 * of the restaurant after they were synced.  Listeners are only
+	 * notified of the orders that were added or removed.
+	 * @param orders Orders that should be queued
+	 */
+	public void sync(List<Order> orders) {
+		Set<String> ids = new HashSet<String>();
+		for (Order order: orders) {
+			ids.add(order.getObjId());
+		}
+		for (Entry entry: new ArrayList<Entry>(mEntries.values())) {
+			if (!ids.contains(entry.mOrder.getObjId())) {
+				remove(entry.mOrder);
+			}
+		}
+		for (Order order: orders) {
+			add(order);
+		}
+	}
+
+	/**
+	 * Removes every order and stops checking for late orders.
+	 * Listeners are not notified.
+	 */
+	public void clear() {
+		mHeap.clear();
+		mEntries.clear();
+		mHandler.removeCallbacks(mChecker);
+		mNextCheck = 0;
+	}
+
+	/**
+	 * @return The order that is due first, null if the queue is empty
+	 */
+	public Order peek() {
+		return mHeap.isEmpty() ? null : mHeap.get(0).mOrder;
+	}
+
+	/**
+	 * @return Number of queued orders
+	 */
+	public int size() {
+		return mHeap.size();
+	}
+
+	/**
+	 * @param order Order to look for
+	 * @return true if an order with the same object id is queued
+	 */
+	public boolean contains(Order order) {
+		return order != null && order.getObjId() != null
+				&& mEntries.containsKey(order.getObjId());
+	}
+
+	/**
+	 * @param order Queued order
+	 * @return Time in milliseconds the order is due at, -1 if it is not queued
+	 */
+	public long getDueTime(Order order) {
+		Entry entry = order == null ? null : mEntries.get(order.getObjId());
+		return entry == null ? -1 : entry.mDue;
+	}
+
+	/**
+	 * @param order Queued order
+	 * @return true if the order was not completed when it was due
+	 */
+	public boolean isLate(Order order) {
+		Entry entry = order == null ? null : mEntries.get(order.getObjId());
+		return entry != null && entry.mLate;
+	}
+
+	/**
+	 * Returns the queued orders, the order that is due first comes first.
+	 * Takes O(n log n), use the listeners to keep up with changes instead.
+	 * @return List of the queued orders
+	 */
+	public List<Order> getOrders() {
+		List<Entry> sorted = new ArrayList<Entry>(mHeap);
+		Collections.sort(sorted);
+		List<Order> orders = new ArrayList<Order>(sorted.size());
+		for (Entry entry: sorted) {
+			orders.add(entry.mOrder);
+		}
+		return orders;
+	}
+
+	/**
+	 * Compares queued orders by the time they are due.  Orders that
+	 * are not queued come last.
+	 * @return Comparator of queued orders
+	 */
+	public Comparator<Order> getComparator() {
+		return mComparator;
+	}
+
+	/**
+	 * @return Number of orders that were late so far
+	 */
+	public int getLateCount() {
+		return mLateCount;
+	}
+
+	/**
+	 * Returns the number of milliseconds it takes to prepare order.
+	 * @param order Order to prepare
+	 * @return Time it takes to prepare the item that takes the longest
+	 */
+	public long getPrepTime(Order order) {
+		int minutes = 0;
+		for (CurrentOrderItem item: order.getMenuItems()) {
+			MenuItem menuItem = item.getMenuItem();
+			int prepTime = menuItem == null ? 0 : menuItem.getPrepTime();
+			minutes = Math.max(minutes, prepTime == 0 ? mDefaultPrepTime : prepTime);
+		}
+		if (minutes == 0) {
+			minutes = mDefaultPrepTime;
+		}
+		return minutes * MILLIS_PER_MINUTE;
+	}
+
+	/**
+	 * Notifies the listeners of every order that is due and was not late
+	 * before, then schedules the next check for when the next order is due.
+	 * Only visits the orders that are due and the ones right after them.
+	 */
+	public void checkLateOrders() {
+		if (mHeap.isEmpty()) {
+			return;
+		}
+		long now = currentTime();
+		List<Entry> late = new ArrayList<Entry>();
+		long next = findLate(0, now, late, Long.MAX_VALUE);
+		Collections.sort(late);
+		for (Entry entry: late) {
+			entry.mLate = true;
+			mLateCount++;
+			Log.w(TAG, "Order " + entry.mOrder.getObjId() + " is late by "
+					+ (now - entry.mDue) + " ms");
+			for (Listener listener: new ArrayList<Listener>(mListeners)) {
+				listener.onOrderLate(entry.mOrder, now - entry.mDue);
+			}
+		}
+		if (next != Long.MAX_VALUE) {
+			scheduleCheck(next, now);
+		}
+	}
+
+	/**
+	 * @return Current time in milliseconds
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Schedules a check for late orders at time unless one
+	 * is scheduled before that already.
+	 * @param time Time to check at
+	 * @param now Current time
+	 */
+	private void scheduleCheck(long time, long now) {
+		if (mNextCheck != 0 && mNextCheck <= time) {
+			return;
+		}
+		mHandler.removeCallbacks(mChecker);
+		mNextCheck = time;
+		mHandler.postDelayed(mChecker, Math.max(0, time - now));
+	}
+
+	/**
+	 * Collects the orders of the subheap at index that are due and were
+	 * not late before.  Children are never due before their parent
+	 * so subheaps that are not due yet are skipped.
+	 * @param index Index of the root of the subheap
+	 * @param now Current time
+	 * @param late List to add newly late orders to
+	 * @param next Earliest due time of the orders that are not due so far
+	 * @return Earliest due time of the orders that are not due, including
+	 * 	next
+	 */
+	private long findLate(int index, long now, List<Entry> late, long next) {
+		if (index >= mHeap.size()) {
+			return next;
+		}
+		Entry entry = mHeap.get(index);
+		if (entry.mDue > now) {
+			return Math.min(next, entry.mDue);
+		}
+		if (!entry.mLate) {
+			late.add(entry);
+		}
+		next = findLate(2 * index + 1, now, late, next);
+		return findLate(2 * index + 2, now, late, next);
+	}
+
+	/**
+	 * Moves the entry at index up until its parent is due before it.
+	 * @param index Index of the entry
+	 */
+	private void siftUp(int index) {
+		Entry entry = mHeap.get(index);
+		while (index > 0) {
+			int parent = (index - 1) / 2;
+			Entry above = mHeap.get(parent);
+			if (above.compareTo(entry) <= 0) {
+				break;
+			}
+			mHeap.set(index, above);
+			above.mIndex = index;
+			index = parent;
+		}
+		mHeap.set(index, entry);
+		entry.mIndex = index;
+	}
+
+	/**
+	 * Moves the entry at index down until its children are due after it.
+	 * @param index Index of the entry
+	 */
+	private void siftDown(int index) {
+		Entry entry = mHeap.get(index);
+		int size = mHeap.size();
+		while (2 * index + 1 < size) {
+			int child = 2 * index + 1;
+			if (child + 1 < size && mHeap.get(child + 1).compareTo(mHeap.get(child)) < 0) {
+				child++;
+			}
+			Entry below = mHeap.get(child);
+			if (entry.compareTo(below) <= 0) {
+				break;
+			}
+			mHeap.set(index, below);
+			below.mIndex = index;
+			index = child;
+		}
+		mHeap.set(index, entry);
+		entry.mIndex = index;
+	}
+
+	/**
+	 * Listener for changes of a kitchen queue.
+	 */
+	public interface Listener {
+
+		/**
+		 * Notifies that an order was added to the queue.
+		 * @param order Order that was added
+		 */
+		void onOrderQueued(Order order);
+
+		/**
+		 * Notifies that an order was removed from the queue.
+		 * @param order Order that was removed
+		 */
+		void onOrderRemoved(Order order);
+
+		/**
+		 * Notifies that an order was not completed when it was due.
+		 * Only notified once per order.
+		 * @param order Order that is late
+		 * @param lateBy Number of milliseconds the order is late by
+		 */
+		void onOrderLate(Order order, long lateBy);
+	}
+
+	/**
+	 * A queued order and the time it is due.
+	 */
+	private static class Entry implements Comparable<Entry> {
+
+		private final Order mOrder;
+		private final long mPlaced;
+		private final long mDue;
+		private final long mSequence;
+		private int mIndex;
+		private boolean mLate;
+
+		/**
+		 * @param order Queued order
+		 * @param placed Time the order was placed
+		 * @param due Time the order is due
+		 * @param sequence Number of orders queued before
+		 */
+		public Entry(Order order, long placed, long due, long sequence) {
+			mOrder = order;
+			mPlaced = placed;
+			mDue = due;
+			mSequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry another) {
+			if (mDue != another.mDue) {
+				return mDue < another.mDue ? -1 : 1;
+			}
+			if (mPlaced != another.mPlaced) {
+				return mPlaced < another.mPlaced ? -1 : 1;
+			}
+			if (mSequence != another.mSequence) {
+				return mSequence < another.mSequence ? -1 : 1;
+			}
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package uw.cse.dineon.restaurant;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParsePush;
+import com.parse.SendCallback;
+
+/**
+ * Sends push notifications to customers in batches.
+ *
+ * Instead of sending a push as soon as it is requested, requests that
+ * arrive within a window are collected.  Requests with identical data are
+ * merged into a single push to all of their channels, and requesting the
+ * same data for the same channel again within the window is dropped.
+ * When the window has passed every collected push is sent at once, a
+ * batch.  Pushes with more than MAX_CHANNELS channels are split up.
+ *
+ * The time each batch took from its first request until its last push
+ * completed and the number of pushes that failed are logged and kept.
+ */
+public class PushDispatcher {
+
+	private static final String TAG = PushDispatcher.class.getSimpleName();
+
+	/**
+	 * Default amount of time in milliseconds to wait for more
+	 * requests before sending.
+	 */
+	public static final long DEFAULT_WINDOW = 250;
+
+	/**
+	 * Maximum number of channels a single push is sent to.
+	 */
+	public static final int MAX_CHANNELS = 100;
+
+	/**
+	 * Handler to schedule batches with.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Pushes waiting for the window to pass keyed by their data.
+	 */
+	private final Map<String, Pending> mPending;
+
+	/**
+	 * Sends the waiting pushes when the window has passed.
+	 */
+	private final Runnable mSender;
+
+	/**
+	 * Amount of time in milliseconds to wait for more requests.
+	 */
+	private long mWindow;
+
+	/**
+	 * Time the first waiting push was requested.
+	 */
+	private long mFirstRequest;
+
+	/**
+	 * Number of batches that were sent but did not complete.
+	 */
+	private int mInFlight;
+
+	// Totals of all the batches that completed
+	private int mBatches;
+	private int mPushes;
+	private int mRecipients;
+	private int mDuplicates;
+	private int mFailures;
+	private long mTotalLatency;
+	private long mLastLatency;
+	private int mLastFailures;
+
+	/**
+	 * Creates a dispatcher that waits window milliseconds for more requests.
+	 * @param window Amount of time to wait in milliseconds, must be non negative
+	 */
+	public PushDispatcher(long window) {
+		setWindow(window);
+		mHandler = new Handler(Looper.getMainLooper());
+		mPending = new LinkedHashMap<String, Pending>();
+		mSender = new Runnable() {
+
+			@Override
+			public void run() {
+				flush();
+			}
+		};
+	}
+
+	/**
+	 * Sets the amount of time to wait for more requests before sending.
+	 * Only affects batches that are scheduled after this call.
+	 * @param window Amount of time to wait in milliseconds, must be non negative
+	 */
+	public synchronized void setWindow(long window) {
+		if (window < 0) {
+			throw new IllegalArgumentException("Push window can't be negative");
+		}
+		mWindow = window;
+	}
+
+	/**
+	 * Schedules data to be pushed to channel.
+	 * @param data Data of the push
+	 * @param channel Channel to push to
+	 */
+	public synchronized void send(JSONObject data, String channel) {
+		if (data == null || channel == null) {
+			throw new IllegalArgumentException("Can't push null data or to null channel");
+		}
+		String key = data.toString();
+		Pending pending = mPending.get(key);
+		if (pending == null) {
+			pending = new Pending(data);
+			mPending.put(key, pending);
+		}
+		if (!pending.mChannels.add(channel)) {
+			mDuplicates++;
+		}
+
+		if (mPending.size() == 1 && pending.mChannels.size() == 1) {
+			mFirstRequest = SystemClock.elapsedRealtime();
+			mHandler.postDelayed(mSender, mWindow);
+		}
+	}
+
+	/**
+	 * Sends every waiting push right away without waiting
+	 * for the window to pass.
+	 */
+	public void flush() {
+		List<Pending> toSend;
+		final Batch BATCH;
+		synchronized (this) {
+			mHandler.removeCallbacks(mSender);
+			if (mPending.isEmpty()) {
+				return;
+			}
+			toSend = new ArrayList<Pending>(mPending.values());
+			mPending.clear();
+			BATCH = new Batch(mFirstRequest);
+			for (Pending pending: toSend) {
+				BATCH.mPushes += (pending.mChannels.size() + MAX_CHANNELS - 1) / MAX_CHANNELS;
+				BATCH.mRecipients += pending.mChannels.size();
+			}
+			BATCH.mOutstanding = BATCH.mPushes;
+			mInFlight++;
+		}
+
+		for (Pending pending: toSend) {
+			List<String> channels = new ArrayList<String>(pending.mChannels);
+			for (int i = 0; i < channels.size(); i += MAX_CHANNELS) {
+				List<String> chunk = channels.subList(
+						i, Math.min(channels.size(), i + MAX_CHANNELS));
+				sendPush(pending.mData, new ArrayList<String>(chunk), new SendCallback() {
+
+					@Override
+					public void done(ParseException e) {
+						onPushComplete(BATCH, e);
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * @return true if there are no waiting pushes and no batch is being sent.
+	 */
+	public synchronized boolean isIdle() {
+		return mPending.isEmpty() && mInFlight == 0;
+	}
+
+	/**
+	 * @return Number of batches that completed
+	 */
+	public synchronized int getBatchCount() {
+		return mBatches;
+	}
+
+	/**
+	 * @return Number of pushes sent by batches that completed
+	 */
+	public synchronized int getPushCount() {
+		return mPushes;
+	}
+
+	/**
+	 * @return Number of channels pushed to by batches that completed
+	 */
+	public synchronized int getRecipientCount() {
+		return mRecipients;
+	}
+
+	/**
+	 * @return Number of requests that were dropped because the same
+	 * 	data was already waiting to be pushed to the same channel
+	 */
+	public synchronized int getDuplicateCount() {
+		return mDuplicates;
+	}
+
+	/**
+	 * @return Number of pushes that failed
+	 */
+	public synchronized int getFailureCount() {
+		return mFailures;
+	}
+
+	/**
+	 * @return Average time in milliseconds a batch took from its first
+	 * 	request until its last push completed, 0 if none completed
+	 */
+	public synchronized long getAverageLatency() {
+		return mBatches == 0 ? 0 : mTotalLatency / mBatches;
+	}
+
+	/**
+	 * @return Time in milliseconds the last completed batch took from
+	 * 	its first request until its last push completed
+	 */
+	public synchronized long getLastLatency() {
+		return mLastLatency;
+	}
+
+	/**
+	 * @return Number of pushes of the last completed batch that failed
+	 */
+	public synchronized int getLastFailureCount() {
+		return mLastFailures;
+	}
+
+	/**
+	 * Sends a single push.  Callback must be notified once it completes.
+	 * @param data Data of the push
+	 * @param channels Channels to push to
+	 * @param callback Callback to notify
+	 */
+	protected void sendPush(JSONObject data, Collection<String> channels,
+			SendCallback callback) {
+		ParsePush push = new ParsePush();
+		push.setChannels(channels);
+		push.setData(data);
+		push.sendInBackground(callback);
+	}
+
+	/**
+	 * Records a completed push of batch.
+	 * @param batch Batch the push belongs to
+	 * @param e Exception if the push failed, null otherwise
+	 */
+	private void onPushComplete(Batch batch, ParseException e) {
+		if (e != null) {
+			Log.e(TAG, "Unable to send push: " + e.getMessage());
+		}
+		long latency;
+		synchronized (this) {
+			if (e != null) {
+				batch.mFailures++;
+			}
+			if (--batch.mOutstanding > 0) {
+				return;
+			}
+			latency = SystemClock.elapsedRealtime() - batch.mStart;
+			mInFlight--;
+			mBatches++;
+			mPushes += batch.mPushes;
+			mRecipients += batch.mRecipients;
+			mFailures += batch.mFailures;
+			mTotalLatency += latency;
+			mLastLatency = latency;
+			mLastFailures = batch.mFailures;
+		}
+		Log.i(TAG, "Sent " + batch.mPushes + " pushes to " + batch.mRecipients
+				+ " channels in " + latency + " ms, " + batch.mFailures + " failed");
+	}
+
+	/**
+	 * Data waiting to be pushed and the channels to push it to.
+	 */
+	private static class Pending {
+
+		private final JSONObject mData;
+		private final Set<String> mChannels;
+
+		/**
+		 * @param data Data of the push
+		 */
+		public Pending(JSONObject data) {
+			mData = data;
+			mChannels = new LinkedHashSet<String>();
+		}
+	}
+
+	/**
+	 * Pushes that were sent together.
+	 */
+	private static class Batch {
+
+		private final long mStart;
+		private int mPushes;
+		private int mRecipients;
+		private int mOutstanding;
+		private int mFailures;
+
+		/**
+		 * @param start Time the first push of this batch was requested
+		 */
+		public Batch(long start) {
+			mStart = start;
+		}
+	}
+}
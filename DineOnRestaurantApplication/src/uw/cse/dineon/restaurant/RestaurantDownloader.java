@@ -1,13 +1,20 @@
 package uw.cse.dineon.restaurant;
 
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.DiningSession;
 import uw.cse.dineon.library.Restaurant;
 import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageQuery;
+import uw.cse.dineon.library.store.LocalStore;
 import android.os.AsyncTask;
 import android.util.Log;
 
 import com.parse.ParseException;
 import com.parse.ParseObject;
-import com.parse.ParseQuery;
 import com.parse.ParseQuery.CachePolicy;
 import com.parse.ParseUser;
 
@@ -27,12 +34,31 @@ import com.parse.ParseUser;
  * 
  * Constructers explicitly 
  * 
+ * If a copy of the restaurant is stored on the device it is only
+ * downloaded again if it changed in the cloud since it was stored.  If the
+ * cloud can't be reached the stored copy is used.  The dining sessions
+ * of a stored restaurant are checked on their own as customers change
+ * them without changing the restaurant.
+ * 
  * @author mhotan
  */
 public class RestaurantDownloader extends AsyncTask<CachePolicy, ParseException, Restaurant> {
 
 	private static final String TAG = RestaurantDownloader.class.getSimpleName();
 
+	/**
+	 * Keys of the restaurant information that is downloaded along with
+	 * the restaurant so that building the Restaurant does not require
+	 * another round trip.  All the other lists of the restaurant are 
+	 * loaded lazily.
+	 */
+	private static final String[] INFO_INCLUDES = {
+		Restaurant.INFO,
+		Restaurant.INFO + "." + RestaurantInfo.PARSEUSER,
+		Restaurant.INFO + "." + RestaurantInfo.MENUS,
+		Restaurant.INFO + "." + RestaurantInfo.IMAGE_LIST
+	};
+
 	/**
 	 * ParseUser associated to this restaurant.
 	 */
@@ -50,6 +76,11 @@ public class RestaurantDownloader extends AsyncTask<CachePolicy, ParseException,
 
 	private String parseExceptionMessage;
 
+	/**
+	 * Whether the restaurant started from the copy stored on the device.
+	 */
+	private boolean mFromStore;
+
 	/**
 	 * Creates a Restaurant Downloader that explicitly looks for a Restaurant
 	 * for this ParseUser. 
@@ -98,13 +129,26 @@ public class RestaurantDownloader extends AsyncTask<CachePolicy, ParseException,
 		CachePolicy policy = params[0];
 
 		try {
+			Restaurant rest;
 			// Download by Parse User
 			if (mParseUser != null) {
 				mParseUser.fetchIfNeeded();
-				return getFromUser(policy);
+				rest = getFromUser(policy);
 			} else {
-				return getFromID(policy);
+				rest = getFromID();
+			}
+			
+			// Hydrate the lists the floor needs while we are still off
+			// the main thread.  History is left to be loaded on demand.
+			if (rest != null) {
+				rest.prefetch(Restaurant.ACTIVE_FIELDS);
+				if (mFromStore) {
+					refreshSessions(rest);
+				}
+				migrateHistory(rest);
+				store(rest);
 			}
+			return rest;
 		} catch (ParseException e) {
 			// If any error case happened at all send the error back
 			onProgressUpdate(e);
@@ -113,15 +157,96 @@ public class RestaurantDownloader extends AsyncTask<CachePolicy, ParseException,
 	}
 
 	/**
-	 * Gets the Restaurant assoiated with ID.
-	 * @param policy Cache Policy to user to attempt to download Restaurant
+	 * Moves history that is still stored inside rest into history records.
+	 * Failing to do so is not fatal, it is tried again on the next download.
+	 * @param rest Restaurant to move history of
+	 */
+	private static void migrateHistory(Restaurant rest) {
+		try {
+			rest.migrateHistory();
+		} catch (ParseException e) {
+			Log.w(TAG, "Unable to move restaurant history: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Refreshes the dining sessions of rest that changed in the cloud since
+	 * they were stored and merges in the orders and requests added to them.
+	 * Failing to do so is not fatal, the next sync catches up.
+	 * @param rest Restaurant that started from the stored copy
+	 */
+	private static void refreshSessions(Restaurant rest) {
+		boolean changed = false;
+		try {
+			for (DiningSession session: rest.getSessions()) {
+				Date stored = session.getUpdatedAt();
+				DiningSession newest = StorableIdentityMap.refreshIfUpdated(
+						DiningSession.class, session, DiningSession.INCLUDES);
+				if (newest != session || (stored != null 
+						&& !stored.equals(newest.getUpdatedAt()))) {
+					if (rest.mergeDiningSession(newest, rest.getUpdatedAt())) {
+						changed = true;
+					}
+				}
+			}
+			if (changed) {
+				rest.saveOnCurrentThread();
+			}
+		} catch (ParseException e) {
+			Log.w(TAG, "Unable to check for newer dining sessions: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Keeps a copy of rest on the device for the next start.
+	 * Only a copy without unsaved changes is kept as it is taken for
+	 * what is in the cloud when it is loaded.
+	 * @param rest Restaurant to store
+	 */
+	private static void store(Restaurant rest) {
+		LocalStore store = DineOnRestaurantApplication.getLocalStore();
+		ParseUser user = ParseUser.getCurrentUser();
+		if (store != null && user != null && !rest.hasUnsavedChanges()) {
+			store.put(rest, user.getObjectId());
+		}
+	}
+
+	/**
+	 * Returns the newer of the stored restaurant and the one in the cloud.
+	 * The restaurant is only downloaded if it was updated since it was stored.
+	 * @param stored Restaurant stored on the device
+	 * @return The restaurant in the cloud if it is newer, stored otherwise
+	 */
+	private static Restaurant newest(Restaurant stored) {
+		try {
+			ParseObject found = Storable.getBackend().getIfUpdatedSince(
+					Restaurant.class.getSimpleName(), stored.getObjId(), 
+					stored.getUpdatedAt(), INFO_INCLUDES);
+			if (found == null) {
+				return stored;
+			}
+			return StorableIdentityMap.decode(Restaurant.class, found);
+		} catch (ParseException e) {
+			Log.w(TAG, "Unable to check for a newer restaurant, using stored one: " 
+					+ e.getMessage());
+			return stored;
+		}
+	}
+
+	/**
+	 * Gets the Restaurant assoiated with ID from the storage backend.
 	 * @return Restaurant on success nothing other wise
 	 * @throws ParseException For any error that occured
 	 */
-	private Restaurant getFromID(CachePolicy policy) throws ParseException { 
-		ParseQuery query = new ParseQuery(Restaurant.class.getSimpleName());
-		query.setCachePolicy(policy);
-		ParseObject restObject = query.get(mRestaurantID);
+	private Restaurant getFromID() throws ParseException { 
+		LocalStore store = DineOnRestaurantApplication.getLocalStore();
+		Restaurant stored = store == null ? null : store.get(Restaurant.class, mRestaurantID);
+		if (stored != null) {
+			mFromStore = true;
+			return newest(stored);
+		}
+		ParseObject restObject = Storable.getBackend().get(
+				Restaurant.class.getSimpleName(), mRestaurantID, INFO_INCLUDES);
 		return new Restaurant(restObject);
 	}
 
@@ -139,18 +264,29 @@ public class RestaurantDownloader extends AsyncTask<CachePolicy, ParseException,
 		// Here we already have a Parse User
 		// We still don't know if we have a restaurant for this user.
 		if (mParseUser.isAuthenticated()) {
-			// Now find the restaurant via ParseQuery
-			ParseQuery inner = new ParseQuery(RestaurantInfo.class.getSimpleName());
+			// Now find the restaurant by the user of its information
+			StorageQuery inner = new StorageQuery(RestaurantInfo.class.getSimpleName());
 			inner.setCachePolicy(policy);
 			inner.whereEqualTo(RestaurantInfo.PARSEUSER, mParseUser);
-			ParseQuery query = new ParseQuery(Restaurant.class.getSimpleName());
+			StorageQuery query = new StorageQuery(Restaurant.class.getSimpleName());
 			query.whereMatchesQuery(Restaurant.INFO, inner);
 			query.setCachePolicy(policy);
+			query.include(INFO_INCLUDES);
+			query.setLimit(1);
+
+			LocalStore store = DineOnRestaurantApplication.getLocalStore();
+			Restaurant stored = store == null ? null 
+					: store.getByOwner(Restaurant.class, mParseUser.getObjectId());
+			if (stored != null) {
+				mFromStore = true;
+				return newest(stored);
+			}
 			ParseObject restaurantObject = null;
 
 			// Failed to find restaurant.
 			try {
-				restaurantObject = query.getFirst();
+				List<ParseObject> found = Storable.getBackend().find(query);
+				restaurantObject = found.isEmpty() ? null : found.get(0);
 			} catch (ParseException e) {
 				restaurantObject = null;
 			}
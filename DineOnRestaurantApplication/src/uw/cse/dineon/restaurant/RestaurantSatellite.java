@@ -8,9 +8,12 @@ import org.json.JSONObject;
 import uw.cse.dineon.library.CustomerRequest;
 import uw.cse.dineon.library.DiningSession;
 import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.PushPayload;
 import uw.cse.dineon.library.Reservation;
 import uw.cse.dineon.library.Restaurant;
 import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
 import uw.cse.dineon.library.UserInfo;
 import uw.cse.dineon.library.util.DineOnConstants;
 import uw.cse.dineon.library.util.ParseUtil;
@@ -23,7 +26,6 @@ import android.util.Log;
 import com.parse.GetCallback;
 import com.parse.ParseException;
 import com.parse.ParseObject;
-import com.parse.ParseQuery;
 import com.parse.ParseQuery.CachePolicy;
 import com.parse.PushService;
 
@@ -158,6 +160,7 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			Log.e(TAG, "Malformated JSON: " + jobj + " exception: " + e.getMessage());
 			return;
 		}
+		PushPayload.attach(jobj, ds);
 
 		List<UserInfo> users = ds.getUsers();
 		for (UserInfo u : users) {
@@ -184,6 +187,8 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			Log.e(TAG, "Malformated JSON: " + jobj + " exception: " + e.getMessage());
 			return;
 		}
+		// The users get the updated session so they don't have to download it
+		PushPayload.attach(jobj, ds);
 
 		List<UserInfo> users = ds.getUsers();
 		for (UserInfo u : users) {
@@ -210,6 +215,7 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			Log.e(TAG, "Malformated JSON: " + jobj + " exception: " + e.getMessage());
 			return;
 		}
+		PushPayload.attach(jobj, ds);
 
 		List<UserInfo> users = ds.getUsers();
 		for (UserInfo u : users) {
@@ -234,6 +240,7 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			Log.e(TAG, "Malformated JSON: " + jobj + " exception: " + e.getMessage());
 			return;
 		}
+		PushPayload.attach(jobj, res);
 
 		ParseUtil.notifyApplication(
 				jobj,
@@ -244,10 +251,42 @@ public class RestaurantSatellite extends BroadcastReceiver {
 	 * Notifies User associated with UserInfo that our
 	 * Restaurant profile information has changed.  
 	 * Note: this is intended to be called after the save of restaurant.
+	 * Notifications to many users in quick succession are sent together.
 	 * @param restaurant restaurant object to notify update
 	 * @param user User to notify
 	 */
 	public void notifyChangeRestaurantInfo(RestaurantInfo restaurant, UserInfo user) {
+		JSONObject jobj = restaurantInfoChange(restaurant);
+		if (jobj == null) {
+			return;
+		}
+		DineOnRestaurantApplication.getDispatcher().send(
+				jobj,
+				ParseUtil.getChannel(user));
+	}
+
+	/**
+	 * Notifies every User that is currently dining at our Restaurant
+	 * that its profile information has changed with a single push.
+	 * Note: this is intended to be called after the save of restaurant.
+	 * @param restaurant restaurant object to notify update
+	 */
+	public void broadcastChangeRestaurantInfo(RestaurantInfo restaurant) {
+		JSONObject jobj = restaurantInfoChange(restaurant);
+		if (jobj == null) {
+			return;
+		}
+		DineOnRestaurantApplication.getDispatcher().send(
+				jobj,
+				ParseUtil.getBroadcastChannel(restaurant));
+	}
+
+	/**
+	 * Creates the push data that notifies a user that restaurant changed.
+	 * @param restaurant restaurant object that changed
+	 * @return Push data, null if it could not be created
+	 */
+	private JSONObject restaurantInfoChange(RestaurantInfo restaurant) {
 		JSONObject jobj = new JSONObject();
 
 		try {
@@ -255,12 +294,10 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			jobj.put(DineOnConstants.KEY_ACTION, DineOnConstants.ACTION_CHANGE_RESTAURANT_INFO);
 		} catch (JSONException e) {
 			Log.e(TAG, "Malformated JSON: " + jobj + " exception: " + e.getMessage());
-			return;
+			return null;
 		}
-
-		ParseUtil.notifyApplication(
-				jobj,
-				ParseUtil.getChannel(user));
+		PushPayload.attach(jobj, restaurant);
+		return jobj;
 	}
 
 	@Override
@@ -310,58 +347,118 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			Log.e(TAG, "JSON Exception occured on push request.");
 		}
 
-		ParseQuery uInfo = new ParseQuery(UserInfo.class.getSimpleName());
-		ParseQuery dsQuery = new ParseQuery(DiningSession.class.getSimpleName());
-		uInfo.setCachePolicy(CachePolicy.NETWORK_ONLY);
-		dsQuery.setCachePolicy(CachePolicy.NETWORK_ONLY);
-
-		ParseQuery query;
 		// Create the callback
 		SatelliteGetCallback callback = new SatelliteGetCallback(
 				mCurrentActivity, arg2);
+		Class<? extends Storable> clazz;
+		CachePolicy policy = CachePolicy.NETWORK_ONLY;
+		// Events of the same dining session are handled in order
+		String sequence = id;
 
 		if (DineOnConstants.ACTION_REQUEST_DINING_SESSION.equals(action)) {
 			// Get the User Info data
-			query = new ParseQuery(UserInfo.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = UserInfo.class;
 			callback.setOption(ACTION_OPTION.REQUEST_DINING_SESSION);
-			query.getInBackground(id, callback);
 		} 
 		else if (DineOnConstants.ACTION_REQUEST_ORDER.equals(action)) {
 			// Get the Order Object
-			query = new ParseQuery(Order.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = Order.class;
 			callback.setOption(ACTION_OPTION.REQUEST_ORDER);
-			query.getInBackground(id, callback);		
+			sequence = arg2;
 		} 
 		else if (DineOnConstants.ACTION_REQUEST_CUSTOMER_REQUEST.equals(action)) {
 			// Get the Customer Request Object
-			query = new ParseQuery(CustomerRequest.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = CustomerRequest.class;
 			callback.setOption(ACTION_OPTION.REQUEST_CUSTOMER_REQUEST);
-			query.getInBackground(id, callback);
-
+			sequence = arg2;
 		} 
 		else if (DineOnConstants.ACTION_REQUEST_RESERVATION.equals(action)) {
 			// Get the date in string format
-			query = new ParseQuery(Reservation.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = Reservation.class;
 			callback.setOption(ACTION_OPTION.REQUEST_RESERVATION);
-			query.getInBackground(id, callback);
 		} 
 		else if (DineOnConstants.ACTION_REQUEST_CHECK_OUT.equals(action)) {
 			// Get the current Dining Session instance
-			query = new ParseQuery(DiningSession.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.CACHE_ELSE_NETWORK);
+			clazz = DiningSession.class;
+			policy = CachePolicy.CACHE_ELSE_NETWORK;
 			callback.setOption(ACTION_OPTION.REQUEST_CHECK_OUT);
-			query.getInBackground(id, callback);
 		} 
 		else if (DineOnConstants.ACTION_CHANGE_USER_INFO.equals(action)) {
 			// Get the current user info instance
-			query = new ParseQuery(UserInfo.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = UserInfo.class;
 			callback.setOption(ACTION_OPTION.CHANGE_USER_INFO);
-			query.getInBackground(id, callback);
+		} else {
+			return;
+		}
+
+		// Pushes from customers that don't identify them can't be told apart.
+		// A push rejected by a full pipeline is caught up on by syncing once
+		// the pipeline has room again, see EventPipeline.OverflowListener.
+		String eventId = jobj.optString(DineOnConstants.EVENT_ID, null);
+		DineOnRestaurantApplication.getPipeline().submit(
+				new SatelliteEvent(sequence == null ? id : sequence,
+						eventId == null ? null : action + "/" + eventId,
+						jobj, clazz, id, policy, callback));
+	}
+
+	/**
+	 * Event that gets the object a customer push is about and
+	 * hands it to the listener.
+	 */
+	private static class SatelliteEvent extends EventPipeline.Event {
+
+		private final JSONObject mData;
+		private final Class<? extends Storable> mClazz;
+		private final String mId;
+		private final CachePolicy mPolicy;
+		private final SatelliteGetCallback mCallback;
+
+		/**
+		 * Creates an event for a single push.
+		 * @param sequenceKey Key of the sequence the push is handled in
+		 * @param idempotencyKey Key of the push, null if it has none
+		 * @param data Data of the push
+		 * @param clazz Class of the object the push is about
+		 * @param id Object id of the object the push is about
+		 * @param policy Cache policy to download the object with
+		 * @param callback Callback to hand the object to
+		 */
+		public SatelliteEvent(String sequenceKey, String idempotencyKey,
+				JSONObject data, Class<? extends Storable> clazz, String id,
+				CachePolicy policy, SatelliteGetCallback callback) {
+			super(sequenceKey, idempotencyKey);
+			mData = data;
+			mClazz = clazz;
+			mId = id;
+			mPolicy = policy;
+			mCallback = callback;
+		}
+
+		@Override
+		protected void process() {
+			// Use the object that came with the push if we can
+			ParseObject object = PushPayload.extract(mData, mClazz, mId);
+			if (object != null) {
+				try {
+					mCallback.done(object, null);
+				} finally {
+					complete(true);
+				}
+				return;
+			}
+			GetCallback callback = new GetCallback() {
+
+				@Override
+				public void done(ParseObject object, ParseException e) {
+					try {
+						mCallback.done(object, e);
+					} finally {
+						complete(e == null);
+					}
+				}
+			};
+			Storable.getBackend().getInBackground(
+					mClazz.getSimpleName(), mId, mPolicy, callback);
 		}
 	}
 
@@ -409,10 +506,13 @@ public class RestaurantSatellite extends BroadcastReceiver {
 			try {
 				switch (mOption) {
 				case CHANGE_USER_INFO:
+					// Decoded as a separate copy so the shared instance
+					// can be updated from it.
 					mListener.onUserChanged(new UserInfo(object));
 					break;
 				case REQUEST_CHECK_OUT:
-					mListener.onCheckedOut(new DiningSession(object));
+					mListener.onCheckedOut(
+							StorableIdentityMap.decode(DiningSession.class, object));
 					break;
 				case REQUEST_DINING_SESSION:
 					int tableNum;
@@ -421,17 +521,21 @@ public class RestaurantSatellite extends BroadcastReceiver {
 					} catch (NumberFormatException e1) {
 						tableNum = -1; // Bad number input
 					}
-					mListener.onUserCheckedIn(new UserInfo(object), tableNum);
+					mListener.onUserCheckedIn(
+							StorableIdentityMap.decode(UserInfo.class, object), tableNum);
 					break;
 				case REQUEST_CUSTOMER_REQUEST:
-					mListener.onCustomerRequest(new CustomerRequest(object),
+					mListener.onCustomerRequest(
+							StorableIdentityMap.decode(CustomerRequest.class, object),
 							mSecondArg);
 					break;
 				case REQUEST_RESERVATION:
-					mListener.onReservationRequest(new Reservation(object));
+					mListener.onReservationRequest(
+							StorableIdentityMap.decode(Reservation.class, object));
 					break;
 				case REQUEST_ORDER:
-					mListener.onOrderRequest(new Order(object), mSecondArg);
+					mListener.onOrderRequest(
+							StorableIdentityMap.decode(Order.class, object), mSecondArg);
 					break;
 				default:
 					if (DineOnConstants.DEBUG) {
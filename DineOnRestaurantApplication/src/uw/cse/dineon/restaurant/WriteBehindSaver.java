@@ -0,0 +1,293 @@
+package uw.cse.dineon.restaurant;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uw.cse.dineon.library.Storable;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.SaveCallback;
+
+/**
+ * Saves Storables like the Restaurant and its DiningSessions behind
+ * the back of the UI.
+ *
+ * Instead of uploading after every single change, save requests for the
+ * same object that arrive within a window are merged into one save.  Since
+ * Storables only pack what changed since their last pack, the merged save
+ * carries every change that was requested.  There is never more than one
+ * save in flight per object, requests that arrive while a save is in flight
+ * are saved right after it completes.
+ *
+ * Every save callback is notified once a save that includes the
+ * changes made before the request completes.  Saves that fail are
+ * scheduled again, their callbacks are notified of the failure.
+ */
+public class WriteBehindSaver {
+
+	private static final String TAG = WriteBehindSaver.class.getSimpleName();
+
+	/**
+	 * Default amount of time in milliseconds to wait for more changes
+	 * before saving.
+	 */
+	public static final long DEFAULT_WINDOW = 1500;
+
+	/**
+	 * Handler to schedule saves with.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Objects that have a save scheduled or in flight.
+	 * Storables without an object id can't be hashed so compare by identity.
+	 */
+	private final Map<Storable, Entry> mEntries;
+
+	/**
+	 * Amount of time in milliseconds to wait for more changes.
+	 */
+	private long mWindow;
+
+	/**
+	 * Creates a saver that waits window milliseconds for more changes.
+	 * @param window Amount of time to wait in milliseconds, must be non negative
+	 */
+	public WriteBehindSaver(long window) {
+		setWindow(window);
+		mHandler = new Handler(Looper.getMainLooper());
+		mEntries = new IdentityHashMap<Storable, Entry>();
+	}
+
+	/**
+	 * Sets the amount of time to wait for more changes before saving.
+	 * Only affects saves that are scheduled after this call.
+	 * @param window Amount of time to wait in milliseconds, must be non negative
+	 */
+	public synchronized void setWindow(long window) {
+		if (window < 0) {
+			throw new IllegalArgumentException("Save window can't be negative");
+		}
+		mWindow = window;
+	}
+
+	/**
+	 * Schedules storable to be saved.
+	 * @param storable Storable to save
+	 */
+	public void save(Storable storable) {
+		save(storable, null);
+	}
+
+	/**
+	 * Schedules storable to be saved and notifies callback once it is.
+	 * @param storable Storable to save
+	 * @param callback Callback to notify, can be null
+	 */
+	public synchronized void save(Storable storable, SaveCallback callback) {
+		if (storable == null) {
+			throw new IllegalArgumentException("Can't save null storable");
+		}
+		Entry entry = mEntries.get(storable);
+		if (entry == null) {
+			entry = new Entry(storable);
+			mEntries.put(storable, entry);
+		}
+		if (callback != null) {
+			entry.mWaiting.add(callback);
+		}
+
+		if (entry.mInFlight) {
+			// Saved again once the current save completes.
+			entry.mDirty = true;
+		} else if (!entry.mScheduled) {
+			entry.mScheduled = true;
+			mHandler.postDelayed(entry, mWindow);
+		}
+	}
+
+	/**
+	 * Starts every scheduled save right away without waiting for
+	 * its window to pass.  Callback is notified once the saves of the
+	 * changes requested before this call have completed, saves that
+	 * are requested afterwards are not waited for.
+	 * @param callback Callback to notify, can be null
+	 */
+	public void flush(SaveCallback callback) {
+		List<Entry> toStart = new ArrayList<Entry>();
+		Flush flush = new Flush(callback);
+		synchronized (this) {
+			for (Entry entry: mEntries.values()) {
+				entry.mFlushing = true;
+				if (entry.mScheduled) {
+					mHandler.removeCallbacks(entry);
+					toStart.add(entry);
+				}
+				if (entry.mInFlight && !entry.mDirty) {
+					// Everything requested so far is in the current save
+					entry.mSaving.add(flush);
+				} else {
+					entry.mWaiting.add(flush);
+				}
+				flush.mRemaining++;
+			}
+		}
+		if (flush.mRemaining == 0) {
+			flush.finish();
+			return;
+		}
+		for (Entry entry: toStart) {
+			startSave(entry);
+		}
+	}
+
+	/**
+	 * @return true if there are no scheduled or in flight saves.
+	 */
+	public synchronized boolean isIdle() {
+		return mEntries.isEmpty();
+	}
+
+	/**
+	 * Starts saving the object of entry.
+	 * @param entry Entry to save
+	 */
+	private void startSave(final Entry entry) {
+		synchronized (this) {
+			if (entry.mInFlight) {
+				return;
+			}
+			if (entry.mDirty) {
+				// Saves the changes made while flushing, later ones wait again
+				entry.mFlushing = false;
+			}
+			entry.mScheduled = false;
+			entry.mDirty = false;
+			entry.mInFlight = true;
+			entry.mSaving = new ArrayList<SaveCallback>(entry.mWaiting);
+			entry.mWaiting.clear();
+		}
+		entry.mStorable.saveInBackGround(new SaveCallback() {
+
+			@Override
+			public void done(ParseException e) {
+				onSaveComplete(entry, e);
+			}
+		});
+	}
+
+	/**
+	 * Completes the save of entry and starts the next one if needed.
+	 * A failed save is scheduled again since its changes are still unsaved.
+	 * @param entry Entry that was saved
+	 * @param e Exception if the save failed, null otherwise
+	 */
+	private void onSaveComplete(Entry entry, ParseException e) {
+		if (e != null) {
+			Log.e(TAG, "Unable to save " + entry.mStorable.getClass().getSimpleName()
+					+ ": " + e.getMessage());
+		}
+
+		boolean saveAgain = false;
+		List<SaveCallback> callbacks;
+		synchronized (this) {
+			callbacks = entry.mSaving;
+			entry.mSaving = null;
+			entry.mInFlight = false;
+			if (e != null) {
+				entry.mDirty = true;
+			}
+			if (entry.mDirty || !entry.mWaiting.isEmpty()) {
+				if (entry.mFlushing && e == null) {
+					saveAgain = true;
+				} else {
+					// Retries wait for the window so failures don't spin
+					entry.mScheduled = true;
+					mHandler.postDelayed(entry, mWindow);
+				}
+			} else {
+				mEntries.remove(entry.mStorable);
+			}
+		}
+
+		for (SaveCallback callback: callbacks) {
+			callback.done(e);
+		}
+		if (saveAgain) {
+			startSave(entry);
+		}
+	}
+
+	/**
+	 * State of a single object that is being saved.
+	 * Runs when its window has passed.
+	 */
+	private class Entry implements Runnable {
+
+		private final Storable mStorable;
+		private final List<SaveCallback> mWaiting;
+		private List<SaveCallback> mSaving;
+		private boolean mScheduled;
+		private boolean mInFlight;
+		private boolean mDirty;
+		private boolean mFlushing;
+
+		/**
+		 * @param storable Object to save
+		 */
+		public Entry(Storable storable) {
+			mStorable = storable;
+			mWaiting = new ArrayList<SaveCallback>();
+		}
+
+		@Override
+		public void run() {
+			startSave(this);
+		}
+	}
+
+	/**
+	 * Callback of a flush that is notified by every save the flush
+	 * waits for and notifies the client after the last one.
+	 */
+	private class Flush extends SaveCallback {
+
+		private final SaveCallback mCallback;
+		private int mRemaining;
+		private ParseException mError;
+
+		/**
+		 * @param callback Callback to notify, can be null
+		 */
+		public Flush(SaveCallback callback) {
+			mCallback = callback;
+		}
+
+		@Override
+		public void done(ParseException e) {
+			synchronized (WriteBehindSaver.this) {
+				if (e != null && mError == null) {
+					mError = e;
+				}
+				if (--mRemaining > 0) {
+					return;
+				}
+			}
+			finish();
+		}
+
+		/**
+		 * Notifies the client with the first error of the flush.
+		 */
+		private void finish() {
+			if (mCallback != null) {
+				mCallback.done(mError);
+			}
+		}
+	}
+}
@@ -0,0 +1,712 @@
+package uw.cse.dineon.restaurant.active;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.util.DineOnConstants;
+import android.content.Context;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.BaseAdapter;
+
+/**
+ * List adapter for Storables that only does the work that changed.
+ *
+ * Rows are keyed by object id.  When the adapter is given a new snapshot
+ * of the list it compares it with what it shows and does not notify the
+ * list at all if nothing changed.  Row views are recycled, each keeps a
+ * RowHolder in its tag that found its views once.  A row is only bound
+ * again if it shows a different element or if its element was marked as
+ * changed with changed().
+ *
+ * Frames the list draws after the adapter changed are timed, see
+ * getStats().  Once the adapter watches a view with watch() slow frames
+ * are logged in debug builds.
+ *
+ * Not thread safe, use from the main thread only.
+ *
+ * @param <T> Type of the elements
+ */
+public abstract class DiffListAdapter<T extends Storable> extends BaseAdapter {
+
+	private static final String TAG = DiffListAdapter.class.getSimpleName();
+
+	/**
+	 * Frames that take longer than this are slow, in nanoseconds.
+	 */
+	public static final long FRAME_BUDGET = 16000000L;
+
+	/**
+	 * Context to inflate rows with.
+	 */
+	private final Context mContext;
+
+	/**
+	 * Elements that are shown in order.
+	 */
+	private final List<T> mItems;
+
+	/**
+	 * Read only view of the elements.
+	 */
+	private final List<T> mReadOnlyItems;
+
+	/**
+	 * How many times elements were marked as changed by object id.
+	 * Elements that never changed have no entry.
+	 */
+	private final Map<String, Integer> mVersions;
+
+	/**
+	 * Versions of the elements without an object id, by reference.
+	 */
+	private final Map<T, Integer> mUnsavedVersions;
+
+	/**
+	 * Statistics of the updates of this adapter.
+	 */
+	private final Stats mStats;
+
+	/**
+	 * Times the first frame after the adapter changed.
+	 */
+	private final ViewTreeObserver.OnPreDrawListener mFrameTimer;
+
+	/**
+	 * View the frame timer watches, null if none.
+	 */
+	private View mWatched;
+
+	/**
+	 * Time the adapter changed at in nanoseconds, 0 if no frame was drawn since.
+	 */
+	private long mChangedAt;
+
+	/**
+	 * Creates an adapter that shows items.
+	 * @param ctx Context to inflate rows with
+	 * @param items Elements to show, the adapter keeps its own copy
+	 */
+	public DiffListAdapter(Context ctx, List<T> items) {
+		mContext = ctx;
+		mItems = new ArrayList<T>(items);
+		mReadOnlyItems = Collections.unmodifiableList(mItems);
+		mVersions = new HashMap<String, Integer>();
+		mUnsavedVersions = new IdentityHashMap<T, Integer>();
+		mStats = new Stats();
+		mFrameTimer = new ViewTreeObserver.OnPreDrawListener() {
+
+			@Override
+			public boolean onPreDraw() {
+				if (mChangedAt != 0) {
+					mStats.frame(System.nanoTime() - mChangedAt);
+					mChangedAt = 0;
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Creates the view of a row.  Called only when there
+	 * is no view to recycle.
+	 * @param inflater Inflater to use
+	 * @param parent Parent of the view
+	 * @return New row view
+	 */
+	protected abstract View newView(LayoutInflater inflater, ViewGroup parent);
+
+	/**
+	 * Creates the holder of a row view that was just created.
+	 * @param view View created by newView
+	 * @return Holder of view
+	 */
+	protected abstract RowHolder<T> newHolder(View view);
+
+	//////////////////////////////////////////////////////
+	//// Changing the elements
+	//////////////////////////////////////////////////////
+
+	/**
+	 * Shows the elements in items instead.  Elements are matched by object
+	 * id so rows whose element did not change are not bound again.
+	 * Does not notify the list if nothing changed.
+	 * @param items New snapshot of the elements to show
+	 * @return What changed
+	 */
+	public Changes setItems(List<T> items) {
+		Changes changes = diff(mItems, items);
+		if (changes.isEmpty()) {
+			return changes;
+		}
+		mItems.clear();
+		mItems.addAll(items);
+		if (changes.removed > 0) {
+			mVersions.keySet().retainAll(ids(items));
+			forgetRemovedUnsaved();
+		}
+		changed();
+		return changes;
+	}
+
+	/**
+	 * Adds item at the end if it is not shown yet.
+	 * @param item Element to add
+	 */
+	public void add(T item) {
+		insert(item, mItems.size());
+	}
+
+	/**
+	 * Adds all the items that are not shown yet at the end.
+	 * @param items Elements to add
+	 */
+	public void addAll(Collection<? extends T> items) {
+		boolean added = false;
+		for (T item: items) {
+			if (indexOf(item) == -1) {
+				mItems.add(item);
+				added = true;
+			}
+		}
+		if (added) {
+			changed();
+		}
+	}
+
+	/**
+	 * Inserts item at index if it is not shown yet.
+	 * @param item Element to insert
+	 * @param index Position to insert at
+	 */
+	public void insert(T item, int index) {
+		if (indexOf(item) != -1) {
+			return;
+		}
+		mItems.add(index, item);
+		changed();
+	}
+
+	/**
+	 * Removes the element with the same object id as item.
+	 * @param item Element to remove
+	 * @return true if it was shown
+	 */
+	public boolean remove(T item) {
+		int index = indexOf(item);
+		if (index == -1) {
+			return false;
+		}
+		T removed = mItems.remove(index);
+		if (removed.getObjId() != null) {
+			mVersions.remove(removed.getObjId());
+		}
+		mUnsavedVersions.remove(removed);
+		changed();
+		return true;
+	}
+
+	/**
+	 * Removes all the elements.
+	 */
+	public void clear() {
+		if (mItems.isEmpty()) {
+			return;
+		}
+		mItems.clear();
+		mVersions.clear();
+		mUnsavedVersions.clear();
+		changed();
+	}
+
+	/**
+	 * Notifies the adapter that item changed, only its row is bound again.
+	 * @param item Element that changed
+	 */
+	public void changed(T item) {
+		int index = indexOf(item);
+		if (index == -1) {
+			return;
+		}
+		T shown = mItems.get(index);
+		if (shown.getObjId() == null) {
+			mUnsavedVersions.put(shown, version(shown) + 1);
+		} else {
+			mVersions.put(shown.getObjId(), version(shown) + 1);
+		}
+		changed();
+	}
+
+	/**
+	 * @param item Element to look for
+	 * @return Position of the element with the same object id as item,
+	 * -1 if it is not shown
+	 */
+	public int indexOf(T item) {
+		for (int i = 0; i < mItems.size(); ++i) {
+			if (sameElement(mItems.get(i), item)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return Read only list of the elements in the order they are shown
+	 */
+	public List<T> getItems() {
+		return mReadOnlyItems;
+	}
+
+	//////////////////////////////////////////////////////
+	//// Adapter
+	//////////////////////////////////////////////////////
+
+	@Override
+	public int getCount() {
+		return mItems.size();
+	}
+
+	@Override
+	public T getItem(int position) {
+		return mItems.get(position);
+	}
+
+	@Override
+	public long getItemId(int position) {
+		return position;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		long start = System.nanoTime();
+		RowHolder<T> holder;
+		if (convertView == null) {
+			LayoutInflater inflater = (LayoutInflater) mContext
+					.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+			convertView = newView(inflater, parent);
+			holder = newHolder(convertView);
+			convertView.setTag(holder);
+		} else {
+			holder = (RowHolder<T>) convertView.getTag();
+		}
+
+		T item = getItem(position);
+		int version = version(item);
+		if (holder.mItem == item && holder.mVersion == version) {
+			mStats.mSkipped++;
+			return convertView;
+		}
+		boolean sameElement = sameElement(holder.mItem, item);
+		holder.mItem = item;
+		holder.mVersion = version;
+		holder.bind(item, !sameElement);
+		mStats.bound(System.nanoTime() - start);
+		return convertView;
+	}
+
+	//////////////////////////////////////////////////////
+	//// Frame timing
+	//////////////////////////////////////////////////////
+
+	/**
+	 * Times the frames view draws after this adapter changed.
+	 * @param view View that shows this adapter, usually the list
+	 */
+	public void watch(View view) {
+		unwatch();
+		mWatched = view;
+		mWatched.getViewTreeObserver().addOnPreDrawListener(mFrameTimer);
+	}
+
+	/**
+	 * Stops timing the frames of the watched view.
+	 */
+	public void unwatch() {
+		if (mWatched == null) {
+			return;
+		}
+		ViewTreeObserver observer = mWatched.getViewTreeObserver();
+		if (observer.isAlive()) {
+			observer.removeOnPreDrawListener(mFrameTimer);
+		}
+		mWatched = null;
+		mChangedAt = 0;
+	}
+
+	/**
+	 * @return Statistics of the updates of this adapter
+	 */
+	public Stats getStats() {
+		return mStats;
+	}
+
+	//////////////////////////////////////////////////////
+	//// Helpers
+	//////////////////////////////////////////////////////
+
+	/**
+	 * Notifies the list that the elements changed.
+	 */
+	private void changed() {
+		mStats.mUpdates++;
+		if (mChangedAt == 0 && mWatched != null) {
+			mChangedAt = System.nanoTime();
+		}
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Forgets the versions of the elements without an
+	 * object id that are not shown anymore.
+	 */
+	private void forgetRemovedUnsaved() {
+		if (mUnsavedVersions.isEmpty()) {
+			return;
+		}
+		Map<T, Integer> shown = new IdentityHashMap<T, Integer>();
+		for (T item: mItems) {
+			Integer version = mUnsavedVersions.get(item);
+			if (version != null) {
+				shown.put(item, version);
+			}
+		}
+		mUnsavedVersions.clear();
+		mUnsavedVersions.putAll(shown);
+	}
+
+	/**
+	 * @param item Element that is shown
+	 * @return How many times the element was marked as changed
+	 */
+	private int version(T item) {
+		Integer version = item.getObjId() == null
+				? mUnsavedVersions.get(item) : mVersions.get(item.getObjId());
+		return version == null ? 0 : version;
+	}
+
+	/**
+	 * Compares what is shown with a new snapshot.
+	 * @param <T> Type of the elements
+	 * @param before Elements shown
+	 * @param after New snapshot of the elements
+	 * @return What changed from before to after
+	 */
+	static <T extends Storable> Changes diff(List<T> before, List<T> after) {
+		Map<String, T> beforeById = byId(before);
+
+		// Elements of after that were shown before, in the order of after
+		int inserted = 0;
+		int replaced = 0;
+		List<T> kept = new ArrayList<T>();
+		for (T item: after) {
+			T old = find(before, beforeById, item);
+			if (old == null) {
+				inserted++;
+			} else {
+				if (old != item) {
+					replaced++;
+				}
+				kept.add(item);
+			}
+		}
+		int removed = before.size() - kept.size();
+
+		// The fewest elements that have to move to get the kept elements in
+		// order are the ones outside the longest run that is already in order
+		Map<T, Integer> unsavedAt = new IdentityHashMap<T, Integer>();
+		Map<String, Integer> at = new HashMap<String, Integer>();
+		for (int i = 0; i < kept.size(); ++i) {
+			T item = kept.get(i);
+			if (item.getObjId() == null) {
+				unsavedAt.put(item, i);
+			} else {
+				at.put(item.getObjId(), i);
+			}
+		}
+		List<Integer> order = new ArrayList<Integer>(kept.size());
+		for (T item: before) {
+			Integer index = item.getObjId() == null
+					? unsavedAt.get(item) : at.get(item.getObjId());
+			if (index != null) {
+				order.add(index);
+			}
+		}
+		int moved = kept.size() - longestIncreasing(order);
+		return new Changes(inserted, removed, replaced, moved);
+	}
+
+	/**
+	 * @param values Distinct values
+	 * @return Length of the longest increasing subsequence of values
+	 */
+	private static int longestIncreasing(List<Integer> values) {
+		// tails[i] is the smallest value that ends an increasing run of i + 1
+		int[] tails = new int[values.size()];
+		int length = 0;
+		for (int value: values) {
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (tails[mid] < value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			tails[low] = value;
+			if (low == length) {
+				length++;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * @param <T> Type of the elements
+	 * @param items Elements
+	 * @return Elements that have an object id by object id
+	 */
+	private static <T extends Storable> Map<String, T> byId(List<T> items) {
+		Map<String, T> byId = new HashMap<String, T>();
+		for (T item: items) {
+			if (item.getObjId() != null) {
+				byId.put(item.getObjId(), item);
+			}
+		}
+		return byId;
+	}
+
+	/**
+	 * Elements without an object id can only be found by reference.
+	 * @param <T> Type of the elements
+	 * @param items Elements to look in
+	 * @param byId The elements of items by object id
+	 * @param item Element to look for
+	 * @return Element of items that is the same element as item, null if none
+	 */
+	private static <T extends Storable> T find(List<T> items, Map<String, T> byId, T item) {
+		if (item.getObjId() != null) {
+			return byId.get(item.getObjId());
+		}
+		for (T other: items) {
+			if (other == item) {
+				return other;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param <T> Type of the elements
+	 * @param items Elements
+	 * @return Object ids of the elements that have one
+	 */
+	private static <T extends Storable> List<String> ids(List<T> items) {
+		return new ArrayList<String>(byId(items).keySet());
+	}
+
+	/**
+	 * @param a First element, can be null
+	 * @param b Second element, can be null
+	 * @return true if a and b are the same element, possibly different copies
+	 */
+	private static boolean sameElement(Storable a, Storable b) {
+		if (a == b) {
+			return true;
+		}
+		if (a == null || b == null || a.getObjId() == null) {
+			return false;
+		}
+		return a.getObjId().equals(b.getObjId());
+	}
+
+	/**
+	 * Holds the views of a row so they are only found once.
+	 * Each row view keeps its holder in its tag.
+	 * @param <T> Type of the elements
+	 */
+	public abstract static class RowHolder<T> {
+
+		/**
+		 * Element the row shows, null until it is bound.
+		 */
+		private T mItem;
+
+		/**
+		 * Version of the element the row shows.
+		 */
+		private int mVersion;
+
+		/**
+		 * Shows item in the views of this row.
+		 * @param item Element to show
+		 * @param newElement true if the row showed a different element before,
+		 * false if item is the same element that changed
+		 */
+		protected abstract void bind(T item, boolean newElement);
+
+		/**
+		 * @return Element the row shows, null if it was never bound
+		 */
+		public T getItem() {
+			return mItem;
+		}
+	}
+
+	/**
+	 * What changed between two snapshots of a list.
+	 */
+	public static class Changes {
+
+		/**
+		 * Number of elements that were added.
+		 */
+		public final int inserted;
+
+		/**
+		 * Number of elements that were removed.
+		 */
+		public final int removed;
+
+		/**
+		 * Number of elements that were replaced by a different copy.
+		 */
+		public final int replaced;
+
+		/**
+		 * Number of elements that were kept but moved.
+		 */
+		public final int moved;
+
+		/**
+		 * Creates a record of the changes.
+		 * @param inserted Number of elements that were added
+		 * @param removed Number of elements that were removed
+		 * @param replaced Number of elements that were replaced
+		 * @param moved Number of elements that moved
+		 */
+		Changes(int inserted, int removed, int replaced, int moved) {
+			this.inserted = inserted;
+			this.removed = removed;
+			this.replaced = replaced;
+			this.moved = moved;
+		}
+
+		/**
+		 * @return true if nothing changed
+		 */
+		public boolean isEmpty() {
+			return inserted == 0 && removed == 0 && replaced == 0 && moved == 0;
+		}
+
+		@Override
+		public String toString() {
+			return "+" + inserted + " -" + removed + " ~" + replaced + " >" + moved;
+		}
+	}
+
+	/**
+	 * Statistics of the updates of an adapter.
+	 */
+	public static class Stats {
+
+		private int mUpdates;
+		private int mBound;
+		private int mSkipped;
+		private long mBindTime;
+		private int mFrames;
+		private int mSlowFrames;
+		private long mMaxFrameTime;
+
+		/**
+		 * Records that a row was bound.
+		 * @param time Time it took in nanoseconds
+		 */
+		private void bound(long time) {
+			mBound++;
+			mBindTime += time;
+		}
+
+		/**
+		 * Records the first frame drawn after the adapter changed.
+		 * @param time Time from the change to the frame in nanoseconds
+		 */
+		private void frame(long time) {
+			mFrames++;
+			mMaxFrameTime = Math.max(mMaxFrameTime, time);
+			if (time > FRAME_BUDGET) {
+				mSlowFrames++;
+				if (DineOnConstants.DEBUG) {
+					Log.d(TAG, "Slow list frame " + (time / 1000000) + " ms, " + this);
+				}
+			}
+		}
+
+		/**
+		 * @return Number of times the adapter notified the list
+		 */
+		public int getUpdates() {
+			return mUpdates;
+		}
+
+		/**
+		 * @return Number of times a row was bound
+		 */
+		public int getBound() {
+			return mBound;
+		}
+
+		/**
+		 * @return Number of times a row was asked for but did not change
+		 */
+		public int getSkipped() {
+			return mSkipped;
+		}
+
+		/**
+		 * @return Total time spent binding rows in nanoseconds
+		 */
+		public long getBindTime() {
+			return mBindTime;
+		}
+
+		/**
+		 * @return Number of frames timed
+		 */
+		public int getFrames() {
+			return mFrames;
+		}
+
+		/**
+		 * @return Number of frames that took longer than FRAME_BUDGET
+		 */
+		public int getSlowFrames() {
+			return mSlowFrames;
+		}
+
+		/**
+		 * @return Longest frame in nanoseconds
+		 */
+		public long getMaxFrameTime() {
+			return mMaxFrameTime;
+		}
+
+		@Override
+		public String toString() {
+			return mUpdates + " updates, " + mBound + " rows bound, " + mSkipped
+					+ " skipped, " + mSlowFrames + "/" + mFrames + " slow frames";
+		}
+	}
+}
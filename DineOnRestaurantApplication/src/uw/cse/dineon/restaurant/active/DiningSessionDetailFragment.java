@@ -1,5 +1,6 @@
 package uw.cse.dineon.restaurant.active;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import edu.umd.cs.findbugs.annotations.SuppressWarnings;
@@ -112,7 +113,9 @@ public class DiningSessionDetailFragment extends Fragment {
 			Log.e(TAG, "Current Dining session is null");
 		} else {
 			ab.setTitle("Table " + mDiningSession.getTableID());
-			mUserAdapter = new UserListAdapter(getActivity(), mDiningSession.getUsers());
+			// The user adapter changes its list so it gets its own copy
+			mUserAdapter = new UserListAdapter(getActivity(), 
+					new ArrayList<UserInfo>(mDiningSession.getUsers()));
 			mOrderAdapter = new OrderListAdapter(getActivity(), mDiningSession.getOrders());
 
 			if(mDiningSession.getOrders().size() == 0) {
@@ -1,5 +1,6 @@
 package uw.cse.dineon.restaurant.active;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import uw.cse.dineon.library.DiningSession;
@@ -16,12 +17,10 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
-import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 
 /**
  * For displaying current restaurant customers.
@@ -48,8 +47,18 @@ public class DiningSessionListFragment extends ListFragment {
 		super.onActivityCreated(savedInstanceState);
 
 		//We can assert that the listener has a non null list of dining sessions
-		mAdapter = new DiningSessionListAdapter(getActivity(), mListener.getCurrentSessions());
+		// The adapter changes its list so it gets its own copy
+		mAdapter = new DiningSessionListAdapter(getActivity(), 
+				new ArrayList<DiningSession>(mListener.getCurrentSessions()));
 		setListAdapter(mAdapter);
+		mAdapter.watch(getListView());
+	}
+
+	@Override
+	public void onDestroyView() {
+		mAdapter.unwatch();
+		Log.d(TAG, "Dining session list " + mAdapter.getStats());
+		super.onDestroyView();
 	}
 
 	@Override
@@ -69,7 +78,6 @@ public class DiningSessionListFragment extends ListFragment {
 	public void addDiningSession(DiningSession session) {
 		if (mAdapter != null) {
 			mAdapter.add(session);
-			mAdapter.notifyDataSetChanged();
 		}
 	}
 
@@ -80,7 +88,28 @@ public class DiningSessionListFragment extends ListFragment {
 	public void removeDiningSession(DiningSession session) {
 		if (mAdapter != null) {
 			mAdapter.remove(session);
-			mAdapter.notifyDataSetChanged();
+		}
+	}
+
+	/**
+	 * Shows the sessions in sessions instead.  Only the rows
+	 * of the sessions that changed are updated.
+	 * @param sessions Current sessions to show
+	 */
+	public void setDiningSessions(List<DiningSession> sessions) {
+		if (mAdapter != null) {
+			mAdapter.setItems(sessions);
+		}
+	}
+
+	/**
+	 * Updates the row of session after it changed, for example
+	 * when an order was placed.
+	 * @param session DiningSession that changed
+	 */
+	public void updateDiningSession(DiningSession session) {
+		if (mAdapter != null) {
+			mAdapter.changed(session);
 		}
 	}
 
@@ -106,12 +135,11 @@ public class DiningSessionListFragment extends ListFragment {
 	}
 
 	/**
-	 * List adapter for holding dining sessions.
+	 * List adapter for holding dining sessions.  Rows are recycled
+	 * and only bound again when their session changes.
 	 * @author glee23
 	 */
-	private class DiningSessionListAdapter extends ArrayAdapter<DiningSession> {
-
-		private Context mContext;
+	private class DiningSessionListAdapter extends DiffListAdapter<DiningSession> {
 
 		/**
 		 * Constructs a new UserList Adapter.
@@ -120,116 +148,85 @@ public class DiningSessionListFragment extends ListFragment {
 		 * @param sessions The list of users to display
 		 */
 		public DiningSessionListAdapter(Context ctx, List<DiningSession> sessions) {
-			super(ctx, R.layout.listitem_restaurant_request_top, sessions);
-			mContext = ctx;
+			super(ctx, sessions);
 		}
 
 		@Override
-		public void add(DiningSession d) {
-			super.add(d);
-			this.notifyDataSetChanged();
+		protected View newView(LayoutInflater inflater, ViewGroup parent) {
+			//Initialize and verticalize parent container viewgroup
+			LinearLayout layoutView = new LinearLayout(getActivity());
+			layoutView.setOrientation(LinearLayout.VERTICAL);
+			layoutView.addView(inflater.inflate(R.layout.listitem_restaurant_user_top, null, true));
+			layoutView.addView(inflater.inflate(R.layout.listitem_restaurant_user_bot, null, true));
+			return layoutView;
 		}
 
-//		@Override
-//		public void addAll(Collection<? extends DiningSession> collection) {
-//			super.addAll(collection);
-//			notifyDataSetChanged();
-//		}
-//
-//		@Override
-//		public void clear() {
-//			super.clear();
-//			this.notifyDataSetChanged();
-//		}
-
-		@SuppressWarnings("BC_UNCONFIRMED_CAST")
 		@Override
-		public View getView(final int position, View convertView, ViewGroup parent) {
-			View vwTop;
-			View vwBot;
-
-			LinearLayout layoutView = null;
-
-			if (convertView == null) {
-				//Initialize and verticalize parent container viewgroup
-				layoutView = new LinearLayout(mContext);
-				layoutView.setOrientation(LinearLayout.VERTICAL);
-				LayoutInflater inflater = 
-						(LayoutInflater)mContext.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-				vwTop = inflater.inflate(R.layout.listitem_restaurant_user_top, null, true);
-				vwBot = inflater.inflate(R.layout.listitem_restaurant_user_bot, null, true);
-				layoutView.addView(vwTop);
-				layoutView.addView(vwBot);
-				convertView = layoutView;
-			} else {
-				//Everything already created, just find them
-				vwTop = convertView.findViewById(R.id.listitem_user_top);
-				vwBot = convertView.findViewById(R.id.listitem_user_bot);
-			}
-
-			DiningSession sessionToShow = getItem(position);
-
-			// For every restaurant to present create a handler for the session;
-			// We are creating this view for the very first time
-			if (layoutView != null) {
-				// Create a handler just for the session.
-				new DiningSessionHandler(sessionToShow, vwTop, vwBot);
-			}
-			return convertView;
-
+		protected RowHolder<DiningSession> newHolder(View view) {
+			return new DiningSessionHandler(view.findViewById(R.id.listitem_user_top),
+					view.findViewById(R.id.listitem_user_bot));
 		}
 
 		/**
 		 * Listener for certain item of a customer request view.
+		 * Holds on to the views of its row while the row is recycled.
 		 * @author glee23
 		 */
-		private class DiningSessionHandler implements OnClickListener {
+		private class DiningSessionHandler extends RowHolder<DiningSession>
+		implements OnClickListener {
 
-			private final DiningSession mDiningSession;
 			private final ImageView mExpandDown;
 			private final Button mPickSession;
 			private final View mTop, mBottom;
+			private final TextView mTitle;
+			private final TextView mDateText;
+			private final TextView mOrderHeader;
+			private final TextView mOrderText;
 
 			/**
-			 * Build this handler from the DiningSession and its corresponding views.
+			 * Build this handler from the views of a row.
 			 * 
-			 * @param session DiningSession to associate to.
 			 * @param top Top view for the session.
 			 * @param bottom bottom view for the session.
 			 */
-			public DiningSessionHandler(DiningSession session, View top, View bottom) {
-				mDiningSession = session;
-
+			public DiningSessionHandler(View top, View bottom) {
 				mTop = top;
 				mBottom = bottom;
 
 				// Get a reference to all the top pieces 
 //				final ImageView SESSIONIMAGE = (ImageView) 
 //						mTop.findViewById(R.id.image_user_thumbnail);
-				TextView title = (TextView) mTop.findViewById(R.id.label_user_name);
-				TextView dateText = (TextView) mTop.findViewById(R.id.label_checkin_time);
+				mTitle = (TextView) mTop.findViewById(R.id.label_user_name);
+				mDateText = (TextView) mTop.findViewById(R.id.label_checkin_time);
 				mExpandDown = (ImageView) 
 						mTop.findViewById(R.id.button_expand_user);
 				mPickSession = (Button) mBottom.findViewById(R.id.button_proceed_session);	
 
 				// Get a reference to all the bottom pieces
-				TextView orderHeader = (TextView) 
+				mOrderHeader = (TextView) 
 						mBottom.findViewById(R.id.label_user_order_header);
-				TextView orderText = (TextView) mBottom.findViewById(R.id.label_user_orders);
+				mOrderText = (TextView) mBottom.findViewById(R.id.label_user_orders);
 
-				List<Order> orders = mDiningSession.getOrders();
-				List<UserInfo> infolist = mDiningSession.getUsers();
+				mTop.setOnClickListener(this);
+				mPickSession.setOnClickListener(this);
+			}
+
+			@Override
+			protected void bind(DiningSession session, boolean newElement) {
+				List<Order> orders = session.getOrders();
+				List<UserInfo> infolist = session.getUsers();
 
 				//Populate
-				dateText.setText(mDiningSession.getOriginatingTime().toString());
+				mDateText.setText(session.getOriginatingTime().toString());
 
 				//Displays Order information as a string
 				StringBuffer buf = new StringBuffer();
 				
 				if(orders == null) {
-					orderHeader.setVisibility(View.GONE);
-					orderText.setVisibility(View.GONE);
+					mOrderHeader.setVisibility(View.GONE);
+					mOrderText.setVisibility(View.GONE);
 				} else {
+					mOrderHeader.setVisibility(View.VISIBLE);
 
 					for (Order o : orders) {
 
@@ -245,16 +242,16 @@ public class DiningSessionListFragment extends ListFragment {
 					}
 					
 					if(orders.size() == 0) {
-						orderText.setVisibility(View.GONE);
-						orderHeader.setText(getString(R.string.no_orders));
+						mOrderText.setVisibility(View.GONE);
+						mOrderHeader.setText(getString(R.string.no_orders));
 					} else {
-						orderText.setVisibility(View.VISIBLE);
-						orderHeader.setText(getString(R.string.label_orders));
+						mOrderText.setVisibility(View.VISIBLE);
+						mOrderHeader.setText(getString(R.string.label_orders));
 						buf.delete(buf.length() - 2, buf.length());
 					}
 				}
 
-				orderText.setText(buf.toString());
+				mOrderText.setText(buf.toString());
 
 				String name;
 
@@ -266,10 +263,7 @@ public class DiningSessionListFragment extends ListFragment {
 					name = getString(R.string.no_customer);
 				}
 
-				title.setText(name);
-
-				mTop.setOnClickListener(this);
-				mPickSession.setOnClickListener(this);
+				mTitle.setText(name);
 				
 				// Set the image of this session
 				//				DineOnImage image = order.getMainImage();
@@ -286,8 +280,11 @@ public class DiningSessionListFragment extends ListFragment {
 				//					});
 				//				}
 
-				// Set the bottom view to initial to be invisible
-				mBottom.setVisibility(View.GONE);
+				if (newElement) {
+					// Set the bottom view to initial to be invisible
+					mBottom.setVisibility(View.GONE);
+					mExpandDown.setVisibility(View.VISIBLE);
+				}
 			}
 
 			@Override
@@ -310,7 +307,7 @@ public class DiningSessionListFragment extends ListFragment {
 				}
 
 				if (v == mPickSession) {
-					mListener.onDiningSessionSelected(mDiningSession);
+					mListener.onDiningSessionSelected(getItem());
 				}
 			}
 
@@ -2,14 +2,18 @@ package uw.cse.dineon.restaurant.active;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import uw.cse.dineon.library.Order;
 import uw.cse.dineon.library.animation.ExpandAnimation;
 import uw.cse.dineon.library.image.ImageObtainable;
+import uw.cse.dineon.restaurant.KitchenQueue;
 import uw.cse.dineon.restaurant.R;
 import android.app.Activity;
 import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Color;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
 import android.util.Log;
@@ -17,7 +21,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -28,10 +31,11 @@ import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 
 /**
  * Fragment represents a List of Orders that are pending
- * for this restaurant.
+ * for this restaurant.  Orders are shown in the order the kitchen
+ * has to prepare them and the list follows the changes of the kitchen queue.
  * @author glee23
  */
-public class OrderListFragment extends ListFragment {
+public class OrderListFragment extends ListFragment implements KitchenQueue.Listener {
 
 	private static final String TAG = OrderListFragment.class.getSimpleName();
 
@@ -45,19 +49,57 @@ public class OrderListFragment extends ListFragment {
 	 */
 	private OrderListAdapter mAdapter;
 
+	/**
+	 * Queue of the orders the kitchen has to prepare.
+	 */
+	private KitchenQueue mKitchen;
+
 	@Override
 	public void onActivityCreated(Bundle savedInstanceState) {
 		super.onActivityCreated(savedInstanceState);
 
-		List<Order> orders = mListener.getPendingOrders();
-		if (orders == null) {
-			Log.e(TAG, "List of order retrieved is null");
+		List<Order> orders;
+		mKitchen = mListener.getKitchenQueue();
+		if (mKitchen == null) {
+			Log.e(TAG, "Kitchen queue retrieved is null");
 			orders = new ArrayList<Order>();
+		} else {
+			orders = mKitchen.getOrders();
+			mKitchen.addListener(this);
 		}
 		
-		//We can assert that the listener has a non null list of dining sessions
 		mAdapter = new OrderListAdapter(getActivity(), orders);
 		setListAdapter(mAdapter);
+		mAdapter.watch(getListView());
+	}
+
+	@Override
+	public void onDestroyView() {
+		// The queue lives longer than this fragment
+		if (mKitchen != null) {
+			mKitchen.removeListener(this);
+		}
+		mAdapter.unwatch();
+		Log.d(TAG, "Order list " + mAdapter.getStats());
+		super.onDestroyView();
+	}
+
+	@Override
+	public void onOrderQueued(Order order) {
+		int index = Collections.binarySearch(
+				mAdapter.getItems(), order, mKitchen.getComparator());
+		mAdapter.insert(order, index < 0 ? -index - 1 : index);
+	}
+
+	@Override
+	public void onOrderRemoved(Order order) {
+		mAdapter.remove(order);
+	}
+
+	@Override
+	public void onOrderLate(Order order, long lateBy) {
+		// Only the row of the late order is bound again
+		mAdapter.changed(order);
 	}
 
 	@Override
@@ -83,7 +125,6 @@ public class OrderListFragment extends ListFragment {
 	 */
 	public void addOrder(Order order) {
 		mAdapter.add(order);
-		mAdapter.notifyDataSetChanged();
 	}
 
 	/**
@@ -91,10 +132,7 @@ public class OrderListFragment extends ListFragment {
 	 * @param orders Collection of Strings
 	 */
 	public void addAll(Collection<Order> orders) {
-		for (Order o: orders) {
-			mAdapter.add(o);
-		}
-		mAdapter.notifyDataSetChanged();
+		mAdapter.addAll(orders);
 	}
 	
 	/**
@@ -103,9 +141,8 @@ public class OrderListFragment extends ListFragment {
 	 * @param order Order to complete
 	 */
 	public void completeOrder(Order order) {
-		mAdapter.remove(order);
+		// The order is removed once the kitchen queue removes it
 		mListener.onOrderComplete(order);
-		mAdapter.notifyDataSetChanged();
 	}
 
 	/**
@@ -114,7 +151,6 @@ public class OrderListFragment extends ListFragment {
 	 */
 	public void deleteOrder(Order order) {
 		mAdapter.remove(order);
-		mAdapter.notifyDataSetChanged();
 	}
 
 	/**
@@ -122,7 +158,6 @@ public class OrderListFragment extends ListFragment {
 	 */
 	public void clearOrder() {
 		mAdapter.clear();
-		mAdapter.notifyDataSetChanged();
 	}
 
 	//////////////////////////////////////////////////////
@@ -162,6 +197,12 @@ public class OrderListFragment extends ListFragment {
 		 */
 		List<Order> getPendingOrders();
 
+		/**
+		 * Returns the queue of the orders the kitchen has to prepare.
+		 * @return the kitchen queue
+		 */
+		KitchenQueue getKitchenQueue();
+
 	}
 
 	//////////////////////////////////////////////////////
@@ -170,13 +211,12 @@ public class OrderListFragment extends ListFragment {
 	//////////////////////////////////////////////////////
 
 	/**
-	 * Adapter to handle.
+	 * Adapter to handle.  Rows are recycled and only
+	 * bound again when their order changes.
 	 * @author mhotan
 	 */
 	@SuppressWarnings("SIC_INNER_SHOULD_BE_STATIC")
-	private class OrderListAdapter extends ArrayAdapter<Order> {
-
-		private final Context mContext;
+	private class OrderListAdapter extends DiffListAdapter<Order> {
 
 		/**
 		 * Creates an adapter that manages the addition and layout of
@@ -185,123 +225,95 @@ public class OrderListFragment extends ListFragment {
 		 * @param orders List of strings
 		 */
 		public OrderListAdapter(Context ctx, List<Order> orders) {
-			super(ctx, R.layout.listitem_restaurant_order_top, orders);
-			this.mContext = ctx;
-		}
-
-		@Override
-		public void add(Order o) {
-			super.add(o);
-			this.notifyDataSetChanged();
+			super(ctx, orders);
 		}
 
 		@Override
-		public void addAll(Collection<? extends Order> collection) {
-			super.addAll(collection);
-			notifyDataSetChanged();
+		protected View newView(LayoutInflater inflater, ViewGroup parent) {
+			LinearLayout layoutView = new LinearLayout(getActivity());
+			layoutView.setOrientation(LinearLayout.VERTICAL);
+			layoutView.addView(inflater.inflate(
+					R.layout.listitem_restaurant_order_top, null, true));
+			layoutView.addView(inflater.inflate(
+					R.layout.listitem_restaurant_order_bot, null, true));
+			return layoutView;
 		}
 
 		@Override
-		public void clear() {
-			super.clear();
-			this.notifyDataSetChanged();
-		}
-
-		@SuppressWarnings("BC_UNCONFIRMED_CAST")
-		@Override
-		public View getView(final int position, View convertView, ViewGroup parent) {
-
-			// Establish a reference to the top and bottom of ex
-			View vwTop;
-			View vwBot;
-
-			LinearLayout layoutView = null;
-
-			if(convertView == null) {
-				layoutView = new LinearLayout(mContext);
-				layoutView.setOrientation(LinearLayout.VERTICAL);
-				LayoutInflater inflater = (LayoutInflater) mContext
-						.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-				vwTop = inflater.inflate(R.layout.listitem_restaurant_order_top, null, true);
-				vwBot = inflater.inflate(R.layout.listitem_restaurant_order_bot, null, true);
-				layoutView.addView(vwTop);
-				layoutView.addView(vwBot);
-				convertView = layoutView;
-			} else {
-				//Everything already created, just find them
-				vwTop = convertView.findViewById(R.id.listitem_order_top);
-				vwBot = convertView.findViewById(R.id.listitem_order_bot);
-			}
-
-			Order orderToShow = getItem(position);
-
-			// For every restaurant to present create a handler for the order;
-			// We are creating this view for the very first time
-			if (layoutView != null) {
-				// Create a handler just for the restaurant.
-				new OrderHandler(orderToShow, vwTop, vwBot);
-			}
-			return convertView;
+		protected RowHolder<Order> newHolder(View view) {
+			return new OrderHandler(view.findViewById(R.id.listitem_order_top),
+					view.findViewById(R.id.listitem_order_bot));
 		}
 
 		/**
 		 * Listener for certain item of an order item view.
+		 * Holds on to the views of its row while the row is recycled.
 		 * @author mhotan
 		 */
-		private class OrderHandler implements OnClickListener, OnSeekBarChangeListener {
+		private class OrderHandler extends RowHolder<Order>
+		implements OnClickListener, OnSeekBarChangeListener {
 
-			private final Order mOrder;
 			private final ImageView mExpandDown;
 			private final Button mPickOrder;
 			private final View mTop, mBottom;
+			private final TextView mOrderTitle;
+			private final TextView mTime;
+			private final ColorStateList mTimeColors;
+			private final SeekBar mProgressBar;
 
 			/**
-			 * Build this handler from the Order and its corresponding views.
+			 * Build this handler from the views of a row.
 			 * 
-			 * @param order Order to associate to.
 			 * @param top Top view for the order.
 			 * @param bottom bottom view for the order.
 			 */
-			public OrderHandler(Order order, View top, View bottom) {
-				mOrder = order;
-
+			public OrderHandler(View top, View bottom) {
 				mTop = top;
 				mBottom = bottom;
 
 				// Get a reference to all the top pieces 
 //				final ImageView ORDERIMAGE = (ImageView) 
 //						mTop.findViewById(R.id.image_order_thumbnail);
-				TextView orderTitle = 
+				mOrderTitle = 
 						(TextView) mTop.findViewById(R.id.label_order_title);
 				mExpandDown = (ImageView) 
 						mTop.findViewById(R.id.button_expand_order);
-				TextView time = (TextView) mTop.findViewById(R.id.label_order_time);
+				mTime = (TextView) mTop.findViewById(R.id.label_order_time);
+				mTimeColors = mTime.getTextColors();
 				mPickOrder = (Button) mBottom.findViewById(R.id.button_proceed_order);	
 				
 				// Get a reference to all the bottom pieces
 				Button buttonCompleteOrder = (Button) 
 						mBottom.findViewById(R.id.button_completed_order);
 
-				SeekBar progressBar = (SeekBar) mBottom.findViewById(R.id.seekbar_order_progress);
+				mProgressBar = (SeekBar) mBottom.findViewById(R.id.seekbar_order_progress);
+				mProgressBar.setMax(100);
+
+				// Add listeners for reaction purposes
+				buttonCompleteOrder.setOnClickListener(this);
+				mProgressBar.setOnSeekBarChangeListener(this);
+				mTop.setOnClickListener(this);
+				mPickOrder.setOnClickListener(this);
+			}
 
+			@Override
+			protected void bind(Order order, boolean newElement) {
 				//Populate
 				int table = order.getTableID();
 
 				if(table == -1) { // No Table
-					orderTitle.setText(order.getOriginalUser().getName());
+					mOrderTitle.setText(order.getOriginalUser().getName());
 				} else {
-					orderTitle.setText(getString(R.string.table) + order.getTableID() 
+					mOrderTitle.setText(getString(R.string.table) + order.getTableID() 
 							+ getString(R.string.dash) + order.getOriginalUser().getName());
 				}
 
-				progressBar.setMax(100);
-				progressBar.setProgress(0);
-
-				time.setText(order.getOriginatingTime().toString());
-
-				// Add listeners for reaction purposes
-				buttonCompleteOrder.setOnClickListener(this);
-				progressBar.setOnSeekBarChangeListener(this);
+				mTime.setText(order.getOriginatingTime().toString());
+				if (mKitchen != null && mKitchen.isLate(order)) {
+					mTime.setTextColor(Color.RED);
+				} else {
+					mTime.setTextColor(mTimeColors);
+				}
 				
 				// Set the image of this order
 //				DineOnImage image = order.getMainImage();
@@ -318,11 +330,13 @@ public class OrderListFragment extends ListFragment {
 //					});
 //				}
 
-				// Set the bottom view to initial to be invisible
-				mBottom.setVisibility(View.GONE);
-
-				mTop.setOnClickListener(this);
-				mPickOrder.setOnClickListener(this);
+				if (newElement) {
+					// A different order starts with no progress and
+					// the bottom view to initial to be invisible
+					mProgressBar.setProgress(0);
+					mBottom.setVisibility(View.GONE);
+					mExpandDown.setVisibility(View.VISIBLE);
+				}
 			}
 
 			@Override
@@ -343,18 +357,21 @@ public class OrderListFragment extends ListFragment {
 					mBottom.startAnimation(expandAni);
 
 				} else if (v.getId() == R.id.button_completed_order) {
-					completeOrder(mOrder);
+					completeOrder(getItem());
 				}
 				
 				if (v == mPickOrder) {
-					mListener.onOrderSelected(mOrder);
+					mListener.onOrderSelected(getItem());
 				}
 			}
 
 			@Override
 			public void onProgressChanged(SeekBar seekBar, int progress,
 					boolean fromUser) {
-				mListener.onProgressChanged(mOrder, progress);
+				// Binding a different order resets the progress
+				if (fromUser) {
+					mListener.onProgressChanged(getItem(), progress);
+				}
 			}
 
 			@Override
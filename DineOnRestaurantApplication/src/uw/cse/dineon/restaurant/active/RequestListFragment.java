@@ -23,7 +23,6 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.Spinner;
 import android.widget.TextView;
-import edu.umd.cs.findbugs.annotations.SuppressWarnings;
 
 
 /**
@@ -55,8 +54,18 @@ public class RequestListFragment extends ListFragment {
 		}
 		
 		//We can assert that the listener has a non null list of dining sessions
-		mAdapter = new RequestListAdapter(getActivity(), requests);
+		// The adapter changes its list so it gets its own copy
+		mAdapter = new RequestListAdapter(getActivity(), 
+				new ArrayList<CustomerRequest>(requests));
 		setListAdapter(mAdapter);
+		mAdapter.watch(getListView());
+	}
+
+	@Override
+	public void onDestroyView() {
+		mAdapter.unwatch();
+		Log.d(TAG, "Request list " + mAdapter.getStats());
+		super.onDestroyView();
 	}
 
 	@Override
@@ -82,7 +91,6 @@ public class RequestListFragment extends ListFragment {
 	 */
 	public void addRequest(CustomerRequest request) {
 		mAdapter.add(request);
-		mAdapter.notifyDataSetChanged();
 	}
 
 	/**
@@ -90,10 +98,7 @@ public class RequestListFragment extends ListFragment {
 	 * @param request Collection of Strings
 	 */
 	public void addAll(Collection<CustomerRequest> request) {
-		for (CustomerRequest o: request) {
-			mAdapter.add(o);
-		}
-		mAdapter.notifyDataSetChanged();
+		mAdapter.addAll(request);
 	}
 
 	/**
@@ -102,7 +107,17 @@ public class RequestListFragment extends ListFragment {
 	 */
 	public void deleteRequest(CustomerRequest request) {
 		mAdapter.remove(request);
-		mAdapter.notifyDataSetChanged();
+	}
+
+	/**
+	 * Shows the requests in requests instead.  Only the rows
+	 * of the requests that changed are updated.
+	 * @param requests Current requests to show
+	 */
+	public void setRequests(List<CustomerRequest> requests) {
+		if (mAdapter != null) {
+			mAdapter.setItems(requests);
+		}
 	}
 
 	/**
@@ -110,7 +125,6 @@ public class RequestListFragment extends ListFragment {
 	 */
 	public void clearRequest() {
 		mAdapter.clear();
-		mAdapter.notifyDataSetChanged();
 	}
 
 	//////////////////////////////////////////////////////
@@ -161,13 +175,13 @@ public class RequestListFragment extends ListFragment {
 	//////////////////////////////////////////////////////
 
 	/**
-	 * Adpater to handle request management and layout.
+	 * Adpater to handle request management and layout.  Rows are
+	 * recycled and only bound again when their request changes.
 	 * @author glee23
 	 */
-	private class RequestListAdapter extends ArrayAdapter<CustomerRequest> {
+	private class RequestListAdapter extends DiffListAdapter<CustomerRequest> {
 
-		private final Context mContext;
-		private List<String> mStaff;
+		private final List<String> mStaff;
 
 		/**
 		 * Creates an adapter that manages the addition and layout of
@@ -176,8 +190,7 @@ public class RequestListFragment extends ListFragment {
 		 * @param requests List of CustomerRequests
 		 */
 		public RequestListAdapter(Context ctx, List<CustomerRequest> requests) {
-			super(ctx, R.layout.listitem_restaurant_request_top, requests);
-			this.mContext = ctx;
+			super(ctx, requests);
 			
 			// For debug purposes we will add fake staff members
 			String[] employees = getActivity().getResources().
@@ -189,91 +202,55 @@ public class RequestListFragment extends ListFragment {
 		}
 
 		@Override
-		public void add(CustomerRequest r) {
-			super.add(r);
-			this.notifyDataSetChanged();
-		}
-
-		@Override
-		public void addAll(Collection<? extends CustomerRequest> collection) {
-			super.addAll(collection);
-			notifyDataSetChanged();
+		protected View newView(LayoutInflater inflater, ViewGroup parent) {
+			LinearLayout layoutView = new LinearLayout(getActivity());
+			layoutView.setOrientation(LinearLayout.VERTICAL);
+			layoutView.addView(inflater.inflate(
+					R.layout.listitem_restaurant_request_top, null, true));
+			layoutView.addView(inflater.inflate(
+					R.layout.listitem_restaurant_request_bot, null, true));
+			return layoutView;
 		}
 
 		@Override
-		public void clear() {
-			super.clear();
-			this.notifyDataSetChanged();
-		}
-
-		@SuppressWarnings("BC_UNCONFIRMED_CAST")
-		@Override
-		public View getView(final int position, View convertView, ViewGroup parent) {
-			View vwTop;
-			View vwBot;
-
-			LinearLayout layoutView = null;
-
-			if(convertView == null) {
-				layoutView = new LinearLayout(mContext);
-				layoutView.setOrientation(LinearLayout.VERTICAL);
-				LayoutInflater inflater = (LayoutInflater) mContext
-						.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-				vwTop = inflater.inflate(R.layout.listitem_restaurant_request_top, null, true);
-				vwBot = inflater.inflate(R.layout.listitem_restaurant_request_bot, null, true);
-				layoutView.addView(vwTop);
-				layoutView.addView(vwBot);
-				convertView = layoutView;
-			} else {
-				//Everything already created, just find them
-				vwTop = convertView.findViewById(R.id.listitem_request_top);
-				vwBot = convertView.findViewById(R.id.listitem_request_bot);
-			}
-
-			CustomerRequest requestToShow = getItem(position);
-
-			// For every restaurant to present create a handler for the request;
-			// We are creating this view for the very first time
-			if (layoutView != null) {
-				// Create a handler just for the request.
-				new CustomerRequestHandler(requestToShow, vwTop, vwBot);
-			}
-			return convertView;
+		protected RowHolder<CustomerRequest> newHolder(View view) {
+			return new CustomerRequestHandler(view.findViewById(R.id.listitem_request_top),
+					view.findViewById(R.id.listitem_request_bot));
 		}
 
 		/**
 		 * Listener for certain item of a customer request view.
+		 * Holds on to the views of its row while the row is recycled.
 		 * @author glee23
 		 */
-		private class CustomerRequestHandler implements OnClickListener {
+		private class CustomerRequestHandler extends RowHolder<CustomerRequest> 
+		implements OnClickListener {
 
-			private final CustomerRequest mRequest;
 			private final ImageView mExpandDown;
 			private final Button mPickRequest;
 			private final Spinner mSpinner;
 			private final View mTop, mBottom;
+			private final TextView mTitle;
+			private final TextView mTime;
 
 			/**
-			 * Build this handler from the request and its corresponding views.
+			 * Build this handler from the views of a row.
 			 * 
-			 * @param request CustomerRequest to associate to.
 			 * @param top Top view for the request.
 			 * @param bottom bottom view for the request.
 			 */
-			public CustomerRequestHandler(CustomerRequest request, View top, View bottom) {
-				mRequest = request;
-
+			public CustomerRequestHandler(View top, View bottom) {
 				mTop = top;
 				mBottom = bottom;
 
 				// Get a reference to all the top pieces 
 //				final ImageView REQUESTIMAGE = (ImageView) 
 //						mTop.findViewById(R.id.image_order_thumbnail);
-				TextView title = (TextView) mTop.findViewById(R.id.label_request_title);
+				mTitle = (TextView) mTop.findViewById(R.id.label_request_title);
 
 				mExpandDown = (ImageView) 
 						mTop.findViewById(R.id.button_expand_request);
-				TextView time = (TextView) mTop.findViewById(R.id.label_request_time);
+				mTime = (TextView) mTop.findViewById(R.id.label_request_time);
 				mPickRequest = (Button) mBottom.findViewById(R.id.button_proceed_request);	
 
 				// Get a reference to all the bottom pieces
@@ -285,14 +262,6 @@ public class RequestListFragment extends ListFragment {
 				mSpinner = (Spinner) mBottom.findViewById(
 						R.id.spinner_staff_to_assign);
 
-				//Populate
-
-				title.setText(mRequest.getDescription() 
-						+ getString(R.string.dash) + mRequest.getUserInfo().getName());
-
-
-				time.setText(mRequest.getOriginatingTime().toString());
-
 				// Add listeners for reaction purposes
 				remove.setOnClickListener(this);
 				mSpinner.setAdapter(new ArrayAdapter<String>(getActivity(), 
@@ -301,6 +270,15 @@ public class RequestListFragment extends ListFragment {
 
 				mTop.setOnClickListener(this);
 				mPickRequest.setOnClickListener(this);
+			}
+
+			@Override
+			protected void bind(CustomerRequest request, boolean newElement) {
+				//Populate
+				mTitle.setText(request.getDescription() 
+						+ getString(R.string.dash) + request.getUserInfo().getName());
+
+				mTime.setText(request.getOriginatingTime().toString());
 
 				// Set the image of this request
 				//				DineOnImage image = order.getMainImage();
@@ -317,12 +295,16 @@ public class RequestListFragment extends ListFragment {
 				//					});
 				//				}
 
-				// Set the bottom view to initial to be invisible
-				mBottom.setVisibility(View.GONE);
+				if (newElement) {
+					// Set the bottom view to initial to be invisible
+					mBottom.setVisibility(View.GONE);
+					mExpandDown.setVisibility(View.VISIBLE);
+				}
 			}
 
 			@Override
 			public void onClick(View v) {
+				CustomerRequest request = getItem();
 
 				if (v == mTop || v == mPickRequest) { 
 					int bottomVisibility = mBottom.getVisibility();
@@ -339,16 +321,15 @@ public class RequestListFragment extends ListFragment {
 					mBottom.startAnimation(expandAni);
 
 				} else if (v.getId() == R.id.button_assign) {
-					mListener.onAssignStaffToRequest(mRequest, (String) mSpinner.getSelectedItem());
-					mAdapter.notifyDataSetChanged();
+					mListener.onAssignStaffToRequest(request, (String) mSpinner.getSelectedItem());
+					mAdapter.changed(request);
 				} else if (v.getId() == R.id.button_remove) {
-					mAdapter.remove(mRequest);
-					mListener.onRemoveRequest(mRequest);
-					mAdapter.notifyDataSetChanged();
+					mAdapter.remove(request);
+					mListener.onRemoveRequest(request);
 				}
 
 				if (v == mPickRequest) {
-					mListener.onRequestSelected(mRequest);
+					mListener.onRequestSelected(request);
 				}
 			}
 
@@ -76,6 +76,32 @@ RequestDetailListener {
 	@Override
 	protected void updateUI() {
 		super.updateUI();
+
+		// The lists only redraw the rows that changed
+		RequestListFragment requestFrag = mPagerAdapter.getCurrentRequestListFragment();
+		if (requestFrag != null) {
+			requestFrag.setRequests(getCurrentRequests());
+		}
+		DiningSessionListFragment sessionFrag = 
+				mPagerAdapter.getCurrentDiningSessionListFragment();
+		if (sessionFrag != null) {
+			sessionFrag.setDiningSessions(getCurrentSessions());
+		}
+	}
+
+	@Override
+	protected void addOrder(Order order) {
+		super.addOrder(order);
+
+		// The session of the customer shows its orders
+		DiningSessionListFragment frag = mPagerAdapter.getCurrentDiningSessionListFragment();
+		if (frag != null && order.getOriginalUser() != null) {
+			DiningSession session = mRestaurant.getSessionOfUser(
+					order.getOriginalUser().getObjId());
+			if (session != null) {
+				frag.updateDiningSession(session);
+			}
+		}
 	}
 
 	@Override
@@ -100,25 +126,10 @@ RequestDetailListener {
 		super.removeDiningSession(session);
 	}
 
-	@Override
-	protected void addOrder(Order order) {
-		super.addOrder(order);
-
-		// Update our UI for the current added Order 
-		OrderListFragment frag = mPagerAdapter.getCurrentOrderListFragment();
-		if (frag != null) {
-			frag.addOrder(order);
-		}
-	}
-
 	@Override
 	protected void completeOrder(Order order) {
-
-		// Update our UI for the current added Order 
-		OrderListFragment frag = mPagerAdapter.getCurrentOrderListFragment();
-		if (frag != null) {
-			frag.deleteOrder(order);
-		}
+		// The order list fragment listens to the kitchen queue
+		// so it removes the order on its own.
 		
 		// TODO if the current detail fragment is showing the current order
 		// hide the fragment. and focus the screen.
@@ -5,6 +5,7 @@ import uw.cse.dineon.library.Restaurant;
 import uw.cse.dineon.library.RestaurantInfo;
 import uw.cse.dineon.library.image.DineOnImage;
 import uw.cse.dineon.restaurant.DineOnRestaurantActivity;
+import uw.cse.dineon.restaurant.DineOnRestaurantApplication;
 import uw.cse.dineon.restaurant.R;
 import android.app.ActionBar;
 import android.app.ProgressDialog;
@@ -226,7 +227,7 @@ MenuItemsFragment.MenuItemListener {
 
 	@Override
 	public void onMenuItemModified(MenuItem item) {
-		mRestaurant.saveInBackGround(new SaveCallback() {
+		DineOnRestaurantApplication.getSaver().save(mRestaurant, new SaveCallback() {
 			@Override
 			public void done(ParseException e) {
 				if (e == null) {
@@ -270,7 +271,7 @@ MenuItemsFragment.MenuItemListener {
 	@Override
 	public void onImageRemoved(int index) {
 		mRestaurant.getInfo().removeAtIndex(index);
-		mRestaurant.saveInBackGround(new SaveCallback() {
+		DineOnRestaurantApplication.getSaver().save(mRestaurant, new SaveCallback() {
 
 			@Override
 			public void done(ParseException e) {
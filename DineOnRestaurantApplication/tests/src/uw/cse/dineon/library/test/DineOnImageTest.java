@@ -0,0 +1,133 @@
+package uw.cse.dineon.library.test;
+
+import uw.cse.dineon.library.image.BitmapPool;
+import uw.cse.dineon.library.image.DineOnImage;
+import uw.cse.dineon.library.image.DineOnImage.Variant;
+import uw.cse.dineon.library.image.ImageIO;
+import uw.cse.dineon.library.image.Size;
+import uw.cse.dineon.library.util.DineOnConstants;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests how DineOnImage picks, scales and encodes the versions
+ * of an image.  Nothing is saved to the cloud.
+ */
+public class DineOnImageTest extends AndroidTestCase {
+
+	/**
+	 * Asserts that the smallest version that fills a size is picked.
+	 */
+	public void testVariantForSize() {
+		int thumb = DineOnConstants.THUMBNAIL_IMAGE_DIMENSION;
+		int list = DineOnConstants.LIST_IMAGE_DIMENSION;
+		assertEquals(Variant.THUMBNAIL, Variant.forSize(new Size(thumb, thumb / 2)));
+		assertEquals(Variant.LIST, Variant.forSize(new Size(thumb, thumb + 1)));
+		assertEquals(Variant.LIST, Variant.forSize(new Size(list, list)));
+		assertEquals(Variant.FULL, Variant.forSize(new Size(list + 1, 10)));
+		assertEquals(Variant.FULL, Variant.forSize(new Size(5000, 5000)));
+
+		// Unknown sizes get the full image
+		assertEquals(Variant.FULL, Variant.forSize(null));
+		assertEquals(Variant.FULL, Variant.forSize(new Size(-1, -1)));
+	}
+
+	/**
+	 * Asserts that sizes are scaled down proportionally and never up.
+	 */
+	public void testFitWithin() {
+		Size landscape = ImageIO.fitWithin(new Size(1200, 600), 300);
+		assertEquals(300, landscape.width);
+		assertEquals(150, landscape.height);
+
+		Size portrait = ImageIO.fitWithin(new Size(400, 1000), 100);
+		assertEquals(40, portrait.width);
+		assertEquals(100, portrait.height);
+
+		Size small = new Size(50, 20);
+		assertSame(small, ImageIO.fitWithin(small, 100));
+	}
+
+	/**
+	 * Asserts that images are sampled by the biggest power of two
+	 * that still fills the size they are shown at.
+	 */
+	public void testSampleSize() {
+		assertEquals(1, ImageIO.calculateInSampleSize(1000, 800, null));
+		assertEquals(1, ImageIO.calculateInSampleSize(1000, 800, new Size(-1, -1)));
+		assertEquals(1, ImageIO.calculateInSampleSize(150, 100, new Size(150, 150)));
+		assertEquals(2, ImageIO.calculateInSampleSize(300, 300, new Size(150, 150)));
+		assertEquals(4, ImageIO.calculateInSampleSize(1000, 800, new Size(200, 200)));
+		// Both sides have to stay filled
+		assertEquals(2, ImageIO.calculateInSampleSize(1000, 300, new Size(100, 100)));
+	}
+
+	/**
+	 * Asserts that decoding for a size never decodes below that size.
+	 */
+	public void testDecodeSampled() {
+		byte[] bytes = DineOnImage.bitmapToByteArray(
+				Bitmap.createBitmap(800, 600, Bitmap.Config.RGB_565));
+		Bitmap sampled = DineOnImage.byteArrayToBitmap(bytes, new Size(150, 150));
+		assertEquals(200, sampled.getWidth());
+		assertEquals(150, sampled.getHeight());
+
+		Bitmap full = DineOnImage.byteArrayToBitmap(bytes, null);
+		assertEquals(800, full.getWidth());
+		assertNull(DineOnImage.byteArrayToBitmap(new byte[] {1, 2, 3}, new Size(10, 10)));
+	}
+
+	/**
+	 * Asserts that an image is decoded into a pooled bitmap of the same size.
+	 */
+	public void testDecodeIntoPool() {
+		byte[] bytes = DineOnImage.bitmapToByteArray(
+				Bitmap.createBitmap(120, 80, Bitmap.Config.ARGB_8888));
+		BitmapPool pool = new BitmapPool(2);
+		Bitmap other = Bitmap.createBitmap(50, 50, Bitmap.Config.ARGB_8888);
+		Bitmap same = Bitmap.createBitmap(120, 80, Bitmap.Config.ARGB_8888);
+		pool.put(other);
+		pool.put(same);
+		assertEquals(2, pool.size());
+
+		Bitmap decoded = ImageIO.decodeSampled(bytes, null, pool);
+		assertSame(same, decoded);
+		assertTrue(decoded.isMutable());
+		assertEquals(1, pool.size());
+
+		// Sampled decodes can't reuse memory before KitKat
+		pool.put(Bitmap.createBitmap(60, 40, Bitmap.Config.ARGB_8888));
+		assertNotSame(same, ImageIO.decodeSampled(bytes, new Size(60, 40), pool));
+		assertEquals(2, pool.size());
+	}
+
+	/**
+	 * Asserts that bitmaps are scaled to the dimension of a version.
+	 */
+	public void testScaleToFit() {
+		Bitmap b = Bitmap.createBitmap(800, 400, Bitmap.Config.RGB_565);
+		Bitmap thumb = DineOnImage.scaleToFit(b, Variant.THUMBNAIL.getDimension());
+		assertEquals(Variant.THUMBNAIL.getDimension(), thumb.getWidth());
+		assertEquals(Variant.THUMBNAIL.getDimension() / 2, thumb.getHeight());
+
+		Bitmap small = Bitmap.createBitmap(20, 20, Bitmap.Config.RGB_565);
+		assertSame(small, DineOnImage.scaleToFit(small, Variant.FULL.getDimension()));
+	}
+
+	/**
+	 * Asserts that photos are stored lossy, transparent images lossless
+	 * and that stored photos decode to the same size.
+	 */
+	public void testFormatByContent() {
+		Bitmap photo = Bitmap.createBitmap(200, 200, Bitmap.Config.RGB_565);
+		Bitmap icon = Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888);
+		icon.setHasAlpha(true);
+		assertEquals(Bitmap.CompressFormat.JPEG, DineOnImage.getCompressFormat(photo));
+		assertEquals(Bitmap.CompressFormat.PNG, DineOnImage.getCompressFormat(icon));
+
+		byte[] bytes = DineOnImage.bitmapToByteArray(photo);
+		Bitmap decoded = DineOnImage.byteArrayToBitmap(bytes);
+		assertEquals(200, decoded.getWidth());
+		assertEquals(200, decoded.getHeight());
+	}
+}
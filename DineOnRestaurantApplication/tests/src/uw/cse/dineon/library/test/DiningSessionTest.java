@@ -111,6 +111,27 @@ public class DiningSessionTest extends AndroidTestCase {
 		assertEquals(tempList, testSession.getUsers());
 	}
 
+	/**
+	 * Asserts that the same read only list of users is returned
+	 * until the users change, and that earlier lists do not change.
+	 */
+	public void testUsersAreSharedUntilChanged() {
+		List<UserInfo> before = testSession.getUsers();
+		assertSame(before, testSession.getUsers());
+		boolean readOnly = false;
+		try {
+			before.add(testUInfo);
+		} catch (UnsupportedOperationException e) {
+			readOnly = true;
+		}
+		assertTrue("List of users should be read only", readOnly);
+
+		testSession.removeUser(testUInfo);
+		assertEquals(1, before.size());
+		assertNotSame(before, testSession.getUsers());
+		assertTrue(testSession.getUsers().isEmpty());
+	}
+
 	/**
 	 * Asserts that the session has the correct table id stored
 	 */
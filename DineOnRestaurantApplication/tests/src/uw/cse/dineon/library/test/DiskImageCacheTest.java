@@ -0,0 +1,221 @@
+package uw.cse.dineon.library.test;
+
+import java.util.Random;
+
+import uw.cse.dineon.library.image.DineOnImage;
+import uw.cse.dineon.library.image.DiskImageCache;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/**
+ * Tests for DiskImageCache and a micro benchmark that compares reading
+ * images from files against reading them from SQLite BLOBs the way
+ * ImageCache used to.
+ *
+ * Timings are written to the log under this class name.
+ */
+public class DiskImageCacheTest extends AndroidTestCase {
+
+	private static final String TAG = DiskImageCacheTest.class.getSimpleName();
+
+	private static final int NUM_IMAGES = 20;
+	private static final int NUM_ROUNDS = 5;
+
+	DiskImageCache testCache;
+	byte[] testData;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testCache = new DiskImageCache(getContext(), 16 * 1024 * 1024);
+		testCache.open();
+		testCache.clear();
+		testData = createImageData(300, 200);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testCache.clear();
+		testCache.close();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that an added image is decoded from its file.
+	 */
+	public void testPutAndGet() {
+		assertNull(testCache.get("img1"));
+		assertEquals(-1, testCache.getLastUpdated("img1"));
+
+		assertTrue(testCache.put("img1", testData, 1234));
+		assertTrue(testCache.contains("img1"));
+		assertEquals(1234, testCache.getLastUpdated("img1"));
+		assertEquals(testData.length, testCache.getFile("img1").length());
+		assertEquals(testData.length, testCache.size());
+
+		Bitmap b = testCache.get("img1");
+		assertNotNull(b);
+		assertEquals(300, b.getWidth());
+		assertEquals(200, b.getHeight());
+
+		// Replacing keeps a single copy
+		assertTrue(testCache.put("img1", testData, 5678));
+		assertEquals(5678, testCache.getLastUpdated("img1"));
+		assertEquals(testData.length, testCache.size());
+
+		testCache.remove("img1");
+		assertFalse(testCache.contains("img1"));
+		assertFalse(testCache.getFile("img1").exists());
+	}
+
+	/**
+	 * Asserts that the images used least recently are evicted
+	 * once the budget is exceeded.
+	 * @throws Exception if the thread was interrupted
+	 */
+	public void testEvictsLeastRecentlyUsed() throws Exception {
+		DiskImageCache small = new DiskImageCache(getContext(), testData.length * 2);
+		small.open();
+		small.clear();
+		try {
+			small.put("first", testData, 0);
+			Thread.sleep(5);
+			small.put("second", testData, 0);
+			Thread.sleep(5);
+			// Using first makes second the least recently used
+			assertNotNull(small.get("first"));
+			Thread.sleep(5);
+			small.put("third", testData, 0);
+
+			assertTrue(small.contains("first"));
+			assertFalse(small.contains("second"));
+			assertFalse(small.getFile("second").exists());
+			assertTrue(small.contains("third"));
+			assertTrue(small.size() <= small.getMaxSize());
+			assertEquals(1, small.getEvictionCount());
+		} finally {
+			small.clear();
+			small.close();
+		}
+	}
+
+	/**
+	 * Asserts that images that were not used for a while are removed.
+	 * @throws Exception if the thread was interrupted
+	 */
+	public void testRemoveUnused() throws Exception {
+		testCache.put("old", testData, 0);
+		Thread.sleep(5);
+		long cutoff = System.currentTimeMillis();
+		Thread.sleep(5);
+		testCache.put("new", testData, 0);
+
+		assertEquals(1, testCache.removeUnusedSince(cutoff));
+		assertFalse(testCache.contains("old"));
+		assertFalse(testCache.getFile("old").exists());
+		assertTrue(testCache.contains("new"));
+		assertEquals(1, testCache.getEvictionCount());
+	}
+
+	/**
+	 * Asserts that trimming evicts the oldest images at once.
+	 * @throws Exception if the thread was interrupted
+	 */
+	public void testTrimToSize() throws Exception {
+		for (int i = 0; i < 5; ++i) {
+			testCache.put("img" + i, testData, 0);
+			Thread.sleep(5);
+		}
+		assertEquals(0, testCache.trimToSize(testData.length * 5));
+		assertEquals(3, testCache.trimToSize(testData.length * 2));
+		for (int i = 0; i < 3; ++i) {
+			assertFalse(testCache.contains("img" + i));
+			assertFalse(testCache.getFile("img" + i).exists());
+		}
+		assertTrue(testCache.contains("img3"));
+		assertTrue(testCache.contains("img4"));
+		assertEquals(testData.length * 2, testCache.size());
+		assertEquals(3, testCache.getEvictionCount());
+	}
+
+	/**
+	 * Times reading images from files against reading them from
+	 * SQLite BLOBs and logs the result.
+	 */
+	public void testBenchmarkReads() {
+		byte[] data = createImageData(600, 600);
+		SQLiteDatabase blobs = SQLiteDatabase.create(null);
+		blobs.execSQL("create table images (parseid text not null, image BLOB);");
+		for (int i = 0; i < NUM_IMAGES; ++i) {
+			ContentValues values = new ContentValues();
+			values.put("parseid", "img" + i);
+			values.put("image", data);
+			blobs.insert("images", null, values);
+			testCache.put("img" + i, data, 0);
+		}
+
+		// Warm up both paths
+		readBlobs(blobs);
+		readFiles();
+
+		long blobTotal = 0;
+		long fileTotal = 0;
+		for (int i = 0; i < NUM_ROUNDS; ++i) {
+			blobTotal += readBlobs(blobs);
+			fileTotal += readFiles();
+		}
+		blobs.close();
+		Log.i(TAG, "Read " + NUM_IMAGES + " images of " + data.length + " bytes x "
+				+ NUM_ROUNDS + " rounds. BLOB: " + blobTotal + "ms, File: " + fileTotal + "ms");
+	}
+
+	/**
+	 * Reads every image from the BLOB table.
+	 * @param blobs Database with the BLOB table
+	 * @return time in milliseconds
+	 */
+	private long readBlobs(SQLiteDatabase blobs) {
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < NUM_IMAGES; ++i) {
+			Cursor cursor = blobs.query("images", new String[] {"image"},
+					"parseid = ?", new String[] {"img" + i}, null, null, null);
+			assertTrue(cursor.moveToFirst());
+			assertNotNull(DineOnImage.byteArrayToBitmap(cursor.getBlob(0)));
+			cursor.close();
+		}
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Reads every image from the files of the cache.
+	 * @return time in milliseconds
+	 */
+	private long readFiles() {
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < NUM_IMAGES; ++i) {
+			assertNotNull(testCache.get("img" + i));
+		}
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Creates a photo like image of random pixels.
+	 * @param width Width of the image
+	 * @param height Height of the image
+	 * @return Encoded image
+	 */
+	private static byte[] createImageData(int width, int height) {
+		Random random = new Random(width * height);
+		int[] colors = new int[width * height];
+		for (int i = 0; i < colors.length; ++i) {
+			colors[i] = 0xFF000000 | random.nextInt(0xFFFFFF);
+		}
+		Bitmap b = Bitmap.createBitmap(colors, width, height, Bitmap.Config.RGB_565);
+		return DineOnImage.bitmapToByteArray(b);
+	}
+}
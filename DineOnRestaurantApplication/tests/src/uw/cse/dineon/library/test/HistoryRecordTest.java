@@ -0,0 +1,245 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.HistoryPager;
+import uw.cse.dineon.library.HistoryRecord;
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.StorageQuery;
+import uw.cse.dineon.library.UserInfo;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+
+/**
+ * Tests for the library class HistoryRecord and the history
+ * paging of Restaurant.
+ *
+ * White box tests
+ */
+public class HistoryRecordTest extends AndroidTestCase {
+
+	ParseUser mUser;
+	UserInfo testUInfo;
+	Order testOrder;
+	Restaurant testRestaurant;
+	Date testDate;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mUser = new ParseUser();
+		mUser.setUsername("hello");
+		mUser.setPassword("rtest");
+
+		testUInfo = new UserInfo(mUser);
+		testUInfo.setObjId("tui");
+		testDate = utc(2013, Calendar.MARCH, 15, 18, 30);
+		testOrder = new Order(32, testUInfo, new ArrayList<CurrentOrderItem>());
+		testOrder.setObjId("to");
+		testRestaurant = new Restaurant(mUser);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that days are computed from the calendar date in UTC.
+	 */
+	public void testDayOf() {
+		assertEquals(20130315, HistoryRecord.dayOf(testDate));
+		Date nextDay = utc(2013, Calendar.MARCH, 16, 0, 1);
+		assertTrue(HistoryRecord.dayOf(nextDay) > HistoryRecord.dayOf(testDate));
+	}
+
+	/**
+	 * Asserts that the day of a date does not depend on the time zone
+	 * the device is set to.
+	 */
+	public void testDayOfIgnoresTimeZone() {
+		Date lateNight = utc(2013, Calendar.MARCH, 15, 23, 30);
+		TimeZone old = TimeZone.getDefault();
+		try {
+			TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles"));
+			assertEquals(20130315, HistoryRecord.dayOf(lateNight));
+			TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+			assertEquals(20130315, HistoryRecord.dayOf(lateNight));
+		} finally {
+			TimeZone.setDefault(old);
+		}
+	}
+
+	/**
+	 * Asserts that a record of an order is stored in the partition of
+	 * the day the order was placed.
+	 */
+	public void testOrderRecord() {
+		HistoryRecord record = HistoryRecord.forOrder(testRestaurant, testOrder);
+		assertEquals(HistoryRecord.TYPE_ORDER, record.getType());
+		assertEquals(HistoryRecord.dayOf(testOrder.getOriginatingTime()), record.getDay());
+
+		ParseObject po = record.packObject();
+		assertEquals(record.getDay(), po.getInt(HistoryRecord.DAY));
+		assertEquals(HistoryRecord.TYPE_ORDER, po.getString(HistoryRecord.TYPE));
+	}
+
+	/**
+	 * Asserts that a record of a user keeps the time it was given.
+	 */
+	public void testUserRecord() {
+		HistoryRecord record = HistoryRecord.forUser(testRestaurant, testUInfo, testDate);
+		assertEquals(HistoryRecord.TYPE_USER, record.getType());
+		assertEquals(testDate, record.getTime());
+		assertEquals(20130315, record.getDay());
+	}
+
+	/**
+	 * Asserts that completed orders are not stored in the restaurant.
+	 */
+	public void testHistoryNotPacked() {
+		testRestaurant.addOrder(testOrder);
+		testRestaurant.completeOrder(testOrder);
+		ParseObject po = testRestaurant.packObject();
+		assertFalse(po.containsKey(Restaurant.PAST_ORDERS));
+	}
+
+	/**
+	 * Asserts that history stored in the restaurant by older versions
+	 * is recorded once even if a stale copy of the restaurant migrates
+	 * it again, and that the restaurant is saved without it.
+	 * @throws Exception if migrating failed
+	 */
+	public void testMigrationNotRepeated() throws Exception {
+		StorageBackend oldBackend = Storable.getBackend();
+		MemoryStorageBackend backend = new MemoryStorageBackend(0);
+		Storable.setBackend(backend);
+		StorableIdentityMap.clear();
+		try {
+			ParseObject po = testRestaurant.packObject();
+			List<ParseObject> pastUsers = new ArrayList<ParseObject>();
+			pastUsers.add(testUInfo.packObject());
+			po.put(Restaurant.PAST_USERS, pastUsers);
+			backend.save(po);
+			int saved = backend.size();
+
+			Restaurant migrated = new Restaurant(po);
+			// Copy that was loaded before the migration finished
+			Restaurant stale = new Restaurant(po);
+			migrated.migrateHistory();
+			assertEquals(saved + 1, backend.size());
+			assertFalse(po.containsKey(Restaurant.PAST_USERS));
+
+			stale.migrateHistory();
+			assertEquals(saved + 1, backend.size());
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+			StorableIdentityMap.clear();
+		}
+	}
+
+	/**
+	 * Asserts that only the most recently completed orders are kept
+	 * in memory.
+	 */
+	public void testRecentOrdersCapped() {
+		List<Order> orders = new ArrayList<Order>();
+		for (int i = 0; i <= Restaurant.MAX_RECENT_ORDERS; ++i) {
+			Order order = new Order(1, testUInfo, new ArrayList<CurrentOrderItem>());
+			order.setObjId("o" + i);
+			orders.add(order);
+			testRestaurant.addOrder(order);
+			testRestaurant.completeOrder(order);
+		}
+		List<Order> recent = testRestaurant.getPastOrders();
+		assertEquals(Restaurant.MAX_RECENT_ORDERS, recent.size());
+		assertSame(orders.get(1), recent.get(0));
+		assertSame(orders.get(Restaurant.MAX_RECENT_ORDERS), 
+				recent.get(Restaurant.MAX_RECENT_ORDERS - 1));
+
+		// The dropped order is no longer known as a past order
+		testRestaurant.addOrder(orders.get(0));
+		testRestaurant.completeOrder(orders.get(0));
+		assertSame(orders.get(0), testRestaurant.getPastOrders().get(
+				Restaurant.MAX_RECENT_ORDERS - 1));
+	}
+
+	/**
+	 * Asserts that deleting a restaurant deletes its history records
+	 * and leaves the records of other restaurants.
+	 * @throws Exception if the records could not be saved
+	 */
+	public void testHistoryDeletedWithRestaurant() throws Exception {
+		StorageBackend oldBackend = Storable.getBackend();
+		MemoryStorageBackend backend = new MemoryStorageBackend(0);
+		Storable.setBackend(backend);
+		StorableIdentityMap.clear();
+		try {
+			testRestaurant.saveOnCurrentThread();
+			ParseUser otherUser = new ParseUser();
+			otherUser.setUsername("other");
+			Restaurant other = new Restaurant(otherUser);
+			other.saveOnCurrentThread();
+			HistoryRecord.forOrder(testRestaurant, testOrder).saveOnCurrentThread();
+			HistoryRecord.forUser(testRestaurant, testUInfo, testDate).saveOnCurrentThread();
+			HistoryRecord.forUser(other, testUInfo, testDate).saveOnCurrentThread();
+			String className = HistoryRecord.class.getSimpleName();
+			assertEquals(3, backend.find(new StorageQuery(className)).size());
+
+			testRestaurant.deleteFromCloud();
+			long start = SystemClock.elapsedRealtime();
+			while (backend.find(new StorageQuery(className)).size() > 1
+					&& SystemClock.elapsedRealtime() - start < 1000) {
+				SystemClock.sleep(5);
+			}
+			List<ParseObject> left = backend.find(new StorageQuery(className));
+			assertEquals(1, left.size());
+			assertEquals(other.getObjId(), 
+					left.get(0).getParseObject(HistoryRecord.RESTAURANT).getObjectId());
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+			StorableIdentityMap.clear();
+		}
+	}
+
+	/**
+	 * Asserts that pagers over empty ranges have no pages.
+	 * @throws Exception if downloading failed
+	 */
+	public void testEmptyRange() throws Exception {
+		HistoryPager<Order> pager = testRestaurant.getPastOrders(testDate, testDate, 10);
+		assertFalse(pager.hasNextPage());
+		assertTrue(pager.nextPage().isEmpty());
+	}
+
+	/**
+	 * @param year Year of the date
+	 * @param month Month of the date, IE Calendar.MARCH
+	 * @param day Day of month of the date
+	 * @param hour Hour of the date
+	 * @param minute Minute of the date
+	 * @return The date in UTC
+	 */
+	private static Date utc(int year, int month, int day, int hour, int minute) {
+		Calendar cal = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+		cal.clear();
+		cal.set(year, month, day, hour, minute);
+		return cal.getTime();
+	}
+}
@@ -0,0 +1,367 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.image.DineOnImage;
+import uw.cse.dineon.library.image.DineOnImage.Variant;
+import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
+import uw.cse.dineon.library.image.ImageLoader;
+import uw.cse.dineon.library.image.Size;
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import com.parse.GetDataCallback;
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Tests that ImageLoader shares loads of the same image and drops
+ * the loads of recycled views.  Reads, downloads and deliveries are
+ * run by hand so the order of events is known.
+ */
+public class ImageLoaderTest extends AndroidTestCase {
+
+	private static final byte[] DATA = {1, 2, 3};
+
+	StorageBackend oldBackend;
+	MemoryStorageBackend testBackend;
+	FakeLoader testLoader;
+	DineOnImage testImage;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		oldBackend = Storable.getBackend();
+		testBackend = new MemoryStorageBackend(0);
+		Storable.setBackend(testBackend);
+		ParseObject po = new ParseObject(DineOnImage.class.getSimpleName());
+		po.setObjectId("img1");
+		testImage = new DineOnImage(po);
+		testLoader = new FakeLoader();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testLoader.shutdown();
+		Storable.setBackend(oldBackend);
+		testBackend.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that overlapping loads of one image are read and
+	 * downloaded once and every caller gets the image.
+	 */
+	public void testCoalescesLoads() {
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		Recorder third = new Recorder();
+		testLoader.load(testImage, Variant.LIST, first);
+		testLoader.load(testImage, Variant.LIST, second);
+		testLoader.load(testImage, Variant.LIST, third);
+		assertEquals(2, testLoader.getCoalescedCount());
+		assertEquals(1, testLoader.getInFlightCount());
+
+		testLoader.runAll();
+		assertEquals(1, testLoader.mDiskReads);
+		assertEquals(1, testLoader.mDownloads.size());
+
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.runAll();
+		assertEquals(1, testLoader.mStored);
+		assertEquals(0, testLoader.getInFlightCount());
+
+		// Nothing is delivered before the main thread runs
+		assertEquals(0, first.mReceived.size());
+		testLoader.deliverAll();
+		assertEquals(1, first.mReceived.size());
+		assertSame(first.mReceived.get(0), second.mReceived.get(0));
+		assertSame(first.mReceived.get(0), third.mReceived.get(0));
+	}
+
+	/**
+	 * Asserts that different versions of an image are loaded separately.
+	 */
+	public void testVersionsLoadSeparately() {
+		testLoader.load(testImage, Variant.THUMBNAIL, new Recorder());
+		testLoader.load(testImage, Variant.FULL, new Recorder());
+		assertEquals(0, testLoader.getCoalescedCount());
+		assertEquals(2, testLoader.getInFlightCount());
+	}
+
+	/**
+	 * Asserts that loads for different view sizes are decoded and kept
+	 * in memory separately and loads for the same size are shared.
+	 */
+	public void testKeyedBySize() {
+		Size small = new Size(100, 100);
+		Size wide = new Size(140, 60);
+		testLoader.mDiskImage = Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565);
+		testLoader.load(testImage, small, new Recorder());
+		testLoader.load(testImage, new Size(100, 100), new Recorder());
+		testLoader.load(testImage, wide, new Recorder());
+		assertEquals(1, testLoader.getCoalescedCount());
+		assertEquals(2, testLoader.getInFlightCount());
+
+		testLoader.runAll();
+		assertEquals(2, testLoader.mDiskReads);
+		assertSame(small, testLoader.mSizes.get(0));
+		assertSame(wide, testLoader.mSizes.get(1));
+		assertNotNull(testLoader.getFromMemory(testImage, small));
+		assertNotNull(testLoader.getFromMemory(testImage, wide));
+		assertNull(testLoader.getFromMemory(testImage, new Size(300, 300)));
+		assertNull(testLoader.getFromMemory(testImage, Variant.THUMBNAIL));
+	}
+
+	/**
+	 * Asserts that a loaded image is returned from memory right away.
+	 */
+	public void testMemoryHit() {
+		testLoader.mDiskImage = Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565);
+		testLoader.load(testImage, Variant.LIST, new Recorder());
+		testLoader.runAll();
+		testLoader.deliverAll();
+
+		Recorder again = new Recorder();
+		testLoader.load(testImage, Variant.LIST, again);
+		assertEquals(1, again.mReceived.size());
+		assertSame(testLoader.mDiskImage, again.mReceived.get(0));
+		assertSame(testLoader.mDiskImage, testLoader.getFromMemory(testImage, Variant.LIST));
+		assertEquals(1, testLoader.mDiskReads);
+	}
+
+	/**
+	 * Asserts that a load nobody waits for is not read and a
+	 * cancelled caller is not called back.
+	 */
+	public void testCancel() {
+		Recorder recycled = new Recorder();
+		ImageLoader.Ticket ticket = testLoader.load(testImage, Variant.LIST, recycled);
+		ticket.cancel();
+		assertTrue(ticket.isCancelled());
+		assertEquals(0, testLoader.getInFlightCount());
+		testLoader.runAll();
+		assertEquals(0, testLoader.mDiskReads);
+
+		// Only the caller that is still waiting gets the image
+		Recorder kept = new Recorder();
+		ImageLoader.Ticket gone = testLoader.load(testImage, Variant.LIST, recycled);
+		testLoader.load(testImage, Variant.LIST, kept);
+		testLoader.runAll();
+		gone.cancel();
+		assertEquals(1, testLoader.getInFlightCount());
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.runAll();
+		testLoader.deliverAll();
+		assertEquals(0, recycled.mReceived.size());
+		assertEquals(1, kept.mReceived.size());
+	}
+
+	/**
+	 * Asserts that a failed download is passed to every caller.
+	 */
+	public void testDownloadFailure() {
+		Recorder first = new Recorder();
+		Recorder second = new Recorder();
+		testLoader.load(testImage, Variant.LIST, first);
+		testLoader.load(testImage, Variant.LIST, second);
+		testLoader.runAll();
+		testLoader.mDownloads.remove(0).done(null,
+				new ParseException(ParseException.CONNECTION_FAILED, "offline"));
+		testLoader.deliverAll();
+		assertEquals(1, first.mErrors);
+		assertEquals(1, second.mErrors);
+		assertEquals(0, testLoader.mStored);
+		assertEquals(0, testLoader.getInFlightCount());
+	}
+
+	/**
+	 * Asserts that an evicted image is not decoded into while a ticket
+	 * that got it may still show it.
+	 * @throws ParseException if the image can't be created
+	 */
+	public void testEvictedImageReusedOnceReleased() throws ParseException {
+		testLoader.shutdown();
+		testLoader = new FakeLoader(1);
+		// One image fills the memory cache
+		testLoader.mDecodeWidth = 32;
+		testLoader.mDecodeHeight = 16;
+		ParseObject po = new ParseObject(DineOnImage.class.getSimpleName());
+		po.setObjectId("img2");
+		DineOnImage other = new DineOnImage(po);
+
+		Recorder shown = new Recorder();
+		ImageLoader.Ticket ticket = testLoader.load(testImage, Variant.LIST, shown);
+		testLoader.runAll();
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.runAll();
+		testLoader.deliverAll();
+		assertEquals(1, shown.mReceived.size());
+
+		// Loading another image evicts the shown one
+		testLoader.load(other, Variant.LIST, new Recorder());
+		testLoader.runAll();
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.runAll();
+		testLoader.deliverAll();
+		assertNull(testLoader.getFromMemory(testImage, Variant.LIST));
+		assertEquals(0, testLoader.getPool().size());
+
+		ticket.cancel();
+		assertEquals(1, testLoader.getPool().size());
+		assertSame(shown.mReceived.get(0), testLoader.getPool().get(32, 16, Bitmap.Config.RGB_565));
+	}
+
+	/**
+	 * Asserts that an image evicted before it is delivered is not
+	 * decoded into until the ticket lets go of it.
+	 * @throws ParseException if the image can't be created
+	 */
+	public void testEvictedBeforeDeliveryIsHeld() throws ParseException {
+		testLoader.shutdown();
+		testLoader = new FakeLoader(1);
+		testLoader.mDecodeWidth = 32;
+		testLoader.mDecodeHeight = 16;
+		ParseObject po = new ParseObject(DineOnImage.class.getSimpleName());
+		po.setObjectId("img2");
+		DineOnImage other = new DineOnImage(po);
+
+		Recorder waiting = new Recorder();
+		ImageLoader.Ticket ticket = testLoader.load(testImage, Variant.LIST, waiting);
+		testLoader.load(other, Variant.LIST, new Recorder());
+		testLoader.runAll();
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.mDownloads.remove(0).done(DATA, null);
+		testLoader.runAll();
+		assertEquals(0, testLoader.getPool().size());
+
+		testLoader.deliverAll();
+		assertEquals(1, waiting.mReceived.size());
+		ticket.cancel();
+		assertEquals(1, testLoader.getPool().size());
+	}
+
+	/**
+	 * Callback that remembers what it got.
+	 */
+	private static class Recorder implements ImageGetCallback {
+
+		final List<Bitmap> mReceived = new ArrayList<Bitmap>();
+		int mErrors;
+
+		@Override
+		public void onImageReceived(Exception e, Bitmap b) {
+			if (e == null) {
+				mReceived.add(b);
+			} else {
+				mErrors++;
+			}
+		}
+	}
+
+	/**
+	 * Executor that runs its tasks when asked to.
+	 */
+	private static class ManualExecutor implements Executor {
+
+		final LinkedList<Runnable> mTasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			mTasks.add(command);
+		}
+	}
+
+	/**
+	 * Loader that counts reads and holds downloads and deliveries
+	 * until the test runs them.
+	 */
+	private static class FakeLoader extends ImageLoader {
+
+		final ManualExecutor mExecutor;
+		final List<GetDataCallback> mDownloads = new ArrayList<GetDataCallback>();
+		final LinkedList<Runnable> mDeliveries = new LinkedList<Runnable>();
+		final List<Size> mSizes = new ArrayList<Size>();
+		Bitmap mDiskImage;
+		int mDecodeWidth = 10;
+		int mDecodeHeight = 10;
+		int mDiskReads;
+		int mStored;
+
+		/**
+		 * Creates a loader without a disk cache.
+		 */
+		FakeLoader() {
+			this(1024);
+		}
+
+		/**
+		 * Creates a loader without a disk cache.
+		 * @param memoryCacheKb Size of the memory cache in kilobytes
+		 */
+		FakeLoader(int memoryCacheKb) {
+			this(memoryCacheKb, new ManualExecutor());
+		}
+
+		/**
+		 * @param memoryCacheKb Size of the memory cache in kilobytes
+		 * @param executor Executor to hold the tasks of the loader
+		 */
+		private FakeLoader(int memoryCacheKb, ManualExecutor executor) {
+			super(null, memoryCacheKb, executor);
+			mExecutor = executor;
+		}
+
+		/**
+		 * Runs every task until none is left.
+		 */
+		void runAll() {
+			while (!mExecutor.mTasks.isEmpty()) {
+				mExecutor.mTasks.removeFirst().run();
+			}
+		}
+
+		/**
+		 * Runs every delivery as the main thread would.
+		 */
+		void deliverAll() {
+			while (!mDeliveries.isEmpty()) {
+				mDeliveries.removeFirst().run();
+			}
+		}
+
+		@Override
+		protected Bitmap readFromDisk(DineOnImage image, Variant variant, Size size) {
+			mDiskReads++;
+			mSizes.add(size);
+			return mDiskImage;
+		}
+
+		@Override
+		protected void download(DineOnImage image, Variant variant,
+				GetDataCallback callback) {
+			mDownloads.add(callback);
+		}
+
+		@Override
+		protected Bitmap decode(byte[] data, Size size) {
+			return Bitmap.createBitmap(mDecodeWidth, mDecodeHeight, Bitmap.Config.RGB_565);
+		}
+
+		@Override
+		protected void store(DineOnImage image, Variant variant, byte[] data) {
+			mStored++;
+		}
+
+		@Override
+		protected void deliver(Runnable r) {
+			mDeliveries.add(r);
+		}
+	}
+}
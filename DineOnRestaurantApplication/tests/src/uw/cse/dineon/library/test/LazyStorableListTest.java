@@ -0,0 +1,89 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.LazyStorableList;
+import uw.cse.dineon.library.MenuItem;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+
+/**
+ * Tests for the library class LazyStorableList.  Makes sure
+ * elements are only built when the list is read.
+ *
+ * White box tests
+ */
+public class LazyStorableListTest extends AndroidTestCase {
+
+	MenuItem testItem;
+	List<Object> testReferences;
+	LazyStorableList<MenuItem> testList;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testItem.setObjId("ti");
+		testReferences = new ArrayList<Object>();
+		testReferences.add(testItem.packObject());
+		testList = new LazyStorableList<MenuItem>(MenuItem.class, testReferences);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that the size is known without loading.
+	 */
+	public void testSizeDoesNotLoad() {
+		assertEquals(1, testList.size());
+		assertFalse(testList.isLoaded());
+	}
+
+	/**
+	 * Asserts that packing an unloaded list returns the original references.
+	 */
+	public void testPackDoesNotLoad() {
+		List<ParseObject> packed = testList.toParseObjects();
+		assertEquals(testReferences, new ArrayList<Object>(packed));
+		assertFalse(testList.isLoaded());
+	}
+
+	/**
+	 * Asserts that appending to an unloaded list does not load it.
+	 */
+	public void testAppendDoesNotLoad() {
+		MenuItem item = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		testList.add(item);
+		assertEquals(2, testList.size());
+		assertFalse(testList.isLoaded());
+		assertEquals(2, testList.toParseObjects().size());
+	}
+
+	/**
+	 * Asserts that reading the list builds the elements.
+	 */
+	public void testGetLoads() {
+		MenuItem loaded = testList.get(0);
+		assertTrue(testList.isLoaded());
+		assertEquals(testItem.getObjId(), loaded.getObjId());
+		assertEquals(testItem.getTitle(), loaded.getTitle());
+	}
+
+	/**
+	 * Asserts that appended items survive loading and keep their order.
+	 */
+	public void testAppendThenLoad() {
+		MenuItem item = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		item.setObjId("ti2");
+		testList.add(item);
+		testList.load();
+		assertEquals(2, testList.size());
+		assertEquals(testItem, testList.get(0));
+		assertSame(item, testList.get(1));
+	}
+}
@@ -0,0 +1,109 @@
+package uw.cse.dineon.library.test;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.Menu;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.store.LocalStore;
+import uw.cse.dineon.library.store.ParseObjectCodec;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+
+/**
+ * Tests for the library classes LocalStore and ParseObjectCodec.
+ * Makes sure stored objects come back with all their nested objects.
+ *
+ * White box tests
+ */
+public class LocalStoreTest extends AndroidTestCase {
+
+	private static final String OWNER = "testOwner";
+
+	MenuItem testItem;
+	Menu testMenu;
+	LocalStore testStore;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testItem.setObjId("ti");
+		testMenu = new Menu("beverages");
+		testMenu.setObjId("tm");
+		testMenu.addNewItem(testItem);
+
+		testStore = new LocalStore(getContext());
+		testStore.open();
+		testStore.clear();
+		StorableIdentityMap.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testStore.clear();
+		testStore.close();
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that a decoded object has its data and nested objects.
+	 * @throws Exception if the object can't be decoded
+	 */
+	public void testCodecRoundTrip() throws Exception {
+		JSONObject json = ParseObjectCodec.encode(testMenu.packObject());
+		ParseObject po = ParseObjectCodec.decode(new JSONObject(json.toString()));
+
+		assertTrue(po.isDataAvailable());
+		assertEquals("tm", po.getObjectId());
+		Menu menu = new Menu(po);
+		assertEquals("beverages", menu.getName());
+		assertEquals(1, menu.getItems().size());
+		assertEquals("Root Beer Float", menu.getItems().get(0).getTitle());
+	}
+
+	/**
+	 * Asserts that objects that were never saved can't be encoded.
+	 */
+	public void testUnsavedNotEncoded() {
+		Menu unsaved = new Menu("desserts");
+		boolean encoded = true;
+		try {
+			ParseObjectCodec.encode(unsaved.packObject());
+		} catch (JSONException e) {
+			encoded = false;
+		}
+		assertFalse("Unsaved object was encoded", encoded);
+		assertFalse(testStore.put(unsaved, OWNER));
+	}
+
+	/**
+	 * Asserts that a stored object can be found by id and by owner.
+	 */
+	public void testPutAndGet() {
+		assertTrue(testStore.put(testMenu, OWNER));
+		StorableIdentityMap.clear();
+
+		Menu byId = testStore.get(Menu.class, "tm");
+		assertNotNull(byId);
+		assertEquals("beverages", byId.getName());
+		assertEquals(1, byId.getItems().size());
+
+		Menu byOwner = testStore.getByOwner(Menu.class, OWNER);
+		assertNotNull(byOwner);
+		assertEquals("tm", byOwner.getObjId());
+		assertNull(testStore.getByOwner(Menu.class, "someoneElse"));
+	}
+
+	/**
+	 * Asserts that removed objects are no longer found.
+	 */
+	public void testRemove() {
+		assertTrue(testStore.put(testMenu, OWNER));
+		testStore.remove(testMenu);
+		assertNull(testStore.get(Menu.class, "tm"));
+	}
+}
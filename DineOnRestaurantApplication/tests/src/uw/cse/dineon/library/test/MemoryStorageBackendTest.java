@@ -0,0 +1,210 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.Menu;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.StorageQuery;
+import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.library.util.ParseUtil;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+import com.parse.SaveCallback;
+
+/**
+ * Tests the library class MemoryStorageBackend and measures the order
+ * and session flows against it without a network.
+ *
+ * Timings are written to the log under this class name.
+ */
+public class MemoryStorageBackendTest extends AndroidTestCase {
+
+	private static final String TAG = MemoryStorageBackendTest.class.getSimpleName();
+
+	private static final long LATENCY = 5;
+	private static final int NUM_ORDERS = 40;
+
+	StorageBackend oldBackend;
+	MemoryStorageBackend testBackend;
+	ParseUser mUser;
+	UserInfo testUInfo;
+	RestaurantInfo testRestaurantInfo;
+	MenuItem testItem;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		oldBackend = Storable.getBackend();
+		testBackend = new MemoryStorageBackend(0);
+		Storable.setBackend(testBackend);
+		StorableIdentityMap.clear();
+
+		mUser = new ParseUser();
+		mUser.setUsername("hello");
+		mUser.setPassword("rtest");
+		testUInfo = new UserInfo(mUser);
+		testRestaurantInfo = new RestaurantInfo(mUser);
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Storable.setBackend(oldBackend);
+		testBackend.shutdown();
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that saving assigns ids to the object and everything in it
+	 * and that a download is a separate copy with update times.
+	 * @throws Exception if the menu can't be saved or downloaded
+	 */
+	public void testSaveAndGet() throws Exception {
+		Menu menu = new Menu("beverages");
+		menu.addNewItem(testItem);
+		menu.saveOnCurrentThread();
+
+		assertNotNull(menu.getObjId());
+		assertNotNull(testItem.getObjId());
+		assertEquals(2, testBackend.size());
+		assertEquals(1, testBackend.getSaveCount());
+
+		ParseObject po = testBackend.get(Menu.class.getSimpleName(), menu.getObjId());
+		assertNotSame(menu.packObject(), po);
+		assertNotNull(po.getUpdatedAt());
+		Menu copy = new Menu(po);
+		assertEquals("beverages", copy.getName());
+		assertEquals(1, copy.getItems().size());
+	}
+
+	/**
+	 * Asserts that an object is only downloaded again if it changed.
+	 * @throws Exception if the menu can't be saved or downloaded
+	 */
+	public void testGetIfUpdatedSince() throws Exception {
+		Menu menu = new Menu("beverages");
+		menu.saveOnCurrentThread();
+		String className = Menu.class.getSimpleName();
+		Date saved = testBackend.get(className, menu.getObjId()).getUpdatedAt();
+
+		// Saving without changes does not update
+		SystemClock.sleep(5);
+		menu.saveOnCurrentThread();
+		assertNull(testBackend.getIfUpdatedSince(className, menu.getObjId(), saved));
+
+		menu.setName("drinks");
+		menu.saveOnCurrentThread();
+		ParseObject newer = testBackend.getIfUpdatedSince(className, menu.getObjId(), saved);
+		assertNotNull(newer);
+		assertEquals("drinks", new Menu(newer).getName());
+	}
+
+	/**
+	 * Asserts that deleted objects can no longer be downloaded.
+	 * @throws Exception if the menu can't be saved
+	 */
+	public void testDelete() throws Exception {
+		Menu menu = new Menu("beverages");
+		menu.saveOnCurrentThread();
+		menu.deleteFromCloud();
+
+		long start = SystemClock.elapsedRealtime();
+		while (testBackend.getDeleteCount() == 0
+				&& SystemClock.elapsedRealtime() - start < 1000) {
+			SystemClock.sleep(5);
+		}
+		try {
+			testBackend.get(Menu.class.getSimpleName(), menu.getObjId());
+			fail("Deleted menu was found");
+		} catch (ParseException e) {
+			assertEquals(ParseException.OBJECT_NOT_FOUND, e.getCode());
+		}
+	}
+
+	/**
+	 * Asserts that a batch get downloads every stored object in a single
+	 * round trip and that queries only find the objects they match.
+	 * @throws Exception if the menus can't be saved or downloaded
+	 */
+	public void testGetAllAndFind() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (String name: new String[] {"drinks", "food", "desserts"}) {
+			Menu menu = new Menu(name);
+			menu.saveOnCurrentThread();
+			ids.add(menu.getObjId());
+		}
+		ids.add("missing");
+		String className = Menu.class.getSimpleName();
+
+		int reads = testBackend.getReadCount();
+		assertEquals(3, testBackend.getAll(className, ids).size());
+		assertEquals(reads + 1, testBackend.getReadCount());
+
+		StorageQuery query = new StorageQuery(className);
+		query.whereContainedIn(ParseUtil.OBJECT_ID, ids.subList(0, 2));
+		query.orderByAscending(Menu.NAME);
+		List<ParseObject> found = testBackend.find(query);
+		assertEquals(2, found.size());
+		assertEquals("drinks", new Menu(found.get(0)).getName());
+		assertEquals("food", new Menu(found.get(1)).getName());
+
+		query.setLimit(1);
+		assertEquals(1, testBackend.find(query).size());
+	}
+
+	/**
+	 * Places orders into a dining session in the background the way the
+	 * user application does and measures the throughput.
+	 * @throws Exception if an order or the session can't be saved
+	 */
+	public void testOrderFlowThroughput() throws Exception {
+		testBackend.setLatency(LATENCY);
+		DiningSession session = new DiningSession(32, new Date(), testUInfo, testRestaurantInfo);
+		session.saveOnCurrentThread();
+
+		final CountDownLatch LATCH = new CountDownLatch(NUM_ORDERS);
+		final List<ParseException> ERRORS = new ArrayList<ParseException>();
+		long start = SystemClock.elapsedRealtime();
+		for (int i = 0; i < NUM_ORDERS; ++i) {
+			List<CurrentOrderItem> items = new ArrayList<CurrentOrderItem>();
+			items.add(new CurrentOrderItem(testItem));
+			Order order = new Order(32, testUInfo, items);
+			order.saveInBackGround(new SaveCallback() {
+
+				@Override
+				public void done(ParseException e) {
+					if (e != null) {
+						ERRORS.add(e);
+					}
+					LATCH.countDown();
+				}
+			});
+		}
+		assertTrue(LATCH.await(NUM_ORDERS * LATENCY + 10000, TimeUnit.MILLISECONDS));
+		long elapsed = SystemClock.elapsedRealtime() - start;
+		assertTrue(ERRORS.isEmpty());
+		assertEquals(NUM_ORDERS + 1, testBackend.getSaveCount());
+
+		Log.i(TAG, NUM_ORDERS + " orders saved in " + elapsed + " ms with "
+				+ LATENCY + " ms latency, "
+				+ (NUM_ORDERS * 1000L / Math.max(1, elapsed)) + " orders per second");
+	}
+}
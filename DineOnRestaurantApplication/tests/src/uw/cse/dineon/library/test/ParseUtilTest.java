@@ -0,0 +1,136 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.library.util.ParseUtil;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+
+/**
+ * Tests for the library class ParseUtil.  Makes sure lists of
+ * Storables are downloaded in as few round trips as possible.
+ *
+ * White box tests
+ */
+public class ParseUtilTest extends AndroidTestCase {
+
+	private static final int NUM_ORDERS = 6;
+
+	StorageBackend oldBackend;
+	MemoryStorageBackend testBackend;
+	List<UserInfo> testUsers;
+	List<Object> testOrders;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		oldBackend = Storable.getBackend();
+		testBackend = new MemoryStorageBackend(0);
+		Storable.setBackend(testBackend);
+		StorableIdentityMap.clear();
+
+		testUsers = new ArrayList<UserInfo>();
+		for (String name: new String[] {"hello", "world"}) {
+			ParseUser user = new ParseUser();
+			user.setUsername(name);
+			user.setPassword("rtest");
+			UserInfo info = new UserInfo(user);
+			info.saveOnCurrentThread();
+			testUsers.add(info);
+		}
+
+		// Orders that only reference their user like the cloud returns them
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testOrders = new ArrayList<Object>();
+		for (int i = 0; i < NUM_ORDERS; ++i) {
+			List<CurrentOrderItem> items = new ArrayList<CurrentOrderItem>();
+			items.add(new CurrentOrderItem(item));
+			UserInfo user = testUsers.get(i % testUsers.size());
+			ParseObject po = new Order(32, user, items).packObject();
+			po.put(Order.USER_INFO, ParseObject.createWithoutData(
+					UserInfo.class.getSimpleName(), user.getObjId()));
+			testBackend.save(po);
+			testOrders.add(ParseObject.createWithoutData(
+					Order.class.getSimpleName(), po.getObjectId()));
+		}
+		StorableIdentityMap.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Storable.setBackend(oldBackend);
+		testBackend.shutdown();
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that the users of all the orders are downloaded together
+	 * in one round trip after the orders.
+	 */
+	public void testNestedObjectsBatchedPerLevel() {
+		int reads = testBackend.getReadCount();
+		List<Order> orders = ParseUtil.toListOfStorables(Order.class, testOrders);
+		assertEquals(reads + 2, testBackend.getReadCount());
+
+		assertEquals(NUM_ORDERS, orders.size());
+		for (int i = 0; i < NUM_ORDERS; ++i) {
+			UserInfo user = orders.get(i).getOriginalUser();
+			assertEquals(testUsers.get(i % testUsers.size()).getObjId(), user.getObjId());
+			assertSame(orders.get(i % testUsers.size()).getOriginalUser(), user);
+		}
+	}
+
+	/**
+	 * Asserts that objects that are already decoded are not downloaded again.
+	 */
+	public void testDecodedObjectsNotFetched() {
+		List<Order> orders = ParseUtil.toListOfStorables(Order.class, testOrders);
+
+		int reads = testBackend.getReadCount();
+		List<Order> again = ParseUtil.toListOfStorables(Order.class, testOrders);
+		assertEquals(reads, testBackend.getReadCount());
+		for (int i = 0; i < NUM_ORDERS; ++i) {
+			assertSame(orders.get(i), again.get(i));
+		}
+	}
+
+	/**
+	 * Asserts that nested objects that are already decoded are
+	 * not downloaded again.
+	 */
+	public void testDecodedNestedObjectsNotFetched() {
+		List<UserInfo> users = ParseUtil.toListOfStorables(
+				UserInfo.class, pointersTo(testUsers));
+
+		int reads = testBackend.getReadCount();
+		List<Order> orders = ParseUtil.toListOfStorables(Order.class, testOrders);
+		assertEquals(reads + 1, testBackend.getReadCount());
+		assertSame(users.get(0), orders.get(0).getOriginalUser());
+		assertSame(users.get(1), orders.get(1).getOriginalUser());
+	}
+
+	/**
+	 * @param storables Saved Storables
+	 * @return Objects without data that reference storables
+	 */
+	private static List<Object> pointersTo(List<? extends Storable> storables) {
+		List<Object> pointers = new ArrayList<Object>();
+		for (Storable s: storables) {
+			pointers.add(ParseObject.createWithoutData(
+					s.getClass().getSimpleName(), s.getObjId()));
+		}
+		return pointers;
+	}
+}
@@ -0,0 +1,123 @@
+package uw.cse.dineon.library.test;
+
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.CustomerRequest;
+import uw.cse.dineon.library.PushPayload;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.library.util.DineOnConstants;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+
+/**
+ * Tests the library class PushPayload.  Makes sure objects sent along
+ * with pushes are only used when the receiver can use them as is.
+ *
+ * White box tests
+ */
+public class PushPayloadTest extends AndroidTestCase {
+
+	ParseUser mUser;
+	UserInfo testUInfo;
+	CustomerRequest testRequest;
+	JSONObject testData;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		StorableIdentityMap.clear();
+		mUser = new ParseUser();
+		mUser.setUsername("hello");
+		mUser.setObjectId("tpu");
+
+		testUInfo = new UserInfo(mUser);
+		testUInfo.setObjId("tui");
+		testRequest = new CustomerRequest("Water please", testUInfo);
+		testRequest.setObjId("tr");
+		testRequest.packObject();
+
+		testData = new JSONObject();
+		testData.put(DineOnConstants.OBJ_ID, testRequest.getObjId());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Creates a string of length characters.
+	 * @param length Length of the string
+	 * @return String of length characters
+	 */
+	private static String longString(int length) {
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length; ++i) {
+			builder.append('x');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * Asserts that a small object arrives with all its data.
+	 * @throws Exception if the request can't be decoded
+	 */
+	public void testRoundTrip() throws Exception {
+		assertTrue(PushPayload.attach(testData, testRequest));
+		JSONObject received = new JSONObject(testData.toString());
+
+		ParseObject po = PushPayload.extract(received, CustomerRequest.class, "tr");
+		assertNotNull(po);
+		CustomerRequest request = new CustomerRequest(po);
+		assertEquals("Water please", request.getDescription());
+		assertEquals("tui", request.getUserInfo().getObjId());
+
+		// Asking for a different object is a miss
+		assertNull(PushPayload.extract(received, CustomerRequest.class, "other"));
+	}
+
+	/**
+	 * Asserts that payloads of another version are ignored.
+	 * @throws Exception if the push data can't be changed
+	 */
+	public void testOtherVersionIgnored() throws Exception {
+		assertTrue(PushPayload.attach(testData, testRequest));
+		testData.put(PushPayload.KEY_VERSION, PushPayload.VERSION + 1);
+		assertNull(PushPayload.extract(testData, CustomerRequest.class, "tr"));
+	}
+
+	/**
+	 * Asserts that shared objects are sent as pointers when the object
+	 * is too large and that those are only used if the receiver has them.
+	 * @throws Exception if the push data can't be read
+	 */
+	public void testSharedObjectsSentAsPointers() throws Exception {
+		testUInfo.setPhone(longString(1500));
+		testRequest = new CustomerRequest(longString(1500), testUInfo);
+		testRequest.setObjId("tr");
+		testRequest.packObject();
+
+		assertTrue(PushPayload.attach(testData, testRequest));
+		assertNull(PushPayload.extract(testData, CustomerRequest.class, "tr"));
+
+		StorableIdentityMap.put(testUInfo);
+		assertNotNull(PushPayload.extract(testData, CustomerRequest.class, "tr"));
+	}
+
+	/**
+	 * Asserts that objects that don't fit are left out.
+	 */
+	public void testTooLargeLeftOut() {
+		testRequest = new CustomerRequest(longString(PushPayload.MAX_LENGTH), testUInfo);
+		testRequest.setObjId("tr");
+		testRequest.packObject();
+
+		assertFalse(PushPayload.attach(testData, testRequest));
+		assertFalse(testData.has(PushPayload.KEY_OBJECT));
+		assertNull(PushPayload.extract(testData, CustomerRequest.class, "tr"));
+	}
+}
@@ -1,216 +1,407 @@
-package uw.cse.dineon.library.test;
-
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
-
-import uw.cse.dineon.library.CurrentOrderItem;
-import uw.cse.dineon.library.CustomerRequest;
-import uw.cse.dineon.library.DiningSession;
-import uw.cse.dineon.library.MenuItem;
-import uw.cse.dineon.library.Order;
-import uw.cse.dineon.library.Reservation;
-import uw.cse.dineon.library.Restaurant;
-import uw.cse.dineon.library.RestaurantInfo;
-import uw.cse.dineon.library.UserInfo;
-import android.app.Activity;
-import android.content.Context;
-import android.test.AndroidTestCase;
-
-import com.parse.ParseException;
-import com.parse.ParseObject;
-import com.parse.ParseUser;
-
-/**
- * Tests library class Restaurant.
- * 
- * White box tests
- * @author Zach
- *
- */
-public class RestaurantTest extends AndroidTestCase {
-	
-	Activity activity;
-	Context mContext = null;
-	
-	DiningSession testSession;
-	ParseUser mUser;
-	UserInfo testUInfo;
-	List<CurrentOrderItem> testItems;
-	MenuItem testItem;
-	Order testOrder;
-	List<Order> orders;
-	List<UserInfo> testUInfos;
-	Restaurant testRestaurant;
-	RestaurantInfo testRestaurantInfo;
-	
-	CustomerRequest testRequest;
-	Reservation testReservation;
-	
-	List<CustomerRequest> testRequests;
-	List<Reservation> testReservations;
-	List<DiningSession> testSessions;
-	
-
-	@Override
-	protected void tearDown() throws Exception {
-		super.tearDown();
-	}
-	
-	@Override
-	protected void setUp() throws Exception {
-		mContext = this.getContext();
-		
-		mUser = new ParseUser();
-		mUser.setUsername("hello");
-		mUser.setPassword("rtest");
-		
-		testSession = new DiningSession(32, new Date(3254645), testUInfo, testRestaurantInfo);
-		testSession.setObjId("ts");
-		
-		testUInfo = new UserInfo(mUser);
-		testUInfo.setObjId("tui");
-		testItems = new ArrayList<CurrentOrderItem>();
-		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
-		testItem.setObjId("toi");
-		testItems.add(new CurrentOrderItem(testItem));
-		testOrder = new Order(32, testUInfo, testItems);
-		testOrder.setObjId("to");
-		orders = new ArrayList<Order>();
-		orders.add(testOrder);
-		
-		testUInfos = new ArrayList<UserInfo>();
-		
-		testUInfos.add(testUInfo);
-		
-		testRestaurantInfo = new RestaurantInfo(mUser);
-		testRestaurant = new Restaurant(mUser);
-		
-		testRequest = new CustomerRequest("Order", testUInfo);
-		testRequest.setObjId("trq");
-		testReservation = new Reservation(testUInfo, testRestaurantInfo, new Date(32));
-		testReservation.setObjId("tr");
-		
-		testRequests = new ArrayList<CustomerRequest>();
-		testRequests.add(testRequest);
-		testReservations = new ArrayList<Reservation>();
-		testReservations.add(testReservation);
-		testSessions = new ArrayList<DiningSession>();
-		testSessions.add(testSession);
-	}
-
-	/**
-	 * Asserts that the restaurant correctly stores the expected data.
-	 */
-	public void testRestaurantParseUser() {
-		assertEquals(testRestaurantInfo.getName(), testRestaurant.getName());
-		assertEquals(testRestaurantInfo.getName(), testRestaurant.getInfo().getName());
-		assertEquals(new ArrayList<CustomerRequest>(), testRestaurant.getCustomerRequests());
-		assertEquals(new ArrayList<Reservation>(), testRestaurant.getReservationList());
-		assertEquals(new ArrayList<Order>(), testRestaurant.getPastOrders());
-		assertEquals(new ArrayList<DiningSession>(), testRestaurant.getSessions());
-		assertEquals(new ArrayList<Order>(), testRestaurant.getPendingOrders());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly adds a request.
-	 */
-	public void testAddCustomerRequest() {
-		testRestaurant.addCustomerRequest(testRequest);
-		assertEquals(testRequests, testRestaurant.getCustomerRequests());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly adds a reservation.
-	 */
-	public void testAddReservation() {
-		testRestaurant.addReservation(testReservation);
-		assertEquals(testReservations, testRestaurant.getReservationList());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly completes an order.
-	 */
-	public void testCompleteOrder() {
-		testRestaurant.addOrder(testOrder);
-		testRestaurant.completeOrder(testOrder);
-		assertEquals(new ArrayList<Order>(), testRestaurant.getPendingOrders());
-		assertEquals(orders, testRestaurant.getPastOrders());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly adds an order.
-	 */
-	public void testAddOrder() {
-		testRestaurant.addOrder(testOrder);
-		assertEquals(orders, testRestaurant.getPendingOrders());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly adds a dining session.
-	 */
-	public void testAddDiningSession() {
-		testRestaurant.addDiningSession(testSession);
-		assertEquals(testSessions, testRestaurant.getSessions());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly removes a dining session.
-	 */
-	public void testRemoveDiningSession() {
-		testRestaurant.addDiningSession(testSession);
-		testRestaurant.removeDiningSession(testSession);
-		assertEquals(new ArrayList<DiningSession>(), testRestaurant.getSessions());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly removes a request.
-	 */
-	public void testRemoveCustomerRequest() {
-		testRestaurant.addCustomerRequest(testRequest);
-		testRestaurant.removeCustomerRequest(testRequest);
-		assertEquals(new ArrayList<CustomerRequest>(), testRestaurant.getCustomerRequests());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly removes a reservation.
-	 */
-	public void testRemoveReservation() {
-		testRestaurant.addReservation(testReservation);
-		testRestaurant.removeReservation(testReservation);
-		assertEquals(new ArrayList<Reservation>(), testRestaurant.getReservationList());
-	}
-
-	/**
-	 * Asserts that the restaurant correctly clears past orders.
-	 */
-	public void testClearPastOrders() {
-		testRestaurant.addOrder(testOrder);
-		testRestaurant.completeOrder(testOrder);
-		testRestaurant.clearPastOrders();
-		assertEquals(new ArrayList<Order>(), testRestaurant.getPastOrders());
-	}
-	
-	/**
-	 * Asserts that the Restaurant stays the same when packed and
-	 * unpacked.
-	 */
-	public void testPackAndUnpack() throws ParseException {
-		
-		ParseObject pObj = testRestaurant.packObject();
-		Restaurant unPacked = new Restaurant(pObj);
-		
-		assertEquals(testRestaurant.getObjId(), unPacked.getObjId());
-		assertEquals(testRestaurant.getName(), unPacked.getName());
-		assertEquals(testRestaurant.getClass(), unPacked.getClass());
-		assertEquals(testRestaurant.getCustomerRequests(), unPacked.getCustomerRequests());
-		assertEquals(testRestaurant.getPastOrders(), unPacked.getPastOrders());
-		assertEquals(testRestaurant.getPendingOrders(), unPacked.getPendingOrders());
-		assertEquals(testRestaurant.getReservationList(), unPacked.getReservationList());
-		assertEquals(testRestaurant.getSessions(), unPacked.getSessions());
-		assertEquals(testRestaurant.getTempCustomerRequest(), unPacked.getTempCustomerRequest());
-		assertEquals(testRestaurant.getTempDiningSession(), unPacked.getTempDiningSession());
-
-	}
-
-}
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.CustomerRequest;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Reservation;
+import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.UserInfo;
+import android.app.Activity;
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+
+/**
+ * Tests library class Restaurant.
+ * 
+ * White box tests
+ * @author Zach
+ *
+ */
+public class RestaurantTest extends AndroidTestCase {
+
+	private static final long LATENCY = 200;
+	
+	Activity activity;
+	Context mContext = null;
+	
+	DiningSession testSession;
+	ParseUser mUser;
+	UserInfo testUInfo;
+	List<CurrentOrderItem> testItems;
+	MenuItem testItem;
+	Order testOrder;
+	List<Order> orders;
+	List<UserInfo> testUInfos;
+	Restaurant testRestaurant;
+	RestaurantInfo testRestaurantInfo;
+	
+	CustomerRequest testRequest;
+	Reservation testReservation;
+	
+	List<CustomerRequest> testRequests;
+	List<Reservation> testReservations;
+	List<DiningSession> testSessions;
+	
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+	
+	@Override
+	protected void setUp() throws Exception {
+		mContext = this.getContext();
+		
+		mUser = new ParseUser();
+		mUser.setUsername("hello");
+		mUser.setPassword("rtest");
+		
+		testSession = new DiningSession(32, new Date(3254645), testUInfo, testRestaurantInfo);
+		testSession.setObjId("ts");
+		
+		testUInfo = new UserInfo(mUser);
+		testUInfo.setObjId("tui");
+		testItems = new ArrayList<CurrentOrderItem>();
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testItem.setObjId("toi");
+		testItems.add(new CurrentOrderItem(testItem));
+		testOrder = new Order(32, testUInfo, testItems);
+		testOrder.setObjId("to");
+		orders = new ArrayList<Order>();
+		orders.add(testOrder);
+		
+		testUInfos = new ArrayList<UserInfo>();
+		
+		testUInfos.add(testUInfo);
+		
+		testRestaurantInfo = new RestaurantInfo(mUser);
+		testRestaurant = new Restaurant(mUser);
+		
+		testRequest = new CustomerRequest("Order", testUInfo);
+		testRequest.setObjId("trq");
+		testReservation = new Reservation(testUInfo, testRestaurantInfo, new Date(32));
+		testReservation.setObjId("tr");
+		
+		testRequests = new ArrayList<CustomerRequest>();
+		testRequests.add(testRequest);
+		testReservations = new ArrayList<Reservation>();
+		testReservations.add(testReservation);
+		testSessions = new ArrayList<DiningSession>();
+		testSessions.add(testSession);
+	}
+
+	/**
+	 * Asserts that the restaurant correctly stores the expected data.
+	 */
+	public void testRestaurantParseUser() {
+		assertEquals(testRestaurantInfo.getName(), testRestaurant.getName());
+		assertEquals(testRestaurantInfo.getName(), testRestaurant.getInfo().getName());
+		assertEquals(new ArrayList<CustomerRequest>(), testRestaurant.getCustomerRequests());
+		assertEquals(new ArrayList<Reservation>(), testRestaurant.getReservationList());
+		assertEquals(new ArrayList<Order>(), testRestaurant.getPastOrders());
+		assertEquals(new ArrayList<DiningSession>(), testRestaurant.getSessions());
+		assertEquals(new ArrayList<Order>(), testRestaurant.getPendingOrders());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly adds a request.
+	 */
+	public void testAddCustomerRequest() {
+		testRestaurant.addCustomerRequest(testRequest);
+		assertEquals(testRequests, testRestaurant.getCustomerRequests());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly adds a reservation.
+	 */
+	public void testAddReservation() {
+		testRestaurant.addReservation(testReservation);
+		assertEquals(testReservations, testRestaurant.getReservationList());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly completes an order.
+	 */
+	public void testCompleteOrder() {
+		testRestaurant.addOrder(testOrder);
+		testRestaurant.completeOrder(testOrder);
+		assertEquals(new ArrayList<Order>(), testRestaurant.getPendingOrders());
+		assertEquals(orders, testRestaurant.getPastOrders());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly adds an order.
+	 */
+	public void testAddOrder() {
+		testRestaurant.addOrder(testOrder);
+		assertEquals(orders, testRestaurant.getPendingOrders());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly adds a dining session.
+	 */
+	public void testAddDiningSession() {
+		testRestaurant.addDiningSession(testSession);
+		assertEquals(testSessions, testRestaurant.getSessions());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly removes a dining session.
+	 */
+	public void testRemoveDiningSession() {
+		testRestaurant.addDiningSession(testSession);
+		testRestaurant.removeDiningSession(testSession);
+		assertEquals(new ArrayList<DiningSession>(), testRestaurant.getSessions());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly removes a request.
+	 */
+	public void testRemoveCustomerRequest() {
+		testRestaurant.addCustomerRequest(testRequest);
+		testRestaurant.removeCustomerRequest(testRequest);
+		assertEquals(new ArrayList<CustomerRequest>(), testRestaurant.getCustomerRequests());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly removes a reservation.
+	 */
+	public void testRemoveReservation() {
+		testRestaurant.addReservation(testReservation);
+		testRestaurant.removeReservation(testReservation);
+		assertEquals(new ArrayList<Reservation>(), testRestaurant.getReservationList());
+	}
+
+	/**
+	 * Asserts that the restaurant correctly clears past orders.
+	 */
+	public void testClearPastOrders() {
+		testRestaurant.addOrder(testOrder);
+		testRestaurant.completeOrder(testOrder);
+		testRestaurant.clearPastOrders();
+		assertEquals(new ArrayList<Order>(), testRestaurant.getPastOrders());
+	}
+	
+	/**
+	 * Asserts that current sessions, orders and requests
+	 * can be found by object id.
+	 */
+	public void testFindByObjId() {
+		testRestaurant.addDiningSession(testSession);
+		testRestaurant.addOrder(testOrder);
+		testRestaurant.addCustomerRequest(testRequest);
+		testRestaurant.addReservation(testReservation);
+
+		assertSame(testSession, testRestaurant.getDiningSession("ts"));
+		assertSame(testOrder, testRestaurant.getPendingOrder("to"));
+		assertSame(testRequest, testRestaurant.getCustomerRequest("trq"));
+		assertSame(testReservation, testRestaurant.getReservation("tr"));
+		assertNull(testRestaurant.getDiningSession("unknown"));
+
+		testRestaurant.completeOrder(testOrder);
+		assertNull(testRestaurant.getPendingOrder("to"));
+	}
+
+	/**
+	 * Asserts that removing a dining session removes it and its
+	 * orders and requests from the indexes.
+	 */
+	public void testRemoveDiningSessionUpdatesIndexes() {
+		DiningSession session = new DiningSession(7, new Date(), testUInfo, testRestaurantInfo);
+		session.setObjId("ts2");
+		session.addPendingOrder(testOrder);
+		session.addRequest(testRequest);
+		testRestaurant.addDiningSession(session);
+		testRestaurant.addOrder(testOrder);
+		testRestaurant.addCustomerRequest(testRequest);
+		assertSame(session, testRestaurant.getSessionOfUser("tui"));
+		assertEquals(1, testRestaurant.getSessionsAtTable(7).size());
+
+		testRestaurant.removeDiningSession(session);
+		assertNull(testRestaurant.getDiningSession("ts2"));
+		assertNull(testRestaurant.getPendingOrder("to"));
+		assertNull(testRestaurant.getCustomerRequest("trq"));
+		assertNull(testRestaurant.getSessionOfUser("tui"));
+		assertTrue(testRestaurant.getSessionsAtTable(7).isEmpty());
+		assertTrue(testRestaurant.getPendingOrders().isEmpty());
+		assertTrue(testRestaurant.getCustomerRequests().isEmpty());
+	}
+
+	/**
+	 * Asserts that sessions are found at their new table after moving.
+	 */
+	public void testChangeTable() {
+		testRestaurant.addDiningSession(testSession);
+		assertEquals(testSessions, testRestaurant.getSessionsAtTable(32));
+
+		testRestaurant.changeTable(testSession, 4);
+		assertTrue(testRestaurant.getSessionsAtTable(32).isEmpty());
+		assertEquals(testSessions, testRestaurant.getSessionsAtTable(4));
+	}
+
+	/**
+	 * Asserts that a session that was refreshed in place with a newer
+	 * copy is found at its new table.
+	 * @throws ParseException if the session can't be saved or downloaded
+	 */
+	public void testRefreshedSessionReindexed() throws ParseException {
+		StorageBackend oldBackend = Storable.getBackend();
+		MemoryStorageBackend backend = new MemoryStorageBackend(0);
+		Storable.setBackend(backend);
+		try {
+			DiningSession saved = new DiningSession(
+					32, new Date(), testUInfo, testRestaurantInfo);
+			saved.saveOnCurrentThread();
+			String className = DiningSession.class.getSimpleName();
+			// As if it was downloaded
+			DiningSession session = StorableIdentityMap.decode(
+					DiningSession.class, backend.get(className, saved.getObjId()));
+			testRestaurant.addDiningSession(session);
+			assertEquals(1, testRestaurant.getSessionsAtTable(32).size());
+
+			// Another device moves the session a little later
+			SystemClock.sleep(5);
+			ParseObject newer = backend.get(className, session.getObjId());
+			newer.put(DiningSession.TABLE_ID, 33);
+			backend.save(newer);
+			StorableIdentityMap.decode(
+					DiningSession.class, backend.get(className, session.getObjId()));
+
+			assertEquals(33, session.getTableID());
+			assertTrue(testRestaurant.getSessionsAtTable(32).isEmpty());
+			assertSame(session, testRestaurant.getSessionsAtTable(33).get(0));
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+			StorableIdentityMap.clear();
+		}
+	}
+
+	/**
+	 * Asserts that the restaurant can be changed while another thread
+	 * downloads one of its lists.
+	 * @throws Exception if the order can't be saved or the reader is interrupted
+	 */
+	public void testDownloadDoesNotHoldLock() throws Exception {
+		StorageBackend oldBackend = Storable.getBackend();
+		MemoryStorageBackend backend = new MemoryStorageBackend(0);
+		Storable.setBackend(backend);
+		try {
+			Order saved = new Order(32, testUInfo, testItems);
+			saved.saveOnCurrentThread();
+			final String ORDER_ID = saved.getObjId();
+			// As if it was downloaded, the orders are downloaded lazily
+			ParseObject po = testRestaurant.packObject();
+			List<ParseObject> pointers = new ArrayList<ParseObject>();
+			pointers.add(ParseObject.createWithoutData(Order.class.getSimpleName(), ORDER_ID));
+			po.put(Restaurant.PENDING_ORDERS, pointers);
+			final Restaurant RESTAURANT = new Restaurant(po);
+			StorableIdentityMap.clear();
+
+			backend.setLatency(LATENCY);
+			Thread reader = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					RESTAURANT.getPendingOrder(ORDER_ID);
+				}
+			});
+			reader.start();
+			SystemClock.sleep(LATENCY / 4);
+			long start = SystemClock.elapsedRealtime();
+			RESTAURANT.addReservation(testReservation);
+			assertTrue(SystemClock.elapsedRealtime() - start < LATENCY / 2);
+
+			reader.join();
+			assertEquals(ORDER_ID, RESTAURANT.getPendingOrder(ORDER_ID).getObjId());
+			assertSame(testReservation, RESTAURANT.getReservation("tr"));
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+			StorableIdentityMap.clear();
+		}
+	}
+
+	/**
+	 * Asserts that objects added before they were saved are
+	 * found once they have an object id.
+	 */
+	public void testFindAfterSave() {
+		Order order = new Order(32, testUInfo, testItems);
+		testRestaurant.addOrder(order);
+		assertNull(testRestaurant.getPendingOrder("later"));
+
+		order.setObjId("later");
+		assertSame(order, testRestaurant.getPendingOrder("later"));
+	}
+
+	/**
+	 * Asserts that orders can be added on another thread while
+	 * the restaurant is packed.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void testPackWhileChanging() throws InterruptedException {
+		final int ORDERS = 200;
+		final List<Throwable> ERRORS = new ArrayList<Throwable>();
+		Thread writer = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < ORDERS; ++i) {
+						testRestaurant.addOrder(new Order(32, testUInfo, testItems));
+					}
+				} catch (Throwable t) {
+					ERRORS.add(t);
+				}
+			}
+		});
+		writer.start();
+		while (writer.isAlive()) {
+			testRestaurant.packObject();
+		}
+		writer.join();
+
+		assertTrue(ERRORS.isEmpty());
+		assertEquals(ORDERS, testRestaurant.getPendingOrders().size());
+	}
+
+	/**
+	 * Asserts that the Restaurant stays the same when packed and
+	 * unpacked.
+	 */
+	public void testPackAndUnpack() throws ParseException {
+		
+		ParseObject pObj = testRestaurant.packObject();
+		Restaurant unPacked = new Restaurant(pObj);
+		
+		assertEquals(testRestaurant.getObjId(), unPacked.getObjId());
+		assertEquals(testRestaurant.getName(), unPacked.getName());
+		assertEquals(testRestaurant.getClass(), unPacked.getClass());
+		assertEquals(testRestaurant.getCustomerRequests(), unPacked.getCustomerRequests());
+		assertEquals(testRestaurant.getPastOrders(), unPacked.getPastOrders());
+		assertEquals(testRestaurant.getPendingOrders(), unPacked.getPendingOrders());
+		assertEquals(testRestaurant.getReservationList(), unPacked.getReservationList());
+		assertEquals(testRestaurant.getSessions(), unPacked.getSessions());
+		assertEquals(testRestaurant.getTempCustomerRequest(), unPacked.getTempCustomerRequest());
+		assertEquals(testRestaurant.getTempDiningSession(), unPacked.getTempDiningSession());
+
+	}
+
+}
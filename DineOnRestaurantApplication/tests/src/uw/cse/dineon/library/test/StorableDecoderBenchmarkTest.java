@@ -0,0 +1,106 @@
+package uw.cse.dineon.library.test;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.StorableFactory;
+import uw.cse.dineon.library.StorableRegistry;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.parse.ParseObject;
+
+/**
+ * Micro benchmark that compares decoding ParseObjects through reflection
+ * against decoding them through the StorableRegistry factories.
+ *
+ * Timings are written to the log under this class name.
+ */
+public class StorableDecoderBenchmarkTest extends AndroidTestCase {
+
+	private static final String TAG = StorableDecoderBenchmarkTest.class.getSimpleName();
+
+	private static final int NUM_OBJECTS = 2000;
+	private static final int NUM_ROUNDS = 5;
+
+	List<ParseObject> testObjects;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testObjects = new ArrayList<ParseObject>(NUM_OBJECTS);
+		for (int i = 0; i < NUM_OBJECTS; ++i) {
+			MenuItem item = new MenuItem(i, 4.5, "Item " + i, "Description " + i);
+			item.setObjId("mi" + i);
+			testObjects.add(item.packObject());
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Decodes all the test objects the way ParseUtil used to,
+	 * looking up the constructor for every element.
+	 * @return time in milliseconds
+	 * @throws Exception if decoding failed
+	 */
+	private long decodeReflective() throws Exception {
+		long start = SystemClock.elapsedRealtime();
+		for (ParseObject po: testObjects) {
+			Constructor<MenuItem> ctor = MenuItem.class.getConstructor(ParseObject.class);
+			assertNotNull(ctor.newInstance(new Object[] {po}));
+		}
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Decodes all the test objects through the registry.
+	 * @return time in milliseconds
+	 * @throws Exception if decoding failed
+	 */
+	private long decodeRegistry() throws Exception {
+		long start = SystemClock.elapsedRealtime();
+		for (ParseObject po: testObjects) {
+			StorableFactory<MenuItem> factory = StorableRegistry.getFactory(MenuItem.class);
+			assertNotNull(factory.create(po));
+		}
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Asserts both decoders build equivalent objects.
+	 * @throws Exception if decoding failed
+	 */
+	public void testDecodersAgree() throws Exception {
+		ParseObject po = testObjects.get(0);
+		MenuItem reflective = MenuItem.class.getConstructor(ParseObject.class).newInstance(po);
+		MenuItem registry = StorableRegistry.getFactory(MenuItem.class).create(po);
+		assertEquals(reflective, registry);
+		assertEquals(reflective.getTitle(), registry.getTitle());
+	}
+
+	/**
+	 * Times both decoders over several rounds and logs the result.
+	 * @throws Exception if decoding failed
+	 */
+	public void testBenchmarkDecoders() throws Exception {
+		// Warm up both paths
+		decodeReflective();
+		decodeRegistry();
+
+		long reflectiveTotal = 0;
+		long registryTotal = 0;
+		for (int i = 0; i < NUM_ROUNDS; ++i) {
+			reflectiveTotal += decodeReflective();
+			registryTotal += decodeRegistry();
+		}
+		Log.i(TAG, "Decoded " + NUM_OBJECTS + " objects x " + NUM_ROUNDS + " rounds. "
+				+ "Reflection: " + reflectiveTotal + "ms, Registry: " + registryTotal + "ms");
+	}
+}
@@ -0,0 +1,226 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorageBackend;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Tests the dirty field tracking of the library class Storable.
+ * Makes sure only changed lists are sent when packing and that
+ * changes stay unsaved until the save that sends them succeeds.
+ *
+ * White box tests
+ */
+public class StorableDeltaTest extends AndroidTestCase {
+
+	private static final String ITEMS = "items";
+	private static final String NAME = "name";
+
+	StorageBackend oldBackend;
+	FailingBackend testBackend;
+	MenuItem testItem;
+	ListStorable testStorable;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		oldBackend = Storable.getBackend();
+		testBackend = new FailingBackend();
+		Storable.setBackend(testBackend);
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testItem.setObjId("ti");
+		List<MenuItem> items = new ArrayList<MenuItem>();
+		items.add(testItem);
+
+		// Build a storable that looks like it was downloaded.
+		ListStorable created = new ListStorable(items);
+		created.setObjId("ls");
+		testStorable = new ListStorable(created.packObject(), items);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		Storable.setBackend(oldBackend);
+		testBackend.shutdown();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that a new storable sends everything.
+	 */
+	public void testNewStorableIsDirty() {
+		ListStorable created = new ListStorable(new ArrayList<MenuItem>());
+		assertTrue(created.hasUnsavedChanges());
+		assertEquals(0, created.getBytesSavedByLastPack());
+	}
+
+	/**
+	 * Asserts that an unchanged downloaded storable sends no lists.
+	 */
+	public void testUnchangedListNotSent() {
+		assertFalse(testStorable.hasUnsavedChanges());
+		testStorable.packObject();
+		assertTrue(testStorable.getBytesSavedByLastPack() > 0);
+	}
+
+	/**
+	 * Asserts that adding marks the list as changed until it is saved,
+	 * not just until it is packed.
+	 * @throws ParseException if the save fails
+	 */
+	public void testAddIsUnsavedUntilSaved() throws ParseException {
+		MenuItem item = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		item.setObjId("ti2");
+		testStorable.add(item);
+		assertTrue(testStorable.hasUnsavedChanges());
+		testStorable.packObject();
+		assertTrue(testStorable.hasUnsavedChanges());
+		assertTrue(testStorable.getBytesSavedByLastPack() > 0);
+
+		testStorable.saveOnCurrentThread();
+		assertFalse(testStorable.hasUnsavedChanges());
+		assertEquals(1, testBackend.mSaves);
+	}
+
+	/**
+	 * Asserts that the list of a failed save stays unsaved and is
+	 * sent in full on the next save.
+	 */
+	public void testFailedSaveResendsList() {
+		MenuItem item = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		item.setObjId("ti2");
+		testStorable.add(item);
+		testBackend.mFail = true;
+		try {
+			testStorable.saveOnCurrentThread();
+			fail("Save should have failed");
+		} catch (ParseException e) {
+			assertEquals(ParseException.CONNECTION_FAILED, e.getCode());
+		}
+		assertTrue(testStorable.hasUnsavedChanges());
+
+		testStorable.packObject();
+		assertEquals(0, testStorable.getBytesSavedByLastPack());
+	}
+
+	/**
+	 * Asserts that a changed scalar field is unsaved until it is saved.
+	 * @throws ParseException if the save fails
+	 */
+	public void testScalarChangeIsUnsavedUntilSaved() throws ParseException {
+		testStorable.setName("Drinks");
+		assertTrue(testStorable.hasUnsavedChanges());
+		testStorable.saveOnCurrentThread();
+		assertFalse(testStorable.hasUnsavedChanges());
+	}
+
+	/**
+	 * Asserts that adding and then removing the same element cancels out.
+	 */
+	public void testAddThenRemoveCancels() {
+		MenuItem item = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		item.setObjId("ti2");
+		testStorable.add(item);
+		testStorable.remove(item);
+		assertFalse(testStorable.hasUnsavedChanges());
+	}
+
+	/**
+	 * Backend that saves nothing and fails its saves when asked to.
+	 */
+	private static class FailingBackend extends MemoryStorageBackend {
+
+		boolean mFail;
+		int mSaves;
+
+		/**
+		 * Creates a backend without latency.
+		 */
+		FailingBackend() {
+			super(0);
+		}
+
+		@Override
+		public void save(ParseObject object) throws ParseException {
+			if (mFail) {
+				throw new ParseException(ParseException.CONNECTION_FAILED, "offline");
+			}
+			mSaves++;
+		}
+
+		@Override
+		public boolean supportsListOperations() {
+			return true;
+		}
+	}
+
+	/**
+	 * Storable with a name and a single list of menu items.
+	 */
+	private static class ListStorable extends Storable {
+
+		private final List<MenuItem> mItems;
+		private String mName;
+
+		/**
+		 * @param items Items to start with
+		 */
+		public ListStorable(List<MenuItem> items) {
+			super(ListStorable.class);
+			mItems = new ArrayList<MenuItem>(items);
+		}
+
+		/**
+		 * @param po Object to build from
+		 * @param items Items in po
+		 * @throws ParseException never, po has data
+		 */
+		public ListStorable(ParseObject po, List<MenuItem> items) throws ParseException {
+			super(po);
+			mItems = new ArrayList<MenuItem>(items);
+		}
+
+		/**
+		 * @param item Item to add
+		 */
+		public void add(MenuItem item) {
+			mItems.add(item);
+			markAdded(ITEMS, item);
+		}
+
+		/**
+		 * @param item Item to remove
+		 */
+		public void remove(MenuItem item) {
+			if (mItems.remove(item)) {
+				markRemoved(ITEMS, item);
+			}
+		}
+
+		/**
+		 * @param name Name to set
+		 */
+		public void setName(String name) {
+			mName = name;
+			markDirty(NAME);
+		}
+
+		@Override
+		public ParseObject packObject() {
+			ParseObject po = super.packObject();
+			if (mName != null) {
+				po.put(NAME, mName);
+			}
+			packList(po, ITEMS, mItems);
+			return po;
+		}
+	}
+}
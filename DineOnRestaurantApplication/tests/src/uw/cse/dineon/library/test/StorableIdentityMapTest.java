@@ -0,0 +1,173 @@
+package uw.cse.dineon.library.test;
+
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.util.ParseUtil;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Tests for the library class StorableIdentityMap.  Makes sure the same
+ * object id always decodes to the same instance.
+ *
+ * White box tests
+ */
+public class StorableIdentityMapTest extends AndroidTestCase {
+
+	MenuItem testItem;
+	ParseObject testObject;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		StorableIdentityMap.clear();
+		testItem = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		testItem.setObjId("ti");
+		testObject = testItem.packObject();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that decoding the same object twice returns the same instance.
+	 * @throws Exception if decoding failed
+	 */
+	public void testDecodeTwiceReturnsSameInstance() throws Exception {
+		MenuItem first = StorableIdentityMap.decode(MenuItem.class, testObject);
+		MenuItem second = ParseUtil.parseObjectToClass(MenuItem.class, testObject);
+		assertSame(first, second);
+		assertSame(first, StorableIdentityMap.get(MenuItem.class, "ti"));
+	}
+
+	/**
+	 * Asserts that objects with different ids decode to different instances.
+	 * @throws Exception if decoding failed
+	 */
+	public void testDifferentIdsAreDifferentInstances() throws Exception {
+		MenuItem other = new MenuItem(25, 1.5, "Soda", "Fizzy");
+		other.setObjId("ti2");
+		MenuItem first = StorableIdentityMap.decode(MenuItem.class, testObject);
+		MenuItem second = StorableIdentityMap.decode(MenuItem.class, other.packObject());
+		assertNotSame(first, second);
+		assertEquals(2, StorableIdentityMap.size());
+	}
+
+	/**
+	 * Asserts that clearing forgets every instance.
+	 * @throws Exception if decoding failed
+	 */
+	public void testClear() throws Exception {
+		MenuItem first = StorableIdentityMap.decode(MenuItem.class, testObject);
+		StorableIdentityMap.clear();
+		assertNull(StorableIdentityMap.get(MenuItem.class, "ti"));
+		assertNotSame(first, StorableIdentityMap.decode(MenuItem.class, testObject));
+	}
+
+	/**
+	 * Asserts that objects that were never saved are not remembered.
+	 * @throws Exception if decoding failed
+	 */
+	public void testUnsavedNotRemembered() throws Exception {
+		MenuItem unsaved = new MenuItem(26, 2.5, "Fries", "Salty");
+		StorableIdentityMap.decode(MenuItem.class, unsaved.packObject());
+		assertEquals(0, StorableIdentityMap.size());
+	}
+
+	/**
+	 * Asserts that starting a new session forgets the instances of the
+	 * last one.
+	 * @throws Exception if decoding failed
+	 */
+	public void testStartSession() throws Exception {
+		MenuItem first = StorableIdentityMap.decode(MenuItem.class, testObject);
+		StorableIdentityMap.startSession();
+		assertEquals(0, StorableIdentityMap.size());
+		assertNull(StorableIdentityMap.get(MenuItem.class, "ti"));
+		MenuItem second = StorableIdentityMap.decode(MenuItem.class, testObject);
+		assertNotSame(first, second);
+		assertSame(second, StorableIdentityMap.get(MenuItem.class, "ti"));
+	}
+
+	/**
+	 * Asserts that a newer copy does not overwrite changes that were not
+	 * saved yet and that the same copy refreshes the instance once they
+	 * are saved.
+	 * @throws Exception if the item can't be saved or decoded
+	 */
+	public void testRefreshWaitsForUnsavedChanges() throws Exception {
+		StorageBackend oldBackend = Storable.getBackend();
+		UnchangedBackend backend = new UnchangedBackend();
+		Storable.setBackend(backend);
+		try {
+			MenuItem item = new MenuItem(27, 3.5, "Milkshake", "Vanilla");
+			item.saveOnCurrentThread();
+			String className = MenuItem.class.getSimpleName();
+			MenuItem first = StorableIdentityMap.decode(
+					MenuItem.class, backend.get(className, item.getObjId()));
+
+			// Somebody else changes the title
+			SystemClock.sleep(5);
+			MenuItem other = new MenuItem(backend.get(className, item.getObjId()));
+			other.setTitle("Shake");
+			other.saveOnCurrentThread();
+			ParseObject newer = backend.get(className, item.getObjId());
+
+			first.setDescription("Chocolate");
+			assertSame(first, StorableIdentityMap.decode(MenuItem.class, newer));
+			assertEquals("Milkshake", first.getTitle());
+			assertEquals("Chocolate", first.getDescription());
+
+			// Once nothing is waiting to be saved the newer copy applies
+			backend.mKeep = true;
+			first.saveOnCurrentThread();
+			assertFalse(first.hasUnsavedChanges());
+			assertSame(first, StorableIdentityMap.decode(MenuItem.class, newer));
+			assertEquals("Shake", first.getTitle());
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+		}
+	}
+
+	/**
+	 * Backend that can be told to keep what it has when objects are saved.
+	 */
+	private static class UnchangedBackend extends MemoryStorageBackend {
+
+		boolean mKeep;
+
+		/**
+		 * Creates a backend without latency.
+		 */
+		UnchangedBackend() {
+			super(0);
+		}
+
+		@Override
+		public void save(ParseObject object) throws ParseException {
+			if (!mKeep) {
+				super.save(object);
+			}
+		}
+	}
+
+	/**
+	 * Asserts that a locally saved object can be remembered explicitly.
+	 */
+	public void testPut() {
+		StorableIdentityMap.put(testItem);
+		assertSame(testItem, StorableIdentityMap.get(MenuItem.class, "ti"));
+		StorableIdentityMap.remove(MenuItem.class, "ti");
+		assertNull(StorableIdentityMap.get(MenuItem.class, "ti"));
+	}
+}
@@ -0,0 +1,161 @@
+package uw.cse.dineon.library.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Reservation;
+import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.SyncEngine;
+import uw.cse.dineon.library.UserInfo;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseObject;
+import com.parse.ParseUser;
+
+/**
+ * Tests the library class SyncEngine and how the changes it downloads
+ * are merged into a Restaurant.
+ *
+ * White box tests
+ */
+public class SyncEngineTest extends AndroidTestCase {
+
+	ParseUser mUser;
+	UserInfo testUInfo;
+	RestaurantInfo testRestaurantInfo;
+	Restaurant testRestaurant;
+	Order testOrder;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		StorableIdentityMap.clear();
+		mUser = new ParseUser();
+		mUser.setUsername("hello");
+		mUser.setPassword("rtest");
+
+		testUInfo = new UserInfo(mUser);
+		testUInfo.setObjId("tui");
+		testRestaurantInfo = new RestaurantInfo(mUser);
+		testRestaurant = new Restaurant(mUser);
+
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		item.setObjId("toi");
+		List<CurrentOrderItem> items = new ArrayList<CurrentOrderItem>();
+		items.add(new CurrentOrderItem(item));
+		testOrder = new Order(32, testUInfo, items);
+		testOrder.setObjId("to");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that a restaurant that was never saved asks for everything.
+	 */
+	public void testInitialWatermarks() {
+		SyncEngine engine = new SyncEngine(testRestaurant);
+		assertNull(engine.getWatermark(Order.class));
+		assertNull(engine.getWatermark(DiningSession.class));
+		assertEquals(0, engine.getSyncCount());
+		assertEquals(0, engine.getTotalPulled());
+		assertEquals(0, engine.getLastPulled(Order.class));
+	}
+
+	/**
+	 * Asserts that a new session brings its orders along.
+	 */
+	public void testMergeNewSession() {
+		DiningSession session = new DiningSession(32, new Date(), testUInfo, testRestaurantInfo);
+		session.setObjId("ts");
+		session.addPendingOrder(testOrder);
+
+		assertTrue(testRestaurant.mergeDiningSession(session, null));
+		assertEquals(1, testRestaurant.getSessions().size());
+		assertEquals(1, testRestaurant.getPendingOrders().size());
+
+		// Merging again changes nothing
+		assertFalse(testRestaurant.mergeDiningSession(session, null));
+		assertEquals(1, testRestaurant.getPendingOrders().size());
+	}
+
+	/**
+	 * Asserts that a newer copy of a saved order replaces the old one.
+	 * @throws Exception if the order can't be decoded
+	 */
+	public void testMergeReplacesOrder() throws Exception {
+		Order saved = new Order(testOrder.packObject());
+		testRestaurant.addOrder(saved);
+		testRestaurant.mergeOrder(testOrder);
+		assertSame(testOrder, testRestaurant.getPendingOrders().get(0));
+	}
+
+	/**
+	 * Asserts that pulling does not touch the sessions the restaurant
+	 * holds and that merging refreshes them in place.
+	 * @throws Exception if the restaurant can't be saved or synced
+	 */
+	public void testPullLeavesLiveInstances() throws Exception {
+		StorageBackend oldBackend = Storable.getBackend();
+		MemoryStorageBackend backend = new MemoryStorageBackend(0);
+		Storable.setBackend(backend);
+		try {
+			DiningSession saved = new DiningSession(
+					32, new Date(), testUInfo, testRestaurant.getInfo());
+			saved.saveOnCurrentThread();
+			// As if it was downloaded
+			DiningSession session = StorableIdentityMap.decode(DiningSession.class,
+					backend.get(DiningSession.class.getSimpleName(), saved.getObjId()));
+			testRestaurant.addDiningSession(session);
+			testRestaurant.saveOnCurrentThread();
+			SyncEngine engine = new SyncEngine(testRestaurant);
+
+			// Another device moves the session a little later
+			SystemClock.sleep(5);
+			ParseObject newer = backend.get(
+					DiningSession.class.getSimpleName(), session.getObjId());
+			newer.put(DiningSession.TABLE_ID, 33);
+			backend.save(newer);
+
+			SyncEngine.Result result = engine.pull();
+			assertEquals(1, result.size());
+			assertEquals(32, session.getTableID());
+
+			engine.merge(result);
+			assertEquals(33, session.getTableID());
+			assertSame(session, testRestaurant.getSessions().get(0));
+			assertEquals(1, engine.getLastPulled(DiningSession.class));
+		} finally {
+			Storable.setBackend(oldBackend);
+			backend.shutdown();
+		}
+	}
+
+	/**
+	 * Asserts that an unknown reservation created before the restaurant
+	 * last knew everything is not brought back.
+	 */
+	public void testMergeIgnoresOldReservation() {
+		Reservation reservation = new Reservation(testUInfo, testRestaurantInfo, new Date(32));
+		reservation.setObjId("tr");
+		assertFalse(testRestaurant.mergeReservation(reservation, new Date()));
+		assertTrue(testRestaurant.getReservationList().isEmpty());
+
+		assertTrue(testRestaurant.mergeReservation(reservation, null));
+		assertEquals(1, testRestaurant.getReservationList().size());
+	}
+}
@@ -0,0 +1,153 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.restaurant.active.DiffListAdapter;
+import android.test.AndroidTestCase;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+/**
+ * Tests for DiffListAdapter.  Rows are plain views whose holders
+ * record what they were bound to.
+ *
+ * White box tests
+ */
+public class DiffListAdapterTest extends AndroidTestCase {
+
+	FakeAdapter testAdapter;
+	List<MenuItem> items;
+	List<MenuItem> bound;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		items = new ArrayList<MenuItem>();
+		for (int i = 0; i < 5; ++i) {
+			items.add(createItem("i" + i));
+		}
+		bound = new ArrayList<MenuItem>();
+		testAdapter = new FakeAdapter(items);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that the same snapshot does not change the adapter.
+	 */
+	public void testSameSnapshotDoesNothing() {
+		int updates = testAdapter.getStats().getUpdates();
+		DiffListAdapter.Changes changes = testAdapter.setItems(
+				new ArrayList<MenuItem>(items));
+		assertTrue(changes.isEmpty());
+		assertEquals(updates, testAdapter.getStats().getUpdates());
+	}
+
+	/**
+	 * Asserts that elements are matched by object id.
+	 */
+	public void testChangesById() {
+		List<MenuItem> next = new ArrayList<MenuItem>(items);
+		next.remove(1);
+		next.set(0, createItem("i0"));
+		next.add(createItem("new"));
+		MenuItem last = next.remove(3);
+		next.add(1, last);
+
+		DiffListAdapter.Changes changes = testAdapter.setItems(next);
+		assertEquals(1, changes.inserted);
+		assertEquals(1, changes.removed);
+		assertEquals(1, changes.replaced);
+		assertEquals(1, changes.moved);
+		assertEquals(next, testAdapter.getItems());
+	}
+
+	/**
+	 * Asserts that recycled rows are only bound again when their
+	 * element changed.
+	 */
+	public void testRebindOnlyChangedRows() {
+		List<View> rows = new ArrayList<View>();
+		for (int i = 0; i < items.size(); ++i) {
+			rows.add(testAdapter.getView(i, null, null));
+		}
+		assertEquals(items, bound);
+
+		// Drawing again does not bind anything
+		bound.clear();
+		for (int i = 0; i < items.size(); ++i) {
+			assertSame(rows.get(i), testAdapter.getView(i, rows.get(i), null));
+		}
+		assertTrue(bound.isEmpty());
+		assertEquals(items.size(), testAdapter.getStats().getSkipped());
+
+		// Only the row of the changed element is bound
+		testAdapter.changed(items.get(2));
+		for (int i = 0; i < items.size(); ++i) {
+			testAdapter.getView(i, rows.get(i), null);
+		}
+		assertEquals(1, bound.size());
+		assertSame(items.get(2), bound.get(0));
+	}
+
+	/**
+	 * Asserts that adding an element twice shows it once.
+	 */
+	public void testAddAndRemove() {
+		MenuItem copy = createItem("i3");
+		testAdapter.add(copy);
+		assertEquals(items.size(), testAdapter.getCount());
+
+		assertTrue(testAdapter.remove(copy));
+		assertFalse(testAdapter.remove(copy));
+		assertEquals(items.size() - 1, testAdapter.getCount());
+		assertEquals(-1, testAdapter.indexOf(items.get(3)));
+	}
+
+	/**
+	 * Creates a menu item with an object id.
+	 * @param id Object id
+	 * @return the item
+	 */
+	private static MenuItem createItem(String id) {
+		MenuItem item = new MenuItem(1, 2.5, "Item", "Item " + id);
+		item.setObjId(id);
+		return item;
+	}
+
+	/**
+	 * Adapter whose rows record what they are bound to.
+	 */
+	private class FakeAdapter extends DiffListAdapter<MenuItem> {
+
+		/**
+		 * Creates an adapter that shows items.
+		 * @param items Items to show
+		 */
+		public FakeAdapter(List<MenuItem> items) {
+			super(getContext(), items);
+		}
+
+		@Override
+		protected View newView(LayoutInflater inflater, ViewGroup parent) {
+			return new View(getContext());
+		}
+
+		@Override
+		protected RowHolder<MenuItem> newHolder(View view) {
+			return new RowHolder<MenuItem>() {
+
+				@Override
+				protected void bind(MenuItem item, boolean newElement) {
+					bound.add(item);
+				}
+			};
+		}
+	}
+}
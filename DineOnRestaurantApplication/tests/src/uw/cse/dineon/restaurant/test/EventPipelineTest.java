@@ -0,0 +1,158 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.restaurant.EventPipeline;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for EventPipeline.  Events record when they are processed
+ * and the tests decide when they complete.
+ *
+ * White box tests
+ */
+public class EventPipelineTest extends AndroidTestCase {
+
+	private static final int CONCURRENCY = 2;
+	private static final int CAPACITY = 4;
+
+	EventPipeline testPipeline;
+	List<FakeEvent> processing;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testPipeline = new EventPipeline(CONCURRENCY, CAPACITY);
+		processing = new ArrayList<FakeEvent>();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that events of the same sequence are processed in order
+	 * and one at a time.
+	 */
+	public void testSequenceInOrder() {
+		FakeEvent first = new FakeEvent("session", "1");
+		FakeEvent second = new FakeEvent("session", "2");
+		assertTrue(testPipeline.submit(first));
+		assertTrue(testPipeline.submit(second));
+		assertEquals(1, processing.size());
+		assertSame(first, processing.get(0));
+
+		first.finish(true);
+		assertEquals(2, processing.size());
+		assertSame(second, processing.get(1));
+		second.finish(true);
+		assertEquals(0, testPipeline.getDepth());
+		assertEquals(2, testPipeline.getProcessedCount());
+	}
+
+	/**
+	 * Asserts that only a bounded number of sequences are processed at once.
+	 */
+	public void testBoundedConcurrency() {
+		FakeEvent first = new FakeEvent("a", null);
+		testPipeline.submit(first);
+		testPipeline.submit(new FakeEvent("b", null));
+		testPipeline.submit(new FakeEvent("c", null));
+		assertEquals(CONCURRENCY, processing.size());
+
+		first.finish(true);
+		assertEquals(CONCURRENCY + 1, processing.size());
+		assertEquals("c", processing.get(CONCURRENCY).getSequenceKey());
+	}
+
+	/**
+	 * Asserts that redelivered events are dropped unless the
+	 * first delivery failed.
+	 */
+	public void testDuplicatesDropped() {
+		FakeEvent first = new FakeEvent("session", "order");
+		assertTrue(testPipeline.submit(first));
+		assertFalse(testPipeline.submit(new FakeEvent("session", "order")));
+		assertEquals(1, testPipeline.getDuplicateCount());
+
+		first.finish(false);
+		assertTrue(testPipeline.submit(new FakeEvent("session", "order")));
+	}
+
+	/**
+	 * Asserts that events are rejected while the pipeline is full.
+	 */
+	public void testBackpressure() {
+		for (int i = 0; i < CAPACITY; ++i) {
+			assertTrue(testPipeline.submit(new FakeEvent("session", null)));
+		}
+		assertFalse(testPipeline.submit(new FakeEvent("other", null)));
+		assertEquals(1, testPipeline.getRejectedCount());
+		assertEquals(CAPACITY, testPipeline.getMaxDepth());
+
+		processing.get(0).finish(true);
+		assertTrue(testPipeline.submit(new FakeEvent("other", null)));
+	}
+
+	/**
+	 * Asserts that the overflow listener is told how many events were
+	 * rejected once the pipeline is down to half its capacity.
+	 */
+	public void testOverflowReported() {
+		final List<Integer> REPORTS = new ArrayList<Integer>();
+		testPipeline.setOverflowListener(new EventPipeline.OverflowListener() {
+
+			@Override
+			public void onOverflowEnded(int rejected) {
+				REPORTS.add(rejected);
+			}
+		});
+		for (int i = 0; i < CAPACITY; ++i) {
+			testPipeline.submit(new FakeEvent("session" + (i % CONCURRENCY), null));
+		}
+		assertFalse(testPipeline.submit(new FakeEvent("other", null)));
+		assertFalse(testPipeline.submit(new FakeEvent("other", null)));
+
+		// Still more than half full
+		processing.get(0).finish(true);
+		assertEquals(0, REPORTS.size());
+
+		processing.get(1).finish(true);
+		assertEquals(1, REPORTS.size());
+		assertEquals(2, REPORTS.get(0).intValue());
+
+		// Reported only once
+		processing.get(2).finish(true);
+		assertEquals(1, REPORTS.size());
+		assertEquals(2, testPipeline.getRejectedCount());
+	}
+
+	/**
+	 * Event that records when it is processed.
+	 */
+	private class FakeEvent extends EventPipeline.Event {
+
+		/**
+		 * @param sequenceKey Key of the sequence
+		 * @param idempotencyKey Key of the event, can be null
+		 */
+		public FakeEvent(String sequenceKey, String idempotencyKey) {
+			super(sequenceKey, idempotencyKey);
+		}
+
+		@Override
+		protected void process() {
+			processing.add(this);
+		}
+
+		/**
+		 * Completes this event.
+		 * @param succeeded false if processing failed
+		 */
+		public void finish(boolean succeeded) {
+			complete(succeeded);
+		}
+	}
+}
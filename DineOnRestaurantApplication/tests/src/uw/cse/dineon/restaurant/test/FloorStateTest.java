@@ -0,0 +1,404 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.CustomerRequest;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.Restaurant;
+import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.restaurant.FloorState;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseUser;
+
+/**
+ * Tests for FloorState.  The floor uses a fake clock so the tests
+ * decide how long tables are seated.  Customer events are fed to the
+ * floor the way DineOnRestaurantActivity does when the satellite
+ * delivers them.
+ *
+ * White box tests
+ */
+public class FloorStateTest extends AndroidTestCase {
+
+	private static final int LAST_TABLE = DiningSession.MAX_TABLE_ID;
+
+	FakeFloor testFloor;
+	Restaurant testRestaurant;
+	ParseUser mUser;
+	UserInfo testUInfo;
+	RestaurantInfo testRInfo;
+	List<FloorState.Table> changed;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mUser = new ParseUser();
+		mUser.setUsername("floor");
+		mUser.setObjectId("fst");
+		testUInfo = createUser("tui");
+		testRInfo = new RestaurantInfo(mUser);
+		testRestaurant = new Restaurant(mUser);
+
+		testFloor = new FakeFloor();
+		changed = new ArrayList<FloorState.Table>();
+		testFloor.addListener(new FloorState.Listener() {
+
+			@Override
+			public void onTableChanged(FloorState.Table table) {
+				changed.add(table);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testFloor.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that a table is seated from the time its first session
+	 * started until the last one leaves, even if the first one leaves
+	 * before the others.
+	 */
+	public void testElapsedFromFirstSession() {
+		DiningSession first = createSession("s1", 5, testUInfo, 1000);
+		DiningSession second = createSession("s2", 5, testUInfo, 2000);
+		testFloor.seat(first);
+		testFloor.seat(second);
+		assertEquals(1000, testFloor.getTable(5).getSeatedAt());
+
+		testFloor.mNow = 4000;
+		assertEquals(3000, testFloor.getElapsed(5));
+		assertEquals(-1, testFloor.getElapsed(6));
+
+		testFloor.leave(first);
+		assertSame(second, testFloor.getTable(5).getOccupant());
+		assertEquals(3000, testFloor.getElapsed(5));
+
+		// Any copy of the session leaves it
+		testFloor.leave(createSession("s2", 5, testUInfo, 2000));
+		assertEquals(-1, testFloor.getElapsed(5));
+		assertEquals(0, testFloor.getTable(5).getSeatedAt());
+
+		// The next party starts the clock again
+		testFloor.seat(createSession("s3", 5, testUInfo, 9000));
+		testFloor.mNow = 9500;
+		assertEquals(500, testFloor.getElapsed(5));
+
+		// A session that starts later than the clock is not negative
+		testFloor.seat(createSession("s4", 6, testUInfo, 10000));
+		assertEquals(0, testFloor.getElapsed(6));
+	}
+
+	/**
+	 * Asserts that a table turns once its last session leaves and that
+	 * the average turn time is taken over every turn of the floor.
+	 */
+	public void testTurnover() {
+		DiningSession quick = createSession("quick", 1, testUInfo, 0);
+		DiningSession slow = createSession("slow", 2, testUInfo, 0);
+		DiningSession joined = createSession("joined", 2, testUInfo, 1000);
+		testFloor.seat(quick);
+		testFloor.seat(slow);
+		testFloor.seat(joined);
+		assertEquals(2, testFloor.getOccupiedCount());
+		assertEquals(0, testFloor.getAverageTurnTime());
+
+		testFloor.mNow = 2000;
+		testFloor.leave(quick);
+		assertEquals(1, testFloor.getTurnCount());
+		assertEquals(2000, testFloor.getAverageTurnTime());
+
+		// Table 2 only turns when the session that joined leaves too
+		testFloor.mNow = 5000;
+		testFloor.leave(slow);
+		assertEquals(1, testFloor.getTurnCount());
+		testFloor.mNow = 6000;
+		testFloor.leave(joined);
+		assertEquals(2, testFloor.getTurnCount());
+		assertEquals((2000 + 6000) / 2, testFloor.getAverageTurnTime());
+		assertEquals(0, testFloor.getOccupiedCount());
+
+		// Leaving twice does not turn the table again
+		assertFalse(testFloor.leave(joined));
+		assertEquals(2, testFloor.getTurnCount());
+
+		testFloor.clear();
+		assertEquals(0, testFloor.getTurnCount());
+		assertEquals(0, testFloor.getAverageTurnTime());
+		assertNull(testFloor.getTable(1));
+	}
+
+	/**
+	 * Asserts that the first and last table ids are tables and that
+	 * the ids right outside of them are not.
+	 */
+	public void testTableIdBounds() {
+		assertTrue(testFloor.seat(createSession("first", 0, testUInfo, 0)));
+		assertTrue(testFloor.seat(createSession("last", LAST_TABLE, testUInfo, 0)));
+		assertTrue(testFloor.isOccupied(0));
+		assertTrue(testFloor.isOccupied(LAST_TABLE));
+		assertEquals(2, testFloor.getOccupiedCount());
+
+		List<FloorState.Table> active = testFloor.getActiveTables();
+		assertEquals(2, active.size());
+		assertEquals(0, active.get(0).getTableID());
+		assertEquals(LAST_TABLE, active.get(1).getTableID());
+
+		assertNull(testFloor.getTable(-1));
+		assertNull(testFloor.getTable(LAST_TABLE + 1));
+		assertFalse(testFloor.isOccupied(LAST_TABLE + 1));
+		assertEquals(-1, testFloor.getElapsed(-1));
+
+		// Orders without a session are counted at their own table
+		assertFalse(testFloor.addOrder(createOrder("below", -1, testUInfo), null));
+		assertFalse(testFloor.addOrder(createOrder("above", LAST_TABLE + 1, testUInfo), null));
+		assertTrue(testFloor.addOrder(createOrder("edge", LAST_TABLE, testUInfo), null));
+		assertEquals(1, testFloor.getTable(LAST_TABLE).getOpenOrders());
+		assertEquals(1, testFloor.getOpenOrderCount());
+	}
+
+	/**
+	 * Asserts that orders and requests delivered by the satellite are
+	 * counted at the table of the session their user dines in, that a
+	 * check out closes them and that syncing a new floor with the
+	 * restaurant counts the same.
+	 * @throws Exception if the restaurant could not be created
+	 */
+	public void testCountsPerTable() throws Exception {
+		UserInfo alice = createUser("alice");
+		UserInfo bob = createUser("bob");
+		UserInfo walkIn = createUser("walkIn");
+		DiningSession aliceSession = createSession("as", 3, alice, 0);
+		DiningSession bobSession = createSession("bs", 7, bob, 0);
+		checkIn(aliceSession);
+		checkIn(bobSession);
+
+		Order first = createOrder("o1", 0, alice);
+		placeOrder(first);
+		placeOrder(createOrder("o2", 0, alice));
+		Order bobOrder = createOrder("o3", 0, bob);
+		placeOrder(bobOrder);
+		CustomerRequest water = createRequest("r1", bob);
+		request(water);
+		// Nobody to seat these with
+		placeOrder(createOrder("o4", 9, walkIn));
+		request(createRequest("r2", walkIn));
+
+		assertCounts(testFloor, 3, 2, 0);
+		assertCounts(testFloor, 7, 1, 1);
+		assertCounts(testFloor, 9, 1, 0);
+		assertEquals(4, testFloor.getOpenOrderCount());
+		assertEquals(1, testFloor.getOpenRequestCount());
+
+		FakeFloor synced = new FakeFloor();
+		synced.sync(testRestaurant);
+		assertCounts(synced, 3, 2, 0);
+		assertCounts(synced, 7, 1, 1);
+		assertCounts(synced, 9, 1, 0);
+
+		// Alice is served, Bob checks out
+		testFloor.removeOrder(first);
+		assertCounts(testFloor, 3, 1, 0);
+		changed.clear();
+		testFloor.removeOrder(bobOrder);
+		testFloor.removeRequest(water);
+		testFloor.leave(bobSession);
+		assertEquals(3, changed.size());
+		assertCounts(testFloor, 7, 0, 0);
+		assertFalse(testFloor.getTable(7).isActive());
+		assertEquals(1, testFloor.getOccupiedCount());
+		assertEquals(1, testFloor.getTurnCount());
+	}
+
+	/**
+	 * Asserts that syncing only changes the tables that changed.
+	 * @throws Exception if the restaurant could not be created
+	 */
+	public void testSync() throws Exception {
+		DiningSession kept = createSession("kept", 1, testUInfo, 0);
+		DiningSession gone = createSession("gone", 2, testUInfo, 0);
+		DiningSession added = createSession("added", 3, testUInfo, 0);
+		testFloor.seat(kept);
+		testFloor.seat(gone);
+		changed.clear();
+
+		testRestaurant.addDiningSession(kept);
+		testRestaurant.addDiningSession(added);
+		testFloor.sync(testRestaurant);
+
+		assertEquals(2, changed.size());
+		assertTrue(testFloor.isOccupied(1));
+		assertFalse(testFloor.isOccupied(2));
+		assertTrue(testFloor.isOccupied(3));
+		assertEquals(2, testFloor.getOccupiedCount());
+		assertEquals(1, testFloor.getTurnCount());
+	}
+
+	/**
+	 * Asserts that a session that changed tables moves on the floor with
+	 * its open orders and requests, and that syncing moves a session the
+	 * restaurant moved.
+	 * @throws Exception if the restaurant could not be created
+	 */
+	public void testMove() throws Exception {
+		UserInfo alice = createUser("alice");
+		UserInfo bob = createUser("bob");
+		DiningSession aliceSession = createSession("as", 3, alice, 1000);
+		DiningSession bobSession = createSession("bs", 3, bob, 0);
+		checkIn(aliceSession);
+		checkIn(bobSession);
+		placeOrder(createOrder("o1", 0, alice));
+		placeOrder(createOrder("o2", 0, bob));
+		request(createRequest("r1", alice));
+
+		// Not moved yet
+		assertFalse(testFloor.move(aliceSession));
+
+		testFloor.mNow = 5000;
+		changed.clear();
+		testRestaurant.changeTable(aliceSession, 4);
+		assertTrue(testFloor.move(aliceSession));
+		assertEquals(2, changed.size());
+		assertCounts(testFloor, 3, 1, 0);
+		assertCounts(testFloor, 4, 1, 1);
+		assertSame(bobSession, testFloor.getTable(3).getOccupant());
+		assertSame(aliceSession, testFloor.getTable(4).getOccupant());
+		assertEquals(1000, testFloor.getTable(4).getSeatedAt());
+		assertEquals(2, testFloor.getOccupiedCount());
+
+		// The last session to leave a table turns it
+		testRestaurant.changeTable(bobSession, 4);
+		assertTrue(testFloor.move(bobSession));
+		assertFalse(testFloor.isOccupied(3));
+		assertCounts(testFloor, 4, 2, 1);
+		assertEquals(1, testFloor.getTurnCount());
+
+		// Sessions that are not seated are not moved
+		assertFalse(testFloor.move(createSession("none", 5, alice, 0)));
+		assertFalse(testFloor.isOccupied(5));
+
+		// Syncing finds the session at its new table
+		testRestaurant.changeTable(aliceSession, 6);
+		testFloor.sync(testRestaurant);
+		assertCounts(testFloor, 4, 1, 0);
+		assertCounts(testFloor, 6, 1, 1);
+		assertEquals(1, testFloor.getOpenRequestCount());
+		assertEquals(2, testFloor.getOpenOrderCount());
+
+		// Closing after a move closes at the new table
+		testFloor.removeOrder(createOrder("o1", 0, alice));
+		assertCounts(testFloor, 6, 0, 1);
+	}
+
+	/**
+	 * Asserts the number of open orders and requests of a table.
+	 * @param floor Floor of the table
+	 * @param tableID Table id
+	 * @param orders Expected number of open orders
+	 * @param requests Expected number of open requests
+	 */
+	private static void assertCounts(FloorState floor, int tableID, int orders, int requests) {
+		FloorState.Table table = floor.getTable(tableID);
+		assertNotNull(table);
+		assertEquals(orders, table.getOpenOrders());
+		assertEquals(requests, table.getOpenRequests());
+	}
+
+	/**
+	 * Checks a session in like the activity does.
+	 * @param session Session that checked in
+	 */
+	private void checkIn(DiningSession session) {
+		testRestaurant.addDiningSession(session);
+		testFloor.seat(session);
+	}
+
+	/**
+	 * Places an order like the activity does.
+	 * @param order Order that was placed
+	 */
+	private void placeOrder(Order order) {
+		testRestaurant.addOrder(order);
+		testFloor.addOrder(order,
+				testRestaurant.getSessionOfUser(order.getOriginalUser().getObjId()));
+	}
+
+	/**
+	 * Makes a request like the activity does.
+	 * @param request Request that was made
+	 */
+	private void request(CustomerRequest request) {
+		testRestaurant.addCustomerRequest(request);
+		testFloor.addRequest(request,
+				testRestaurant.getSessionOfUser(request.getUserInfo().getObjId()));
+	}
+
+	/**
+	 * @param id Object id of the user
+	 * @return User with id
+	 */
+	private static UserInfo createUser(String id) {
+		ParseUser user = new ParseUser();
+		user.setUsername(id);
+		UserInfo info = new UserInfo(user);
+		info.setObjId(id);
+		return info;
+	}
+
+	/**
+	 * @param id Object id of the session
+	 * @param tableID Table id
+	 * @param user User that checked in
+	 * @param start Start time in milliseconds
+	 * @return Session of user at the table
+	 */
+	private DiningSession createSession(String id, int tableID, UserInfo user, long start) {
+		DiningSession session = new DiningSession(tableID, new Date(start), user, testRInfo);
+		session.setObjId(id);
+		return session;
+	}
+
+	/**
+	 * @param id Object id of the order
+	 * @param tableID Table id the order names
+	 * @param user User that placed the order
+	 * @return Order without items
+	 */
+	private static Order createOrder(String id, int tableID, UserInfo user) {
+		Order order = new Order(tableID, user, new ArrayList<CurrentOrderItem>());
+		order.setObjId(id);
+		return order;
+	}
+
+	/**
+	 * @param id Object id of the request
+	 * @param user User that made the request
+	 * @return Request for water
+	 */
+	private static CustomerRequest createRequest(String id, UserInfo user) {
+		CustomerRequest request = new CustomerRequest("Water", user);
+		request.setObjId(id);
+		return request;
+	}
+
+	/**
+	 * Floor with a clock the tests set.
+	 */
+	private static class FakeFloor extends FloorState {
+
+		private long mNow;
+
+		@Override
+		protected long currentTime() {
+			return mNow;
+		}
+	}
+}
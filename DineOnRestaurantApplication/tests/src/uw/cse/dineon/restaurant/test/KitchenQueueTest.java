@@ -0,0 +1,192 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.CurrentOrderItem;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.restaurant.KitchenQueue;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseUser;
+
+/**
+ * Tests for KitchenQueue.  Orders are placed right away so their prep
+ * time decides when they are due.  The queue uses a fake clock so the
+ * tests decide when orders are late.
+ *
+ * White box tests
+ */
+public class KitchenQueueTest extends AndroidTestCase {
+
+	FakeQueue testQueue;
+	UserInfo testUInfo;
+	List<Order> queued;
+	List<Order> removed;
+	List<Order> late;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		ParseUser user = new ParseUser();
+		user.setUsername("kitchen");
+		testUInfo = new UserInfo(user);
+		testUInfo.setObjId("tui");
+
+		testQueue = new FakeQueue();
+		queued = new ArrayList<Order>();
+		removed = new ArrayList<Order>();
+		late = new ArrayList<Order>();
+		testQueue.addListener(new KitchenQueue.Listener() {
+
+			@Override
+			public void onOrderQueued(Order order) {
+				queued.add(order);
+			}
+
+			@Override
+			public void onOrderRemoved(Order order) {
+				removed.add(order);
+			}
+
+			@Override
+			public void onOrderLate(Order order, long lateBy) {
+				late.add(order);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testQueue.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that the order that is due first comes first, taking
+	 * the prep time of the slowest item into account.
+	 */
+	public void testOrderedByDueTime() {
+		Order slow = createOrder("slow", 30);
+		Order quick = createOrder("quick", 5);
+		Order normal = createOrder("normal", 0);
+		testQueue.add(slow);
+		testQueue.add(quick);
+		testQueue.add(normal);
+
+		assertSame(quick, testQueue.peek());
+		List<Order> orders = testQueue.getOrders();
+		assertSame(quick, orders.get(0));
+		assertSame(normal, orders.get(1));
+		assertSame(slow, orders.get(2));
+		assertEquals(3, queued.size());
+	}
+
+	/**
+	 * Asserts that removing an order keeps the rest in order.
+	 */
+	public void testRemove() {
+		List<Order> orders = new ArrayList<Order>();
+		for (int i = 0; i < 20; ++i) {
+			Order order = createOrder("o" + i, i * 7 % 20 + 1);
+			orders.add(order);
+			testQueue.add(order);
+		}
+		assertFalse(testQueue.add(orders.get(3)));
+		assertTrue(testQueue.remove(orders.get(0)));
+		assertTrue(testQueue.remove(orders.get(11)));
+		assertFalse(testQueue.remove(orders.get(11)));
+		assertEquals(2, removed.size());
+
+		List<Order> left = testQueue.getOrders();
+		assertEquals(18, left.size());
+		for (int i = 1; i < left.size(); ++i) {
+			assertTrue(testQueue.getDueTime(left.get(i - 1))
+					<= testQueue.getDueTime(left.get(i)));
+		}
+		assertSame(left.get(0), testQueue.peek());
+	}
+
+	/**
+	 * Asserts that orders are reported late once when they are due.
+	 */
+	public void testLateOrders() {
+		Order first = createOrder("first", 10);
+		Order second = createOrder("second", 20);
+		testQueue.add(first);
+		testQueue.add(second);
+
+		testQueue.mNow = testQueue.getDueTime(first) + 1;
+		testQueue.checkLateOrders();
+		assertEquals(1, late.size());
+		assertSame(first, late.get(0));
+		assertTrue(testQueue.isLate(first));
+		assertFalse(testQueue.isLate(second));
+
+		testQueue.mNow = testQueue.getDueTime(second);
+		testQueue.checkLateOrders();
+		assertEquals(2, late.size());
+		assertSame(second, late.get(1));
+		assertEquals(2, testQueue.getLateCount());
+	}
+
+	/**
+	 * Asserts that syncing only adds and removes what changed.
+	 */
+	public void testSync() {
+		Order kept = createOrder("kept", 10);
+		Order gone = createOrder("gone", 10);
+		Order added = createOrder("added", 10);
+		testQueue.add(kept);
+		testQueue.add(gone);
+		queued.clear();
+
+		List<Order> pending = new ArrayList<Order>();
+		pending.add(kept);
+		pending.add(added);
+		testQueue.sync(pending);
+		assertEquals(1, queued.size());
+		assertSame(added, queued.get(0));
+		assertEquals(1, removed.size());
+		assertSame(gone, removed.get(0));
+		assertEquals(2, testQueue.size());
+	}
+
+	/**
+	 * Creates an order with a single item.
+	 * @param id Object id of the order
+	 * @param prepTime Prep time of the item in minutes
+	 * @return the order
+	 */
+	private Order createOrder(String id, int prepTime) {
+		MenuItem item = new MenuItem(1, 2.5, "Item", "Item of " + id);
+		item.setPrepTime(prepTime);
+		List<CurrentOrderItem> items = new ArrayList<CurrentOrderItem>();
+		items.add(new CurrentOrderItem(item));
+		Order order = new Order(1, testUInfo, items);
+		order.setObjId(id);
+		return order;
+	}
+
+	/**
+	 * Queue with a clock the tests set.
+	 */
+	private static class FakeQueue extends KitchenQueue {
+
+		private long mNow;
+
+		/**
+		 * Creates a queue with the default prep time.
+		 */
+		public FakeQueue() {
+			super(KitchenQueue.DEFAULT_PREP_TIME);
+		}
+
+		@Override
+		protected long currentTime() {
+			return mNow;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.json.JSONObject;
+
+import uw.cse.dineon.restaurant.PushDispatcher;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.SendCallback;
+
+/**
+ * Tests for PushDispatcher.  Pushes are captured instead of sent
+ * so the tests can decide when they complete.
+ *
+ * White box tests
+ */
+public class PushDispatcherTest extends AndroidTestCase {
+
+	/**
+	 * Window long enough that nothing is sent unless flushed.
+	 */
+	private static final long LONG_WINDOW = 60000;
+
+	FakeDispatcher testDispatcher;
+	JSONObject testData;
+	JSONObject otherData;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testDispatcher = new FakeDispatcher();
+		testData = new JSONObject();
+		testData.put("action", "change");
+		otherData = new JSONObject();
+		otherData.put("action", "other");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that identical data for many channels becomes one push
+	 * and that the same channel is only pushed to once.
+	 * @throws Exception if the data can't be copied
+	 */
+	public void testRecipientsAreMerged() throws Exception {
+		testDispatcher.send(testData, "a");
+		testDispatcher.send(new JSONObject(testData.toString()), "b");
+		testDispatcher.send(testData, "a");
+		testDispatcher.send(otherData, "a");
+		assertEquals(0, testDispatcher.mChannels.size());
+		assertEquals(1, testDispatcher.getDuplicateCount());
+
+		testDispatcher.flush();
+		assertEquals(2, testDispatcher.mChannels.size());
+		assertEquals(2, testDispatcher.mChannels.get(0).size());
+		assertEquals(1, testDispatcher.mChannels.get(1).size());
+		assertFalse(testDispatcher.isIdle());
+
+		testDispatcher.complete(null);
+		testDispatcher.complete(null);
+		assertTrue(testDispatcher.isIdle());
+		assertEquals(1, testDispatcher.getBatchCount());
+		assertEquals(2, testDispatcher.getPushCount());
+		assertEquals(3, testDispatcher.getRecipientCount());
+	}
+
+	/**
+	 * Asserts that pushes to too many channels are split up.
+	 */
+	public void testLargeBatchesAreSplit() {
+		for (int i = 0; i < PushDispatcher.MAX_CHANNELS + 1; ++i) {
+			testDispatcher.send(testData, "user" + i);
+		}
+		testDispatcher.flush();
+		assertEquals(2, testDispatcher.mChannels.size());
+		assertEquals(PushDispatcher.MAX_CHANNELS, testDispatcher.mChannels.get(0).size());
+		assertEquals(1, testDispatcher.mChannels.get(1).size());
+	}
+
+	/**
+	 * Asserts that failed pushes are counted once their batch completes.
+	 */
+	public void testFailuresAreCounted() {
+		testDispatcher.send(testData, "a");
+		testDispatcher.send(otherData, "a");
+		testDispatcher.flush();
+
+		testDispatcher.complete(new ParseException(ParseException.CONNECTION_FAILED, "offline"));
+		assertEquals(0, testDispatcher.getBatchCount());
+		testDispatcher.complete(null);
+		assertEquals(1, testDispatcher.getBatchCount());
+		assertEquals(1, testDispatcher.getFailureCount());
+		assertEquals(1, testDispatcher.getLastFailureCount());
+		assertTrue(testDispatcher.getLastLatency() >= 0);
+	}
+
+	/**
+	 * Dispatcher that captures pushes instead of sending them.
+	 */
+	private static class FakeDispatcher extends PushDispatcher {
+
+		private final List<Collection<String>> mChannels = new ArrayList<Collection<String>>();
+		private final List<SendCallback> mCallbacks = new ArrayList<SendCallback>();
+
+		/**
+		 * Creates a dispatcher that only sends when flushed.
+		 */
+		public FakeDispatcher() {
+			super(LONG_WINDOW);
+		}
+
+		@Override
+		protected void sendPush(JSONObject data, Collection<String> channels,
+				SendCallback callback) {
+			mChannels.add(channels);
+			mCallbacks.add(callback);
+		}
+
+		/**
+		 * Completes the oldest captured push that did not complete.
+		 * @param e Exception to complete with, null for success
+		 */
+		public void complete(ParseException e) {
+			mCallbacks.remove(0).done(e);
+		}
+	}
+}
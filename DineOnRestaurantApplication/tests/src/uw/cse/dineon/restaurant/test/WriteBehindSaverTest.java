@@ -0,0 +1,218 @@
+package uw.cse.dineon.restaurant.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.restaurant.WriteBehindSaver;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.SaveCallback;
+
+/**
+ * Tests for WriteBehindSaver.  Saves are captured instead of sent
+ * to the cloud so the tests can decide when they complete.
+ *
+ * White box tests
+ */
+public class WriteBehindSaverTest extends AndroidTestCase {
+
+	/**
+	 * Window long enough that nothing is saved unless flushed.
+	 */
+	private static final long LONG_WINDOW = 60000;
+
+	WriteBehindSaver testSaver;
+	FakeStorable testStorable;
+	int notified;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		testSaver = new WriteBehindSaver(LONG_WINDOW);
+		testStorable = new FakeStorable();
+		notified = 0;
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+	}
+
+	/**
+	 * @return Callback that counts how many times it was notified
+	 */
+	private SaveCallback countingCallback() {
+		return new SaveCallback() {
+			@Override
+			public void done(ParseException e) {
+				notified++;
+			}
+		};
+	}
+
+	/**
+	 * Asserts that requests within the window become a single save.
+	 */
+	public void testRequestsAreMerged() {
+		testSaver.save(testStorable, countingCallback());
+		testSaver.save(testStorable, countingCallback());
+		testSaver.save(testStorable);
+		assertEquals(0, testStorable.mSaves.size());
+
+		testSaver.flush(null);
+		assertEquals(1, testStorable.mSaves.size());
+		testStorable.completeSave();
+		assertEquals(2, notified);
+		assertTrue(testSaver.isIdle());
+	}
+
+	/**
+	 * Asserts that only one save is in flight at a time and that
+	 * requests made during a save are saved afterwards.
+	 */
+	public void testOneSaveInFlight() {
+		testSaver.save(testStorable);
+		testSaver.flush(null);
+		testSaver.save(testStorable, countingCallback());
+		assertEquals(1, testStorable.mSaves.size());
+
+		// Complete the first save, the second starts because we are flushing
+		testStorable.completeSave();
+		assertEquals(0, notified);
+		assertEquals(1, testStorable.mSaves.size());
+		testStorable.completeSave();
+		assertEquals(1, notified);
+		assertTrue(testSaver.isIdle());
+	}
+
+	/**
+	 * Asserts that requests made after a flush has started its saves
+	 * wait for the window again.
+	 */
+	public void testFlushEndsOnceSaved() {
+		testSaver.save(testStorable);
+		testSaver.flush(null);
+		testSaver.save(testStorable);
+		testStorable.completeSave();
+		assertEquals(1, testStorable.mSaves.size());
+
+		// Requested after the flushed save started
+		testSaver.save(testStorable, countingCallback());
+		testStorable.completeSave();
+		assertEquals(0, testStorable.mSaves.size());
+		assertEquals(0, notified);
+		assertFalse(testSaver.isIdle());
+	}
+
+	/**
+	 * Asserts that flush notifies once everything is saved.
+	 */
+	public void testFlushNotifies() {
+		testSaver.flush(countingCallback());
+		assertEquals(1, notified); // Nothing to save
+
+		testSaver.save(testStorable);
+		testSaver.flush(countingCallback());
+		assertEquals(1, notified);
+		testStorable.completeSave();
+		assertEquals(2, notified);
+	}
+
+	/**
+	 * Asserts that flush only waits for the saves requested before it,
+	 * so steady updates don't keep it from notifying.
+	 */
+	public void testFlushIgnoresLaterRequests() {
+		FakeStorable other = new FakeStorable();
+		testSaver.save(testStorable);
+		testSaver.flush(countingCallback());
+		testSaver.save(testStorable);
+		testSaver.save(other);
+
+		testStorable.completeSave();
+		assertEquals(1, notified);
+		// The request made during the flush is saved right away
+		assertEquals(1, testStorable.mSaves.size());
+		assertEquals(0, other.mSaves.size());
+		assertFalse(testSaver.isIdle());
+
+		// Waits for the save in flight and the scheduled one only
+		testSaver.flush(countingCallback());
+		assertEquals(1, other.mSaves.size());
+		testSaver.save(testStorable);
+		testStorable.completeSave();
+		assertEquals(1, notified);
+		other.completeSave();
+		assertEquals(2, notified);
+		assertEquals(1, testStorable.mSaves.size());
+		testStorable.completeSave();
+		assertEquals(2, notified);
+		assertTrue(testSaver.isIdle());
+	}
+
+	/**
+	 * Asserts that a failed save notifies its callbacks of the failure
+	 * and is scheduled again.
+	 */
+	public void testFailedSaveIsRetried() {
+		final List<ParseException> ERRORS = new ArrayList<ParseException>();
+		SaveCallback callback = new SaveCallback() {
+			@Override
+			public void done(ParseException e) {
+				ERRORS.add(e);
+			}
+		};
+		testSaver.save(testStorable, callback);
+		testSaver.flush(callback);
+		testStorable.failSave();
+		assertEquals(2, ERRORS.size());
+		assertNotNull(ERRORS.get(0));
+		assertNotNull(ERRORS.get(1));
+		// Waits for the window instead of retrying right away
+		assertEquals(0, testStorable.mSaves.size());
+		assertFalse(testSaver.isIdle());
+
+		testSaver.flush(countingCallback());
+		assertEquals(1, testStorable.mSaves.size());
+		testStorable.completeSave();
+		assertEquals(1, notified);
+		assertTrue(testSaver.isIdle());
+	}
+
+	/**
+	 * Storable that captures saves instead of sending them.
+	 */
+	private static class FakeStorable extends Storable {
+
+		private final List<SaveCallback> mSaves = new ArrayList<SaveCallback>();
+
+		/**
+		 * Creates an empty fake storable.
+		 */
+		public FakeStorable() {
+			super(FakeStorable.class);
+		}
+
+		@Override
+		public void saveInBackGround(SaveCallback saveCallBack) {
+			mSaves.add(saveCallBack);
+		}
+
+		/**
+		 * Successfully completes the oldest save.
+		 */
+		public void completeSave() {
+			mSaves.remove(0).done(null);
+		}
+
+		/**
+		 * Fails the oldest save.
+		 */
+		public void failSave() {
+			mSaves.remove(0).done(new ParseException(
+					ParseException.CONNECTION_FAILED, "Offline"));
+		}
+	}
+}
@@ -15,9 +15,11 @@ import uw.cse.dineon.library.MenuItem;
 import uw.cse.dineon.library.Order;
 import uw.cse.dineon.library.Reservation;
 import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.StorableIdentityMap;
 import uw.cse.dineon.library.android.DineOnStandardActivity;
 import uw.cse.dineon.library.checkin.IntentIntegrator;
 import uw.cse.dineon.library.checkin.IntentResult;
+import uw.cse.dineon.library.store.OperationLog.Operation;
 import uw.cse.dineon.library.util.DineOnConstants;
 import uw.cse.dineon.library.util.Utility;
 import uw.cse.dineon.user.UserSatellite.SatelliteListener;
@@ -33,6 +35,7 @@ import android.app.AlertDialog.Builder;
 import android.app.ProgressDialog;
 import android.app.SearchManager;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Handler;
@@ -58,6 +61,7 @@ import com.parse.SaveCallback;
  */
 public class DineOnUserActivity extends DineOnStandardActivity implements 
 SatelliteListener,
+OperationQueue.DropListener, /* actions that could not be sent */
 SubMenuFragment.MenuItemListListener, /* manipulation of order from sub menu */
 OrderUpdateListener /* manipulation of list from the current order activity */ { 
 
@@ -159,6 +163,7 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 		super.onResume();
 		Log.d(TAG, "Resuming DineOnUserActivity");
 		mSat.register(DineOnUserApplication.getDineOnUser(), This);
+		DineOnUserApplication.getOperationQueue().setDropListener(this);
 		intializeUI();
 		
 	}
@@ -172,8 +177,10 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 	protected void onPause() {
 		super.onPause();
 		mSat.unRegister();
+		DineOnUserApplication.getOperationQueue().setDropListener(null);
 		
-		
+		// Keep a copy of the user to start from next time.
+		DineOnUserApplication.storeUser();
 	}
 
 	@Override
@@ -251,6 +258,28 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 		b.show();
 	}
 	
+	/**
+	 * Asks the user whether to resend an action that could not be sent
+	 * to the restaurant.
+	 * @param op Operation that was dropped
+	 */
+	@Override
+	public void onDropped(final Operation op) {
+		AlertDialog.Builder b = new Builder(this);
+		b.setTitle("Unable to reach the restaurant");
+		b.setMessage("Your last action could not be sent. Try again?");
+		b.setCancelable(true);
+		b.setPositiveButton("Resend", new DialogInterface.OnClickListener() {
+
+			@Override
+			public void onClick(DialogInterface dialog, int which) {
+				DineOnUserApplication.getOperationQueue().resend(op);
+			}
+		});
+		b.setNegativeButton("Cancel", null);
+		b.show();
+	}
+
 	/**
 	 * Create a timeout for the progress dialog.
 	 * @param time timeout for progress dialog
@@ -451,6 +480,8 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 			startActivity(i);
 			break;
 		case R.id.option_logout:
+			StorableIdentityMap.startSession();
+			DineOnUserApplication.clearStore();
 			ParseUser.logOut();
 			startLoginActivity();
 			break;
@@ -495,6 +526,7 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 
 		final DiningSession M_SESSION = session;
 		DineOnUserApplication.setCurrentDiningSession(session);
+		mSat.listenToRestaurant(session.getRestaurantInfo());
 		DineOnUserApplication.getDineOnUser().saveInBackGround(new SaveCallback() {
 
 			@Override
@@ -530,7 +562,7 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 
 	@Override
 	public void onConfirmOrder(DiningSession ds, String orderId) {
-		Toast.makeText(this, "onConfirmOrder", Toast.LENGTH_SHORT).show();
+		Toast.makeText(this, "Your order was placed.", Toast.LENGTH_SHORT).show();
 //		DineOnUserApplication.setCurrentDiningSession(ds);
 	}
 
@@ -568,6 +600,7 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 		// TODO Need to add a confirmation from restaurant that the user
 		// has successfully paid
 		DineOnUserApplication.setCurrentDiningSession(null);
+		mSat.listenToRestaurant(null);
 	}
 
 	@Override
@@ -592,7 +625,6 @@ OrderUpdateListener /* manipulation of list from the current order activity */ {
 				order, 
 				DineOnUserApplication.getCurrentDiningSession().getRestaurantInfo());
 		DineOnUserApplication.clearCurrentOrder();
-		Toast.makeText(this, "Order Sent!", Toast.LENGTH_SHORT).show();
 	}
 
 	@Override
@@ -10,8 +10,15 @@ import uw.cse.dineon.library.DiningSession;
 import uw.cse.dineon.library.MenuItem;
 import uw.cse.dineon.library.RestaurantInfo;
 import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.library.store.LocalStore;
+import uw.cse.dineon.library.store.OperationLog;
 import uw.cse.dineon.library.util.DineOnConstants;
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.util.Log;
 
 import com.parse.Parse;
@@ -32,6 +39,16 @@ public class DineOnUserApplication extends Application {
 	protected static RestaurantInfo restaurantOfInterest;
 	protected static List<RestaurantInfo> restaurantInfos;
 	
+	/**
+	 * On device copy of the user to start from.
+	 */
+	private static LocalStore mStore;
+	
+	/**
+	 * Actions of the user that still have to be sent to the restaurant.
+	 */
+	private static OperationQueue mQueue;
+	
 	@Override
 	public void onCreate() {
 		super.onCreate();
@@ -54,6 +71,64 @@ public class DineOnUserApplication extends Application {
 		ParseACL.setDefaultACL(defaultACL, true);
 		
 		ParseInstallation.getCurrentInstallation().saveInBackground();
+		
+		mStore = new LocalStore(this);
+		mStore.open();
+		
+		OperationLog log = new OperationLog(this);
+		log.open();
+		mQueue = new OperationQueue(log);
+		// Send what was left over from the last run
+		mQueue.retryNow();
+		registerReceiver(new BroadcastReceiver() {
+			
+			@Override
+			public void onReceive(Context context, Intent intent) {
+				if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+					mQueue.retryNow();
+				}
+			}
+		}, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+	
+	/**
+	 * Returns the on device store the user is kept in between starts.
+	 * @return The application wide store, null if the application was not created
+	 */
+	public static LocalStore getLocalStore() {
+		return mStore;
+	}
+	
+	/**
+	 * Returns the queue that sends the actions of the user to the restaurant.
+	 * @return The application wide queue, null if the application was not created
+	 */
+	public static OperationQueue getOperationQueue() {
+		return mQueue;
+	}
+	
+	/**
+	 * Stores the current user on the device so the next start
+	 * does not have to download it again.  Must be called on the main thread.
+	 * A user with unsaved changes is not stored, the stored copy is
+	 * taken for what is in the cloud when it is loaded.
+	 */
+	public static void storeUser() {
+		ParseUser user = ParseUser.getCurrentUser();
+		if (mStore == null || currentUser == null || user == null 
+				|| currentUser.hasUnsavedChanges()) {
+			return;
+		}
+		mStore.putInBackground(currentUser, user.getObjectId());
+	}
+	
+	/**
+	 * Forgets everything stored about the user, IE on log out.
+	 */
+	public static void clearStore() {
+		if (mStore != null) {
+			mStore.clear();
+		}
 	}
 	
 	/**
@@ -1,13 +1,15 @@
 package uw.cse.dineon.user;
 
 import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
 import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.Toast;
 
 import com.parse.ParseException;
 import com.parse.ParseObject;
-import com.parse.ParseQuery;
 import com.parse.ParseQuery.CachePolicy;
 import com.parse.ParseUser;
 
@@ -15,6 +17,9 @@ import com.parse.ParseUser;
  * This class allows a dining session to be downloaded in an asynchronous
  * background task and the result is saved to th static reference in the
  * DineOnUserApplication.
+ * 
+ * If the user already has a copy of the session it is only downloaded
+ * again if it changed in the cloud since that copy was made.
  * @author mtrathjen08
  *
  */
@@ -77,18 +82,13 @@ public class DiningSessionDownloader extends AsyncTask<CachePolicy, ParseExcepti
 	// Background process.
 	@Override
 	protected DiningSession doInBackground(CachePolicy... params) {
-		if (params[0] == null) {
-			params[0] = CachePolicy.NETWORK_ELSE_CACHE;
-		}
-		CachePolicy policy = params[0];
-
 		try {
 //			// Download by Parse User
 //			if (mParseUser != null) {
 //				mParseUser.fetchIfNeeded();
 //				return getFromUser(policy);
 //			} else {
-				return getFromID(policy);
+				return getFromID();
 //			}
 		} catch (ParseException e) {
 			// If any error case happened at all send the error back
@@ -98,16 +98,27 @@ public class DiningSessionDownloader extends AsyncTask<CachePolicy, ParseExcepti
 	}
 
 	/**
-	 * Gets the Dining Session associated with session id.
-	 * @param policy Cache Policy to use to retrieve Dining Session
+	 * Gets the Dining Session associated with session id from the storage backend.
 	 * @return Dining Session on success, otherwise null
 	 * @throws ParseException for request failure
 	 */
-	private DiningSession getFromID(CachePolicy policy) throws ParseException { 
-		ParseQuery query = new ParseQuery(DiningSession.class.getSimpleName());
-		query.setCachePolicy(policy);
-		ParseObject sessionObject = query.get(mSessionID);
-		return new DiningSession(sessionObject);
+	private DiningSession getFromID() throws ParseException { 
+		StorageBackend backend = Storable.getBackend();
+		String className = DiningSession.class.getSimpleName();
+		
+		// Only download the session if it changed since our copy
+		DiningSession known = StorableIdentityMap.get(DiningSession.class, mSessionID);
+		if (known != null && known.getUpdatedAt() != null) {
+			ParseObject found = backend.getIfUpdatedSince(
+					className, mSessionID, known.getUpdatedAt());
+			if (found == null) {
+				return known;
+			}
+			return StorableIdentityMap.decode(DiningSession.class, found);
+		}
+		
+		ParseObject sessionObject = backend.get(className, mSessionID);
+		return StorableIdentityMap.decode(DiningSession.class, sessionObject);
 	}
 
 	/**
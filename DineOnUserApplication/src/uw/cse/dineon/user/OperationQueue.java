@@ -0,0 +1,540 @@
+package uw.cse.dineon.user;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.PushPayload;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.store.OperationLog;
+import uw.cse.dineon.library.store.OperationLog.Operation;
+import uw.cse.dineon.library.store.ParseObjectCodec;
+import uw.cse.dineon.library.util.DineOnConstants;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParsePush;
+
+/**
+ * Sends the actions of the customer to the restaurant, IE check ins,
+ * orders, requests and check outs, even when the connection is bad.
+ *
+ * Every action is written to an OperationLog before anything is sent,
+ * so no action is lost when the connection drops or the application is
+ * restarted.  Actions are sent one at a time in the order they were
+ * made, IE an order never arrives before the check in.  An action whose
+ * object was never saved, IE a new order, saves the object first and
+ * sends its id along.
+ *
+ * When sending fails the action is attempted again after a delay that
+ * doubles with every failed attempt up to MAX_DELAY.  The delay is
+ * partly random so customers that lost the connection together don't
+ * all come back at once.  Actions that failed MAX_ATTEMPTS times are
+ * dropped and reported to the DropListener, which can resend them.  Once
+ * the connection is back every action is attempted right away.
+ *
+ * Every action is sent with its idempotency key as the event id, so the
+ * restaurant ignores an action that was sent again because the answer
+ * to the first attempt got lost.  The object of an action is saved with
+ * the same key and looked up by it before it is saved again, so an
+ * attempt whose answer got lost, or that was cut short by a restart,
+ * does not save a second copy.
+ */
+public class OperationQueue {
+
+	private static final String TAG = OperationQueue.class.getSimpleName();
+
+	/**
+	 * Delay in milliseconds after the first failed attempt.
+	 */
+	public static final long BASE_DELAY = 1000;
+
+	/**
+	 * Longest delay in milliseconds between attempts.
+	 */
+	public static final long MAX_DELAY = 5 * 60 * 1000;
+
+	/**
+	 * Number of failed attempts after which an action is dropped.
+	 */
+	public static final int MAX_ATTEMPTS = 20;
+
+	/**
+	 * Log of the actions that still have to be sent.
+	 */
+	private final OperationLog mLog;
+
+	/**
+	 * Objects of actions made since the application started that still
+	 * have to be saved, by idempotency key.  Saving these instead of a
+	 * decoded copy gives the caller's instance its id.
+	 */
+	private final Map<String, Storable> mUnsaved;
+
+	/**
+	 * Sends actions one at a time off the main thread.
+	 */
+	private final ExecutorService mExecutor;
+
+	/**
+	 * Handler to schedule attempts with.
+	 */
+	private final Handler mHandler;
+
+	/**
+	 * Sends what is due.
+	 */
+	private final Runnable mReplayer;
+
+	/**
+	 * Hands mReplayer to the executor once a delay has passed.
+	 */
+	private final Runnable mSubmitter;
+
+	/**
+	 * Source of the random part of delays.
+	 */
+	private final Random mRandom;
+
+	/**
+	 * Dropped actions that were not reported yet, IE because no
+	 * listener was set when they were dropped.
+	 */
+	private final List<Operation> mUnreported;
+
+	/**
+	 * Reports the dropped actions on the main thread.
+	 */
+	private final Runnable mReporter;
+
+	/**
+	 * Listener to report dropped actions to, only used on the main thread.
+	 */
+	private DropListener mDropListener;
+
+	// Totals since the application started
+	private int mSent;
+	private int mFailures;
+	private int mDropped;
+
+	/**
+	 * Creates a queue that keeps its actions in log.
+	 * @param log Opened log to keep the actions in
+	 */
+	public OperationQueue(OperationLog log) {
+		if (log == null) {
+			throw new IllegalArgumentException("Can't queue operations without a log");
+		}
+		mLog = log;
+		mUnsaved = new HashMap<String, Storable>();
+		mExecutor = Executors.newSingleThreadExecutor();
+		mHandler = new Handler(Looper.getMainLooper());
+		mRandom = new Random();
+		mUnreported = new ArrayList<Operation>();
+		mReplayer = new Runnable() {
+
+			@Override
+			public void run() {
+				replay();
+			}
+		};
+		mSubmitter = new Runnable() {
+
+			@Override
+			public void run() {
+				mExecutor.execute(mReplayer);
+			}
+		};
+		mReporter = new Runnable() {
+
+			@Override
+			public void run() {
+				reportDropped();
+			}
+		};
+	}
+
+	/**
+	 * Sets the listener to report dropped actions to.  Actions that were
+	 * dropped while no listener was set are reported to it right away.
+	 * Must be called on the main thread.
+	 * @param listener Listener to report to, null to stop reporting
+	 */
+	public void setDropListener(DropListener listener) {
+		mDropListener = listener;
+		reportDropped();
+	}
+
+	/**
+	 * Sends an action that was dropped again, IE because the user asked to.
+	 * It is sent after the actions that are in the queue already with the
+	 * same idempotency key, so the restaurant still ignores it if the
+	 * action did arrive after all.
+	 * @param op Operation that was reported as dropped
+	 * @return true if it was queued, false if it could not be written or
+	 * 	is in the queue already
+	 */
+	public boolean resend(Operation op) {
+		if (!mLog.add(op.getKey(), op.getAction(), op.getChannel(),
+				op.getData(), op.getPayload(), currentTime())) {
+			return false;
+		}
+		schedule(0);
+		return true;
+	}
+
+	/**
+	 * Writes an action to the log and schedules it to be sent.
+	 * NOTE: Packs payload so it has to be called on the thread that
+	 * changes it.  Payload must not change until it was sent.
+	 * @param action Action to send to the restaurant, IE DineOnConstants.ACTION_...
+	 * @param attr Attributes to send along
+	 * @param payload Object the action is about, can be null.  If it was never
+	 * 	saved it is saved first and its id is sent as DineOnConstants.OBJ_ID
+	 * @param channel Channel of the restaurant
+	 * @return Idempotency key of the action, null if it could not be written
+	 */
+	public String enqueue(String action, Map<String, String> attr,
+			Storable payload, String channel) {
+		String key = UUID.randomUUID().toString();
+		JSONObject data = new JSONObject();
+		JSONObject unsaved = null;
+		try {
+			data.put(DineOnConstants.KEY_ACTION, action);
+			data.put(DineOnConstants.EVENT_ID, key);
+			for (Entry<String, String> e : attr.entrySet()) {
+				data.put(e.getKey(), e.getValue());
+			}
+			if (payload != null && payload.getObjId() == null) {
+				payload.setSaveKey(key);
+				unsaved = ParseObjectCodec.encodeUnsaved(payload.packObject());
+			} else if (payload != null) {
+				PushPayload.attach(data, payload);
+			}
+		} catch (JSONException e) {
+			Log.e(TAG, "Unable to queue " + action + ": " + e.getMessage());
+			return null;
+		}
+
+		if (unsaved != null) {
+			synchronized (mUnsaved) {
+				mUnsaved.put(key, payload);
+			}
+		}
+		if (!mLog.add(key, action, channel, data, unsaved, currentTime())) {
+			synchronized (mUnsaved) {
+				mUnsaved.remove(key);
+			}
+			return null;
+		}
+		schedule(0);
+		return key;
+	}
+
+	/**
+	 * Attempts to send every action right away, IE once the
+	 * connection is back.
+	 */
+	public void retryNow() {
+		mExecutor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				mLog.retryNow();
+				replay();
+			}
+		});
+	}
+
+	/**
+	 * Sends the actions that are due, oldest first, on the calling thread.
+	 * Stops at the first action that is not due or fails and schedules
+	 * the next attempt.
+	 * NOTE Make sure you are in background thread
+	 * @return Number of actions that were sent
+	 */
+	public int replay() {
+		int sent = 0;
+		Operation op;
+		while ((op = mLog.peek()) != null) {
+			long now = currentTime();
+			if (op.getNextAttempt() > now) {
+				schedule(op.getNextAttempt() - now);
+				break;
+			}
+			try {
+				if (!send(op)) {
+					drop(op, "Unable to read its object");
+					continue;
+				}
+			} catch (ParseException e) {
+				if (!failed(op, e.getMessage())) {
+					break;
+				}
+				continue;
+			}
+			mLog.remove(op.getId());
+			synchronized (this) {
+				mSent++;
+			}
+			sent++;
+			Log.i(TAG, "Sent " + op.getAction() + " after " + op.getAttempts()
+					+ " failed attempts and " + (now - op.getCreated()) + " ms");
+		}
+		return sent;
+	}
+
+	/**
+	 * @return Number of actions that still have to be sent
+	 */
+	public int size() {
+		return mLog.size();
+	}
+
+	/**
+	 * @return Number of actions sent since the application started
+	 */
+	public synchronized int getSentCount() {
+		return mSent;
+	}
+
+	/**
+	 * @return Number of failed attempts since the application started
+	 */
+	public synchronized int getFailureCount() {
+		return mFailures;
+	}
+
+	/**
+	 * @return Number of actions dropped since the application started
+	 */
+	public synchronized int getDroppedCount() {
+		return mDropped;
+	}
+
+	/**
+	 * Returns the delay before attempting again.  Doubles with every
+	 * failed attempt up to MAX_DELAY, the second half of it is random.
+	 * @param attempts Number of failed attempts, at least 1
+	 * @return Delay in milliseconds
+	 */
+	public long getDelay(int attempts) {
+		long delay = MAX_DELAY;
+		if (attempts < 31 && (BASE_DELAY << (attempts - 1)) < MAX_DELAY) {
+			delay = BASE_DELAY << (attempts - 1);
+		}
+		long half = delay / 2;
+		synchronized (mRandom) {
+			return half + (long) (mRandom.nextDouble() * (delay - half));
+		}
+	}
+
+	/**
+	 * Returns the current time, tests can override this.
+	 * @return Current time in milliseconds
+	 */
+	protected long currentTime() {
+		return System.currentTimeMillis();
+	}
+
+	/**
+	 * Schedules the actions that are due to be sent after delay.
+	 * @param delay Time to wait in milliseconds
+	 */
+	protected void schedule(long delay) {
+		replayLater(delay);
+	}
+
+	/**
+	 * Runs task on the main thread, tests can override this.
+	 * @param task Task to run
+	 */
+	protected void runOnMainThread(Runnable task) {
+		mHandler.post(task);
+	}
+
+	/**
+	 * Sends data to channel on the calling thread.
+	 * @param data Data of the push
+	 * @param channel Channel to push to
+	 * @throws ParseException if the push could not be sent
+	 */
+	protected void push(JSONObject data, String channel) throws ParseException {
+		ParsePush push = new ParsePush();
+		push.setChannel(channel);
+		push.setData(data);
+		push.send();
+	}
+
+	/**
+	 * Saves the object of op if it has one and sends op.
+	 * @param op Operation to send
+	 * @return false if the object of op can't be read, true if op was sent
+	 * @throws ParseException if saving or sending failed
+	 */
+	private boolean send(Operation op) throws ParseException {
+		JSONObject data = op.getData();
+		if (op.getPayload() != null) {
+			Storable payload;
+			synchronized (mUnsaved) {
+				payload = mUnsaved.get(op.getKey());
+			}
+			try {
+				String objId;
+				if (payload != null) {
+					String saved = payload.getObjId() != null ? null 
+							: findSaved(payload.getClass().getSimpleName(), op.getKey());
+					if (saved != null) {
+						payload.setObjId(saved);
+					} else {
+						payload.saveOnCurrentThread();
+					}
+					objId = payload.getObjId();
+					PushPayload.attach(data, payload);
+				} else {
+					// Made before the application restarted
+					ParseObject po = ParseObjectCodec.decodeUnsaved(op.getPayload());
+					String saved = findSaved(po.getClassName(), op.getKey());
+					if (saved != null) {
+						po.setObjectId(saved);
+					} else {
+						Storable.getBackend().save(po);
+					}
+					objId = po.getObjectId();
+					PushPayload.attach(data, po);
+				}
+				if (!data.has(DineOnConstants.OBJ_ID)) {
+					data.put(DineOnConstants.OBJ_ID, objId);
+				}
+			} catch (JSONException e) {
+				Log.w(TAG, "Unable to read object of " + op.getAction() + ": " + e.getMessage());
+				return false;
+			}
+
+			// Saving again would make a second copy
+			mLog.setData(op.getId(), data);
+			synchronized (mUnsaved) {
+				mUnsaved.remove(op.getKey());
+			}
+		}
+		push(data, op.getChannel());
+		return true;
+	}
+
+	/**
+	 * Finds the object an earlier attempt saved with key.
+	 * @param className Class of the object
+	 * @param key Idempotency key of the action
+	 * @return Object id of the saved object, null if it was not saved yet
+	 * @throws ParseException if the objects could not be searched
+	 */
+	private static String findSaved(String className, String key) throws ParseException {
+		String saved = Storable.getBackend().findSaved(className, key);
+		if (saved != null) {
+			Log.i(TAG, "Found " + className + " saved by an earlier attempt, not saving again");
+		}
+		return saved;
+	}
+
+	/**
+	 * Records a failed attempt to send op and schedules the next attempt.
+	 * @param op Operation that failed
+	 * @param reason Why it failed
+	 * @return true if op was dropped, false if it will be attempted again
+	 */
+	private boolean failed(Operation op, String reason) {
+		synchronized (this) {
+			mFailures++;
+		}
+		int attempts = op.getAttempts() + 1;
+		if (attempts >= MAX_ATTEMPTS) {
+			drop(op, reason);
+			return true;
+		}
+		long delay = getDelay(attempts);
+		Log.w(TAG, "Unable to send " + op.getAction() + ", attempt " + attempts
+				+ " again in " + delay + " ms: " + reason);
+		mLog.retryLater(op.getId(), attempts, currentTime() + delay);
+		schedule(delay);
+		return false;
+	}
+
+	/**
+	 * Removes op without sending it and reports it to the listener.
+	 * @param op Operation to drop
+	 * @param reason Why it is dropped
+	 */
+	private void drop(Operation op, String reason) {
+		Log.e(TAG, "Dropping " + op.getAction() + ": " + reason);
+		mLog.remove(op.getId());
+		synchronized (mUnsaved) {
+			mUnsaved.remove(op.getKey());
+		}
+		synchronized (this) {
+			mDropped++;
+		}
+		synchronized (mUnreported) {
+			mUnreported.add(op);
+		}
+		runOnMainThread(mReporter);
+	}
+
+	/**
+	 * Reports the dropped actions to the listener if there is one.
+	 * Runs on the main thread.
+	 */
+	private void reportDropped() {
+		DropListener listener = mDropListener;
+		if (listener == null) {
+			return;
+		}
+		List<Operation> dropped;
+		synchronized (mUnreported) {
+			dropped = new ArrayList<Operation>(mUnreported);
+			mUnreported.clear();
+		}
+		for (Operation op: dropped) {
+			listener.onDropped(op);
+		}
+	}
+
+	/**
+	 * Schedules a replay on the executor after delay.
+	 * Replaces the replay that was scheduled before.
+	 * @param delay Time to wait in milliseconds
+	 */
+	private void replayLater(long delay) {
+		mHandler.removeCallbacks(mSubmitter);
+		if (delay <= 0) {
+			mSubmitter.run();
+		} else {
+			mHandler.postDelayed(mSubmitter, delay);
+		}
+	}
+
+	/**
+	 * Listener for actions that were given up on.
+	 */
+	public interface DropListener {
+
+		/**
+		 * Called on the main thread when an action was dropped because
+		 * it failed MAX_ATTEMPTS times, IE to ask the user to resend it.
+		 * @param op Operation that was dropped, pass it to resend() to
+		 * 	send it again
+		 */
+		void onDropped(Operation op);
+	}
+}
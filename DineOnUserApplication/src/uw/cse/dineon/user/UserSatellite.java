@@ -2,7 +2,6 @@ package uw.cse.dineon.user;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -11,8 +10,11 @@ import uw.cse.dineon.library.CustomerRequest;
 import uw.cse.dineon.library.DineOnUser;
 import uw.cse.dineon.library.DiningSession;
 import uw.cse.dineon.library.Order;
+import uw.cse.dineon.library.PushPayload;
 import uw.cse.dineon.library.Reservation;
 import uw.cse.dineon.library.RestaurantInfo;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
 import uw.cse.dineon.library.UserInfo;
 import uw.cse.dineon.library.util.DineOnConstants;
 import uw.cse.dineon.library.util.ParseUtil;
@@ -24,7 +26,6 @@ import android.util.Log;
 import com.parse.GetCallback;
 import com.parse.ParseException;
 import com.parse.ParseObject;
-import com.parse.ParseQuery;
 import com.parse.ParseQuery.CachePolicy;
 import com.parse.PushService;
 
@@ -57,6 +58,12 @@ public class UserSatellite extends BroadcastReceiver {
 	 */
 	private String mChannel;
 
+	/**
+	 * The broadcast channel of the restaurant the user is dining at,
+	 * null if the user is not dining anywhere.
+	 */
+	private String mBroadcastChannel;
+
 	/**
 	 * The activity that the broadcast receiever registers with.
 	 * All callback or listener methods are routed through this activity.
@@ -112,6 +119,10 @@ public class UserSatellite extends BroadcastReceiver {
 
 		// Subscribe to my channel so I can hear incoming messages
 		PushService.subscribe(activity, mChannel, activity.getClass());
+
+		// Hear what the restaurant we are dining at tells all its customers
+		DiningSession session = DineOnUserApplication.getCurrentDiningSession();
+		listenToRestaurant(session == null ? null : session.getRestaurantInfo());
 		
 		// Registers this activity to this receiver
 		mCurrentActivity.registerReceiver(this, mIF);
@@ -130,6 +141,29 @@ public class UserSatellite extends BroadcastReceiver {
 		mCurrentActivity = null;
 	}
 
+	/**
+	 * Listens to the broadcasts of the restaurant the user is dining at.
+	 * Stops listening to the restaurant listened to before.
+	 * @param rest Restaurant the user is dining at, null if the user stopped dining
+	 */
+	public void listenToRestaurant(RestaurantInfo rest) {
+		if (mCurrentActivity == null) {
+			return;
+		}
+		String channel = rest == null ? null : ParseUtil.getBroadcastChannel(rest);
+		if (channel != null && channel.equals(mBroadcastChannel)) {
+			return;
+		}
+		if (mBroadcastChannel != null) {
+			PushService.unsubscribe(mCurrentActivity, mBroadcastChannel);
+		}
+		mBroadcastChannel = channel;
+		if (mBroadcastChannel != null) {
+			PushService.subscribe(mCurrentActivity, mBroadcastChannel, 
+					mCurrentActivity.getClass());
+		}
+	}
+
 	/**
 	 * User inputed is requesting to check in the current restaurant.
 	 * IE. General use case Restaurant customer "user" arrives at a restaurant "rest".
@@ -148,13 +182,12 @@ public class UserSatellite extends BroadcastReceiver {
 		Map<String, String> attr = new HashMap<String, String>();
 		attr.put(DineOnConstants.OBJ_ID_2, "" + tableNum);
 		attr.put(DineOnConstants.OBJ_ID, user.getObjId());
-		notifyByAction(DineOnConstants.ACTION_REQUEST_DINING_SESSION, attr, rest);
+		notifyByAction(DineOnConstants.ACTION_REQUEST_DINING_SESSION, attr, user, rest);
 	} 
 
 	/**
 	 * Notify the restaurant that an order was placed for this dining session.
-	 * NOTE: This method does not do any saving. That is if you want to update the
-	 * restaurant you must save your argument before you call this method
+	 * If the order was never saved it is saved before the restaurant is notified.
 	 * @param session Dining Session that was updated
 	 * @param order Order to request
 	 * @param rest Restaurant to place order at
@@ -162,17 +195,16 @@ public class UserSatellite extends BroadcastReceiver {
 	public void requestOrder(DiningSession session, 
 			Order order, 
 			RestaurantInfo rest) {
-		notifyByAction(DineOnConstants.ACTION_REQUEST_ORDER, 
-				order.getObjId(), // Make sure they download the Order Object
+		notifyUnsaved(DineOnConstants.ACTION_REQUEST_ORDER, 
 				session.getObjId(), // Reference the Session ID
+				order, // Make sure they download the Order Object
 				rest.getName());
 	}
 
 	/**
 	 * Notify the restaurant that a Customer Request was placed for this
 	 * dining session.
-	 * NOTE: This method does not do any saving. That is if you want to update the
-	 * restaurant you must save your argument before you call this method
+	 * If the request was never saved it is saved before the restaurant is notified.
 	 * @param session Saved DiningSession that has a new Customer Request
 	 * @param request Customer Request to request
 	 * @param rest Restaurant to send notification to.
@@ -180,9 +212,9 @@ public class UserSatellite extends BroadcastReceiver {
 	public void requestCustomerRequest(DiningSession session, 
 			CustomerRequest request,
 			RestaurantInfo rest) {
-		notifyByAction(DineOnConstants.ACTION_REQUEST_CUSTOMER_REQUEST,
-				request.getObjId(), // Make sure they download the Request Object
+		notifyUnsaved(DineOnConstants.ACTION_REQUEST_CUSTOMER_REQUEST,
 				session.getObjId(),
+				request, // Make sure they download the Request Object
 				rest.getName()); 
 	}
 
@@ -198,6 +230,7 @@ public class UserSatellite extends BroadcastReceiver {
 			RestaurantInfo rest) {
 		notifyByAction(DineOnConstants.ACTION_REQUEST_RESERVATION,
 				reservation.getObjId(),
+				reservation,
 				rest.getName()); 
 	}
 
@@ -211,7 +244,7 @@ public class UserSatellite extends BroadcastReceiver {
 	 */
 	public void requestCheckOut(DiningSession session, RestaurantInfo rest) {
 		notifyByAction(DineOnConstants.ACTION_REQUEST_CHECK_OUT,
-				session.getObjId(), rest.getName()); 
+				session.getObjId(), session, rest.getName()); 
 	}
 
 	/**
@@ -223,7 +256,8 @@ public class UserSatellite extends BroadcastReceiver {
 	 * @param rest Restaurant to send notification to.
 	 */
 	public void notifyChangeUserInfo(UserInfo user, RestaurantInfo rest) {
-		notifyByAction(DineOnConstants.ACTION_CHANGE_USER_INFO, user.getObjId(), rest.getName());
+		notifyByAction(DineOnConstants.ACTION_CHANGE_USER_INFO, user.getObjId(), 
+				user, rest.getName());
 	}
 
 	/**
@@ -234,40 +268,37 @@ public class UserSatellite extends BroadcastReceiver {
 	 * Customer
 	 * @param action Action to send to Restaurant
 	 * @param id1 Object ID to notify restaurant for
-	 * @param id2 Second Object ID to notify restaurant with  
+	 * @param payload Object to send along so the restaurant does not have to download it
 	 * @param info Restaurant to associate to
 	 */
 	private void notifyByAction(String action, 
-			String id1, String id2, String info) {
+			String id1, Storable payload, String info) {
 		// Have to check the pointers before sending a request 
 		if (id1 == null) {
 			throw new NullPointerException("[notifiyAction] id is null");
 		}
 		Map<String, String> attr = new HashMap<String, String>();
 		attr.put(DineOnConstants.OBJ_ID, id1);
-		attr.put(DineOnConstants.OBJ_ID_2, id2);
-		notifyByAction(action, attr, info);
+		notifyByAction(action, attr, payload, info);
 	}
 
 	/**
 	 * General notifier that tells the Restaurant associated with 
-	 * info that a new object is ready for them to download.  The type
-	 * of object to download is dictated by the action argument.  This
-	 * "action" is a specification that is predetermined by Restaurant and
-	 * Customer
+	 * info about payload, which does not have to be saved yet.  Once
+	 * payload is saved its id is sent as DineOnConstants.OBJ_ID.
 	 * @param action Action to send to Restaurant
-	 * @param id1 Object ID to notify restaurant for
+	 * @param id2 Second Object ID to notify restaurant with
+	 * @param payload Object to notify the restaurant about
 	 * @param info Restaurant to associate to
 	 */
-	private void notifyByAction(String action, 
-			String id1, String info) {
-		// Have to check the pointers before sending a request 
-		if (id1 == null) {
-			throw new NullPointerException("[notifiyAction] id is null");
-		}
+	private void notifyUnsaved(String action, 
+			String id2, Storable payload, String info) {
 		Map<String, String> attr = new HashMap<String, String>();
-		attr.put(DineOnConstants.OBJ_ID, id1);
-		notifyByAction(action, attr, info);
+		if (payload.getObjId() != null) {
+			attr.put(DineOnConstants.OBJ_ID, payload.getObjId());
+		}
+		attr.put(DineOnConstants.OBJ_ID_2, id2);
+		notifyByAction(action, attr, payload, info);
 	}
 
 	/**
@@ -275,12 +306,15 @@ public class UserSatellite extends BroadcastReceiver {
 	 * The type of reaction by the restaurant is dictated by the action argument.
 	 * This "action" is a specification that is predetermined by Restaurant and
 	 * Customer IE DineOnConstant.ACTION_...
+	 * The notification is written to the OperationQueue first, so it is
+	 * sent even if the connection is lost on the way.
 	 * @param action Action to send to Restaurant
 	 * @param attr Attributes to sent to the Restaurant.
+	 * @param payload Object to send along so the restaurant does not have to download it
 	 * @param info Restaurant to associate to
 	 */
 	private void notifyByAction(String action, 
-			Map<String, String> attr, String info) {
+			Map<String, String> attr, Storable payload, String info) {
 		if (action == null) {
 			throw new NullPointerException("[notifiyAction] action is null");
 		}
@@ -288,22 +322,9 @@ public class UserSatellite extends BroadcastReceiver {
 			throw new NullPointerException("[notifiyAction] info is null");
 		}
 
-		JSONObject jobj = new JSONObject();
-		try {
-			jobj.put(DineOnConstants.KEY_ACTION, action);
-			
-			for (Entry<String, String> e : attr.entrySet()) {
-				jobj.put(e.getKey(), e.getValue());				
-			}
-		} catch (JSONException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-
 		// Send IT!
-		ParseUtil.notifyApplication(
-				jobj,
-				ParseUtil.getChannel(info));
+		DineOnUserApplication.getOperationQueue().enqueue(
+				action, attr, payload, ParseUtil.getChannel(info));
 	}
 
 	@Override
@@ -312,16 +333,19 @@ public class UserSatellite extends BroadcastReceiver {
 		String theirChannel = intent.getExtras() == null ? null 
 				: intent.getExtras().getString(DineOnConstants.PARSE_CHANNEL);
 
-		// IF they don't have a channel are our activity died
+		// IF our activity died
 		// Then exit this method
-		if (theirChannel == null || mCurrentActivity == null) {
+		if (mCurrentActivity == null) {
 			Log.w(TAG, "[onReceive] Their channel: " + theirChannel 
 					+ " Our activity: " + mCurrentActivity);
 			return;
 		}
 
-		// They are sending to the wrong channel
-		if (!theirChannel.equals(mChannel)) {
+		// They are sending to the wrong channel.
+		// Pushes the restaurant sent to many channels at once don't name one,
+		// we only receive those for channels we are subscribed to.
+		if (theirChannel != null && !theirChannel.equals(mChannel)
+				&& !theirChannel.equals(mBroadcastChannel)) {
 			return;
 		}
 
@@ -349,58 +373,70 @@ public class UserSatellite extends BroadcastReceiver {
 			Log.d(TAG, "ID 2 is null for action: " + action);
 		}
 
-		// Prepare the queries that we might need 
-		ParseQuery restInfo = new ParseQuery(RestaurantInfo.class.getSimpleName());
-		ParseQuery dsQuery = new ParseQuery(DiningSession.class.getSimpleName());
-		restInfo.setCachePolicy(CachePolicy.NETWORK_ONLY);
-		dsQuery.setCachePolicy(CachePolicy.NETWORK_ONLY);
-
-		ParseQuery query;
 		SatelliteGetCallback callback = new SatelliteGetCallback(mCurrentActivity, id2);
+		Class<? extends Storable> clazz;
 
 		// Restaurant is confirming the dining session by returning a dining session.
 		if (DineOnConstants.ACTION_CONFIRM_DINING_SESSION.equals(action)) {
 			// Received the intial Dining Session
-			query = new ParseQuery(DiningSession.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = DiningSession.class;
 			callback.setOption(ACTION_OPTION.INTIAL_DS_RECEIVED);
-			query.getInBackground(id, callback);
 		} 
 		// Restaurant that we are currently associated to has changed some state
 		else if (DineOnConstants.ACTION_CHANGE_RESTAURANT_INFO.equals(action)) {
 			// WE received a updated Restaurant Info 
-			query = new ParseQuery(RestaurantInfo.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = RestaurantInfo.class;
 			callback.setOption(ACTION_OPTION.RESTAURANT_INFO_CHANGE);
-			query.getInBackground(id, callback);
 		}
-		else if (DineOnConstants.ACTION_CONFIRM_ORDER.equals(action)) {
-			// Attempt to get the Dining Session that was updated.
-//			query = new ParseQuery(DiningSession.class.getSimpleName());
-//			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
-//			callback.setOption(ACTION_OPTION.CONFIRM_ORDER);
-//			query.getInBackground(id, callback);
-			
-			DiningSessionDownloader sessionDownloader = new DiningSessionDownloader(id);
-			sessionDownloader.execute(CachePolicy.NETWORK_ELSE_CACHE);
+		else if (DineOnConstants.ACTION_CONFIRM_ORDER.equals(action)
+				|| DineOnConstants.ACTION_CONFIRM_CUSTOMER_REQUEST.equals(action)) {
+			// The restaurant sends the updated Dining Session along,
+			// only download it if it did not fit.
+			updateDiningSession(jo, id);
+			if (DineOnConstants.ACTION_CONFIRM_ORDER.equals(action) && id2 != null) {
+				// Only now the order is placed
+				mCurrentActivity.onConfirmOrder(
+						DineOnUserApplication.getCurrentDiningSession(), id2);
+			}
+			return;
 		}
 		else if (DineOnConstants.ACTION_CONFIRM_RESERVATION.equals(action)) {
 			// Attempt to get the Reservation that was updated.
-			query = new ParseQuery(Reservation.class.getSimpleName());
-			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
+			clazz = Reservation.class;
 			callback.setOption(ACTION_OPTION.CONFIRM_RESERVATION);
-			query.getInBackground(id, callback);
+		} else {
+			return;
 		}
-		else if (DineOnConstants.ACTION_CONFIRM_CUSTOMER_REQUEST.equals(action)) {
-			// Attempt to get the Dining Session that was updated.
-//			query = new ParseQuery(DiningSession.class.getSimpleName());
-//			query.setCachePolicy(CachePolicy.NETWORK_ONLY);
-//			callback.setOption(ACTION_OPTION.CONFIRM_CUSTOMER_REQUEST);
-//			query.getInBackground(id, callback);
-			
-			DiningSessionDownloader sessionDownloader = new DiningSessionDownloader(id);
-			sessionDownloader.execute(CachePolicy.NETWORK_ELSE_CACHE);
+
+		// Use the object that came with the push if we can
+		ParseObject object = PushPayload.extract(jo, clazz, id);
+		if (object != null) {
+			callback.done(object, null);
+			return;
+		}
+		Storable.getBackend().getInBackground(
+				clazz.getSimpleName(), id, CachePolicy.NETWORK_ONLY, callback);
+	}
+
+	/**
+	 * Makes the dining session in the push data jobj the current one.
+	 * If the push does not contain a usable copy it is downloaded.
+	 * @param jobj Push data
+	 * @param id Object id of the dining session
+	 */
+	private static void updateDiningSession(JSONObject jobj, String id) {
+		ParseObject object = PushPayload.extract(jobj, DiningSession.class, id);
+		if (object != null) {
+			try {
+				DineOnUserApplication.setCurrentDiningSession(
+						StorableIdentityMap.decode(DiningSession.class, object));
+				return;
+			} catch (ParseException e) {
+				Log.w(TAG, "Unable to read dining session from push: " + e.getMessage());
+			}
 		}
+		DiningSessionDownloader sessionDownloader = new DiningSessionDownloader(id);
+		sessionDownloader.execute(CachePolicy.NETWORK_ELSE_CACHE);
 	}
 
 
@@ -18,7 +18,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -29,9 +28,6 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.parse.ParseException;
-import com.parse.SaveCallback;
-
 /**
  * 
  * @author mhotan
@@ -388,32 +384,21 @@ public class CurrentOrderFragment extends Fragment {
 						List<CurrentOrderItem> items = 
 								new ArrayList<CurrentOrderItem>(mAdapter.mOrderMapping.values());
 						if(items.size() > 0) {
-							// create and save the order
-							final Order NEW_ORDER = new Order(session.getTableID(),  
+							// create the order
+							Order newOrder = new Order(session.getTableID(),  
 									DineOnUserApplication.getUserInfo(), 
 									items);
 
-							// save the new order
-							NEW_ORDER.saveInBackGround(new SaveCallback() {
-
-								@Override
-								public void done(ParseException e) {
-									if (e == null) {
-										// successful, send the push notification
-										mListener.onPlaceOrder(NEW_ORDER);
-										if (mListener instanceof Context) {
-											Toast.makeText((Context) mListener, 
-													"Your order was placed.", 
-													Toast.LENGTH_SHORT).show();
-										}
-										mListener.doneWithOrder();
-
-									} else {
-										Log.d(TAG, "Couldn't save the new order: " 
-									+ e.getMessage());
-									}
-								}
-							});
+							// The order is saved and sent even if
+							// the connection drops on the way.  It is only
+							// placed once the restaurant confirms it.
+							mListener.onPlaceOrder(newOrder);
+							if (mListener instanceof Context) {
+								Toast.makeText((Context) mListener, 
+										"Sending your order to the restaurant.", 
+										Toast.LENGTH_SHORT).show();
+							}
+							mListener.doneWithOrder();
 						}
 
 
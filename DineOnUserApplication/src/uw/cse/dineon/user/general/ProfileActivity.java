@@ -6,6 +6,7 @@ import com.parse.ParseException;
 import com.parse.ParseUser;
 import com.parse.SaveCallback;
 
+import uw.cse.dineon.library.StorableIdentityMap;
 import uw.cse.dineon.library.UserInfo;
 import uw.cse.dineon.user.DineOnUserActivity;
 import uw.cse.dineon.user.DineOnUserApplication;
@@ -129,6 +130,8 @@ public class ProfileActivity extends DineOnUserActivity implements
 			state = State.EDIT;
 			break;
 		case R.id.option_logout:
+			StorableIdentityMap.startSession();
+			DineOnUserApplication.clearStore();
 			ParseUser.logOut();
 			startLoginActivity();
 			break;
@@ -1,10 +1,14 @@
 package uw.cse.dineon.user.login;
 
 import uw.cse.dineon.library.DineOnUser;
+import uw.cse.dineon.library.DiningSession;
+import uw.cse.dineon.library.StorableIdentityMap;
 import uw.cse.dineon.library.UserInfo;
+import uw.cse.dineon.library.store.LocalStore;
 import uw.cse.dineon.library.util.CredentialValidator;
 import uw.cse.dineon.library.util.CredentialValidator.Resolution;
 import uw.cse.dineon.library.util.DineOnConstants;
+import uw.cse.dineon.library.util.ParseUtil;
 import uw.cse.dineon.library.util.Utility;
 import uw.cse.dineon.user.DineOnUserApplication;
 import uw.cse.dineon.user.R;
@@ -17,6 +21,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnClickListener;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.util.Log;
@@ -109,6 +114,7 @@ LoginFragment.OnLoginListener {
 		// Destroy any running progress dialog
 		if(user != null) {
 			DineOnUserApplication.setDineOnUser(user);
+			DineOnUserApplication.storeUser();
 			destroyProgressDialog();
 			Intent i;
 			if (DineOnUserApplication.getDineOnUser().getDiningSession() != null) {
@@ -277,12 +283,22 @@ LoginFragment.OnLoginListener {
 	/**
 	 * Callback For downloads of User.  Once the user is completed downloading 
 	 * the restaurant selection activity will start.
+	 * 
+	 * If the user is stored on the device it is only downloaded if it changed
+	 * since it was stored.  If the cloud can't be reached the stored user is used.
+	 * The dining session of the user is checked on its own as the restaurant
+	 * changes it without changing the user.
 	 * @author mhotan
 	 */
 	private class UserFinder extends GetCallback {
 
 		private final ParseUser mUserToFind;
 		
+		/**
+		 * Copy of the user stored on the device, null if there is none.
+		 */
+		private DineOnUser mStored;
+		
 		/**
 		 * Creates a finder for extracting a User that contains this ParseUser.
 		 * @param user user to find
@@ -301,17 +317,37 @@ LoginFragment.OnLoginListener {
 			inner.whereEqualTo(UserInfo.PARSEUSER, mUserToFind);
 			ParseQuery query = new ParseQuery(DineOnUser.class.getSimpleName());
 			query.whereMatchesQuery(DineOnUser.USER_INFO, inner);
+			
+			// Only download the user if it changed since we stored it
+			LocalStore store = DineOnUserApplication.getLocalStore();
+			mStored = store == null ? null 
+					: store.getByOwner(DineOnUser.class, mUserToFind.getObjectId());
+			if (mStored != null) {
+				query.whereEqualTo(ParseUtil.OBJECT_ID, mStored.getObjId());
+				if (mStored.getUpdatedAt() != null) {
+					query.whereGreaterThan(ParseUtil.UPDATED_AT, mStored.getUpdatedAt());
+				}
+			}
 			query.getFirstInBackground(this);
 		}
 		
 		@Override
 		public void done(ParseObject object, ParseException e) {
-			
+			if (e != null && mStored != null) {
+				// Either nothing changed or we are offline
+				startWithNewestSession(mStored);
+				return;
+			}
 			
 			if (e == null) {
 				// We have found the correct object
 				try {
-					DineOnUser user = new DineOnUser(object);
+					DineOnUser user = StorableIdentityMap.decode(DineOnUser.class, object);
+					if (mStored != null) {
+						// Its session may still be the stored copy
+						startWithNewestSession(user);
+						return;
+					}
 					destroyProgressDialog();
 					startRestSelectionAct(user);
 				} catch (Exception e1) { // Unable to fetch UserInfo
@@ -323,6 +359,41 @@ LoginFragment.OnLoginListener {
 						"Failed to get your information", thisCxt).show();
 			}
 		}
+		
+		/**
+		 * Refreshes the dining session of user if it changed in the cloud
+		 * since it was stored and then starts with user.
+		 * @param user User that started from the stored copy
+		 */
+		private void startWithNewestSession(DineOnUser user) {
+			final DineOnUser USER = user;
+			AsyncTask<Void, Void, Void> refresher = new AsyncTask<Void, Void, Void>() {
+
+				@Override
+				protected Void doInBackground(Void... params) {
+					DiningSession session = USER.getDiningSession();
+					if (session == null) {
+						return null;
+					}
+					try {
+						// Refreshed in place so the user keeps referencing it
+						StorableIdentityMap.refreshIfUpdated(
+								DiningSession.class, session, DiningSession.INCLUDES);
+					} catch (ParseException e) {
+						Log.w(TAG, "Unable to check for a newer dining session: " 
+								+ e.getMessage());
+					}
+					return null;
+				}
+
+				@Override
+				protected void onPostExecute(Void result) {
+					destroyProgressDialog();
+					startRestSelectionAct(USER);
+				}
+			};
+			refresher.execute();
+		}
 	} 
 
 }
@@ -1,8 +1,6 @@
 package uw.cse.dineon.user.restaurant.home;
 
-import com.parse.ParseException;
 import com.parse.ParseUser;
-import com.parse.SaveCallback;
 
 import uw.cse.dineon.library.CustomerRequest;
 import uw.cse.dineon.library.DineOnUser;
@@ -19,7 +17,6 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
-import android.util.Log;
 import android.view.Menu;
 import android.view.View;
 import android.widget.FrameLayout;
@@ -173,20 +170,7 @@ MenuItemDetailListener {
 		UserInfo ui = new UserInfo(ParseUser.getCurrentUser());
 		
 		
-		final CustomerRequest C_REQ = new CustomerRequest(request, ui);
-		
-		final RestaurantHomeActivity COACT = this;
-		C_REQ.saveInBackGround(new SaveCallback() {
-			
-			@Override
-			public void done(ParseException e) {
-				if(e == null) {
-					COACT.placeRequest(C_REQ);
-				} else {
-					Log.e(TAG, "Request did not save: " + e.getMessage());
-				}
-			}
-		} );
-				
+		// The request is saved and sent even if the connection drops on the way
+		placeRequest(new CustomerRequest(request, ui));
 	}
 }
@@ -10,7 +10,9 @@ import uw.cse.dineon.library.RestaurantInfo;
 import uw.cse.dineon.library.animation.ExpandAnimation;
 import uw.cse.dineon.library.image.DineOnImage;
 import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
+import uw.cse.dineon.library.image.ImageLoader;
 import uw.cse.dineon.library.image.ImageObtainable;
+import uw.cse.dineon.library.image.Size;
 import uw.cse.dineon.user.R;
 import android.app.Activity;
 import android.content.Context;
@@ -100,6 +102,15 @@ public class SubMenuFragment extends ListFragment {
 		outState.putInt(EXTRA_WHICH_MENU, mMenuIndex);
 	}
 
+	@Override
+	public void onDestroyView() {
+		// Images that are still loading have no view to show in anymore
+		if (mAdapter != null) {
+			mAdapter.cancelImageLoads();
+		}
+		super.onDestroyView();
+	}
+
 	@Override
 	public void onAttach(Activity activity) {
 		super.onAttach(activity);
@@ -208,9 +219,21 @@ public class SubMenuFragment extends ListFragment {
 			}
 		}
 		
+		/**
+		 * Cancels loading the images of the current menu items.
+		 */
+		void cancelImageLoads() {
+			for (MenuItemHandler handler: mHandlers.values()) {
+				handler.cancelImageLoad();
+			}
+		}
+		
 		@Override
 		public void remove(MenuItem item) {
-			mHandlers.remove(item);
+			MenuItemHandler handler = mHandlers.remove(item);
+			if (handler != null) {
+				handler.cancelImageLoad();
+			}
 			super.remove(item);
 		}
 
@@ -247,6 +270,11 @@ public class SubMenuFragment extends ListFragment {
 			 */
 			private final EditText mSpecialInstructions;
 
+			/**
+			 * Ticket of the image that is loading, null if none.
+			 */
+			private ImageLoader.Ticket mImageTicket;
+
 			/**
 			 * Creates a handler for this particular menu item portrayal in a list.
 			 * 
@@ -282,7 +310,10 @@ public class SubMenuFragment extends ListFragment {
 				mImage.setVisibility(View.GONE);
 				DineOnImage image = mItem.getImage();			
 				if (image != null) {
-					mListener.onGetImage(image, new ImageGetCallback() {
+					// Only download the version that fills the row
+					Size size = new Size(mImage.getLayoutParams().width, 
+							mImage.getLayoutParams().height);
+					mImageTicket = mListener.onGetImage(image, size, new ImageGetCallback() {
 
 						@Override
 						public void onImageReceived(Exception e, Bitmap b) {
@@ -376,6 +407,19 @@ public class SubMenuFragment extends ListFragment {
 			void clearQuantity() {
 				mInputQty.setText(ZERO);
 			}
+
+			/**
+			 * Stops showing the image of this menu item and stops loading
+			 * it if it is still loading.
+			 */
+			void cancelImageLoad() {
+				if (mImageTicket != null) {
+					// The memory of the image is reused once let go of
+					mImage.setImageDrawable(null);
+					mImageTicket.cancel();
+					mImageTicket = null;
+				}
+			}
 		}
 	}
 
@@ -7,7 +7,9 @@ import uw.cse.dineon.library.RestaurantInfo;
 import uw.cse.dineon.library.animation.ExpandAnimation;
 import uw.cse.dineon.library.image.DineOnImage;
 import uw.cse.dineon.library.image.ImageCache.ImageGetCallback;
+import uw.cse.dineon.library.image.ImageLoader;
 import uw.cse.dineon.library.image.ImageObtainable;
+import uw.cse.dineon.library.image.Size;
 import uw.cse.dineon.user.R;
 import android.app.Activity;
 import android.content.Context;
@@ -173,11 +175,8 @@ public class RestaurantListFragment extends ListFragment {
 			RestaurantInfo restToShow = getItem(position);
 
 			// For every restaurant to present create a handler for the restaurant;
-			// We are creating this view for the very first time
-			if (layoutView != null) {
-				// Create a handler just for the restaurant.
-				new RestaurantHandler(restToShow, vwTop, vwBot);
-			}
+			// Recycled views are bound to the restaurant they show now
+			new RestaurantHandler(restToShow, vwTop, vwBot);
 
 			return convertView;
 		}
@@ -235,10 +234,23 @@ public class RestaurantListFragment extends ListFragment {
 				restaurantHoursView.setText(String.format(hours, mInfo.getHours()));
 				restaurantPhoneView.setText(String.format(phone, mInfo.getPhone()));
 				
+				// Stop showing and loading the image of the restaurant this
+				// view showed before, its memory is reused once let go of
+				RESTIMAGE.setImageResource(R.drawable.placeholdermenuitem);
+				Object oldTicket = RESTIMAGE.getTag();
+				if (oldTicket instanceof ImageLoader.Ticket) {
+					((ImageLoader.Ticket) oldTicket).cancel();
+				}
+				RESTIMAGE.setTag(null);
+				
 				// Set the image of this restaurant
 				DineOnImage image = info.getMainImage();
 				if (image != null) {
-					mListener.onGetImage(image, new ImageGetCallback() {
+					// Only download the version that fills the thumbnail
+					Size size = new Size(RESTIMAGE.getLayoutParams().width, 
+							RESTIMAGE.getLayoutParams().height);
+					ImageLoader.Ticket ticket = mListener.onGetImage(image, size, 
+							new ImageGetCallback() {
 						
 						@Override
 						public void onImageReceived(Exception e, Bitmap b) {
@@ -248,10 +260,12 @@ public class RestaurantListFragment extends ListFragment {
 							}
 						}
 					});
+					RESTIMAGE.setTag(ticket);
 				}
 				
 				// Set the bottom view to initial to be invisible
 				mBottom.setVisibility(View.GONE);
+				mExpandDown.setVisibility(View.VISIBLE);
 				mTop.setOnClickListener(this);
 				mPickRestaurant.setOnClickListener(this);
 			}
@@ -0,0 +1,351 @@
+package uw.cse.dineon.user.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+import uw.cse.dineon.library.MemoryStorageBackend;
+import uw.cse.dineon.library.MenuItem;
+import uw.cse.dineon.library.Storable;
+import uw.cse.dineon.library.StorableIdentityMap;
+import uw.cse.dineon.library.StorageBackend;
+import uw.cse.dineon.library.store.OperationLog;
+import uw.cse.dineon.library.store.OperationLog.Operation;
+import uw.cse.dineon.library.util.DineOnConstants;
+import uw.cse.dineon.user.OperationQueue;
+import android.test.AndroidTestCase;
+
+import com.parse.ParseException;
+import com.parse.ParseObject;
+
+/**
+ * Tests for OperationQueue and the OperationLog it keeps its actions in.
+ * Pushes are recorded instead of sent and the queue uses a fake clock so
+ * the tests decide when attempts are due.
+ *
+ * White box tests
+ */
+public class OperationQueueTest extends AndroidTestCase {
+
+	private static final String CHANNEL = "testChannel";
+
+	StorageBackend oldBackend;
+	MemoryStorageBackend testBackend;
+	OperationLog testLog;
+	FakeQueue testQueue;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		oldBackend = Storable.getBackend();
+		testBackend = new MemoryStorageBackend(0);
+		Storable.setBackend(testBackend);
+		StorableIdentityMap.clear();
+
+		testLog = new OperationLog(getContext());
+		testLog.open();
+		testLog.clear();
+		testQueue = new FakeQueue(testLog);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		testLog.clear();
+		testLog.close();
+		Storable.setBackend(oldBackend);
+		testBackend.shutdown();
+		StorableIdentityMap.clear();
+		super.tearDown();
+	}
+
+	/**
+	 * Asserts that actions are sent in the order they were made
+	 * with their key as event id.
+	 * @throws Exception if the pushes can't be read
+	 */
+	public void testSentInOrder() throws Exception {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 3; ++i) {
+			keys.add(testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER,
+					attributes("o" + i), null, CHANNEL));
+		}
+		assertEquals(3, testQueue.size());
+
+		assertEquals(3, testQueue.replay());
+		assertEquals(3, testQueue.mPushed.size());
+		for (int i = 0; i < 3; ++i) {
+			JSONObject data = testQueue.mPushed.get(i);
+			assertEquals(keys.get(i), data.getString(DineOnConstants.EVENT_ID));
+			assertEquals("o" + i, data.getString(DineOnConstants.OBJ_ID));
+		}
+		assertEquals(0, testQueue.size());
+	}
+
+	/**
+	 * Asserts that an action that failed is attempted again once its
+	 * delay passed and that the actions after it wait for it.
+	 */
+	public void testRetryAfterDelay() {
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_DINING_SESSION,
+				attributes("first"), null, CHANNEL);
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER,
+				attributes("second"), null, CHANNEL);
+		testQueue.mFailPushes = 1;
+
+		assertEquals(0, testQueue.replay());
+		assertEquals(2, testQueue.size());
+		assertEquals(1, testLog.peek().getAttempts());
+		long delay = testQueue.mScheduled.get(testQueue.mScheduled.size() - 1);
+		assertTrue(delay >= OperationQueue.BASE_DELAY / 2);
+		assertTrue(delay <= OperationQueue.BASE_DELAY);
+
+		// Not due yet
+		testQueue.mNow += delay - 1;
+		assertEquals(0, testQueue.replay());
+		assertTrue(testQueue.mPushed.isEmpty());
+
+		testQueue.mNow += 1;
+		assertEquals(2, testQueue.replay());
+		assertEquals(1, testQueue.getFailureCount());
+		assertEquals(2, testQueue.getSentCount());
+	}
+
+	/**
+	 * Asserts that an object that was never saved is saved once
+	 * and its id is sent.
+	 * @throws Exception if the push can't be read
+	 */
+	public void testSavesUnsavedPayload() throws Exception {
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		Map<String, String> attr = new HashMap<String, String>();
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER, attr, item, CHANNEL);
+		assertNull(item.getObjId());
+
+		// Saving works but the push does not
+		testQueue.mFailPushes = 1;
+		assertEquals(0, testQueue.replay());
+		assertNotNull(item.getObjId());
+		String id = item.getObjId();
+
+		testQueue.mNow += OperationQueue.MAX_DELAY;
+		assertEquals(1, testQueue.replay());
+		assertEquals(id, item.getObjId());
+		assertEquals(id, testQueue.mPushed.get(0).getString(DineOnConstants.OBJ_ID));
+		assertEquals(1, testBackend.getSaveCount());
+	}
+
+	/**
+	 * Asserts that an object that was never saved is saved from the
+	 * log when the application restarted before sending it.
+	 * @throws Exception if the push can't be read
+	 */
+	public void testSavesUnsavedPayloadAfterRestart() throws Exception {
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		Map<String, String> attr = new HashMap<String, String>();
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER, attr, item, CHANNEL);
+
+		FakeQueue restarted = new FakeQueue(testLog);
+		assertEquals(1, restarted.replay());
+		// Only the copy in the log was saved
+		assertNull(item.getObjId());
+		assertNotNull(restarted.mPushed.get(0).getString(DineOnConstants.OBJ_ID));
+		assertEquals(1, testBackend.getSaveCount());
+	}
+
+	/**
+	 * Asserts that an object whose save worked but whose answer got
+	 * lost is not saved a second time by the next attempt.
+	 * @throws Exception if the push can't be read
+	 */
+	public void testLostSaveNotRepeated() throws Exception {
+		LostAnswerBackend backend = new LostAnswerBackend();
+		Storable.setBackend(backend);
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		Map<String, String> attr = new HashMap<String, String>();
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER, attr, item, CHANNEL);
+
+		assertEquals(0, testQueue.replay());
+		assertNull(item.getObjId());
+		assertEquals(1, backend.size());
+
+		testQueue.mNow += OperationQueue.MAX_DELAY;
+		assertEquals(1, testQueue.replay());
+		assertNotNull(item.getObjId());
+		assertEquals(1, backend.size());
+		assertEquals(1, backend.getSaveCount());
+		assertEquals(item.getObjId(), 
+				testQueue.mPushed.get(0).getString(DineOnConstants.OBJ_ID));
+		backend.shutdown();
+	}
+
+	/**
+	 * Asserts that an object saved from the log after a restart is
+	 * not saved a second time when the answer to the save got lost.
+	 * @throws Exception if the push can't be read
+	 */
+	public void testLostSaveNotRepeatedAfterRestart() throws Exception {
+		LostAnswerBackend backend = new LostAnswerBackend();
+		Storable.setBackend(backend);
+		MenuItem item = new MenuItem(24, 4.5, "Root Beer Float", "Ice cream and root beer");
+		Map<String, String> attr = new HashMap<String, String>();
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER, attr, item, CHANNEL);
+
+		FakeQueue restarted = new FakeQueue(testLog);
+		assertEquals(0, restarted.replay());
+		assertEquals(1, backend.size());
+
+		restarted.mNow += OperationQueue.MAX_DELAY;
+		assertEquals(1, restarted.replay());
+		assertNotNull(restarted.mPushed.get(0).getString(DineOnConstants.OBJ_ID));
+		assertEquals(1, backend.size());
+		assertEquals(1, backend.getSaveCount());
+		backend.shutdown();
+	}
+
+	/**
+	 * Asserts that the delay doubles up to the maximum and that
+	 * actions are dropped after too many attempts.
+	 */
+	public void testBackoffAndDrop() {
+		for (int attempts = 1; attempts < 40; ++attempts) {
+			long delay = testQueue.getDelay(attempts);
+			long max = Math.min(OperationQueue.MAX_DELAY,
+					OperationQueue.BASE_DELAY << Math.min(attempts - 1, 30));
+			assertTrue(delay >= max / 2);
+			assertTrue(delay <= max);
+		}
+
+		testQueue.enqueue(DineOnConstants.ACTION_REQUEST_CHECK_OUT,
+				attributes("gone"), null, CHANNEL);
+		testQueue.mFailPushes = OperationQueue.MAX_ATTEMPTS;
+		for (int i = 0; i < OperationQueue.MAX_ATTEMPTS; ++i) {
+			testQueue.replay();
+			testQueue.mNow += OperationQueue.MAX_DELAY;
+		}
+		assertEquals(0, testQueue.size());
+		assertEquals(1, testQueue.getDroppedCount());
+		assertTrue(testQueue.mPushed.isEmpty());
+	}
+
+	/**
+	 * Asserts that a dropped action is reported, also to a listener that
+	 * is set after the drop, and that it can be resent with its key.
+	 * @throws Exception if the push can't be read
+	 */
+	public void testDroppedIsReported() throws Exception {
+		final List<Operation> DROPPED = new ArrayList<Operation>();
+		OperationQueue.DropListener listener = new OperationQueue.DropListener() {
+
+			@Override
+			public void onDropped(Operation op) {
+				DROPPED.add(op);
+			}
+		};
+		String key = testQueue.enqueue(DineOnConstants.ACTION_REQUEST_ORDER,
+				attributes("lost"), null, CHANNEL);
+		testQueue.mFailPushes = OperationQueue.MAX_ATTEMPTS;
+		for (int i = 0; i < OperationQueue.MAX_ATTEMPTS; ++i) {
+			testQueue.replay();
+			testQueue.mNow += OperationQueue.MAX_DELAY;
+		}
+		assertEquals(0, testQueue.size());
+		assertTrue(DROPPED.isEmpty());
+
+		// Kept until somebody listens
+		testQueue.setDropListener(listener);
+		assertEquals(1, DROPPED.size());
+		Operation op = DROPPED.get(0);
+		assertEquals(key, op.getKey());
+		testQueue.setDropListener(listener);
+		assertEquals(1, DROPPED.size());
+
+		assertTrue(testQueue.resend(op));
+		assertFalse(testQueue.resend(op));
+		assertEquals(1, testQueue.replay());
+		assertEquals(key, testQueue.mPushed.get(0).getString(DineOnConstants.EVENT_ID));
+		assertEquals("lost", testQueue.mPushed.get(0).getString(DineOnConstants.OBJ_ID));
+		assertEquals(0, testQueue.size());
+	}
+
+	/**
+	 * @param id Object id to send
+	 * @return Attributes that send id
+	 */
+	private static Map<String, String> attributes(String id) {
+		Map<String, String> attr = new HashMap<String, String>();
+		attr.put(DineOnConstants.OBJ_ID, id);
+		return attr;
+	}
+
+	/**
+	 * Queue that records pushes and schedules instead of sending
+	 * and scheduling them and has a clock the tests set.
+	 */
+	private static class FakeQueue extends OperationQueue {
+
+		private final List<JSONObject> mPushed = new ArrayList<JSONObject>();
+		private final List<Long> mScheduled = new ArrayList<Long>();
+		private int mFailPushes;
+		private long mNow = 1000;
+
+		/**
+		 * @param log Log to keep the actions in
+		 */
+		public FakeQueue(OperationLog log) {
+			super(log);
+		}
+
+		@Override
+		protected long currentTime() {
+			return mNow;
+		}
+
+		@Override
+		protected void schedule(long delay) {
+			mScheduled.add(delay);
+		}
+
+		@Override
+		protected void runOnMainThread(Runnable task) {
+			task.run();
+		}
+
+		@Override
+		protected void push(JSONObject data, String channel) throws ParseException {
+			if (mFailPushes > 0) {
+				mFailPushes--;
+				throw new ParseException(ParseException.CONNECTION_FAILED, "Offline");
+			}
+			mPushed.add(data);
+		}
+	}
+
+	/**
+	 * Backend that saves the first object but then fails as if
+	 * the answer got lost on the way back.
+	 */
+	private static class LostAnswerBackend extends MemoryStorageBackend {
+
+		private boolean mLost;
+
+		/**
+		 * Creates a backend without latency.
+		 */
+		public LostAnswerBackend() {
+			super(0);
+		}
+
+		@Override
+		public void save(ParseObject object) throws ParseException {
+			super.save(object);
+			if (!mLost) {
+				mLost = true;
+				object.setObjectId(null);
+				throw new ParseException(ParseException.CONNECTION_FAILED, "Timed out");
+			}
+		}
+	}
+}